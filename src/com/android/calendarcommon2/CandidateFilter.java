@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+/**
+ * {@link PackedExpander#filter} for a whole array of packed candidates at a time.
+ * <p>
+ * Every BYxxx list of the rule is turned into a bit mask of the values it keeps when the
+ * filter is built, so checking a candidate is a few shifts and table lookups instead of a
+ * scan of each list.  The lists that count from the end (BYMONTHDAY, BYYEARDAY and BYWEEKNO)
+ * get one mask per possible length of the month, year or ISO year.  The masks are built by
+ * asking RecurrenceProcessor.listContains() about every value, so they keep exactly the
+ * candidates that the scalar filter keeps.  Candidates are usually generated a day at a time,
+ * so the date filters are only evaluated when the date changes.
+ */
+final class CandidateFilter {
+
+    private final EventRecurrence mRule;
+
+    // Bit v is set if the list keeps the value v.  The masks are -1 (or null) when the
+    // filter doesn't apply, as a list may also reject every value.
+    private final int mMonthMask;         // 0-based months
+    private final long[] mWeekNoMasks;    // by weeksInYear() - 52
+    private final long[][] mYearDayMasks; // by yearLength() - 365, 0-based days
+    private final int[] mMonthDayMasks;   // by monthLength() - 28
+    private final int mWeekDayMask;
+    private final long mHourMask;
+    private final long mMinuteMask;
+    private final long mSecondMask;
+    private final boolean mNeedsEpochDay;
+    private final boolean mSetPos;
+
+    // The date part of the last candidate, and the results of the date and BYSETPOS filters
+    // for it.
+    private long mLastDate = -1;
+    private int mLastDateResult;
+    private boolean mLastSetPos;
+
+    CandidateFilter(EventRecurrence r) {
+        mRule = r;
+        int freq = r.freq;
+        int monthMask = -1;
+        if (EventRecurrence.MONTHLY >= freq && r.bymonthCount > 0) {
+            monthMask = 0;
+            for (int month = 0; month < 12; month++) {
+                if (RecurrenceProcessor.listContains(r.bymonth, r.bymonthCount, month + 1)) {
+                    monthMask |= 1 << month;
+                }
+            }
+        }
+        mMonthMask = monthMask;
+
+        long[] weekNoMasks = null;
+        if (EventRecurrence.WEEKLY >= freq && r.byweeknoCount > 0) {
+            weekNoMasks = new long[2];
+            for (int weeks = 52; weeks <= 53; weeks++) {
+                for (int week = 1; week <= 53; week++) {
+                    if (RecurrenceProcessor.listContains(r.byweekno, r.byweeknoCount, week,
+                            weeks)) {
+                        weekNoMasks[weeks - 52] |= 1L << week;
+                    }
+                }
+            }
+        }
+        mWeekNoMasks = weekNoMasks;
+
+        long[][] yearDayMasks = null;
+        int[] monthDayMasks = null;
+        int weekDayMask = -1;
+        if (EventRecurrence.DAILY >= freq) {
+            if (r.byyeardayCount > 0) {
+                yearDayMasks = new long[2][6];
+                for (int length = 365; length <= 366; length++) {
+                    for (int yearDay = 0; yearDay < 366; yearDay++) {
+                        if (RecurrenceProcessor.listContains(r.byyearday, r.byyeardayCount,
+                                yearDay, length)) {
+                            yearDayMasks[length - 365][yearDay >> 6] |= 1L << yearDay;
+                        }
+                    }
+                }
+            }
+            if (r.bymonthdayCount > 0) {
+                monthDayMasks = new int[4];
+                for (int length = 28; length <= 31; length++) {
+                    for (int day = 1; day <= 31; day++) {
+                        if (RecurrenceProcessor.listContains(r.bymonthday, r.bymonthdayCount,
+                                day, length)) {
+                            monthDayMasks[length - 28] |= 1 << day;
+                        }
+                    }
+                }
+            }
+            if (r.bydayCount > 0) {
+                weekDayMask = 0;
+                for (int weekDay = 0; weekDay < 7; weekDay++) {
+                    int v = EventRecurrence.timeDay2Day(weekDay);
+                    for (int i = 0; i < r.bydayCount; i++) {
+                        if (r.byday[i] == v) {
+                            weekDayMask |= 1 << weekDay;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        mYearDayMasks = yearDayMasks;
+        mMonthDayMasks = monthDayMasks;
+        mWeekDayMask = weekDayMask;
+        mNeedsEpochDay = EventRecurrence.WEEKLY >= freq
+                && (weekNoMasks != null || yearDayMasks != null || weekDayMask != -1);
+
+        mHourMask = SubDailyExpander.fieldMask(EventRecurrence.HOURLY >= freq, r.byhour,
+                r.byhourCount, 23);
+        mMinuteMask = SubDailyExpander.fieldMask(EventRecurrence.MINUTELY >= freq,
+                r.byminute, r.byminuteCount, 59);
+        mSecondMask = SubDailyExpander.fieldMask(EventRecurrence.SECONDLY >= freq,
+                r.bysecond, r.bysecondCount, 59);
+
+        boolean setPos = false;
+        if (r.bysetposCount > 0 && freq == EventRecurrence.MONTHLY && r.bydayCount > 0) {
+            setPos = true;
+            for (int i = 0; i < r.bydayCount; i++) {
+                if (r.bydayNum[i] != 0) {
+                    setPos = false;
+                    break;
+                }
+            }
+        }
+        mSetPos = setPos;
+    }
+
+    /**
+     * Copies the candidates in in[0, count) that the rule keeps to the start of out, in order,
+     * and returns how many there are.  out may be in.
+     */
+    int filter(long[] in, int count, long[] out) {
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            long value = in[i];
+            if (reason(value) == 0) {
+                out[n++] = value;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns 0 if the candidate is kept, or the number of the rule that rejected it, like
+     * {@link PackedExpander#filter}.
+     */
+    int reason(long value) {
+        long date = value >>> 17;
+        if (date != mLastDate) {
+            mLastDate = date;
+            int year = PackedExpander.year(value);
+            int month = PackedExpander.month(value);
+            int day = PackedExpander.day(value);
+            mLastDateResult = filterDate(year, month, day);
+            mLastSetPos = !mSetPos || mLastDateResult != 0
+                    || PackedExpander.filterMonthlySetPos(mRule, year, month, day);
+        }
+        if (mLastDateResult != 0) {
+            return mLastDateResult;
+        }
+        if ((mHourMask & (1L << PackedExpander.hour(value))) == 0) {
+            return 6;
+        }
+        if ((mMinuteMask & (1L << PackedExpander.minute(value))) == 0) {
+            return 7;
+        }
+        if ((mSecondMask & (1L << PackedExpander.second(value))) == 0) {
+            return 8;
+        }
+        return mLastSetPos ? 0 : 9;
+    }
+
+    private int filterDate(int year, int month, int day) {
+        if ((mMonthMask & (1 << month)) == 0) {
+            return 1;
+        }
+        if (!mNeedsEpochDay && mMonthDayMasks == null) {
+            return 0;
+        }
+        long epochDay = 0;
+        int weekDay = 0;
+        int yearDay = 0;
+        if (mNeedsEpochDay) {
+            epochDay = PackedExpander.epochDay(year, month, day);
+            weekDay = PackedExpander.weekDay(epochDay);
+            yearDay = (int) (epochDay - PackedExpander.epochDay(year, 0, 1));
+        }
+        if (mWeekNoMasks != null) {
+            int weeks = PackedExpander.weeksInYear(year);
+            int week = PackedExpander.weekNumber(year, yearDay, weekDay);
+            if ((mWeekNoMasks[weeks - 52] & (1L << week)) == 0) {
+                return 2;
+            }
+        }
+        if (mYearDayMasks != null) {
+            long[] mask = mYearDayMasks[RecurrenceProcessor.yearLength(year) - 365];
+            if ((mask[yearDay >> 6] & (1L << yearDay)) == 0) {
+                return 3;
+            }
+        }
+        if (mMonthDayMasks != null) {
+            int mask = mMonthDayMasks[RecurrenceProcessor.monthLength(year, month) - 28];
+            if ((mask & (1 << day)) == 0) {
+                return 4;
+            }
+        }
+        if ((mWeekDayMask & (1 << weekDay)) == 0) {
+            return 5;
+        }
+        return 0;
+    }
+}
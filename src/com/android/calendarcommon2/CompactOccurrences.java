@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+/**
+ * Converts the compact occurrences of {@link RecurrenceProcessor#expandCompact} back to UTC
+ * milliseconds.
+ * <p>
+ * Timed occurrences are stored as minutes since the epoch, which an int holds for more than
+ * four thousand years either way.  All-day occurrences are stored as days since January 1,
+ * 1970 in the timezone of the event, as returned by {@link RecurrenceProcessor#expandDays}.
+ */
+public final class CompactOccurrences {
+
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+
+    private CompactOccurrences() {
+    }
+
+    /**
+     * Returns the minutes since the epoch of the given time.
+     *
+     * @throws DateException if millis is not on a whole minute or is out of range
+     */
+    public static int toMinutes(long millis) throws DateException {
+        long minutes = PackedExpander.floorDiv(millis, MILLIS_PER_MINUTE);
+        if (minutes * MILLIS_PER_MINUTE != millis) {
+            throw new DateException("not on a whole minute: " + millis);
+        }
+        if (minutes != (int) minutes) {
+            throw new DateException("out of range: " + millis);
+        }
+        return (int) minutes;
+    }
+
+    public static long minutesToMillis(int minutes) {
+        return minutes * MILLIS_PER_MINUTE;
+    }
+
+    /**
+     * Returns the UTC milliseconds of local midnight of the given epoch day in timezone.
+     */
+    public static long dayToMillis(int day, String timezone) {
+        long millis = day * PackedExpander.MILLIS_PER_DAY;
+        if (Time.TIMEZONE_UTC.equals(timezone)) {
+            return millis;
+        }
+        long value = PackedExpander.dayValue(day);
+        Time time = new Time(timezone);
+        time.set(0, 0, 0, PackedExpander.day(value), PackedExpander.month(value),
+                PackedExpander.year(value));
+        return time.toMillis();
+    }
+
+    /**
+     * Converts the result of {@link RecurrenceProcessor#expandMinutes} to UTC milliseconds.
+     */
+    public static long[] decodeMinutes(int[] minutes) {
+        long[] result = new long[minutes.length];
+        for (int i = 0; i < minutes.length; i++) {
+            result[i] = minutes[i] * MILLIS_PER_MINUTE;
+        }
+        return result;
+    }
+
+    /**
+     * Converts the result of {@link RecurrenceProcessor#expandDays} to the UTC milliseconds
+     * of midnight of each day in timezone.
+     */
+    public static long[] decodeDays(int[] days, String timezone) {
+        long[] result = new long[days.length];
+        for (int i = 0; i < days.length; i++) {
+            result[i] = dayToMillis(days[i], timezone);
+        }
+        return result;
+    }
+
+    /**
+     * Converts the result of {@link RecurrenceProcessor#expandCompact} for the given dtstart
+     * to UTC milliseconds.
+     */
+    public static long[] decode(int[] values, Time dtstart) {
+        if (dtstart.isAllDay()) {
+            return decodeDays(values, dtstart.getTimezone());
+        }
+        return decodeMinutes(values);
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import java.io.ByteArrayOutputStream;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable, compressed array of occurrences in increasing order, such as the result of
+ * {@link RecurrenceProcessor#expand(Time, RecurrenceSet, long, long)}.
+ * <p>
+ * The values are split into blocks of {@link #BLOCK_SIZE}.  Each block starts with its first
+ * value, as a zig-zag varint difference from the first value of the previous block, and the
+ * length of its body.  The body holds the differences between the rest of the values as
+ * (difference, repeat count) varint pairs, so a run of occurrences with a constant stride,
+ * like a daily or weekly series between daylight saving changes, takes a couple of bytes.
+ * <p>
+ * The encoded bytes, from {@link #toByteArray()}, are also the storage format.  When they are
+ * read back the first value and position of every block are kept as a sparse index, so a
+ * {@link Cursor} can seek to a time with a binary search and decode at most one block before
+ * reaching it.
+ */
+public final class CompressedOccurrences {
+
+    /** The number of values in each block. */
+    public static final int BLOCK_SIZE = 64;
+
+    private final byte[] mData;
+    private final int mSize;
+    // The first value of each block, and the offset of the body that follows its header.
+    private final long[] mBlockFirst;
+    private final int[] mBlockBody;
+
+    private CompressedOccurrences(byte[] data) {
+        int[] pos = {0};
+        int size = (int) readVarint(data, pos);
+        if (size < 0) {
+            throw new IllegalArgumentException("bad size: " + size);
+        }
+        int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        long[] blockFirst = new long[blocks];
+        int[] blockBody = new int[blocks];
+        long first = 0;
+        for (int b = 0; b < blocks; b++) {
+            first += unzigzag(readVarint(data, pos));
+            int length = (int) readVarint(data, pos);
+            blockFirst[b] = first;
+            blockBody[b] = pos[0];
+            pos[0] += length;
+            if (length < 0 || pos[0] > data.length) {
+                throw new IllegalArgumentException("truncated block " + b);
+            }
+        }
+        mData = data;
+        mSize = size;
+        mBlockFirst = blockFirst;
+        mBlockBody = blockBody;
+    }
+
+    /**
+     * Encodes the given values, which must be in increasing order.
+     *
+     * @throws IllegalArgumentException if the values are not in increasing order
+     */
+    public static CompressedOccurrences encode(long[] values) {
+        return encode(values, 0, values.length);
+    }
+
+    /**
+     * Encodes the values of an expansion that were appended to the buffer at the given
+     * offset, as with {@link RecurrenceProcessor#expand(Time, RecurrenceSet, long, long,
+     * OccurrenceBuffer)}.
+     */
+    public static CompressedOccurrences encode(OccurrenceBuffer buffer, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > buffer.size()) {
+            throw new ArrayIndexOutOfBoundsException("offset=" + offset + " length=" + length
+                    + " size=" + buffer.size());
+        }
+        return encode(buffer.array(), offset, offset + length);
+    }
+
+    private static CompressedOccurrences encode(long[] values, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            if (values[i - 1] >= values[i]) {
+                throw new IllegalArgumentException("not in increasing order at " + (i - from));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeVarint(out, to - from);
+        long previousFirst = 0;
+        for (int start = from; start < to; start += BLOCK_SIZE) {
+            int end = Math.min(start + BLOCK_SIZE, to);
+            body.reset();
+            int i = start + 1;
+            while (i < end) {
+                long delta = values[i] - values[i - 1];
+                int run = 1;
+                while (i + run < end && values[i + run] - values[i + run - 1] == delta) {
+                    run++;
+                }
+                writeVarint(body, delta);
+                writeVarint(body, run);
+                i += run;
+            }
+            writeVarint(out, zigzag(values[start] - previousFirst));
+            writeVarint(out, body.size());
+            byte[] bytes = body.toByteArray();
+            out.write(bytes, 0, bytes.length);
+            previousFirst = values[start];
+        }
+        return new CompressedOccurrences(out.toByteArray());
+    }
+
+    /**
+     * Reads values stored with {@link #toByteArray()}.
+     *
+     * @throws IllegalArgumentException if the bytes are not a valid encoding
+     */
+    public static CompressedOccurrences fromByteArray(byte[] data) {
+        try {
+            return new CompressedOccurrences(data.clone());
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("truncated data");
+        }
+    }
+
+    /**
+     * Returns a copy of the encoded bytes.
+     */
+    public byte[] toByteArray() {
+        return mData.clone();
+    }
+
+    /** Returns the number of values. */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns an estimate of the bytes held, for weighing cache entries.
+     */
+    public int byteSize() {
+        return mData.length + 12 * mBlockFirst.length;
+    }
+
+    /**
+     * Decodes all of the values.
+     */
+    public long[] toArray() {
+        long[] result = new long[mSize];
+        Cursor cursor = cursor();
+        for (int i = 0; i < result.length; i++) {
+            result[i] = cursor.next();
+        }
+        return result;
+    }
+
+    /**
+     * Decodes the values in [start, end).
+     */
+    public long[] toArray(long start, long end) {
+        OccurrenceBuffer result = new OccurrenceBuffer();
+        Cursor cursor = cursor();
+        cursor.seek(start);
+        while (cursor.hasNext()) {
+            long value = cursor.next();
+            if (value >= end) {
+                break;
+            }
+            result.add(value);
+        }
+        return result.toArray();
+    }
+
+    /**
+     * Returns a cursor positioned before the first value.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Decodes the values in order, one block at a time.
+     */
+    public final class Cursor {
+        // The index of the next value, the block that the last one was decoded in (or -1),
+        // and where the next pair of that block is.
+        private int mIndex;
+        private int mBlock = -1;
+        private final int[] mPos = {0};
+        private long mValue;
+        private long mDelta;
+        private long mRun;
+
+        private Cursor() {
+        }
+
+        public boolean hasNext() {
+            return mIndex < mSize;
+        }
+
+        /**
+         * Returns the next value.
+         *
+         * @throws NoSuchElementException if there are no more values
+         */
+        public long next() {
+            if (mIndex >= mSize) {
+                throw new NoSuchElementException();
+            }
+            if (mIndex % BLOCK_SIZE == 0) {
+                startBlock(mIndex / BLOCK_SIZE);
+            } else {
+                if (mRun == 0) {
+                    mDelta = readVarint(mData, mPos);
+                    mRun = readVarint(mData, mPos);
+                }
+                mValue += mDelta;
+                mRun--;
+            }
+            mIndex++;
+            return mValue;
+        }
+
+        /**
+         * Moves the cursor so that the next value is the first that is not less than the
+         * given value.
+         */
+        public void seek(long value) {
+            // The last block that starts at or before the value.
+            int lo = 0;
+            int hi = mBlockFirst.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (mBlockFirst[mid] <= value) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            int block = Math.max(lo - 1, 0);
+            // Carry on from the current value if it is in the block and before the target.
+            if (block != mBlock || mIndex <= block * BLOCK_SIZE || mValue >= value) {
+                mIndex = block * BLOCK_SIZE;
+                mBlock = -1;
+            }
+            int end = Math.min(mSize, (block + 1) * BLOCK_SIZE);
+            while (mIndex < end) {
+                if (mIndex % BLOCK_SIZE == 0) {
+                    if (mBlockFirst[block] >= value) {
+                        return;
+                    }
+                } else if (peek() >= value) {
+                    return;
+                }
+                next();
+            }
+        }
+
+        /** Returns the value after the current one, within the block. */
+        private long peek() {
+            if (mRun != 0) {
+                return mValue + mDelta;
+            }
+            int pos = mPos[0];
+            long delta = readVarint(mData, mPos);
+            mPos[0] = pos;
+            return mValue + delta;
+        }
+
+        private void startBlock(int block) {
+            mBlock = block;
+            mValue = mBlockFirst[block];
+            mPos[0] = mBlockBody[block];
+            mRun = 0;
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(byte[] data, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = data[pos[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+            shift += 7;
+            if (shift > 63) {
+                throw new IllegalArgumentException("bad varint at " + pos[0]);
+            }
+        }
+    }
+}
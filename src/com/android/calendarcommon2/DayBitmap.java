@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * A set of days with one bit per day, for the occurrences of all-day events.
+ * <p>
+ * Days are numbered from January 1, 1970, as returned by {@link RecurrenceProcessor#expandDays}.
+ * The bits are kept in words of 64 days from a first day that is a multiple of 64, so any two
+ * bitmaps line up word for word: adding RDATEs, removing EXDATEs and checking a range of days
+ * take one operation per 64 days.  A series that occurs daily over a few years takes a few
+ * hundred bytes instead of eight bytes per occurrence.
+ * <p>
+ * The bitmap grows to cover the days added to it, so it is meant for sets that span years
+ * rather than centuries.  This class is not thread-safe.
+ */
+public final class DayBitmap {
+
+    private static final int SHIFT = 6;
+    private static final int MASK = (1 << SHIFT) - 1;
+    private static final long[] NO_WORDS = new long[0];
+
+    // The day of bit 0 of mWords[0]; a multiple of 64.
+    private long mBaseDay;
+    private long[] mWords = NO_WORDS;
+
+    public DayBitmap() {
+    }
+
+    /**
+     * Returns a bitmap of the given days, which don't need to be sorted.
+     */
+    public static DayBitmap fromDays(int[] days) {
+        DayBitmap bitmap = new DayBitmap();
+        if (days.length > 0) {
+            int min = days[0];
+            int max = days[0];
+            for (int day : days) {
+                min = Math.min(min, day);
+                max = Math.max(max, day);
+            }
+            bitmap.ensureCovers(min, max);
+            for (int day : days) {
+                bitmap.setBit(day);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns a bitmap of the days on which the given times fall in timezone.
+     */
+    public static DayBitmap fromMillis(long[] millis, String timezone) {
+        TimeZone tz = TimeZone.getTimeZone(timezone);
+        int[] days = new int[millis.length];
+        for (int i = 0; i < millis.length; i++) {
+            days[i] = (int) PackedExpander.floorDiv(millis[i] + tz.getOffset(millis[i]),
+                    PackedExpander.MILLIS_PER_DAY);
+        }
+        return fromDays(days);
+    }
+
+    /**
+     * Adds the first count days of the given array, which don't need to be sorted.
+     */
+    void addDays(long[] days, int count) {
+        if (count == 0) {
+            return;
+        }
+        long min = days[0];
+        long max = days[0];
+        for (int i = 1; i < count; i++) {
+            min = Math.min(min, days[i]);
+            max = Math.max(max, days[i]);
+        }
+        ensureCovers(min, max);
+        for (int i = 0; i < count; i++) {
+            setBit(days[i]);
+        }
+    }
+
+    /**
+     * Removes the first count days of the given array, which don't need to be sorted.
+     */
+    void removeDays(long[] days, int count) {
+        for (int i = 0; i < count; i++) {
+            remove(days[i]);
+        }
+    }
+
+    public void add(long day) {
+        ensureCovers(day, day);
+        setBit(day);
+    }
+
+    public void remove(long day) {
+        long index = wordIndex(day);
+        if (index >= 0 && index < mWords.length) {
+            mWords[(int) index] &= ~(1L << (day & MASK));
+        }
+    }
+
+    public boolean contains(long day) {
+        return (wordAt(wordIndex(day)) & (1L << (day & MASK))) != 0;
+    }
+
+    /**
+     * Returns true if any day in [fromDay, toDay) is set.
+     */
+    public boolean containsAny(long fromDay, long toDay) {
+        return countRange(fromDay, toDay, true) != 0;
+    }
+
+    /**
+     * Returns the number of days in [fromDay, toDay) that are set.
+     */
+    public int count(long fromDay, long toDay) {
+        return countRange(fromDay, toDay, false);
+    }
+
+    /**
+     * Returns the number of days that are set.
+     */
+    public int size() {
+        int count = 0;
+        for (long word : mWords) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    public boolean isEmpty() {
+        for (long word : mWords) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the days of other to this bitmap.
+     */
+    public void or(DayBitmap other) {
+        long first = other.firstWord();
+        if (first < 0) {
+            return;
+        }
+        long last = other.lastWord();
+        long base = other.mBaseDay >> SHIFT;
+        ensureCovers((base + first) << SHIFT, (base + last) << SHIFT);
+        int shift = (int) (base - (mBaseDay >> SHIFT));
+        for (int i = (int) first; i <= last; i++) {
+            mWords[i + shift] |= other.mWords[i];
+        }
+    }
+
+    /**
+     * Keeps only the days that are also in other.
+     */
+    public void and(DayBitmap other) {
+        long shift = (mBaseDay - other.mBaseDay) >> SHIFT;
+        for (int i = 0; i < mWords.length; i++) {
+            mWords[i] &= other.wordAt(i + shift);
+        }
+    }
+
+    /**
+     * Removes the days of other from this bitmap.
+     */
+    public void andNot(DayBitmap other) {
+        long shift = (mBaseDay - other.mBaseDay) >> SHIFT;
+        for (int i = 0; i < mWords.length; i++) {
+            mWords[i] &= ~other.wordAt(i + shift);
+        }
+    }
+
+    /**
+     * Returns the days that are set, in increasing order.
+     */
+    public int[] toDays() {
+        int[] days = new int[size()];
+        int n = 0;
+        for (int i = 0; i < mWords.length; i++) {
+            long word = mWords[i];
+            while (word != 0) {
+                days[n++] = (int) (mBaseDay + ((long) i << SHIFT)
+                        + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return days;
+    }
+
+    /**
+     * Returns the UTC milliseconds of midnight of each day in timezone, in increasing order.
+     */
+    public long[] toMillis(String timezone) {
+        return CompactOccurrences.decodeDays(toDays(), timezone);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DayBitmap)) {
+            return false;
+        }
+        DayBitmap other = (DayBitmap) o;
+        long from = Math.min(mBaseDay, other.mBaseDay) >> SHIFT;
+        long to = Math.max(mBaseDay + ((long) mWords.length << SHIFT),
+                other.mBaseDay + ((long) other.mWords.length << SHIFT)) >> SHIFT;
+        for (long w = from; w < to; w++) {
+            if (wordAt(w - (mBaseDay >> SHIFT))
+                    != other.wordAt(w - (other.mBaseDay >> SHIFT))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        // Only the words that have days in them, so equal sets hash the same.
+        int hash = 0;
+        for (int i = 0; i < mWords.length; i++) {
+            long word = mWords[i];
+            if (word != 0) {
+                long index = (mBaseDay >> SHIFT) + i;
+                hash += (int) (index ^ (index >>> 32)) * 31 + (int) (word ^ (word >>> 32));
+            }
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toDays());
+    }
+
+    private void setBit(long day) {
+        mWords[(int) wordIndex(day)] |= 1L << (day & MASK);
+    }
+
+    private long wordIndex(long day) {
+        return (day - mBaseDay) >> SHIFT;
+    }
+
+    private long wordAt(long index) {
+        return index >= 0 && index < mWords.length ? mWords[(int) index] : 0;
+    }
+
+    private long firstWord() {
+        for (int i = 0; i < mWords.length; i++) {
+            if (mWords[i] != 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private long lastWord() {
+        for (int i = mWords.length - 1; i >= 0; i--) {
+            if (mWords[i] != 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int countRange(long fromDay, long toDay, boolean any) {
+        int count = 0;
+        long firstIndex = Math.max(wordIndex(fromDay), 0);
+        long lastIndex = Math.min(wordIndex(toDay - 1), mWords.length - 1);
+        for (long i = firstIndex; i <= lastIndex && fromDay < toDay; i++) {
+            long word = mWords[(int) i];
+            long wordStart = mBaseDay + (i << SHIFT);
+            if (fromDay > wordStart) {
+                word &= -1L << (fromDay - wordStart);
+            }
+            if (toDay - wordStart < 64) {
+                word &= (1L << (toDay - wordStart)) - 1;
+            }
+            count += Long.bitCount(word);
+            if (any && count != 0) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Grows the bitmap so that it covers the days from min to max.
+     */
+    private void ensureCovers(long min, long max) {
+        if (mWords.length == 0) {
+            mBaseDay = min & ~MASK;
+            mWords = new long[(int) (((max - mBaseDay) >> SHIFT) + 1)];
+            return;
+        }
+        long base = Math.min(mBaseDay, min & ~MASK);
+        long end = mBaseDay + ((long) mWords.length << SHIFT);
+        if (base == mBaseDay && max < end) {
+            return;
+        }
+        if (max >= end) {
+            // Leave room to keep adding days in increasing order.
+            end = Math.max((max & ~MASK) + 64, end + ((long) (mWords.length >> 1) << SHIFT));
+        }
+        long[] words = new long[(int) ((end - base) >> SHIFT)];
+        System.arraycopy(mWords, 0, words, (int) ((mBaseDay - base) >> SHIFT), mWords.length);
+        mBaseDay = base;
+        mWords = words;
+    }
+}
@@ -138,6 +138,23 @@ public class Duration
         cal.add(Calendar.SECOND, sign*seconds);
     }
 
+    /**
+     * Returns the nominal part of this duration (the weeks and days), in days,
+     * with the sign applied.  Nominal days are added in local time, so they
+     * keep the wall-clock time across daylight saving transitions.
+     */
+    public int getNominalDays() {
+        return sign * (7 * weeks + days);
+    }
+
+    /**
+     * Returns the exact part of this duration (the hours, minutes and seconds),
+     * in milliseconds, with the sign applied.
+     */
+    public long getExactMillis() {
+        return 1000L * sign * ((60 * 60 * hours) + (60 * minutes) + seconds);
+    }
+
     public long addTo(long dt) {
         return dt + getMillis();
     }
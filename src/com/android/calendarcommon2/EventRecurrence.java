@@ -73,6 +73,11 @@ public class EventRecurrence {
     public int[]     bysetpos;
     public int       bysetposCount;
 
+    /* whether any date passes the BYxxx parts; see PackedExpander.isUnsatisfiable() */
+    int              mSatisfiable;
+    /* the parts mSatisfiable was worked out from, which are never modified */
+    int[]            mSatisfiableParts;
+
     /** maps a part string to a parser object */
     private static HashMap<String,PartParser> sParsePartMap;
     static {
@@ -368,7 +373,7 @@ public class EventRecurrence {
 
         appendNumbers(s, ";BYSECOND=", this.bysecondCount, this.bysecond);
         appendNumbers(s, ";BYMINUTE=", this.byminuteCount, this.byminute);
-        appendNumbers(s, ";BYSECOND=", this.byhourCount, this.byhour);
+        appendNumbers(s, ";BYHOUR=", this.byhourCount, this.byhour);
 
         // day
         int count = this.bydayCount;
@@ -513,6 +518,45 @@ public class EventRecurrence {
         freq = count = interval = bysecondCount = byminuteCount = byhourCount =
             bydayCount = bymonthdayCount = byyeardayCount = byweeknoCount = bymonthCount =
             bysetposCount = 0;
+        mSatisfiable = PackedExpander.SATISFIABLE_UNKNOWN;
+        mSatisfiableParts = null;
+    }
+
+    /**
+     * Returns a copy of this rule that can have its UNTIL and COUNT changed.  The BYxxx
+     * arrays are shared with this rule, so neither may modify them, though either can be
+     * given new ones.
+     */
+    EventRecurrence copy() {
+        EventRecurrence er = new EventRecurrence();
+        er.startDate = startDate;
+        er.freq = freq;
+        er.until = until;
+        er.count = count;
+        er.interval = interval;
+        er.wkst = wkst;
+        er.bysecond = bysecond;
+        er.bysecondCount = bysecondCount;
+        er.byminute = byminute;
+        er.byminuteCount = byminuteCount;
+        er.byhour = byhour;
+        er.byhourCount = byhourCount;
+        er.byday = byday;
+        er.bydayNum = bydayNum;
+        er.bydayCount = bydayCount;
+        er.bymonthday = bymonthday;
+        er.bymonthdayCount = bymonthdayCount;
+        er.byyearday = byyearday;
+        er.byyeardayCount = byyeardayCount;
+        er.byweekno = byweekno;
+        er.byweeknoCount = byweeknoCount;
+        er.bymonth = bymonth;
+        er.bymonthCount = bymonthCount;
+        er.bysetpos = bysetpos;
+        er.bysetposCount = bysetposCount;
+        er.mSatisfiable = mSatisfiable;
+        er.mSatisfiableParts = mSatisfiableParts;
+        return er;
     }
 
     /**
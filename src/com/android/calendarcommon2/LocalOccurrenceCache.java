@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * A bounded cache of floating recurrences, whose occurrences have the same local date and time
+ * in whatever timezone they are shown.
+ * <p>
+ * The occurrences are expanded once as local date-time values (the packed form used by
+ * {@link RecurrenceProcessor}) and converted to UTC for the zone of each query in a single
+ * pass, so showing the same series in another zone, or after the device's zone changes,
+ * doesn't expand it again.  The local values are those of the recurrence expanded in UTC,
+ * where no local time is skipped or repeated: an occurrence in an hour that a zone skips is
+ * converted the way {@link Time} resolves it, and returned once if another occurrence is
+ * then at the same time, and HOURLY and shorter rules keep to the wall clock.  Since the
+ * cached values don't depend on any zone, nothing needs to be dropped when the timezone
+ * database changes.
+ * <p>
+ * Each recurrence keeps one local window, padded by a couple of days so that the same UTC
+ * range viewed from any zone falls inside it; a query outside of it replaces it, or widens it
+ * if the two overlap.  A recurrence whose occurrences depend on the range it is expanded over
+ * (see {@link RecurrenceProcessor#dependsOnRange}) keeps the local window of its query
+ * instead, and is only served for exactly that window.  As with
+ * {@link RecurrenceProcessor#expand(Time, RecurrenceSet, long, long)}, every RDATE is
+ * returned.
+ * <p>
+ * This class is thread-safe, but the {@link RecurrenceProcessor} passed to {@link #expand}
+ * is not, so each thread must supply its own.
+ */
+public class LocalOccurrenceCache {
+
+    // Covers the difference between any two zones.
+    private static final int PADDING_DAYS = 2;
+
+    // Rough per-object overhead used for the memory weight.
+    private static final int ENTRY_OVERHEAD = 128;
+
+    /** The expansion of one recurrence over [start, end), in local values. */
+    private static class Entry {
+        final long start;
+        final long end;
+        // RRULE occurrences without the EXDATEs.
+        final long[] rules;
+        // RDATEs without the EXDATEs.
+        final long[] rdates;
+        // EXRULE occurrences.
+        final long[] exrules;
+        // Whether the entry may only be served for exactly [start, end).
+        final boolean exact;
+        final long weight;
+
+        Entry(long start, long end, boolean exact, long[] rules, long[] rdates, long[] exrules,
+                int keyLength) {
+            this.start = start;
+            this.end = end;
+            this.exact = exact;
+            this.rules = rules;
+            this.rdates = rdates;
+            this.exrules = exrules;
+            this.weight = ENTRY_OVERHEAD + 2L * keyLength
+                    + 8L * (rules.length + rdates.length + exrules.length);
+        }
+    }
+
+    private final long mMaxWeight;
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true /* access order */);
+    private long mWeight;
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+
+    /**
+     * @param maxWeightBytes an upper bound on the estimated number of bytes held by the cache
+     */
+    public LocalOccurrenceCache(long maxWeightBytes) {
+        if (maxWeightBytes <= 0) {
+            throw new IllegalArgumentException("maxWeightBytes must be positive");
+        }
+        mMaxWeight = maxWeightBytes;
+    }
+
+    /**
+     * Returns the occurrences of a floating recurrence shown in the given timezone, in the
+     * same form as {@link RecurrenceProcessor#expand(Time, RecurrenceSet, long, long)}.
+     *
+     * @param processor the processor used on a cache miss
+     * @param dtstart a Time object representing the first occurrence; only its local date
+     * and time are used, not its timezone
+     * @param recur the recurrence rules, including RRULE, RDATES, EXRULE, and EXDATES.  The
+     * RDATEs and EXDATEs are taken at their local date and time in UTC.
+     * @param timezone the timezone to show the occurrences in
+     * @param rangeStartMillis the beginning of the range to expand, in UTC milliseconds
+     * @param rangeEndMillis the non-inclusive end of the range to expand, in UTC milliseconds;
+     * use -1 for the entire range.
+     * @return an array of dates, each date is in UTC milliseconds
+     * @throws DateException
+     */
+    public long[] expand(RecurrenceProcessor processor, Time dtstart, RecurrenceSet recur,
+            String timezone, long rangeStartMillis, long rangeEndMillis) throws DateException {
+        Time floating = new Time(Time.TIMEZONE_UTC);
+        floating.set(dtstart.getSecond(), dtstart.getMinute(), dtstart.getHour(),
+                dtstart.getDay(), dtstart.getMonth(), dtstart.getYear());
+        floating.setAllDay(dtstart.isAllDay());
+        String key = RecurrenceExpansionCache.buildKey(floating, recur);
+
+        Time local = new Time(timezone);
+        long rangeStartValue = localValue(local, rangeStartMillis);
+        long rangeEndValue = rangeEndMillis != -1 ? localValue(local, rangeEndMillis)
+                : Long.MAX_VALUE;
+
+        Entry entry;
+        Entry old;
+        synchronized (this) {
+            old = mEntries.get(key);
+            entry = old != null && covers(old, rangeStartValue, rangeEndValue) ? old : null;
+            if (entry != null) {
+                mHits++;
+            } else {
+                mMisses++;
+            }
+        }
+        if (entry == null) {
+            long start = rangeStartValue;
+            long end = rangeEndValue;
+            boolean exact = processor.dependsOnRange(floating, recur);
+            if (!exact) {
+                start = padded(rangeStartValue, -PADDING_DAYS);
+                end = rangeEndValue != Long.MAX_VALUE
+                        ? padded(rangeEndValue, PADDING_DAYS + 1) : Long.MAX_VALUE;
+                if (old != null && !old.exact && old.start <= end && start <= old.end) {
+                    start = Math.min(start, old.start);
+                    end = Math.max(end, old.end);
+                }
+            }
+            entry = expandLocal(processor, floating, recur, start, end, exact, key.length());
+            synchronized (this) {
+                Entry replaced = mEntries.put(key, entry);
+                if (replaced != null) {
+                    mWeight -= replaced.weight;
+                }
+                mWeight += entry.weight;
+                trimToSize();
+            }
+        }
+        return project(select(entry, rangeStartValue, rangeEndValue), TimeZone.getTimeZone(
+                timezone));
+    }
+
+    private static boolean covers(Entry entry, long start, long end) {
+        if (entry.exact) {
+            return entry.start == start && entry.end == end;
+        }
+        return entry.start <= start && end <= entry.end;
+    }
+
+    /**
+     * Drops every entry without resetting the counters.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+        mWeight = 0;
+    }
+
+    public synchronized RecurrenceExpansionCache.Stats getStats() {
+        return new RecurrenceExpansionCache.Stats(mHits, mMisses, mEvictions, mEntries.size(),
+                mWeight);
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+        while (mWeight > mMaxWeight && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            mWeight -= eldest.weight;
+            mEvictions++;
+        }
+    }
+
+    /**
+     * Expands the rules of the recurrence over [start, end) in UTC.
+     */
+    private static Entry expandLocal(RecurrenceProcessor processor, Time floating,
+            RecurrenceSet recur, long start, long end, boolean exact, int keyLength)
+            throws DateException {
+        OccurrenceBuffer exdates = localValues(recur.exdates);
+        OccurrenceBuffer rules = new OccurrenceBuffer();
+        if (recur.rrules != null) {
+            for (EventRecurrence rrule : recur.rrules) {
+                processor.expandInOrder(floating, rrule, start, end, true /* add */, rules);
+            }
+        }
+        rules.sortUnique();
+        rules.removeSorted(exdates);
+        OccurrenceBuffer rdates = localValues(recur.rdates);
+        rdates.removeSorted(exdates);
+        OccurrenceBuffer exrules = new OccurrenceBuffer();
+        if (recur.exrules != null) {
+            for (EventRecurrence exrule : recur.exrules) {
+                processor.expandInOrder(floating, exrule, start, end, false /* remove */,
+                        exrules);
+            }
+        }
+        exrules.sortUnique();
+        return new Entry(start, end, exact, rules.toArray(), rdates.toArray(), exrules.toArray(),
+                keyLength);
+    }
+
+    /**
+     * Returns the local values of the occurrences in [start, end): the rules' occurrences in
+     * the range and all RDATEs, without the EXRULE occurrences in the range.
+     */
+    private static OccurrenceBuffer select(Entry entry, long start, long end) {
+        OccurrenceBuffer values = new OccurrenceBuffer();
+        long[] rules = entry.rules;
+        int from = OccurrenceSet.lowerBound(rules, 0, rules.length, start);
+        for (int i = from; i < rules.length && rules[i] < end; i++) {
+            values.add(rules[i]);
+        }
+        for (long rdate : entry.rdates) {
+            values.add(rdate);
+        }
+        values.sortUnique();
+        OccurrenceBuffer exrules = new OccurrenceBuffer();
+        long[] ex = entry.exrules;
+        from = OccurrenceSet.lowerBound(ex, 0, ex.length, start);
+        for (int i = from; i < ex.length && ex[i] < end; i++) {
+            exrules.add(ex[i]);
+        }
+        values.removeSorted(exrules);
+        return values;
+    }
+
+    /**
+     * Converts local values to UTC milliseconds in the given timezone, in increasing order.
+     * Days with a constant offset are converted arithmetically, the others through Time, like
+     * {@link RecurrenceProcessor} does.  A time that the zone skips moves later, past or onto
+     * the times after it, so the result is sorted again and each time is returned once.
+     */
+    static long[] project(OccurrenceBuffer values, TimeZone tz) {
+        ZoneOffsetCache offsets = new ZoneOffsetCache();
+        offsets.setTimeZone(tz);
+        Time time = null;
+        long[] in = values.array();
+        boolean sorted = true;
+        for (int i = 0, n = values.size(); i < n; i++) {
+            long val = in[i];
+            int offset = offsets.offsetOfLocalDay(PackedExpander.epochDay(
+                    PackedExpander.year(val), PackedExpander.month(val),
+                    PackedExpander.day(val)));
+            if (offset != ZoneOffsetCache.NOT_CONSTANT) {
+                in[i] = PackedExpander.toMillis(val, offset);
+            } else {
+                if (time == null) {
+                    time = new Time(tz.getID());
+                }
+                time.set(PackedExpander.second(val), PackedExpander.minute(val),
+                        PackedExpander.hour(val), PackedExpander.day(val),
+                        PackedExpander.month(val), PackedExpander.year(val));
+                in[i] = time.toMillis();
+            }
+            sorted &= i == 0 || in[i] > in[i - 1];
+        }
+        if (!sorted) {
+            values.sortUnique();
+        }
+        return values.toArray();
+    }
+
+    private static OccurrenceBuffer localValues(long[] dates) {
+        OccurrenceBuffer values = new OccurrenceBuffer();
+        if (dates != null) {
+            Time utc = new Time(Time.TIMEZONE_UTC);
+            for (long date : dates) {
+                values.add(localValue(utc, date));
+            }
+        }
+        values.sortUnique();
+        return values;
+    }
+
+    private static long localValue(Time local, long millis) {
+        local.set(millis);
+        return PackedExpander.pack(local.getYear(), local.getMonth(), local.getDay(),
+                local.getHour(), local.getMinute(), local.getSecond());
+    }
+
+    /** Returns midnight of the day of value moved by the given number of days. */
+    private static long padded(long value, int days) {
+        return PackedExpander.dayValue(PackedExpander.epochDay(PackedExpander.year(value),
+                PackedExpander.month(value), PackedExpander.day(value)) + days);
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+/**
+ * A growable array of primitive longs that expansion results can be appended to.
+ * <p>
+ * The expansion methods that take an OccurrenceBuffer append to the end of it and return the
+ * number of values they added, so the results for many events can be written back to back into
+ * one buffer.  The offset of an event's results is the {@link #size()} of the buffer before the
+ * call.  Calling {@link #clear()} keeps the backing array, so a buffer that is reused across
+ * runs stops allocating once it has grown to the largest size needed.
+ */
+public class OccurrenceBuffer {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] mValues;
+    private int mSize;
+    // Space for sortUnique() to merge into, kept so that sorting again doesn't allocate.
+    private long[] mScratch;
+
+    public OccurrenceBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public OccurrenceBuffer(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("negative capacity: " + initialCapacity);
+        }
+        mValues = new long[initialCapacity];
+    }
+
+    /**
+     * Returns the number of values in the buffer.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the value at the given index.
+     */
+    public long get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        return mValues[index];
+    }
+
+    /**
+     * Returns the backing array.  Only the first {@link #size()} entries are valid, and the
+     * array is replaced when the buffer grows, so don't hold on to it across appends.
+     */
+    public long[] array() {
+        return mValues;
+    }
+
+    public void add(long value) {
+        if (mSize == mValues.length) {
+            grow(mSize + 1);
+        }
+        mValues[mSize++] = value;
+    }
+
+    /**
+     * Empties the buffer without releasing its storage.
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * Makes sure that at least minCapacity values fit without growing the backing array.
+     */
+    public void ensureCapacity(int minCapacity) {
+        if (minCapacity > mValues.length) {
+            grow(minCapacity);
+        }
+    }
+
+    /**
+     * Returns a copy of all values in the buffer.
+     */
+    public long[] toArray() {
+        return toArray(0, mSize);
+    }
+
+    /**
+     * Returns a copy of length values starting at offset.
+     */
+    public long[] toArray(int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > mSize) {
+            throw new ArrayIndexOutOfBoundsException("offset=" + offset + " length=" + length
+                    + " size=" + mSize);
+        }
+        long[] result = new long[length];
+        System.arraycopy(mValues, offset, result, 0, length);
+        return result;
+    }
+
+    /**
+     * Drops the values from index size on.
+     */
+    void truncate(int size) {
+        if (size < 0 || size > mSize) {
+            throw new ArrayIndexOutOfBoundsException("size=" + size + " current=" + mSize);
+        }
+        mSize = size;
+    }
+
+    /**
+     * Sorts the values in place and drops duplicates.
+     * <p>
+     * The values are usually the in-order expansions of a few rules and dates one after
+     * another, so the sorted runs they are made of are merged, which unlike Arrays.sort()
+     * doesn't allocate once the buffer has sorted as many values before.
+     */
+    void sortUnique() {
+        if (mSize < 2) {
+            return;
+        }
+        if (runEnd(mValues, 0, mSize) < mSize) {
+            mergeRuns();
+        }
+        int n = 1;
+        for (int i = 1; i < mSize; i++) {
+            if (mValues[i] != mValues[n - 1]) {
+                mValues[n++] = mValues[i];
+            }
+        }
+        mSize = n;
+    }
+
+    private void mergeRuns() {
+        int size = mSize;
+        if (mScratch == null || mScratch.length < size) {
+            mScratch = new long[mValues.length];
+        }
+        long[] values = mValues;
+        long[] scratch = mScratch;
+        int merged;
+        do {
+            // Merge each pair of runs into scratch, then copy the result back.
+            merged = 0;
+            int start = 0;
+            while (start < size) {
+                int mid = runEnd(values, start, size);
+                int end = mid < size ? runEnd(values, mid, size) : size;
+                merge(values, start, mid, end, scratch);
+                merged++;
+                start = end;
+            }
+            System.arraycopy(scratch, 0, values, 0, size);
+        } while (merged > 1);
+    }
+
+    /** Returns the end of the ascending run that starts at start. */
+    private static int runEnd(long[] values, int start, int size) {
+        int i = start + 1;
+        while (i < size && values[i - 1] <= values[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    /** Merges the sorted values[start, mid) and values[mid, end) into out[start, end). */
+    private static void merge(long[] values, int start, int mid, int end, long[] out) {
+        int i = start;
+        int j = mid;
+        for (int k = start; k < end; k++) {
+            if (j >= end || (i < mid && values[i] <= values[j])) {
+                out[k] = values[i++];
+            } else {
+                out[k] = values[j++];
+            }
+        }
+    }
+
+    /**
+     * Removes the values that are in other.  Both buffers must be sorted
+     * and free of duplicates, as left by {@link #sortUnique()}.
+     */
+    void removeSorted(OccurrenceBuffer other) {
+        if (other.mSize == 0) {
+            return;
+        }
+        mSize = OccurrenceSet.difference(mValues, 0, mSize, other.mValues, 0, other.mSize,
+                mValues, 0);
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = mValues.length + (mValues.length >> 1) + 1;
+        if (capacity < minCapacity) {
+            capacity = minCapacity;
+        }
+        long[] values = new long[capacity];
+        System.arraycopy(mValues, 0, values, 0, mSize);
+        mValues = values;
+    }
+}
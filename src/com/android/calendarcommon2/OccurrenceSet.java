@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable set of occurrences, held as a sorted array of primitive longs without
+ * duplicates, such as the result of {@link RecurrenceProcessor#expand(Time, RecurrenceSet,
+ * long, long)}.
+ * <p>
+ * Lookups are binary searches, {@link #subSet} returns a view that shares the array, and the
+ * set operations are single merges over both sets.  The static versions of the merges work on
+ * ranges of plain arrays and are what {@link OccurrenceBuffer} uses to subtract EXRULEs and
+ * EXDATEs during an expansion.
+ */
+public final class OccurrenceSet {
+
+    public static final OccurrenceSet EMPTY = new OccurrenceSet(new long[0], 0, 0);
+
+    private final long[] mValues;
+    private final int mFrom;
+    private final int mTo;
+
+    private OccurrenceSet(long[] values, int from, int to) {
+        mValues = values;
+        mFrom = from;
+        mTo = to;
+    }
+
+    /**
+     * Returns a set of the given values, which don't need to be sorted.  The values are
+     * copied.
+     */
+    public static OccurrenceSet of(long... values) {
+        if (values.length == 0) {
+            return EMPTY;
+        }
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int n = 1;
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] != sorted[n - 1]) {
+                sorted[n++] = sorted[i];
+            }
+        }
+        return new OccurrenceSet(sorted, 0, n);
+    }
+
+    /**
+     * Returns a set backed by the given array without copying it.  The values must be in
+     * increasing order, and the array must not be modified afterwards.
+     *
+     * @throws IllegalArgumentException if the values are not in increasing order
+     */
+    public static OccurrenceSet fromSorted(long[] values) {
+        for (int i = 1; i < values.length; i++) {
+            if (values[i - 1] >= values[i]) {
+                throw new IllegalArgumentException("not in increasing order at " + i);
+            }
+        }
+        return new OccurrenceSet(values, 0, values.length);
+    }
+
+    public int size() {
+        return mTo - mFrom;
+    }
+
+    public boolean isEmpty() {
+        return mTo == mFrom;
+    }
+
+    /**
+     * Returns the value at the given index.
+     */
+    public long get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        return mValues[mFrom + index];
+    }
+
+    public long first() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return mValues[mFrom];
+    }
+
+    public long last() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return mValues[mTo - 1];
+    }
+
+    public boolean contains(long value) {
+        int i = lowerBound(mValues, mFrom, mTo, value);
+        return i < mTo && mValues[i] == value;
+    }
+
+    /**
+     * Returns the index of the least value that is not less than the given value, or
+     * {@link #size()} if there is none.
+     */
+    public int ceilingIndex(long value) {
+        return lowerBound(mValues, mFrom, mTo, value) - mFrom;
+    }
+
+    /**
+     * Returns the index of the greatest value that is not greater than the given value, or -1
+     * if there is none.
+     */
+    public int floorIndex(long value) {
+        return upperBound(mValues, mFrom, mTo, value) - mFrom - 1;
+    }
+
+    /**
+     * Returns the least value that is not less than the given value.
+     *
+     * @throws NoSuchElementException if there is none
+     */
+    public long ceiling(long value) {
+        int i = ceilingIndex(value);
+        if (i == size()) {
+            throw new NoSuchElementException();
+        }
+        return mValues[mFrom + i];
+    }
+
+    /**
+     * Returns the greatest value that is not greater than the given value.
+     *
+     * @throws NoSuchElementException if there is none
+     */
+    public long floor(long value) {
+        int i = floorIndex(value);
+        if (i < 0) {
+            throw new NoSuchElementException();
+        }
+        return mValues[mFrom + i];
+    }
+
+    /**
+     * Returns a view of the values in [fromValue, toValue), which shares this set's array.
+     */
+    public OccurrenceSet subSet(long fromValue, long toValue) {
+        int from = lowerBound(mValues, mFrom, mTo, fromValue);
+        int to = Math.max(from, lowerBound(mValues, from, mTo, toValue));
+        if (from == mFrom && to == mTo) {
+            return this;
+        }
+        return new OccurrenceSet(mValues, from, to);
+    }
+
+    /**
+     * Returns the values in this set or the other.
+     */
+    public OccurrenceSet union(OccurrenceSet other) {
+        if (other.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return other;
+        }
+        long[] out = new long[size() + other.size()];
+        int n = union(mValues, mFrom, mTo, other.mValues, other.mFrom, other.mTo, out);
+        return new OccurrenceSet(out, 0, n);
+    }
+
+    /**
+     * Returns the values in both this set and the other.
+     */
+    public OccurrenceSet intersection(OccurrenceSet other) {
+        if (isEmpty() || other.isEmpty()) {
+            return EMPTY;
+        }
+        long[] out = new long[Math.min(size(), other.size())];
+        int n = intersection(mValues, mFrom, mTo, other.mValues, other.mFrom, other.mTo, out);
+        return new OccurrenceSet(out, 0, n);
+    }
+
+    /**
+     * Returns the values in this set that are not in the other.
+     */
+    public OccurrenceSet difference(OccurrenceSet other) {
+        if (isEmpty() || other.isEmpty()) {
+            return this;
+        }
+        long[] out = new long[size()];
+        int n = difference(mValues, mFrom, mTo, other.mValues, other.mFrom, other.mTo, out, 0);
+        return n == size() ? this : new OccurrenceSet(out, 0, n);
+    }
+
+    /**
+     * Returns a copy of the values.
+     */
+    public long[] toArray() {
+        return Arrays.copyOfRange(mValues, mFrom, mTo);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof OccurrenceSet)) {
+            return false;
+        }
+        OccurrenceSet other = (OccurrenceSet) o;
+        if (size() != other.size()) {
+            return false;
+        }
+        for (int i = mFrom, j = other.mFrom; i < mTo; i++, j++) {
+            if (mValues[i] != other.mValues[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = mFrom; i < mTo; i++) {
+            long v = mValues[i];
+            hash = 31 * hash + (int) (v ^ (v >>> 32));
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = mFrom; i < mTo; i++) {
+            if (i > mFrom) {
+                sb.append(", ");
+            }
+            sb.append(mValues[i]);
+        }
+        return sb.append(']').toString();
+    }
+
+    /** Returns the index in [from, to) of the first value that is not less than key, or to. */
+    static int lowerBound(long[] a, int from, int to, long key) {
+        int lo = from;
+        int hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (a[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Returns the index in [from, to) of the first value that is greater than key, or to. */
+    static int upperBound(long[] a, int from, int to, long key) {
+        int lo = from;
+        int hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (a[mid] <= key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Merges two sorted arrays without duplicates into a new one. */
+    static long[] union(long[] a, long[] b) {
+        long[] out = new long[a.length + b.length];
+        int n = union(a, 0, a.length, b, 0, b.length, out);
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    /**
+     * Merges two sorted arrays without duplicates, keeping one of the values that are in both.
+     *
+     * @return the number of values written to the start of out
+     */
+    static int union(long[] a, int aFrom, int aTo, long[] b, int bFrom, int bTo, long[] out) {
+        int i = aFrom;
+        int j = bFrom;
+        int n = 0;
+        while (i < aTo && j < bTo) {
+            long x = a[i];
+            long y = b[j];
+            if (x < y) {
+                out[n++] = x;
+                i++;
+            } else if (y < x) {
+                out[n++] = y;
+                j++;
+            } else {
+                out[n++] = x;
+                i++;
+                j++;
+            }
+        }
+        System.arraycopy(a, i, out, n, aTo - i);
+        n += aTo - i;
+        System.arraycopy(b, j, out, n, bTo - j);
+        return n + bTo - j;
+    }
+
+    /**
+     * Writes the values that are in both sorted arrays to the start of out.
+     *
+     * @return the number of values written
+     */
+    static int intersection(long[] a, int aFrom, int aTo, long[] b, int bFrom, int bTo,
+            long[] out) {
+        int i = aFrom;
+        int j = bFrom;
+        int n = 0;
+        while (i < aTo && j < bTo) {
+            long x = a[i];
+            long y = b[j];
+            if (x < y) {
+                i++;
+            } else if (y < x) {
+                j++;
+            } else {
+                out[n++] = x;
+                i++;
+                j++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Writes the values of sorted array a that are not in sorted array b to out, starting at
+     * outFrom.  Out may be a itself as long as outFrom is not after aFrom, which removes the
+     * values in place.
+     *
+     * @return the number of values written
+     */
+    static int difference(long[] a, int aFrom, int aTo, long[] b, int bFrom, int bTo,
+            long[] out, int outFrom) {
+        int n = outFrom;
+        int j = bFrom;
+        for (int i = aFrom; i < aTo; i++) {
+            long value = a[i];
+            if (j < bTo && b[j] < value) {
+                // Skip ahead by binary search, since the exclusions are usually sparse.
+                j = lowerBound(b, j + 1, bTo, value);
+            }
+            if (j < bTo && b[j] == value) {
+                continue;
+            }
+            out[n++] = value;
+        }
+        return n - outFrom;
+    }
+}
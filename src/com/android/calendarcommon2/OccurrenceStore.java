@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import java.util.HashMap;
+
+/**
+ * The occurrences of a number of events, keyed by event id.
+ * <p>
+ * Each event has a sorted array of UTC milliseconds without duplicates.  Expansions of
+ * different windows of an event are merged into it as they are added, so an event can be
+ * filled in a window at a time.  The arrays returned are never modified once stored (a merge
+ * replaces them), and must not be modified by the caller.
+ * <p>
+ * This class is thread-safe.
+ */
+public class OccurrenceStore {
+
+    private static final long[] EMPTY = new long[0];
+
+    private final HashMap<Long, long[]> mOccurrences = new HashMap<Long, long[]>();
+
+    /**
+     * Returns all stored occurrences of the event, in increasing order.
+     */
+    public synchronized long[] get(long eventId) {
+        long[] dates = mOccurrences.get(eventId);
+        return dates != null ? dates : EMPTY;
+    }
+
+    /**
+     * Returns the stored occurrences of the event in [startMillis, endMillis), in increasing
+     * order.
+     */
+    public long[] get(long eventId, long startMillis, long endMillis) {
+        long[] dates = get(eventId);
+        int from = OccurrenceSet.lowerBound(dates, 0, dates.length, startMillis);
+        int to = Math.max(from, OccurrenceSet.lowerBound(dates, from, dates.length, endMillis));
+        if (from == 0 && to == dates.length) {
+            return dates;
+        }
+        long[] result = new long[to - from];
+        System.arraycopy(dates, from, result, 0, result.length);
+        return result;
+    }
+
+    /** Returns true if anything has been stored for the event. */
+    public synchronized boolean contains(long eventId) {
+        return mOccurrences.containsKey(eventId);
+    }
+
+    /** Returns the number of events stored. */
+    public synchronized int size() {
+        return mOccurrences.size();
+    }
+
+    public synchronized void remove(long eventId) {
+        mOccurrences.remove(eventId);
+    }
+
+    public synchronized void clear() {
+        mOccurrences.clear();
+    }
+
+    /**
+     * Adds the sorted dates to the occurrences of the event.  Dates that are already stored,
+     * such as the RDATEs that every expansion returns, are kept once.
+     */
+    public synchronized void merge(long eventId, long[] dates) {
+        long[] stored = mOccurrences.get(eventId);
+        mOccurrences.put(eventId, stored != null
+                ? OccurrenceSet.union(stored, dates) : dates);
+    }
+}
@@ -0,0 +1,1425 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import android.util.Log;
+
+import java.util.TimeZone;
+
+/**
+ * Runs the recurrence algorithm of {@link RecurrenceProcessor} on plain integers.
+ * <p>
+ * Date-time values are kept in the packed form produced by
+ * RecurrenceProcessor.normDateTimeComparisonValue() and all calendar arithmetic is done on epoch
+ * days, so no {@link Time} (and no Calendar) is touched per candidate.  This is only equivalent
+ * to the Time based loop when local time is a constant offset from UTC over the whole
+ * expansion: with no daylight saving transitions there are no skipped or repeated wall-clock
+ * times, so adding days, hours or minutes to a local value is plain arithmetic.
+ * <p>
+ * The generation order, the handling of dtstart, COUNT, UNTIL and the range, the BYxxx
+ * expansion and filtering rules and the iteration failsafe are all kept identical to
+ * RecurrenceProcessor.expand(Time, EventRecurrence, ...).
+ */
+final class PackedExpander {
+
+    private static final String TAG = "RecurrenceProcessor";
+
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+    private static final long MILLIS_PER_SECOND = 1000;
+    static final long MILLIS_PER_DAY = SECONDS_PER_DAY * MILLIS_PER_SECOND;
+
+    // Zones we treat as fixed without looking at any offsets.
+    private static final String[] FIXED_ZONE_IDS = {
+        "UTC", "GMT", "UCT", "Universal", "Zulu", "Greenwich"
+    };
+
+    // Offsets are sampled this often when checking a zone without daylight saving time for
+    // historical offset changes, and we give up on windows that need more samples than this.
+    // Past daylight saving periods all lasted for months, so none fit between two samples.
+    private static final long OFFSET_SAMPLE_MILLIS = 28 * MILLIS_PER_DAY;
+    private static final int MAX_OFFSET_SAMPLES = 1000;
+
+    // The proleptic Gregorian arithmetic here only matches GregorianCalendar after the cutover.
+    static final int MIN_YEAR = 1600;
+
+    // The epoch days of January 1st of the years from MIN_YEAR to TABLE_END_YEAR, so that
+    // dates in between convert with lookups instead of the era arithmetic.  The length of a
+    // year is the difference of two entries.
+    private static final int TABLE_END_YEAR = 2600;
+    private static final int[] YEAR_START_DAYS = new int[TABLE_END_YEAR - MIN_YEAR + 1];
+
+    private static final int[] DAYS_BEFORE_MONTH = {
+        0, 31, 59, 90, 120, 151, 181, 212, 243, 273, 304, 334
+    };
+
+    // The 0-based month of each 0-based day of a common year.
+    private static final byte[] MONTH_OF_YEAR_DAY = new byte[365];
+
+    static {
+        for (int i = 0; i < YEAR_START_DAYS.length; i++) {
+            YEAR_START_DAYS[i] = (int) eraEpochDay(MIN_YEAR + i, 0, 1);
+        }
+        int month = 0;
+        for (int yearDay = 0; yearDay < MONTH_OF_YEAR_DAY.length; yearDay++) {
+            if (month < 11 && yearDay == DAYS_BEFORE_MONTH[month + 1]) {
+                month++;
+            }
+            MONTH_OF_YEAR_DAY[yearDay] = (byte) month;
+        }
+    }
+
+    // Every combination of leap year and day of the week of January 1st occurs in these years,
+    // so a filter that rejects every date in them rejects every date.
+    private static final int CYCLE_START_YEAR = 2000;
+    private static final int CYCLE_YEARS = 28;
+
+    // A period's candidates are filtered once this many have been generated, so that rules
+    // with large BYxxx grids don't buffer them all.
+    private static final int MAX_CANDIDATES = 1024;
+
+    // How many rules to keep the CandidateFilter of.
+    private static final int FILTER_CACHE_SIZE = 4;
+
+    // Values of EventRecurrence.mSatisfiable.
+    static final int SATISFIABLE_UNKNOWN = 0;
+    static final int SATISFIABLE = 1;
+    static final int UNSATISFIABLE = 2;
+
+    // Scratch output of civil(), to avoid allocating.
+    private int mYear;
+    private int mMonth;
+    private int mDay;
+
+    // The packed equivalent of RecurrenceProcessor.DaySet.
+    private int mDaySetYear;
+    private int mDaySetMonth;
+    private int mDaySetDays;
+
+    // The candidates generated in the current period that haven't been filtered yet, and the
+    // number of occurrences counted so far by expand().
+    private final OccurrenceBuffer mCandidates = new OccurrenceBuffer();
+    private int mCount;
+
+    // The filters of the last rules expanded, with the rules and the parts they were built
+    // from, so that expanding a rule again doesn't build its masks again.  They aren't kept
+    // in the rules, as a filter remembers its last candidate and a rule may be shared by the
+    // processors of several threads.
+    private final CandidateFilter[] mFilters = new CandidateFilter[FILTER_CACHE_SIZE];
+    private final EventRecurrence[] mFilterRules = new EventRecurrence[FILTER_CACHE_SIZE];
+    private final int[][] mFilterParts = new int[FILTER_CACHE_SIZE][];
+    private int mNextFilter;
+
+    private RecurrenceMetrics mMetrics;
+
+    void setMetrics(RecurrenceMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    // -----------------------------------------------------------------------------------------
+    // Packed values and epoch-day arithmetic.
+    // -----------------------------------------------------------------------------------------
+
+    /**
+     * Packs normalized fields the same way as RecurrenceProcessor.normDateTimeComparisonValue().
+     */
+    static long pack(int year, int month, int day, int hour, int minute, int second) {
+        return ((long) year << 26) + (month << 22) + (day << 17) + (hour << 12)
+                + (minute << 6) + second;
+    }
+
+    static int year(long value) {
+        return (int) (value >> 26);
+    }
+
+    static int month(long value) {
+        return (int) (value >> 22) & 0xf;
+    }
+
+    static int day(long value) {
+        return (int) (value >> 17) & 0x1f;
+    }
+
+    static int hour(long value) {
+        return (int) (value >> 12) & 0x1f;
+    }
+
+    static int minute(long value) {
+        return (int) (value >> 6) & 0x3f;
+    }
+
+    static int second(long value) {
+        return (int) (value & 0x3f);
+    }
+
+    static long floorDiv(long a, long b) {
+        long q = a / b;
+        return (a % b != 0 && ((a < 0) != (b < 0))) ? q - 1 : q;
+    }
+
+    static long floorMod(long a, long b) {
+        return a - floorDiv(a, b) * b;
+    }
+
+    /**
+     * Returns the number of days since 1970-01-01 of the given proleptic Gregorian date.  The
+     * day may be outside of the month; the result is then offset by the same number of days.
+     *
+     * @param month the 0-based month in the range [0,11]
+     */
+    static long epochDay(int year, int month, int day) {
+        int i = year - MIN_YEAR;
+        if (i >= 0 && i < YEAR_START_DAYS.length - 1) {
+            int start = YEAR_START_DAYS[i];
+            long epochDay = (long) start + DAYS_BEFORE_MONTH[month] + day - 1;
+            if (month >= 2 && YEAR_START_DAYS[i + 1] - start == 366) {
+                epochDay++;
+            }
+            return epochDay;
+        }
+        return eraEpochDay(year, month, day);
+    }
+
+    /**
+     * Computes {@link #epochDay} for any year from the position in the 400-year era.
+     */
+    private static long eraEpochDay(int year, int month, int day) {
+        int y = month <= 1 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = (int) (y - era * 400);
+        int shiftedMonth = month <= 1 ? month + 10 : month - 2;  // March == 0
+        int dayOfYear = (153 * shiftedMonth + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Sets mYear, mMonth (0-based) and mDay from a number of days since 1970-01-01.
+     */
+    private void civil(long epochDay) {
+        long value = dayValue(epochDay);
+        mYear = year(value);
+        mMonth = month(value);
+        mDay = day(value);
+    }
+
+    /**
+     * Returns the packed value of midnight of a number of days since 1970-01-01.
+     */
+    static long dayValue(long epochDay) {
+        if (epochDay >= YEAR_START_DAYS[0]
+                && epochDay < YEAR_START_DAYS[YEAR_START_DAYS.length - 1]) {
+            // The average year length puts the estimate within a year of the right one.
+            int i = (int) (epochDay - YEAR_START_DAYS[0]) * 400 / 146097;
+            if (YEAR_START_DAYS[i] > epochDay) {
+                i--;
+            } else if (YEAR_START_DAYS[i + 1] <= epochDay) {
+                i++;
+            }
+            int yearDay = (int) (epochDay - YEAR_START_DAYS[i]);
+            if (yearDay >= 59 && YEAR_START_DAYS[i + 1] - YEAR_START_DAYS[i] == 366) {
+                if (yearDay == 59) {
+                    return pack(MIN_YEAR + i, 1, 29, 0, 0, 0);
+                }
+                yearDay--;
+            }
+            int month = MONTH_OF_YEAR_DAY[yearDay];
+            return pack(MIN_YEAR + i, month, yearDay - DAYS_BEFORE_MONTH[month] + 1, 0, 0, 0);
+        }
+
+        long z = epochDay + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 2 : shiftedMonth - 10;
+        int year = (int) (yearOfEra + era * 400) + (month <= 1 ? 1 : 0);
+        return pack(year, month, day, 0, 0, 0);
+    }
+
+    /** Returns the weekday of an epoch day, where Sunday is 0. */
+    static int weekDay(long epochDay) {
+        return (int) floorMod(epochDay + 4, 7);
+    }
+
+    /**
+     * Normalizes possibly out of range fields, the way a lenient Calendar in a zone without
+     * transitions does, and returns the packed value.
+     */
+    long normalize(int year, int month, int day, int hour, int minute, int second) {
+        year += (int) floorDiv(month, 12);
+        month = (int) floorMod(month, 12);
+        long seconds = (long) hour * 3600 + minute * 60 + second;
+        long epochDay = epochDay(year, month, 1) + day - 1 + floorDiv(seconds, SECONDS_PER_DAY);
+        int secondOfDay = (int) floorMod(seconds, SECONDS_PER_DAY);
+        civil(epochDay);
+        return pack(mYear, mMonth, mDay, secondOfDay / 3600, secondOfDay / 60 % 60,
+                secondOfDay % 60);
+    }
+
+    /**
+     * Returns the packed local value of a UTC time, truncated to the second.
+     */
+    long toLocalValue(long millis, int offsetMillis) {
+        long seconds = floorDiv(millis + offsetMillis, MILLIS_PER_SECOND);
+        long epochDay = floorDiv(seconds, SECONDS_PER_DAY);
+        int secondOfDay = (int) floorMod(seconds, SECONDS_PER_DAY);
+        civil(epochDay);
+        return pack(mYear, mMonth, mDay, secondOfDay / 3600, secondOfDay / 60 % 60,
+                secondOfDay % 60);
+    }
+
+    /**
+     * Returns the local epoch day of the first midnight that is not before the given UTC
+     * time truncated to the second.  A date at midnight is at or after the time exactly if
+     * its epoch day is at or after this day.
+     */
+    static long firstDayAtOrAfter(long millis, int offsetMillis) {
+        long seconds = floorDiv(millis + offsetMillis, MILLIS_PER_SECOND);
+        return -floorDiv(-seconds, SECONDS_PER_DAY);
+    }
+
+    /**
+     * Returns the UTC time of a normalized packed local value.
+     */
+    static long toMillis(long value, int offsetMillis) {
+        long seconds = epochDay(year(value), month(value), day(value)) * SECONDS_PER_DAY
+                + hour(value) * 3600 + minute(value) * 60 + second(value);
+        return seconds * MILLIS_PER_SECOND - offsetMillis;
+    }
+
+    /**
+     * Returns the packed value that is the given number of days after a normalized packed
+     * value, keeping the time of day.
+     */
+    long addDays(long value, int days) {
+        civil(epochDay(year(value), month(value), day(value)) + days);
+        return pack(mYear, mMonth, mDay, hour(value), minute(value), second(value));
+    }
+
+    // -----------------------------------------------------------------------------------------
+    // Zone checks.
+    // -----------------------------------------------------------------------------------------
+
+    /**
+     * Returns true if the zone is UTC or a fixed "Etc/GMT+n" style offset.
+     */
+    static boolean isFixedOffsetZone(TimeZone tz) {
+        String id = tz.getID();
+        // The ID is looked at from past any "Etc/", without taking a substring of it.
+        int start = id.startsWith("Etc/") ? 4 : 0;
+        int length = id.length() - start;
+        for (String fixed : FIXED_ZONE_IDS) {
+            if (length == fixed.length() && id.startsWith(fixed, start)) {
+                return true;
+            }
+        }
+        return id.startsWith("GMT+", start) || id.startsWith("GMT-", start);
+    }
+
+    /**
+     * Returns true if the zone's offset is its raw offset at every time between start and end,
+     * inclusive.  Zones that currently observe daylight saving time are rejected outright; for
+     * the others the offset is sampled, which catches historical changes of the standard
+     * offset.  end may be -1 for an unbounded range, which only fixed offset zones satisfy.
+     */
+    static boolean hasConstantOffset(TimeZone tz, long start, long end) {
+        if (isFixedOffsetZone(tz)) {
+            return true;
+        }
+        if (end == -1 || tz.useDaylightTime() || end < start) {
+            return false;
+        }
+        if ((end - start) / OFFSET_SAMPLE_MILLIS > MAX_OFFSET_SAMPLES) {
+            return false;
+        }
+        int raw = tz.getRawOffset();
+        for (long t = start; t < end; t += OFFSET_SAMPLE_MILLIS) {
+            if (tz.getOffset(t) != raw) {
+                return false;
+            }
+        }
+        return tz.getOffset(end) == raw;
+    }
+
+    // -----------------------------------------------------------------------------------------
+    // Expansion.
+    // -----------------------------------------------------------------------------------------
+
+    /**
+     * Runs the recurrence algorithm for one rule, appending the generated packed values to out
+     * in the order they are generated.
+     *
+     * @param dtstartValue the packed, normalized dtstart
+     * @param r the rule
+     * @param untilValue the packed UNTIL in the local zone, or Long.MAX_VALUE
+     * @param rangeStartValue the first packed date-time you care about, inclusive
+     * @param rangeEndValue the packed date-time to stop at, not inclusive
+     * @param add whether the values are added to the result (RRULE) or removed (EXRULE)
+     * @param out the buffer to append to
+     */
+    void expand(long dtstartValue, EventRecurrence r, long untilValue, long rangeStartValue,
+            long rangeEndValue, boolean add, OccurrenceBuffer out) throws DateException {
+        mCount = 0;
+        mCandidates.clear();
+        boolean dtstartAdded = add && dtstartValue >= rangeStartValue
+                && dtstartValue < rangeEndValue;
+        if (dtstartAdded) {
+            out.add(dtstartValue);
+            ++mCount;
+        }
+
+        mDaySetYear = 0;
+        mDaySetMonth = -1;
+        if (rangeEndValue == Long.MAX_VALUE && r.until == null && r.count == 0) {
+            Log.w(TAG, "DateException with r=" + r + " rangeStart=" + rangeStartValue
+                    + " rangeEnd=" + rangeEndValue);
+            throw new DateException(
+                    "No range end provided for a recurrence that has no UNTIL or COUNT.");
+        }
+
+        int freq = r.freq;
+        int freqAmount = r.interval;
+        if (freq < EventRecurrence.SECONDLY || freq > EventRecurrence.YEARLY) {
+            throw new DateException("bad freq=" + freq);
+        }
+        if (untilValue < dtstartValue || isUnsatisfiable(r)) {
+            // Nothing but dtstart.
+            return;
+        }
+        if (freq == EventRecurrence.WEEKLY) {
+            freqAmount = 7 * r.interval;
+            if (freqAmount <= 0) {
+                freqAmount = 7;
+            }
+        }
+        if (freqAmount <= 0) {
+            freqAmount = 1;
+        }
+
+        int bymonthCount = r.bymonthCount;
+        boolean usebymonth = freq > EventRecurrence.MONTHLY && bymonthCount > 0;
+        boolean useDays = freq >= EventRecurrence.WEEKLY
+                && (r.bydayCount > 0 || r.bymonthdayCount > 0);
+        int byhourCount = r.byhourCount;
+        boolean usebyhour = freq > EventRecurrence.HOURLY && byhourCount > 0;
+        int byminuteCount = r.byminuteCount;
+        boolean usebyminute = freq > EventRecurrence.MINUTELY && byminuteCount > 0;
+        int bysecondCount = r.bysecondCount;
+        boolean usebysecond = freq > EventRecurrence.SECONDLY && bysecondCount > 0;
+        int wkst = EventRecurrence.day2TimeDay(r.wkst);
+
+        // The iterator is kept as separate fields; it is always normalized.
+        int itYear = year(dtstartValue);
+        int itMonth = month(dtstartValue);
+        int itDay = day(dtstartValue);
+        int itHour = hour(dtstartValue);
+        int itMinute = minute(dtstartValue);
+        int itSecond = second(dtstartValue);
+        if (freq == EventRecurrence.MONTHLY && useDays) {
+            // See RecurrenceProcessor: generate days from the first of the month.
+            itDay = 1;
+        }
+
+        RecurrenceMetrics metrics = mMetrics;
+        CandidateFilter filter = filterFor(r);
+        int failsafe = 0;
+        if (freq >= EventRecurrence.MONTHLY && untilValue >= rangeStartValue
+                && rangeEndValue > rangeStartValue) {
+            // Jump to the first period that can reach the range.
+            int months = freq == EventRecurrence.MONTHLY ? freqAmount : 12 * freqAmount;
+            long steps = stepsBeforeRange(r, months, itYear, itMonth, itDay, rangeStartValue);
+            if (steps > 0) {
+                failsafe = countIterations(itYear, itMonth, itDay, months, steps,
+                        RecurrenceProcessor.MAX_ALLOWED_ITERATIONS + 1);
+                long total = itYear * 12L + itMonth + months * steps;
+                itYear = (int) floorDiv(total, 12);
+                itMonth = (int) floorMod(total, 12);
+            }
+        }
+        events:
+        while (true) {
+            int monthIndex = 0;
+            if (failsafe++ > RecurrenceProcessor.MAX_ALLOWED_ITERATIONS) {
+                Log.w(TAG, "Recurrence processing stuck with r=" + r + " rangeStart="
+                        + rangeStartValue + " rangeEnd=" + rangeEndValue);
+                if (metrics != null) {
+                    metrics.mTruncations++;
+                }
+                break;
+            }
+            if (metrics != null) {
+                metrics.mIterations++;
+            }
+
+            long itEpochDay = epochDay(itYear, itMonth, itDay);
+
+            // Stop as soon as no candidate can be inside of UNTIL and the range, rather than
+            // when the first one that passes the filters is outside of them.
+            long startDay = periodStartDay(r, useDays, itYear, itMonth, itDay);
+            long periodStart = dayValue(startDay);
+            if (periodStart > untilValue || periodStart >= rangeEndValue) {
+                break;
+            }
+            boolean skipPeriod = isPeriodFiltered(r, startDay);
+
+            // Tracks the month of RecurrenceProcessor's "generated" Time, which decides how
+            // many days of the month are examined.
+            int genYear = itYear;
+            int genMonth = itMonth;
+
+            do { // month
+                if (skipPeriod) {
+                    break;
+                }
+                int month = usebymonth ? r.bymonth[monthIndex] - 1 : itMonth;
+
+                int dayIndex = 1;
+                int lastDayToExamine = 0;
+                if (useDays) {
+                    if (freq == EventRecurrence.WEEKLY) {
+                        int weekStartAdj = (weekDay(itEpochDay) - wkst + 7) % 7;
+                        dayIndex = itDay - weekStartAdj;
+                        lastDayToExamine = dayIndex + 6;
+                    } else {
+                        lastDayToExamine = RecurrenceProcessor.monthLength(genYear, genMonth);
+                    }
+                }
+
+                do { // day
+                    int day;
+                    if (useDays) {
+                        if (!daySetGet(r, itYear, itMonth, dayIndex)) {
+                            dayIndex++;
+                            continue;
+                        }
+                        day = dayIndex;
+                    } else {
+                        day = itDay;
+                    }
+
+                    int hourIndex = 0;
+                    do {
+                        int hour = usebyhour ? r.byhour[hourIndex] : itHour;
+                        int minuteIndex = 0;
+                        do {
+                            int minute = usebyminute ? r.byminute[minuteIndex] : itMinute;
+                            int secondIndex = 0;
+                            do {
+                                int second = usebysecond ? r.bysecond[secondIndex] : itSecond;
+
+                                long genValue = normalize(itYear, month, day, hour, minute,
+                                        second);
+                                genYear = mYear;
+                                genMonth = mMonth;
+                                mCandidates.add(genValue);
+                                if (mCandidates.size() == MAX_CANDIDATES
+                                        && addCandidates(r, filter, dtstartValue, dtstartAdded,
+                                                untilValue, rangeStartValue, rangeEndValue,
+                                                out)) {
+                                    break events;
+                                }
+                                secondIndex++;
+                            } while (usebysecond && secondIndex < bysecondCount);
+                            minuteIndex++;
+                        } while (usebyminute && minuteIndex < byminuteCount);
+                        hourIndex++;
+                    } while (usebyhour && hourIndex < byhourCount);
+                    dayIndex++;
+                } while (useDays && dayIndex <= lastDayToExamine);
+                monthIndex++;
+            } while (usebymonth && monthIndex < bymonthCount);
+            if (addCandidates(r, filter, dtstartValue, dtstartAdded, untilValue,
+                    rangeStartValue, rangeEndValue, out)) {
+                break;
+            }
+
+            // Advance the iterator by freqAmount units of the frequency.  Like Calendar.add(),
+            // adding months or years pins the day to the end of a shorter month; those
+            // periods are skipped by trying the next multiple instead.
+            switch (freq) {
+                case EventRecurrence.SECONDLY:
+                case EventRecurrence.MINUTELY:
+                case EventRecurrence.HOURLY:
+                case EventRecurrence.DAILY:
+                case EventRecurrence.WEEKLY: {
+                    long value;
+                    if (freq == EventRecurrence.SECONDLY) {
+                        value = normalize(itYear, itMonth, itDay, itHour, itMinute,
+                                itSecond + freqAmount);
+                    } else if (freq == EventRecurrence.MINUTELY) {
+                        value = normalize(itYear, itMonth, itDay, itHour,
+                                itMinute + freqAmount, itSecond);
+                    } else if (freq == EventRecurrence.HOURLY) {
+                        value = normalize(itYear, itMonth, itDay, itHour + freqAmount,
+                                itMinute, itSecond);
+                    } else {
+                        value = normalize(itYear, itMonth, itDay + freqAmount, itHour,
+                                itMinute, itSecond);
+                    }
+                    itYear = year(value);
+                    itMonth = month(value);
+                    itDay = day(value);
+                    itHour = hour(value);
+                    itMinute = minute(value);
+                    itSecond = second(value);
+                    break;
+                }
+                default: {
+                    int months = freq == EventRecurrence.MONTHLY ? freqAmount : 12 * freqAmount;
+                    int n = 1;
+                    while (true) {
+                        int total = itMonth + months * n;
+                        int year = itYear + (int) floorDiv(total, 12);
+                        int month = (int) floorMod(total, 12);
+                        if (itDay <= RecurrenceProcessor.monthLength(year, month)) {
+                            itYear = year;
+                            itMonth = month;
+                            break;
+                        }
+                        n++;
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Filters the candidates generated so far and handles the ones that pass in the order they
+     * were generated: counts them, and adds the ones in the range to out.  Without metrics the
+     * candidates are filtered as a batch first.  Returns true when the expansion is done
+     * because a candidate is past UNTIL or the range, or COUNT has been reached.
+     */
+    private boolean addCandidates(EventRecurrence r, CandidateFilter filter, long dtstartValue,
+            boolean dtstartAdded, long untilValue, long rangeStartValue, long rangeEndValue,
+            OccurrenceBuffer out) {
+        long[] candidates = mCandidates.array();
+        int n = mCandidates.size();
+        mCandidates.clear();
+        RecurrenceMetrics metrics = mMetrics;
+        if (metrics == null) {
+            n = filter.filter(candidates, n, candidates);
+        }
+        for (int i = 0; i < n; i++) {
+            long genValue = candidates[i];
+            if (metrics != null) {
+                metrics.mCandidates++;
+                if (genValue < dtstartValue) {
+                    continue;
+                }
+                int reason = filter.reason(genValue);
+                if (reason != 0) {
+                    metrics.mRejections[reason]++;
+                    continue;
+                }
+            } else if (genValue < dtstartValue) {
+                continue;
+            }
+            // See RecurrenceProcessor for why dtstart is only counted once.
+            if (!(dtstartValue == genValue && dtstartAdded)) {
+                ++mCount;
+            }
+            if (genValue > untilValue) {
+                return true;
+            }
+            if (genValue >= rangeEndValue) {
+                return true;
+            }
+            if (genValue >= rangeStartValue) {
+                out.add(genValue);
+            }
+            if (r.count > 0 && r.count == mCount) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if every occurrence of the rule is at midnight when dtstart is, so that
+     * {@link #expandDays} can be used for it: the rule repeats daily or less often and has no
+     * BYHOUR, BYMINUTE or BYSECOND.
+     */
+    static boolean isDateOnly(EventRecurrence r) {
+        return r.freq >= EventRecurrence.DAILY && r.byhourCount == 0 && r.byminuteCount == 0
+                && r.bysecondCount == 0;
+    }
+
+    /**
+     * Runs the recurrence algorithm for a rule whose occurrences are all at midnight, working
+     * on epoch days instead of packed date-times.  This generates the same dates as
+     * {@link #expand} without any time of day work.  The rule must satisfy
+     * {@link #isDateOnly(EventRecurrence)} and dtstart must be at midnight.
+     *
+     * @param dtstartDay the epoch day of dtstart
+     * @param r the rule
+     * @param untilDay the local epoch day of UNTIL, or Long.MAX_VALUE
+     * @param rangeStartDay the first epoch day you care about, inclusive
+     * @param rangeEndDay the epoch day to stop at, not inclusive, or Long.MAX_VALUE
+     * @param add whether the values are added to the result (RRULE) or removed (EXRULE)
+     * @param out the buffer to append the epoch days to
+     */
+    void expandDays(long dtstartDay, EventRecurrence r, long untilDay, long rangeStartDay,
+            long rangeEndDay, boolean add, OccurrenceBuffer out) throws DateException {
+        int count = 0;
+        boolean dtstartAdded = add && dtstartDay >= rangeStartDay && dtstartDay < rangeEndDay;
+        if (dtstartAdded) {
+            out.add(dtstartDay);
+            ++count;
+        }
+
+        mDaySetYear = 0;
+        mDaySetMonth = -1;
+        if (rangeEndDay == Long.MAX_VALUE && r.until == null && r.count == 0) {
+            Log.w(TAG, "DateException with r=" + r + " rangeStart=" + rangeStartDay
+                    + " rangeEnd=" + rangeEndDay);
+            throw new DateException(
+                    "No range end provided for a recurrence that has no UNTIL or COUNT.");
+        }
+
+        int freq = r.freq;
+        int freqAmount = r.interval;
+        if (freq < EventRecurrence.DAILY || freq > EventRecurrence.YEARLY) {
+            throw new DateException("bad freq=" + freq);
+        }
+        if (untilDay < dtstartDay || isUnsatisfiable(r)) {
+            // Nothing but dtstart.
+            return;
+        }
+        if (freq == EventRecurrence.WEEKLY) {
+            freqAmount = 7 * r.interval;
+            if (freqAmount <= 0) {
+                freqAmount = 7;
+            }
+        }
+        if (freqAmount <= 0) {
+            freqAmount = 1;
+        }
+
+        int bymonthCount = r.bymonthCount;
+        boolean usebymonth = freq > EventRecurrence.MONTHLY && bymonthCount > 0;
+        boolean useDays = freq >= EventRecurrence.WEEKLY
+                && (r.bydayCount > 0 || r.bymonthdayCount > 0);
+        int wkst = EventRecurrence.day2TimeDay(r.wkst);
+
+        civil(dtstartDay);
+        int itYear = mYear;
+        int itMonth = mMonth;
+        int itDay = mDay;
+        if (freq == EventRecurrence.MONTHLY && useDays) {
+            itDay = 1;
+        }
+
+        RecurrenceMetrics metrics = mMetrics;
+        int failsafe = 0;
+        if (freq >= EventRecurrence.MONTHLY && untilDay >= rangeStartDay
+                && rangeEndDay > rangeStartDay && rangeStartDay > dtstartDay) {
+            // Jump to the first period that can reach the range.
+            int months = freq == EventRecurrence.MONTHLY ? freqAmount : 12 * freqAmount;
+            long steps = stepsBeforeRange(r, months, itYear, itMonth, itDay,
+                    dayValue(rangeStartDay));
+            if (steps > 0) {
+                failsafe = countIterations(itYear, itMonth, itDay, months, steps,
+                        RecurrenceProcessor.MAX_ALLOWED_ITERATIONS + 1);
+                long total = itYear * 12L + itMonth + months * steps;
+                itYear = (int) floorDiv(total, 12);
+                itMonth = (int) floorMod(total, 12);
+            }
+        }
+        events:
+        while (true) {
+            int monthIndex = 0;
+            if (failsafe++ > RecurrenceProcessor.MAX_ALLOWED_ITERATIONS) {
+                Log.w(TAG, "Recurrence processing stuck with r=" + r + " rangeStart="
+                        + rangeStartDay + " rangeEnd=" + rangeEndDay);
+                if (metrics != null) {
+                    metrics.mTruncations++;
+                }
+                break;
+            }
+            if (metrics != null) {
+                metrics.mIterations++;
+            }
+
+            long itEpochDay = epochDay(itYear, itMonth, itDay);
+
+            long startDay = periodStartDay(r, useDays, itYear, itMonth, itDay);
+            if (startDay > untilDay || startDay >= rangeEndDay) {
+                break;
+            }
+            boolean skipPeriod = isPeriodFiltered(r, startDay);
+
+            int genYear = itYear;
+            int genMonth = itMonth;
+
+            do { // month
+                if (skipPeriod) {
+                    break;
+                }
+                int month = usebymonth ? r.bymonth[monthIndex] - 1 : itMonth;
+
+                int dayIndex = 1;
+                int lastDayToExamine = 0;
+                if (useDays) {
+                    if (freq == EventRecurrence.WEEKLY) {
+                        int weekStartAdj = (weekDay(itEpochDay) - wkst + 7) % 7;
+                        dayIndex = itDay - weekStartAdj;
+                        lastDayToExamine = dayIndex + 6;
+                    } else {
+                        lastDayToExamine = RecurrenceProcessor.monthLength(genYear, genMonth);
+                    }
+                }
+
+                do { // day
+                    int day;
+                    if (useDays) {
+                        if (!daySetGet(r, itYear, itMonth, dayIndex)) {
+                            dayIndex++;
+                            continue;
+                        }
+                        day = dayIndex;
+                    } else {
+                        day = itDay;
+                    }
+
+                    long genDay = epochDay(itYear, month, day);
+                    civil(genDay);
+                    genYear = mYear;
+                    genMonth = mMonth;
+                    if (metrics != null) {
+                        metrics.mCandidates++;
+                    }
+                    if (genDay >= dtstartDay
+                            && accept(r, pack(mYear, mMonth, mDay, 0, 0, 0), metrics)) {
+                        if (!(dtstartDay == genDay && dtstartAdded)) {
+                            ++count;
+                        }
+                        if (genDay > untilDay) {
+                            break events;
+                        }
+                        if (genDay >= rangeEndDay) {
+                            break events;
+                        }
+                        if (genDay >= rangeStartDay) {
+                            out.add(genDay);
+                        }
+                        if (r.count > 0 && r.count == count) {
+                            break events;
+                        }
+                    }
+                    dayIndex++;
+                } while (useDays && dayIndex <= lastDayToExamine);
+                monthIndex++;
+            } while (usebymonth && monthIndex < bymonthCount);
+
+            if (freq == EventRecurrence.DAILY || freq == EventRecurrence.WEEKLY) {
+                civil(itEpochDay + freqAmount);
+                itYear = mYear;
+                itMonth = mMonth;
+                itDay = mDay;
+            } else {
+                int months = freq == EventRecurrence.MONTHLY ? freqAmount : 12 * freqAmount;
+                int n = 1;
+                while (true) {
+                    int total = itMonth + months * n;
+                    int year = itYear + (int) floorDiv(total, 12);
+                    int month = (int) floorMod(total, 12);
+                    if (itDay <= RecurrenceProcessor.monthLength(year, month)) {
+                        itYear = year;
+                        itMonth = month;
+                        break;
+                    }
+                    n++;
+                }
+            }
+        }
+    }
+
+    /**
+     * The packed equivalent of RecurrenceProcessor.DaySet.get().
+     */
+    private boolean daySetGet(EventRecurrence r, int year, int month, int day) {
+        if (day < 1 || day > 28) {
+            // It might be past the end of the month, so find the month it falls in.
+            civil(epochDay(year, month, day));
+            year = mYear;
+            month = mMonth;
+            day = mDay;
+        }
+        if (year != mDaySetYear || month != mDaySetMonth) {
+            mDaySetYear = year;
+            mDaySetMonth = month;
+            mDaySetDays = generateDaysList(r, year, month);
+        }
+        return (mDaySetDays & (1 << day)) != 0;
+    }
+
+    /**
+     * The packed equivalent of RecurrenceProcessor.DaySet.generateDaysList(): a bit set of the
+     * days of the month on which the rule occurs.
+     */
+    private static int generateDaysList(EventRecurrence r, int year, int month) {
+        int days = 0;
+        int lastDayThisMonth = RecurrenceProcessor.monthLength(year, month);
+
+        int count = r.bydayCount;
+        if (count > 0) {
+            int first = weekDay(epochDay(year, month, 1));
+            int[] byday = r.byday;
+            int[] bydayNum = r.bydayNum;
+            for (int i = 0; i < count; i++) {
+                int v = bydayNum[i];
+                int j = EventRecurrence.day2TimeDay(byday[i]) - first + 1;
+                if (j <= 0) {
+                    j += 7;
+                }
+                if (v == 0) {
+                    for (; j <= lastDayThisMonth; j += 7) {
+                        days |= 1 << j;
+                    }
+                } else if (v > 0) {
+                    j += 7 * (v - 1);
+                    if (j <= lastDayThisMonth) {
+                        days |= 1 << j;
+                    }
+                } else {
+                    for (; j <= lastDayThisMonth; j += 7) {
+                    }
+                    j += 7 * v;
+                    if (j >= 1) {
+                        days |= 1 << j;
+                    }
+                }
+            }
+        }
+
+        if (r.freq > EventRecurrence.WEEKLY) {
+            count = r.bymonthdayCount;
+            if (count != 0) {
+                int[] bymonthday = r.bymonthday;
+                if (r.bydayCount == 0) {
+                    for (int i = 0; i < count; i++) {
+                        int v = bymonthday[i];
+                        if (v >= 0) {
+                            days |= 1 << v;
+                        } else {
+                            int j = lastDayThisMonth + v + 1;
+                            if (j >= 1 && j <= lastDayThisMonth) {
+                                days |= 1 << j;
+                            }
+                        }
+                    }
+                } else {
+                    for (int j = 1; j <= lastDayThisMonth; j++) {
+                        next_day: {
+                            if ((days & (1 << j)) != 0) {
+                                for (int i = 0; i < count; i++) {
+                                    if (bymonthday[i] == j) {
+                                        break next_day;
+                                    }
+                                }
+                                days &= ~(1 << j);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return days;
+    }
+
+    /**
+     * Returns the epoch day of the first day that the period of an iterator at the given
+     * normalized date can generate candidates on: the start of its year, month or week for
+     * rules that expand days, or the iterator's own day.  The candidates of the later periods
+     * can't be earlier either, so once the start of this day is past UNTIL or the end of the
+     * range nothing more can be added.
+     */
+    static long periodStartDay(EventRecurrence r, boolean useDays, int year, int month,
+            int day) {
+        switch (r.freq) {
+            case EventRecurrence.YEARLY:
+                return epochDay(year, 0, 1);
+            case EventRecurrence.MONTHLY:
+                return epochDay(year, month, 1);
+            case EventRecurrence.WEEKLY:
+                long epochDay = epochDay(year, month, day);
+                if (useDays) {
+                    int wkst = EventRecurrence.day2TimeDay(r.wkst);
+                    epochDay -= (weekDay(epochDay) - wkst + 7) % 7;
+                }
+                return epochDay;
+            default:
+                return epochDay(year, month, day);
+        }
+    }
+
+    /**
+     * Returns true if the filters reject every candidate of the period starting on the given
+     * epoch day (see {@link #periodStartDay}), so that it doesn't have to be generated: the
+     * date filters reject the day of a DAILY rule, or BYMONTH rejects every month that the
+     * days of a WEEKLY or MONTHLY period fall in.  The month after the period is checked as
+     * well, in case normalization moves a candidate past its end.
+     */
+    boolean isPeriodFiltered(EventRecurrence r, long startDay) {
+        switch (r.freq) {
+            case EventRecurrence.DAILY:
+                civil(startDay);
+                return filterDate(r, mYear, mMonth, mDay) != 0;
+            case EventRecurrence.WEEKLY:
+            case EventRecurrence.MONTHLY:
+                if (r.bymonthCount == 0) {
+                    return false;
+                }
+                civil(startDay);
+                if (RecurrenceProcessor.listContains(r.bymonth, r.bymonthCount, mMonth + 1)) {
+                    return false;
+                }
+                // The day after the longest week or month.
+                civil(startDay + (r.freq == EventRecurrence.WEEKLY ? 7 : 31));
+                return !RecurrenceProcessor.listContains(r.bymonth, r.bymonthCount,
+                        mMonth + 1);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns how many steps of the given number of months a MONTHLY or YEARLY iterator at
+     * the given normalized date can be moved forward without expanding the periods in between,
+     * because none of their candidates can be in the range.  The iterator lands on a month
+     * that is long enough for its day, like it does when it is advanced one step at a time.
+     * <p>
+     * Without COUNT a period's candidates only depend on the month and year of its iterator,
+     * and they are all inside of that month (MONTHLY) or year (YEARLY), so the periods before
+     * the month or year of rangeStartValue add nothing.  They still count towards the
+     * iteration failsafe; see {@link #countIterations}.  The caller has to check that UNTIL
+     * and the end of the range are not before rangeStartValue, because they would stop the
+     * rule in one of the skipped periods.  Returns 0 if nothing can be skipped.
+     */
+    static long stepsBeforeRange(EventRecurrence r, int months, int itYear, int itMonth,
+            int itDay, long rangeStartValue) {
+        if ((r.freq != EventRecurrence.MONTHLY && r.freq != EventRecurrence.YEARLY)
+                || r.count > 0 || itYear < MIN_YEAR) {
+            return 0;
+        }
+        long position = itYear * 12L + itMonth;
+        long first = year(rangeStartValue) * 12L;
+        if (r.freq == EventRecurrence.MONTHLY) {
+            first += month(rangeStartValue);
+        }
+        if (first <= position) {
+            return 0;
+        }
+        long steps = (first - position + months - 1) / months;
+        while (true) {
+            long total = position + months * steps;
+            if (itDay <= RecurrenceProcessor.monthLength((int) floorDiv(total, 12),
+                    (int) floorMod(total, 12))) {
+                return steps;
+            }
+            steps++;
+        }
+    }
+
+    /**
+     * Returns the number of iterations it takes to move a MONTHLY or YEARLY iterator at the
+     * given normalized date forward by the given number of steps of months, or limit if that
+     * is smaller.  A step that lands on a month too short for the iterator's day is tried
+     * again with the next multiple and doesn't take an iteration of its own.
+     */
+    static int countIterations(int itYear, int itMonth, int itDay, int months, long steps,
+            int limit) {
+        if (itDay <= 28) {
+            return (int) Math.min(steps, limit);
+        }
+        // The month lengths repeat every 400 years, so whether a step lands on a long enough
+        // month repeats with the number of steps that add up to a multiple of 400 years.
+        int cycleMonths = 400 * 12;
+        int a = months;
+        int b = cycleMonths;
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        int period = cycleMonths / a;
+        long partial = steps % period;
+        long perCycle = 0;
+        long inPartial = 0;
+        long position = itYear * 12L + itMonth;
+        for (int k = 0; k < period && k < steps; k++) {
+            long total = position + (long) months * k;
+            if (itDay <= RecurrenceProcessor.monthLength((int) floorDiv(total, 12),
+                    (int) floorMod(total, 12))) {
+                perCycle++;
+                if (k < partial) {
+                    inPartial++;
+                }
+            }
+        }
+        return (int) Math.min(steps / period * perCycle + inPartial, limit);
+    }
+
+    /**
+     * Returns true if the rule can't generate any date, because no date passes its BYxxx
+     * parts, like BYMONTH=2;BYMONTHDAY=30 or BYMONTHDAY=31;BYMONTH=4,6,9,11.  Such a rule
+     * only has dtstart, and is otherwise run until the iteration failsafe stops it.
+     * <p>
+     * Only DAILY and shorter rules and MONTHLY rules are checked, because WEEKLY and YEARLY
+     * rules generate days past the end of a shorter month; false doesn't mean that the rule
+     * has any occurrences.  The result is cached in the rule, along with the parts it was
+     * worked out from, and worked out again when the public fields of the rule have changed.
+     */
+    static boolean isUnsatisfiable(EventRecurrence r) {
+        if (r.mSatisfiable == SATISFIABLE_UNKNOWN || !hasParts(r, r.mSatisfiableParts)) {
+            int satisfiable = hasCandidates(r) ? SATISFIABLE : UNSATISFIABLE;
+            r.mSatisfiableParts = parts(r);
+            r.mSatisfiable = satisfiable;
+        }
+        return r.mSatisfiable == UNSATISFIABLE;
+    }
+
+    /**
+     * Returns the CandidateFilter of the rule, building it only if the rule isn't one of the
+     * last few expanded or its parts have changed since.
+     */
+    private CandidateFilter filterFor(EventRecurrence r) {
+        for (int i = 0; i < FILTER_CACHE_SIZE; i++) {
+            if (mFilterRules[i] == r && hasParts(r, mFilterParts[i])) {
+                return mFilters[i];
+            }
+        }
+        int i = mNextFilter;
+        mFilters[i] = new CandidateFilter(r);
+        mFilterRules[i] = r;
+        mFilterParts[i] = parts(r);
+        mNextFilter = (i + 1) % FILTER_CACHE_SIZE;
+        return mFilters[i];
+    }
+
+    /**
+     * Returns the FREQ and the BYxxx lists of the rule, each list as its length followed by
+     * its values.
+     */
+    private static int[] parts(EventRecurrence r) {
+        int[] parts = new int[11 + r.bysecondCount + r.byminuteCount + r.byhourCount
+                + 2 * r.bydayCount + r.bymonthdayCount + r.byyeardayCount + r.byweeknoCount
+                + r.bymonthCount + r.bysetposCount];
+        parts[0] = r.freq;
+        int i = 1;
+        i = putPart(parts, i, r.bysecond, r.bysecondCount);
+        i = putPart(parts, i, r.byminute, r.byminuteCount);
+        i = putPart(parts, i, r.byhour, r.byhourCount);
+        i = putPart(parts, i, r.byday, r.bydayCount);
+        i = putPart(parts, i, r.bydayNum, r.bydayCount);
+        i = putPart(parts, i, r.bymonthday, r.bymonthdayCount);
+        i = putPart(parts, i, r.byyearday, r.byyeardayCount);
+        i = putPart(parts, i, r.byweekno, r.byweeknoCount);
+        i = putPart(parts, i, r.bymonth, r.bymonthCount);
+        putPart(parts, i, r.bysetpos, r.bysetposCount);
+        return parts;
+    }
+
+    private static int putPart(int[] parts, int i, int[] values, int count) {
+        parts[i++] = count;
+        for (int j = 0; j < count; j++) {
+            parts[i++] = values[j];
+        }
+        return i;
+    }
+
+    /** Returns true if the rule has the given parts, without allocating. */
+    private static boolean hasParts(EventRecurrence r, int[] parts) {
+        if (parts == null || parts[0] != r.freq) {
+            return false;
+        }
+        int i = 1;
+        i = matchPart(parts, i, r.bysecond, r.bysecondCount);
+        i = matchPart(parts, i, r.byminute, r.byminuteCount);
+        i = matchPart(parts, i, r.byhour, r.byhourCount);
+        i = matchPart(parts, i, r.byday, r.bydayCount);
+        i = matchPart(parts, i, r.bydayNum, r.bydayCount);
+        i = matchPart(parts, i, r.bymonthday, r.bymonthdayCount);
+        i = matchPart(parts, i, r.byyearday, r.byyeardayCount);
+        i = matchPart(parts, i, r.byweekno, r.byweeknoCount);
+        i = matchPart(parts, i, r.bymonth, r.bymonthCount);
+        i = matchPart(parts, i, r.bysetpos, r.bysetposCount);
+        return i == parts.length;
+    }
+
+    /**
+     * Returns the index after the list if it matches the one at i in parts, or parts.length
+     * + 1 (which never matches again) otherwise.
+     */
+    private static int matchPart(int[] parts, int i, int[] values, int count) {
+        if (i >= parts.length || parts[i] != count || parts.length - i - 1 < count) {
+            return parts.length + 1;
+        }
+        i++;
+        for (int j = 0; j < count; j++) {
+            if (parts[i++] != values[j]) {
+                return parts.length + 1;
+            }
+        }
+        return i;
+    }
+
+    private static boolean hasCandidates(EventRecurrence r) {
+        int freq = r.freq;
+        if (freq == EventRecurrence.MONTHLY) {
+            if (r.bydayCount == 0 && r.bymonthdayCount == 0) {
+                // Every month generates its iterator day.
+                return true;
+            }
+            // The candidates are the days of each month in its day set that pass the filter.
+            for (int year = CYCLE_START_YEAR; year < CYCLE_START_YEAR + CYCLE_YEARS; year++) {
+                for (int month = 0; month < 12; month++) {
+                    int days = generateDaysList(r, year, month);
+                    int lastDay = RecurrenceProcessor.monthLength(year, month);
+                    for (int day = 1; day <= lastDay; day++) {
+                        if ((days & (1 << day)) != 0
+                                && filter(r, pack(year, month, day, 0, 0, 0)) == 0) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+        if (freq > EventRecurrence.DAILY) {
+            return true;
+        }
+
+        // Every day is a candidate.  The ranges of the values are checked by the parser, so
+        // a single date filter keeps some dates, except for BYYEARDAY: the filter compares
+        // it with the 0-based day of the year, and never matches 366.
+        int filters = (r.bymonthCount > 0 ? 1 : 0) + (r.byweeknoCount > 0 ? 1 : 0)
+                + (r.bymonthdayCount > 0 ? 1 : 0) + (r.bydayCount > 0 ? 1 : 0);
+        if (filters < 2 && r.byyeardayCount == 0) {
+            return true;
+        }
+        for (int year = CYCLE_START_YEAR; year < CYCLE_START_YEAR + CYCLE_YEARS; year++) {
+            for (int month = 0; month < 12; month++) {
+                int lastDay = RecurrenceProcessor.monthLength(year, month);
+                for (int day = 1; day <= lastDay; day++) {
+                    if (filterDate(r, year, month, day) == 0) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if {@link #filter} keeps the candidate, counting the rejection in metrics
+     * otherwise.  metrics may be null.
+     */
+    static boolean accept(EventRecurrence r, long value, RecurrenceMetrics metrics) {
+        int reason = filter(r, value);
+        if (reason != 0 && metrics != null) {
+            metrics.mRejections[reason]++;
+        }
+        return reason == 0;
+    }
+
+    /**
+     * The packed equivalent of RecurrenceProcessor.filter(): returns 0 if the candidate is
+     * kept, or the number of the rule that rejected it.
+     */
+    static int filter(EventRecurrence r, long value) {
+        int freq = r.freq;
+        int year = year(value);
+        int month = month(value);
+        int day = day(value);
+
+        int filtered = filterDate(r, year, month, day);
+        if (filtered != 0) {
+            return filtered;
+        }
+        if (EventRecurrence.HOURLY >= freq && r.byhourCount > 0) {
+            if (!RecurrenceProcessor.listContains(r.byhour, r.byhourCount, hour(value), 23)) {
+                return 6;
+            }
+        }
+        if (EventRecurrence.MINUTELY >= freq && r.byminuteCount > 0) {
+            if (!RecurrenceProcessor.listContains(r.byminute, r.byminuteCount, minute(value),
+                    59)) {
+                return 7;
+            }
+        }
+        if (EventRecurrence.SECONDLY >= freq && r.bysecondCount > 0) {
+            if (!RecurrenceProcessor.listContains(r.bysecond, r.bysecondCount, second(value),
+                    59)) {
+                return 8;
+            }
+        }
+
+        if (r.bysetposCount > 0 && freq == EventRecurrence.MONTHLY && r.bydayCount > 0) {
+            // BYSETPOS is only handled for rules like FREQ=MONTHLY;BYDAY=MO,TU;BYSETPOS=-1.
+            for (int i = r.bydayCount - 1; i >= 0; i--) {
+                if (r.bydayNum[i] != 0) {
+                    return 0;
+                }
+            }
+            if (!filterMonthlySetPos(r, year, month, day)) {
+                return 9;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The date part of {@link #filter}: returns 0 if the BYMONTH, BYWEEKNO, BYYEARDAY,
+     * BYMONTHDAY and BYDAY filters of the rule keep the date, or the number of the rule
+     * that rejected it.
+     */
+    static int filterDate(EventRecurrence r, int year, int month, int day) {
+        int freq = r.freq;
+        if (EventRecurrence.MONTHLY >= freq) {
+            if (r.bymonthCount > 0
+                    && !RecurrenceProcessor.listContains(r.bymonth, r.bymonthCount, month + 1)) {
+                return 1;
+            }
+        }
+        long epochDay = 0;
+        int weekDay = 0;
+        if (EventRecurrence.WEEKLY >= freq) {
+            epochDay = epochDay(year, month, day);
+            weekDay = weekDay(epochDay);
+            if (r.byweeknoCount > 0) {
+                int yearDay = (int) (epochDay - epochDay(year, 0, 1));
+                if (!RecurrenceProcessor.listContains(r.byweekno, r.byweeknoCount,
+                        weekNumber(year, yearDay, weekDay), weeksInYear(year))) {
+                    return 2;
+                }
+            }
+        }
+        if (EventRecurrence.DAILY >= freq) {
+            if (r.byyeardayCount > 0) {
+                int yearDay = (int) (epochDay - epochDay(year, 0, 1));
+                if (!RecurrenceProcessor.listContains(r.byyearday, r.byyeardayCount, yearDay,
+                        RecurrenceProcessor.yearLength(year))) {
+                    return 3;
+                }
+            }
+            if (r.bymonthdayCount > 0) {
+                if (!RecurrenceProcessor.listContains(r.bymonthday, r.bymonthdayCount, day,
+                        RecurrenceProcessor.monthLength(year, month))) {
+                    return 4;
+                }
+            }
+            if (r.bydayCount > 0) {
+                int v = EventRecurrence.timeDay2Day(weekDay);
+                boolean found = false;
+                for (int i = 0; i < r.bydayCount; i++) {
+                    if (r.byday[i] == v) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    return 5;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The packed equivalent of RecurrenceProcessor.filterMonthlySetPos().
+     */
+    static boolean filterMonthlySetPos(EventRecurrence r, int year, int month, int day) {
+        int dotw = weekDay(epochDay(year, month, 1));
+        int bydayMask = 0;
+        for (int i = 0; i < r.bydayCount; i++) {
+            bydayMask |= r.byday[i];
+        }
+
+        // Find the position of day among the days of the month that match BYDAY, counting
+        // from the start and from the end of the month.
+        int maxDay = RecurrenceProcessor.monthLength(year, month);
+        int position = 0;
+        int daySetLength = 0;
+        for (int md = 1; md <= maxDay; md++) {
+            if ((bydayMask & (EventRecurrence.SU << dotw)) != 0) {
+                daySetLength++;
+                if (md == day) {
+                    position = daySetLength;
+                }
+            }
+            dotw++;
+            if (dotw == 7) {
+                dotw = 0;
+            }
+        }
+        if (position == 0) {
+            return false;
+        }
+
+        for (int i = r.bysetposCount - 1; i >= 0; i--) {
+            int index = r.bysetpos[i];
+            if (index > 0) {
+                if (index == position) {
+                    return true;
+                }
+            } else if (index < 0) {
+                if (daySetLength + index + 1 == position) {
+                    return true;
+                }
+            } else {
+                // should have been caught by parser
+                throw new RuntimeException("invalid bysetpos value");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the ISO 8601 week number, which is what Time.getWeekNumber() returns.
+     *
+     * @param yearDay the 0-based day of the year
+     * @param weekDay the day of the week, where Sunday is 0
+     */
+    static int weekNumber(int year, int yearDay, int weekDay) {
+        int isoWeekDay = weekDay == 0 ? 7 : weekDay;
+        int week = (yearDay + 1 - isoWeekDay + 10) / 7;
+        if (week < 1) {
+            return weeksInYear(year - 1);
+        }
+        if (week > weeksInYear(year)) {
+            return 1;
+        }
+        return week;
+    }
+
+    /**
+     * Returns the number of ISO 8601 weeks in the year, which is what
+     * Time.getActualMaximum(Time.WEEK_NUM) returns.
+     */
+    static int weeksInYear(int year) {
+        int jan1 = weekDay(epochDay(year, 0, 1));
+        if (jan1 == Time.THURSDAY
+                || (jan1 == Time.WEDNESDAY && RecurrenceProcessor.isLeapYear(year))) {
+            return 53;
+        }
+        return 52;
+    }
+}
@@ -0,0 +1,434 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Expands a single recurrence over a long window by splitting the window into chunks that are
+ * expanded at the same time on an {@link Executor}.
+ * <p>
+ * Only recurrences whose rules are all HOURLY, MINUTELY or SECONDLY are split; those are the
+ * ones that can produce enough occurrences for this to pay off.  Their periods never cross
+ * local midnight, so the window is cut at the midnights of days without an offset change and
+ * every chunk generates exactly the occurrences of its days, in the same order as a single
+ * expansion would.  Each chunk runs on its own {@link RecurrenceProcessor} and the results are
+ * concatenated in order.  Anything else, and windows too short to split, are expanded on the
+ * calling thread.
+ * <p>
+ * A rule with COUNT depends on everything generated since dtstart, so it is resolved first:
+ * the rule is run without COUNT over chunks from dtstart to the end of the window, the counts
+ * of the chunks are added up to find the chunk holding the last occurrence, and the rule is
+ * replaced by one that ends there with UNTIL.  If the last occurrence can't be expressed as an
+ * UNTIL (for example because of a local time repeated by a daylight saving change) the
+ * recurrence is expanded on the calling thread instead.
+ * <p>
+ * The result is the same as that of {@link RecurrenceProcessor#expand(Time, RecurrenceSet,
+ * long, long)}, except that the iteration limit of the sub-daily rules applies to every chunk
+ * separately, so windows that a single expansion would cut short are expanded completely.
+ * <p>
+ * This class is thread-safe: every call uses its own processors.
+ */
+public final class ParallelRecurrenceExpander {
+
+    // Chunks shorter than this aren't worth handing to another thread.
+    static final int MIN_CHUNK_DAYS = 7;
+
+    private final Executor mExecutor;
+    private final int mParallelism;
+
+    /**
+     * @param executor runs the chunks; one chunk is always run on the calling thread
+     * @param parallelism the largest number of chunks to split a window into
+     */
+    public ParallelRecurrenceExpander(Executor executor, int parallelism) {
+        if (executor == null) {
+            throw new NullPointerException("executor cannot be null");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("bad parallelism=" + parallelism);
+        }
+        mExecutor = executor;
+        mParallelism = parallelism;
+    }
+
+    /**
+     * Expands the recurrence within the given range like
+     * {@link RecurrenceProcessor#expand(Time, RecurrenceSet, long, long)}.
+     *
+     * @param dtstart a Time object representing the first occurrence
+     * @param recur the recurrence rules, including RRULE, RDATES, EXRULE, and
+     * EXDATES
+     * @param rangeStartMillis the beginning of the range to expand, in UTC
+     * milliseconds
+     * @param rangeEndMillis the non-inclusive end of the range to expand, in
+     * UTC milliseconds; use -1 for the entire range, which is never split.
+     * @return an array of dates, each date is in UTC milliseconds
+     * @throws DateException
+     * @throws InterruptedException if the calling thread is interrupted while
+     * waiting for the other chunks
+     * @throws IllegalArgumentException if recur cannot be parsed
+     */
+    public long[] expand(Time dtstart,
+            RecurrenceSet recur,
+            long rangeStartMillis,
+            long rangeEndMillis) throws DateException, InterruptedException {
+        if (mParallelism < 2 || rangeEndMillis == -1 || recur.rrules == null
+                || !areSubDaily(recur.rrules) || !areSubDaily(recur.exrules)) {
+            return new RecurrenceProcessor().expand(dtstart, recur, rangeStartMillis,
+                    rangeEndMillis);
+        }
+        String timezone = dtstart.getTimezone();
+        ZoneOffsetCache offsets = new ZoneOffsetCache();
+        offsets.setTimeZone(TimeZone.getTimeZone(timezone));
+        Time start = copyOf(dtstart);
+        RecurrenceProcessor.unsafeNormalize(start);
+        long dtstartValue = packedValue(start);
+        Time local = new Time(timezone);
+        long rangeStartValue = localValue(local, rangeStartMillis);
+        long rangeEndValue = localValue(local, rangeEndMillis);
+
+        // Before MIN_YEAR, Time's calendar and the epoch day arithmetic that places the
+        // chunks don't agree.
+        long[] bounds = null;
+        if (PackedExpander.year(dtstartValue) > PackedExpander.MIN_YEAR
+                && PackedExpander.year(rangeStartValue) > PackedExpander.MIN_YEAR) {
+            bounds = chunkBounds(offsets, Math.max(rangeStartValue, dtstartValue),
+                    rangeEndValue, mParallelism);
+        }
+        if (bounds == null) {
+            return new RecurrenceProcessor().expand(dtstart, recur, rangeStartMillis,
+                    rangeEndMillis);
+        }
+        bounds[0] = rangeStartValue;
+
+        EventRecurrence[] rrules = withoutCounts(start, recur.rrules, true /* add */,
+                dtstartValue, rangeStartValue, rangeEndValue);
+        EventRecurrence[] exrules = withoutCounts(start, recur.exrules, false /* remove */,
+                dtstartValue, rangeStartValue, rangeEndValue);
+        if (rrules == null || (recur.exrules != null && exrules == null)) {
+            return new RecurrenceProcessor().expand(dtstart, recur, rangeStartMillis,
+                    rangeEndMillis);
+        }
+
+        int n = bounds.length - 1;
+        long[] boundMillis = new long[n + 1];
+        boundMillis[0] = rangeStartMillis;
+        boundMillis[n] = rangeEndMillis;
+        for (int i = 1; i < n; i++) {
+            boundMillis[i] = PackedExpander.toMillis(bounds[i],
+                    offsets.offsetOfLocalDay(epochDay(bounds[i])));
+        }
+        long[][] rdates = splitDates(local, recur.rdates, bounds);
+        CountDownLatch done = new CountDownLatch(n);
+        Chunk[] chunks = new Chunk[n];
+        for (int i = 0; i < n; i++) {
+            RecurrenceSet set = new RecurrenceSet(null, null, null, null);
+            set.rrules = rrules;
+            set.rdates = rdates != null ? rdates[i] : null;
+            set.exrules = exrules;
+            set.exdates = recur.exdates;
+            chunks[i] = new Chunk(copyOf(start), set, null, boundMillis[i], boundMillis[i + 1],
+                    done);
+        }
+        run(chunks, done);
+
+        int size = 0;
+        for (Chunk chunk : chunks) {
+            size += chunk.mValues.size();
+        }
+        long[] result = new long[size];
+        int offset = 0;
+        for (Chunk chunk : chunks) {
+            int count = chunk.mValues.size();
+            System.arraycopy(chunk.mValues.array(), 0, result, offset, count);
+            offset += count;
+        }
+        return result;
+    }
+
+    private static boolean areSubDaily(EventRecurrence[] rules) {
+        if (rules != null) {
+            for (EventRecurrence r : rules) {
+                if (r.freq < EventRecurrence.SECONDLY || r.freq > EventRecurrence.HOURLY) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the local values that split [from, to) into at most maxChunks chunks of at least
+     * {@link #MIN_CHUNK_DAYS} days, starting with from and ending with to, or null if the range
+     * is too short to split.  The values in between are the midnights of days with a constant
+     * offset.
+     */
+    static long[] chunkBounds(ZoneOffsetCache offsets, long from, long to, int maxChunks) {
+        long fromDay = epochDay(from);
+        long span = epochDay(to) - fromDay;
+        int n = (int) Math.min(maxChunks, span / MIN_CHUNK_DAYS);
+        if (n < 2) {
+            return null;
+        }
+        long[] bounds = new long[n + 1];
+        bounds[0] = from;
+        bounds[n] = to;
+        for (int i = 1; i < n; i++) {
+            long day = fromDay + span * i / n;
+            while (offsets.offsetOfLocalDay(day) == ZoneOffsetCache.NOT_CONSTANT) {
+                day++;
+            }
+            bounds[i] = PackedExpander.dayValue(day);
+            if (bounds[i] <= bounds[i - 1] || bounds[i] >= to) {
+                return null;
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Returns the rules with every COUNT replaced by the UNTIL it amounts to in an expansion
+     * of [rangeStartValue, rangeEndValue), or null if one of them can't be replaced.
+     */
+    private EventRecurrence[] withoutCounts(Time start, EventRecurrence[] rules, boolean add,
+            long dtstartValue, long rangeStartValue, long rangeEndValue)
+            throws DateException, InterruptedException {
+        if (rules == null) {
+            return null;
+        }
+        EventRecurrence[] result = new EventRecurrence[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            EventRecurrence r = rules[i];
+            // Computed here, as the chunks would all race to cache it in r.
+            PackedExpander.isUnsatisfiable(r);
+            if (r.count > 0) {
+                r = withoutCount(start, r, add, dtstartValue, rangeStartValue, rangeEndValue);
+                if (r == null) {
+                    return null;
+                }
+            }
+            result[i] = r;
+        }
+        return result;
+    }
+
+    /**
+     * Returns a rule without COUNT that generates the same values as r before rangeEndValue,
+     * or null if there is none.
+     */
+    private EventRecurrence withoutCount(Time start, EventRecurrence r, boolean add,
+            long dtstartValue, long rangeStartValue, long rangeEndValue)
+            throws DateException, InterruptedException {
+        EventRecurrence open = r.copy();
+        open.count = 0;
+        if (dtstartValue >= rangeEndValue) {
+            return open;
+        }
+        long[] bounds = chunkBounds(start.getTimezone(), dtstartValue, rangeEndValue);
+        int n = bounds.length - 1;
+        CountDownLatch done = new CountDownLatch(n);
+        Chunk[] chunks = new Chunk[n];
+        for (int i = 0; i < n; i++) {
+            chunks[i] = new Chunk(copyOf(start), null, open, bounds[i], bounds[i + 1], done);
+        }
+        run(chunks, done);
+
+        // Count the way the expansion does: dtstart counts once, either because it is added
+        // up front or when it is generated.
+        boolean dtstartAdded = add && dtstartValue >= rangeStartValue
+                && dtstartValue < rangeEndValue;
+        int count = dtstartAdded ? 1 : 0;
+        for (Chunk chunk : chunks) {
+            long[] values = chunk.mValues.array();
+            for (int i = 0, size = chunk.mValues.size(); i < size; i++) {
+                if (values[i] == dtstartValue && dtstartAdded) {
+                    continue;
+                }
+                if (++count == r.count) {
+                    return endingAt(open, values, size, i, start.getTimezone());
+                }
+            }
+        }
+        return open;
+    }
+
+    /**
+     * Returns the chunk bounds for the COUNT of a rule, which always covers the range with at
+     * least one chunk.
+     */
+    private long[] chunkBounds(String timezone, long from, long to) {
+        ZoneOffsetCache offsets = new ZoneOffsetCache();
+        offsets.setTimeZone(TimeZone.getTimeZone(timezone));
+        long[] bounds = chunkBounds(offsets, from, to, mParallelism);
+        return bounds != null ? bounds : new long[] { from, to };
+    }
+
+    /**
+     * Returns a copy of r that ends at values[last] with UNTIL, or null if that would not
+     * generate the same values as stopping after values[last], the values of a chunk in the
+     * order they were generated.
+     */
+    private static EventRecurrence endingAt(EventRecurrence r, long[] values, int size,
+            int last, String timezone) {
+        long end = values[last];
+        for (int i = 0; i < size; i++) {
+            if (i < last ? values[i] > end : i > last && values[i] <= end) {
+                return null;
+            }
+        }
+        Time local = new Time(timezone);
+        local.set(PackedExpander.second(end), PackedExpander.minute(end),
+                PackedExpander.hour(end), PackedExpander.day(end), PackedExpander.month(end),
+                PackedExpander.year(end));
+        Time until = new Time(Time.TIMEZONE_UTC);
+        until.set(local.toMillis());
+        String untilStr = until.format2445();
+        // Read it back the way the expansion will; a local time that a daylight saving
+        // change skips or repeats doesn't survive this.
+        until.parse(untilStr);
+        until.switchTimezone(timezone);
+        if (packedValue(until) != end) {
+            return null;
+        }
+        EventRecurrence result = r.copy();
+        result.until = untilStr;
+        return result;
+    }
+
+    /**
+     * Returns the dates split by the chunk that holds their local value, with the dates
+     * before the first chunk in the first one and the dates after the last in the last one,
+     * or null if there are none.
+     */
+    private static long[][] splitDates(Time local, long[] dates, long[] bounds) {
+        if (dates == null) {
+            return null;
+        }
+        int n = bounds.length - 1;
+        OccurrenceBuffer[] split = new OccurrenceBuffer[n];
+        for (long date : dates) {
+            long value = localValue(local, date);
+            int i = 0;
+            while (i < n - 1 && value >= bounds[i + 1]) {
+                i++;
+            }
+            if (split[i] == null) {
+                split[i] = new OccurrenceBuffer();
+            }
+            split[i].add(date);
+        }
+        long[][] result = new long[n][];
+        for (int i = 0; i < n; i++) {
+            result[i] = split[i] != null ? split[i].toArray() : null;
+        }
+        return result;
+    }
+
+    /**
+     * Runs the chunks, all but the first on the executor, and waits for them to finish.
+     */
+    private void run(Chunk[] chunks, CountDownLatch done)
+            throws DateException, InterruptedException {
+        for (int i = 1; i < chunks.length; i++) {
+            try {
+                mExecutor.execute(chunks[i]);
+            } catch (RejectedExecutionException e) {
+                chunks[i].run();
+            }
+        }
+        chunks[0].run();
+        done.await();
+        for (Chunk chunk : chunks) {
+            Throwable t = chunk.mError;
+            if (t instanceof DateException) {
+                throw (DateException) t;
+            } else if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            } else if (t instanceof Error) {
+                throw (Error) t;
+            }
+        }
+    }
+
+    private static Time copyOf(Time t) {
+        Time copy = new Time(t.getTimezone());
+        copy.set(t);
+        copy.setAllDay(t.isAllDay());
+        return copy;
+    }
+
+    private static long localValue(Time local, long millis) {
+        local.set(millis);
+        return packedValue(local);
+    }
+
+    private static long packedValue(Time t) {
+        return PackedExpander.pack(t.getYear(), t.getMonth(), t.getDay(), t.getHour(),
+                t.getMinute(), t.getSecond());
+    }
+
+    private static long epochDay(long value) {
+        return PackedExpander.epochDay(PackedExpander.year(value), PackedExpander.month(value),
+                PackedExpander.day(value));
+    }
+
+    /**
+     * One chunk: either a whole recurrence over a range of UTC times, or a single rule (that
+     * doesn't add dtstart) over a range of local values.
+     */
+    private static final class Chunk implements Runnable {
+        final Time mDtstart;
+        final RecurrenceSet mRecur;
+        final EventRecurrence mRule;
+        final long mStart;
+        final long mEnd;
+        final CountDownLatch mDone;
+        final OccurrenceBuffer mValues = new OccurrenceBuffer();
+        volatile Throwable mError;
+
+        Chunk(Time dtstart, RecurrenceSet recur, EventRecurrence rule, long start, long end,
+                CountDownLatch done) {
+            mDtstart = dtstart;
+            mRecur = recur;
+            mRule = rule;
+            mStart = start;
+            mEnd = end;
+            mDone = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                RecurrenceProcessor rp = new RecurrenceProcessor();
+                if (mRule != null) {
+                    rp.expandInOrder(mDtstart, mRule, mStart, mEnd, false /* remove */,
+                            mValues);
+                } else {
+                    rp.expand(mDtstart, mRecur, mStart, mEnd, mValues);
+                }
+            } catch (Throwable t) {
+                mError = t;
+            } finally {
+                mDone.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Expands a number of events over a long range, nearest window first.
+ * <p>
+ * {@link #start} expands every event over the near window on the calling thread and stores
+ * the occurrences in an {@link OccurrenceStore}, so they can be shown right away.  The rest of
+ * the range is then expanded a window at a time on an {@link Executor}, at the lowest thread
+ * priority, and merged into the same store.  Windows are completed in order, so the complete
+ * part of the range always starts at the beginning of the range; see
+ * {@link #getCompleteEndMillis()}.  A {@link Listener} hears about every completed window.
+ * <p>
+ * Each window is expanded with {@link RecurrenceProcessor#expand(Time, RecurrenceSet, long,
+ * long)}.  An event whose expansion fails is logged and left out of that window.  The store
+ * ends up with what a single expansion of the whole range gives, even for an RRULE with a
+ * COUNT that doesn't generate dtstart: dtstart takes up one of the COUNT only when the
+ * expanded range contains it, so such an event is expanded over a range that contains
+ * dtstart exactly when the whole range does, and cut down to the window.
+ * <p>
+ * Events are added before the scheduler is started, and a scheduler is started once.  The
+ * other methods can be called from any thread.
+ */
+public class ProgressiveExpansionScheduler {
+
+    private static final String TAG = "ProgressiveExpansion";
+
+    /**
+     * Hears about completed windows.  The near window is reported on the thread that called
+     * {@link #start}, the later ones on the executor.
+     */
+    public interface Listener {
+        /**
+         * Called once the occurrences of every event in [startMillis, endMillis) have been
+         * stored.
+         */
+        void onWindowComplete(long startMillis, long endMillis);
+    }
+
+    private static class Event {
+        final long id;
+        final Time dtstart;
+        final RecurrenceSet recur;
+        // Set when the scheduler starts.
+        boolean dependsOnRange;
+
+        Event(long id, Time dtstart, RecurrenceSet recur) {
+            this.id = id;
+            this.dtstart = dtstart;
+            this.recur = recur;
+        }
+    }
+
+    private final Executor mExecutor;
+    private final OccurrenceStore mStore;
+    private final ArrayList<Event> mEvents = new ArrayList<Event>();
+    private volatile Listener mListener;
+
+    private boolean mStarted;
+    private long mRangeStart;
+    private long mRangeEnd;
+    private long mWindowMillis;
+    private volatile long mCompleteEnd;
+    private volatile boolean mCancelled;
+
+    // Used by the background windows, which run one after the other.
+    private RecurrenceProcessor mBackgroundProcessor;
+
+    /**
+     * @param executor runs the windows after the near one
+     * @param store the store that the occurrences are merged into
+     */
+    public ProgressiveExpansionScheduler(Executor executor, OccurrenceStore store) {
+        if (executor == null || store == null) {
+            throw new NullPointerException("executor and store cannot be null");
+        }
+        mExecutor = executor;
+        mStore = store;
+    }
+
+    public OccurrenceStore getStore() {
+        return mStore;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Adds an event to expand.
+     *
+     * @throws IllegalStateException if the scheduler has been started
+     */
+    public synchronized void addEvent(long eventId, Time dtstart, RecurrenceSet recur) {
+        if (mStarted) {
+            throw new IllegalStateException("already started");
+        }
+        // The expansion normalizes dtstart, so keep a copy of our own.
+        Time copy = new Time(dtstart.getTimezone());
+        copy.set(dtstart);
+        copy.setAllDay(dtstart.isAllDay());
+        mEvents.add(new Event(eventId, copy, recur));
+    }
+
+    /**
+     * Expands every event over [rangeStartMillis, nearEndMillis) on the calling thread, then
+     * schedules the rest of the range in windows of windowMillis.
+     *
+     * @throws IllegalStateException if the scheduler has already been started
+     */
+    public void start(long rangeStartMillis, long nearEndMillis, long rangeEndMillis,
+            long windowMillis) {
+        if (nearEndMillis < rangeStartMillis || rangeEndMillis < nearEndMillis) {
+            throw new IllegalArgumentException("bad range " + rangeStartMillis + ","
+                    + nearEndMillis + "," + rangeEndMillis);
+        }
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("bad windowMillis=" + windowMillis);
+        }
+        synchronized (this) {
+            if (mStarted) {
+                throw new IllegalStateException("already started");
+            }
+            mStarted = true;
+            mRangeStart = rangeStartMillis;
+            mRangeEnd = rangeEndMillis;
+            mWindowMillis = windowMillis;
+            mCompleteEnd = rangeStartMillis;
+        }
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        for (Event event : mEvents) {
+            try {
+                event.dependsOnRange = rp.dependsOnRange(event.dtstart, event.recur);
+            } catch (DateException e) {
+                // The expansions will fail and log it.
+            }
+        }
+        expandWindow(rp, rangeStartMillis, nearEndMillis);
+        scheduleFrom(nearEndMillis);
+    }
+
+    /**
+     * Stops expanding.  A window that is being expanded is finished, but no new one starts.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Returns the end of the complete part of the range, which starts at the beginning of the
+     * range: every event's occurrences before this time have been stored.
+     */
+    public long getCompleteEndMillis() {
+        return mCompleteEnd;
+    }
+
+    /**
+     * Returns true if the occurrences of every event in [startMillis, endMillis) have been
+     * stored.
+     */
+    public synchronized boolean isComplete(long startMillis, long endMillis) {
+        return mStarted && startMillis >= mRangeStart && endMillis <= mCompleteEnd;
+    }
+
+    /** Returns true once the whole range has been expanded. */
+    public synchronized boolean isFinished() {
+        return mStarted && mCompleteEnd == mRangeEnd;
+    }
+
+    private void scheduleFrom(final long startMillis) {
+        if (startMillis >= mRangeEnd || mCancelled) {
+            return;
+        }
+        final long endMillis = Math.min(mRangeEnd, startMillis + mWindowMillis);
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCancelled) {
+                        return;
+                    }
+                    Thread thread = Thread.currentThread();
+                    int priority = thread.getPriority();
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    try {
+                        if (mBackgroundProcessor == null) {
+                            mBackgroundProcessor = new RecurrenceProcessor();
+                        }
+                        expandWindow(mBackgroundProcessor, startMillis, endMillis);
+                    } finally {
+                        thread.setPriority(priority);
+                    }
+                    scheduleFrom(endMillis);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Window " + startMillis + "," + endMillis + " rejected", e);
+        }
+    }
+
+    private void expandWindow(RecurrenceProcessor rp, long startMillis, long endMillis) {
+        if (endMillis > startMillis) {
+            for (Event event : mEvents) {
+                try {
+                    mStore.merge(event.id, event.dependsOnRange
+                            ? expandSlice(rp, event, startMillis, endMillis)
+                            : rp.expand(event.dtstart, event.recur, startMillis, endMillis));
+                } catch (DateException e) {
+                    Log.w(TAG, "Can't expand event " + event.id, e);
+                }
+            }
+        }
+        synchronized (this) {
+            mCompleteEnd = endMillis;
+        }
+        Listener listener = mListener;
+        if (listener != null && endMillis > startMillis) {
+            listener.onWindowComplete(startMillis, endMillis);
+        }
+    }
+
+    /**
+     * Expands an event whose instances depend on the range over the window, the way the
+     * expansion of the whole range would: dtstart is expanded only if the whole range
+     * contains it.  The dates are then cut down to the window, keeping the RDATEs that every
+     * expansion returns.
+     */
+    private long[] expandSlice(RecurrenceProcessor rp, Event event, long startMillis,
+            long endMillis) throws DateException {
+        long dtstart = event.dtstart.toMillis();
+        long start = startMillis;
+        long end = endMillis;
+        if (dtstart >= mRangeStart && dtstart < mRangeEnd) {
+            start = Math.min(start, dtstart);
+            end = Math.max(end, dtstart + 1000);
+        }
+        long[] dates = rp.expand(event.dtstart, event.recur, start, end);
+        if (start == startMillis && end == endMillis) {
+            return dates;
+        }
+        // The expansion compares the range with the dates to the second.
+        long lo = PackedExpander.floorDiv(startMillis, 1000) * 1000;
+        long hi = PackedExpander.floorDiv(endMillis, 1000) * 1000;
+        long[] rdates = event.recur.rdates;
+        OccurrenceBuffer kept = new OccurrenceBuffer();
+        for (long date : dates) {
+            if ((date >= lo && date < hi) || contains(rdates, date)) {
+                kept.add(date);
+            }
+        }
+        return kept.toArray();
+    }
+
+    private static boolean contains(long[] dates, long date) {
+        if (dates != null) {
+            for (long d : dates) {
+                if (d == date) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
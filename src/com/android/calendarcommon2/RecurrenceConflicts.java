@@ -0,0 +1,626 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import java.util.TimeZone;
+
+/**
+ * Finds the times when the instances of two recurring events overlap.
+ * <p>
+ * An overlap is a pair of instances, one of each event, whose [begin, end) intervals
+ * intersect, or where an instance with no length begins strictly inside the other; its time
+ * is the begin of the intersection.  Overlaps are returned in the order of the instances of
+ * the first event, and then of the second.
+ * <p>
+ * When both events are a single DAILY or WEEKLY rule (with plain BYDAY days) at a fixed
+ * time of day in the same timezone, each repeats a pattern of days, and the two patterns
+ * repeat together every lcm(period 1, period 2) days.  The days of the combined period
+ * where instances are close enough to overlap are worked out once, so only those days are
+ * visited, and two series that never overlap are told apart without visiting any.  Other
+ * events are expanded over the range and the two sorted lists of instances merged, and so
+ * are series whose time of day is skipped by a daylight saving change on a day the
+ * expansion steps through, as Time moves the instances after it to another time.
+ */
+public final class RecurrenceConflicts {
+
+    /** The longest combined period, in days, that the days to visit are worked out for. */
+    static final int MAX_PERIOD_DAYS = 4096;
+
+    // The days to visit are worked out from the local times of the instances.  The actual
+    // times of the instances can be further apart or closer than that by a daylight saving
+    // change, which is less than this.
+    private static final long SLACK_SECONDS = 3 * 60 * 60;
+
+    private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+
+    // The length of the windows that firstOverlap() expands at a time.
+    private static final long SEARCH_WINDOW_MILLIS = 366 * PackedExpander.MILLIS_PER_DAY;
+
+    private RecurrenceConflicts() {
+    }
+
+    /**
+     * Appends a (begin, end) pair of UTC milliseconds for the intersection of every pair of
+     * overlapping instances of the two events whose intersection begins in the range.
+     *
+     * @param rp the processor to expand the events with
+     * @param dtstart1 the start of the first instance of the first event
+     * @param recur1 the recurrence of the first event
+     * @param duration1 the duration of each instance of the first event
+     * @param dtstart2 the start of the first instance of the second event
+     * @param recur2 the recurrence of the second event
+     * @param duration2 the duration of each instance of the second event
+     * @param rangeStartMillis the beginning of the range, in UTC milliseconds
+     * @param rangeEndMillis the non-inclusive end of the range, in UTC milliseconds; use -1
+     * for the entire range.
+     * @param out the buffer to append the overlaps to
+     * @return the number of overlaps appended to out; twice as many values are appended
+     * @throws DateException
+     * @throws IllegalArgumentException if a recurrence cannot be parsed
+     */
+    public static int findOverlaps(RecurrenceProcessor rp,
+            Time dtstart1, RecurrenceSet recur1, Duration duration1,
+            Time dtstart2, RecurrenceSet recur2, Duration duration2,
+            long rangeStartMillis,
+            long rangeEndMillis,
+            OccurrenceBuffer out) throws DateException {
+        int start = out.size();
+        Pattern pattern = Pattern.of(rp, dtstart1, recur1, duration1, dtstart2, recur2,
+                duration2);
+        if (pattern == null) {
+            merge(rp, dtstart1, recur1, duration1, dtstart2, recur2, duration2,
+                    rangeStartMillis, rangeEndMillis, out);
+        } else if (pattern.mDays.length > 0) {
+            if (rangeEndMillis == -1 && pattern.mEndMillis == Long.MAX_VALUE) {
+                throw new DateException(
+                        "No range end provided for recurrences that have no UNTIL or COUNT.");
+            }
+            long rangeEnd = rangeEndMillis == -1 ? Long.MAX_VALUE : rangeEndMillis;
+            if (!pattern.find(rangeStartMillis, rangeEnd, out)) {
+                merge(rp, dtstart1, recur1, duration1, dtstart2, recur2, duration2,
+                        rangeStartMillis, rangeEndMillis, out);
+            }
+        }
+        return (out.size() - start) / 2;
+    }
+
+    /**
+     * Returns the begin of the first overlap of the two events, like
+     * {@link #findOverlaps}, that begins at or after afterMillis and before horizonMillis,
+     * or -1 if there is none.
+     *
+     * @param horizonMillis the non-inclusive end of the search, in UTC milliseconds; use -1
+     * to search until one of the events ends.  Two events that never end can be searched
+     * without a horizon only if they are found to never overlap, or to overlap at a fixed
+     * time in every combined period.
+     * @throws DateException
+     * @throws IllegalArgumentException if a recurrence cannot be parsed
+     */
+    public static long firstOverlap(RecurrenceProcessor rp,
+            Time dtstart1, RecurrenceSet recur1, Duration duration1,
+            Time dtstart2, RecurrenceSet recur2, Duration duration2,
+            long afterMillis,
+            long horizonMillis) throws DateException {
+        Pattern pattern = Pattern.of(rp, dtstart1, recur1, duration1, dtstart2, recur2,
+                duration2);
+        long endMillis;
+        long windowMillis;
+        if (pattern != null) {
+            if (pattern.mDays.length == 0) {
+                return -1;
+            }
+            endMillis = pattern.mEndMillis;
+            windowMillis = Math.max(pattern.mPeriod, 28) * PackedExpander.MILLIS_PER_DAY;
+        } else {
+            endMillis = Math.min(endMillis(rp, dtstart1, recur1, duration1),
+                    endMillis(rp, dtstart2, recur2, duration2));
+            windowMillis = SEARCH_WINDOW_MILLIS;
+        }
+        if (horizonMillis != -1) {
+            endMillis = Math.min(endMillis, horizonMillis);
+        } else if (endMillis == Long.MAX_VALUE && (pattern == null || !pattern.mRegular)) {
+            throw new DateException(
+                    "No horizon provided for recurrences that have no UNTIL or COUNT.");
+        }
+
+        OccurrenceBuffer overlaps = new OccurrenceBuffer();
+        for (long from = afterMillis; from < endMillis; from += windowMillis) {
+            long to = endMillis - from > windowMillis ? from + windowMillis : endMillis;
+            overlaps.clear();
+            if (pattern == null || !pattern.find(from, to, overlaps)) {
+                merge(rp, dtstart1, recur1, duration1, dtstart2, recur2, duration2, from, to,
+                        overlaps);
+            }
+            if (overlaps.size() > 0) {
+                long first = Long.MAX_VALUE;
+                long[] values = overlaps.array();
+                for (int i = 0; i < overlaps.size(); i += 2) {
+                    first = Math.min(first, values[i]);
+                }
+                return first;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns an upper bound of the end of the instances of the event, or Long.MAX_VALUE if
+     * it doesn't end.
+     */
+    private static long endMillis(RecurrenceProcessor rp, Time dtstart, RecurrenceSet recur,
+            Duration duration) throws DateException {
+        if (recur.rrules != null) {
+            for (EventRecurrence r : recur.rrules) {
+                if (r.count == 0 && r.until == null) {
+                    return Long.MAX_VALUE;
+                }
+            }
+        }
+        // The exclusions only take instances away, and can't be expanded without a range end
+        // if an EXRULE doesn't end, so the bound is worked out without them.
+        RecurrenceSet included = new RecurrenceSet(null, null, null, null);
+        included.rrules = recur.rrules;
+        included.rdates = recur.rdates;
+        long last = rp.getLastOccurence(dtstart, included);
+        if (last == -1) {
+            return Long.MAX_VALUE;
+        }
+        if (hasCount(recur)) {
+            // When dtstart isn't an occurrence of a rule, it only takes up one of the COUNT
+            // if the expansion starts at it, so a later range can hold one more instance.
+            long[] dates = rp.expand(dtstart, included, dtstart.toMillis() + 1000, -1);
+            if (dates.length > 0) {
+                last = Math.max(last, dates[dates.length - 1]);
+            }
+        }
+        // A day more for the nominal days of the duration, which can be 25 hours long.
+        return Math.max(last, dtstart.toMillis()) + Math.max(duration.getMillis(), 0)
+                + PackedExpander.MILLIS_PER_DAY;
+    }
+
+    private static boolean hasCount(RecurrenceSet recur) {
+        if (recur.rrules != null) {
+            for (EventRecurrence r : recur.rrules) {
+                if (r.count > 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Expands the instances of both events that intersect the range, and merges the two
+     * lists by begin time.
+     */
+    private static void merge(RecurrenceProcessor rp,
+            Time dtstart1, RecurrenceSet recur1, Duration duration1,
+            Time dtstart2, RecurrenceSet recur2, Duration duration2,
+            long rangeStartMillis,
+            long rangeEndMillis,
+            OccurrenceBuffer out) throws DateException {
+        long rangeEnd = rangeEndMillis == -1 ? Long.MAX_VALUE : rangeEndMillis;
+        OccurrenceBuffer first = new OccurrenceBuffer();
+        OccurrenceBuffer second = new OccurrenceBuffer();
+        int count1 = rp.expandOverlapping(dtstart1, recur1, duration1, rangeStartMillis,
+                rangeEndMillis, first);
+        int count2 = rp.expandOverlapping(dtstart2, recur2, duration2, rangeStartMillis,
+                rangeEndMillis, second);
+        long[] a = first.array();
+        long[] b = second.array();
+        // The instances of the second event before j end before the current instance of
+        // the first one begins, so they can't overlap it or any later one.
+        int j = 0;
+        for (int i = 0; i < count1; i++) {
+            long begin = a[2 * i];
+            long end = a[2 * i + 1];
+            while (j < count2 && b[2 * j + 1] <= begin) {
+                j++;
+            }
+            for (int k = j; k < count2 && b[2 * k] < end; k++) {
+                addOverlap(begin, end, b[2 * k], b[2 * k + 1], rangeStartMillis, rangeEnd,
+                        out);
+            }
+        }
+    }
+
+    private static void addOverlap(long begin1, long end1, long begin2, long end2,
+            long rangeStartMillis, long rangeEndMillis, OccurrenceBuffer out) {
+        if (begin1 < end2 && begin2 < end1) {
+            long begin = Math.max(begin1, begin2);
+            if (begin >= rangeStartMillis && begin < rangeEndMillis) {
+                out.add(begin);
+                out.add(Math.min(end1, end2));
+            }
+        }
+    }
+
+    /**
+     * The days where two periodic series can overlap.
+     */
+    private static final class Pattern {
+        final Series mFirst;
+        final Series mSecond;
+        final int mPeriod;
+        // The (day of the combined period, days to the instance of the second series) of
+        // the instances of the first series that can overlap one of the second, in order.
+        // Days are counted from epoch day 0.
+        final int[] mDays;
+        final int[] mDeltas;
+        // Whether one of them overlaps in local time by more than a daylight saving change,
+        // so that it overlaps in every combined period while both series go on.
+        final boolean mRegular;
+        final long mEndMillis;
+
+        private Pattern(Series first, Series second, int period, int[] days, int[] deltas,
+                boolean regular) {
+            mFirst = first;
+            mSecond = second;
+            mPeriod = period;
+            mDays = days;
+            mDeltas = deltas;
+            mRegular = regular;
+            mEndMillis = Math.min(first.mEndMillis, second.mEndMillis);
+        }
+
+        /**
+         * Returns the pattern of the two events, or null if they are not both periodic in
+         * the same timezone, or the combined period is too long.
+         */
+        static Pattern of(RecurrenceProcessor rp,
+                Time dtstart1, RecurrenceSet recur1, Duration duration1,
+                Time dtstart2, RecurrenceSet recur2, Duration duration2)
+                throws DateException {
+            if (!dtstart1.getTimezone().equals(dtstart2.getTimezone())) {
+                return null;
+            }
+            Series first = Series.of(rp, dtstart1, recur1, duration1);
+            Series second = first != null ? Series.of(rp, dtstart2, recur2, duration2) : null;
+            if (second == null) {
+                return null;
+            }
+            long gcd = gcd(first.mPeriod, second.mPeriod);
+            long period = first.mPeriod / gcd * second.mPeriod;
+            if (period > MAX_PERIOD_DAYS) {
+                return null;
+            }
+            int p = (int) period;
+
+            // The instances overlap if -length2 < begin2 - begin1 < length1, in seconds,
+            // where begin2 - begin1 = delta * SECONDS_PER_DAY + time2 - time1.
+            long low = first.mTime - second.mTime - second.mLength;
+            long high = first.mTime + first.mLength - second.mTime;
+            int minDelta = (int) PackedExpander.floorDiv(low - SLACK_SECONDS, SECONDS_PER_DAY)
+                    + 1;
+            int maxDelta = (int) -PackedExpander.floorDiv(-high - SLACK_SECONDS,
+                    SECONDS_PER_DAY) - 1;
+            if (maxDelta - minDelta >= p) {
+                return null;
+            }
+
+            boolean[] secondDays = new boolean[p];
+            for (long day = second.mAnchor; day < second.mAnchor + p; day += second.mPeriod) {
+                for (int offset : second.mOffsets) {
+                    secondDays[(int) PackedExpander.floorMod(day + offset, p)] = true;
+                }
+            }
+            boolean[] firstDays = new boolean[p];
+            for (long day = first.mAnchor; day < first.mAnchor + p; day += first.mPeriod) {
+                for (int offset : first.mOffsets) {
+                    firstDays[(int) PackedExpander.floorMod(day + offset, p)] = true;
+                }
+            }
+            OccurrenceBuffer pairs = new OccurrenceBuffer();
+            boolean regular = false;
+            for (int day = 0; day < p; day++) {
+                if (!firstDays[day]) {
+                    continue;
+                }
+                for (int delta = minDelta; delta <= maxDelta; delta++) {
+                    if (secondDays[(int) PackedExpander.floorMod(day + delta, p)]) {
+                        pairs.add(day);
+                        pairs.add(delta);
+                        long distance = (long) delta * SECONDS_PER_DAY;
+                        regular |= distance > low + SLACK_SECONDS
+                                && distance < high - SLACK_SECONDS;
+                    }
+                }
+            }
+            int n = pairs.size() / 2;
+            int[] days = new int[n];
+            int[] deltas = new int[n];
+            for (int i = 0; i < n; i++) {
+                days[i] = (int) pairs.get(2 * i);
+                deltas[i] = (int) pairs.get(2 * i + 1);
+            }
+            return new Pattern(first, second, p, days, deltas, regular);
+        }
+
+        /**
+         * Appends the overlaps that begin in [rangeStartMillis, rangeEndMillis), or returns
+         * false without appending any if a series doesn't keep its time of day up to the
+         * end of the range.
+         */
+        boolean find(long rangeStartMillis, long rangeEndMillis, OccurrenceBuffer out) {
+            Series first = mFirst;
+            Series second = mSecond;
+            long endDay = PackedExpander.floorDiv(Math.min(rangeEndMillis, mEndMillis),
+                    PackedExpander.MILLIS_PER_DAY) + 1;
+            if (!first.keepsTime(endDay) || !second.keepsTime(endDay)) {
+                return false;
+            }
+            // The local days of the instances of the first series that can overlap the
+            // range, widened by a day for the offset of the timezone.
+            long fromDay = Math.max(first.mFirstDay,
+                    PackedExpander.floorDiv(rangeStartMillis, PackedExpander.MILLIS_PER_DAY)
+                    - first.mLength / SECONDS_PER_DAY - 2);
+            long toDay = Math.min(first.mLastDay, PackedExpander.floorDiv(
+                    Math.min(rangeEndMillis, mEndMillis), PackedExpander.MILLIS_PER_DAY) + 1);
+            for (long base = PackedExpander.floorDiv(fromDay, mPeriod) * mPeriod;
+                    base <= toDay; base += mPeriod) {
+                long lastDay = -1;
+                long begin1 = 0;
+                long end1 = 0;
+                for (int i = 0; i < mDays.length; i++) {
+                    long day1 = base + mDays[i];
+                    long day2 = day1 + mDeltas[i];
+                    if (day1 < fromDay || day1 > toDay
+                            || day2 < second.mFirstDay || day2 > second.mLastDay) {
+                        continue;
+                    }
+                    if (day1 != lastDay) {
+                        lastDay = day1;
+                        begin1 = first.begin(day1);
+                        end1 = first.end(day1, begin1);
+                    }
+                    if (begin1 > first.mLastBegin) {
+                        continue;
+                    }
+                    long begin2 = second.begin(day2);
+                    if (begin2 > second.mLastBegin) {
+                        continue;
+                    }
+                    addOverlap(begin1, end1, begin2, second.end(day2, begin2),
+                            rangeStartMillis, rangeEndMillis, out);
+                }
+            }
+            return true;
+        }
+
+        private static long gcd(long a, long b) {
+            while (b != 0) {
+                long t = a % b;
+                a = b;
+                b = t;
+            }
+            return a;
+        }
+    }
+
+    /**
+     * An event that occurs once on each of a fixed set of days of every period, at the
+     * time of day of dtstart.
+     */
+    private static final class Series {
+        // The period, in days, and the epoch day that one starts on.
+        final int mPeriod;
+        final long mAnchor;
+        // The days of the period the event occurs on.
+        final int[] mOffsets;
+        final int mHour;
+        final int mMinute;
+        final int mSecond;
+        // The second of the day, and the length of an instance in local seconds.
+        final long mTime;
+        final long mLength;
+        final int mNominalDays;
+        final long mExactMillis;
+        // The nominal days that are weeks, which Duration.addTo() adds first.
+        final int mWeekDays;
+        // The local days of the first and last instances, and the begin of the last one.
+        final long mFirstDay;
+        final long mLastDay;
+        final long mLastBegin;
+        // An upper bound of the end of the last instance.
+        final long mEndMillis;
+
+        private final TimeZone mTimeZone;
+        private final ZoneOffsetCache mOffsetCache = new ZoneOffsetCache();
+        private final Time mTimeScratch;
+        // The days before this one that the expansion steps through have the time of day.
+        private long mCheckedDay;
+
+        private Series(Time dtstart, int period, long anchor, int[] offsets, Duration duration,
+                long firstDay, long lastBegin) {
+            mPeriod = period;
+            mAnchor = anchor;
+            mOffsets = offsets;
+            mHour = dtstart.getHour();
+            mMinute = dtstart.getMinute();
+            mSecond = dtstart.getSecond();
+            mTime = mHour * 3600 + mMinute * 60 + mSecond;
+            mNominalDays = duration.getNominalDays();
+            mExactMillis = duration.getExactMillis();
+            mWeekDays = duration.sign * 7 * duration.weeks;
+            mLength = (long) mNominalDays * SECONDS_PER_DAY + mExactMillis / 1000;
+            mFirstDay = firstDay;
+            mCheckedDay = firstDay;
+            mLastBegin = lastBegin;
+            mTimeScratch = new Time(dtstart.getTimezone());
+            mTimeZone = TimeZone.getTimeZone(dtstart.getTimezone());
+            mOffsetCache.setTimeZone(mTimeZone);
+            if (lastBegin == Long.MAX_VALUE) {
+                mLastDay = Long.MAX_VALUE;
+                mEndMillis = Long.MAX_VALUE;
+            } else {
+                mLastDay = PackedExpander.floorDiv(lastBegin, PackedExpander.MILLIS_PER_DAY) + 1;
+                mEndMillis = lastBegin + Math.max(mLength, 0) * 1000 + SLACK_SECONDS * 1000;
+            }
+        }
+
+        /**
+         * Returns the series of the event, or null if it isn't a single DAILY or WEEKLY rule
+         * without other BYxxx parts than BYDAY, whose dtstart is one of its days.
+         */
+        static Series of(RecurrenceProcessor rp, Time dtstart, RecurrenceSet recur,
+                Duration duration) throws DateException {
+            if (recur.rrules == null || recur.rrules.length != 1 || recur.rdates != null
+                    || recur.exrules != null || recur.exdates != null
+                    || dtstart.getYear() <= PackedExpander.MIN_YEAR
+                    || duration.getNominalDays() < 0 || duration.getExactMillis() < 0) {
+                return null;
+            }
+            EventRecurrence r = recur.rrules[0];
+            if (r.bysecondCount > 0 || r.byminuteCount > 0 || r.byhourCount > 0
+                    || r.bymonthdayCount > 0 || r.byyeardayCount > 0 || r.byweeknoCount > 0
+                    || r.bymonthCount > 0 || r.bysetposCount > 0) {
+                return null;
+            }
+            long firstDay = PackedExpander.epochDay(dtstart.getYear(), dtstart.getMonth(),
+                    dtstart.getDay());
+            int interval = Math.max(r.interval, 1);
+            int period;
+            long anchor;
+            int[] offsets;
+            if (r.freq == EventRecurrence.DAILY && r.bydayCount == 0) {
+                period = interval;
+                anchor = firstDay;
+                offsets = new int[] {0};
+            } else if (r.freq == EventRecurrence.WEEKLY) {
+                int wkst = EventRecurrence.day2TimeDay(r.wkst);
+                int dtstartOffset = (PackedExpander.weekDay(firstDay) - wkst + 7) % 7;
+                period = 7 * interval;
+                anchor = firstDay - dtstartOffset;
+                boolean[] days = new boolean[7];
+                if (r.bydayCount == 0) {
+                    days[dtstartOffset] = true;
+                }
+                for (int i = 0; i < r.bydayCount; i++) {
+                    if (r.bydayNum[i] != 0) {
+                        return null;
+                    }
+                    days[(EventRecurrence.day2TimeDay(r.byday[i]) - wkst + 7) % 7] = true;
+                }
+                // Otherwise dtstart is an extra instance.
+                if (!days[dtstartOffset]) {
+                    return null;
+                }
+                int n = 0;
+                offsets = new int[7];
+                for (int i = 0; i < 7; i++) {
+                    if (days[i]) {
+                        offsets[n++] = i;
+                    }
+                }
+                int[] trimmed = new int[n];
+                System.arraycopy(offsets, 0, trimmed, 0, n);
+                offsets = trimmed;
+            } else {
+                return null;
+            }
+            if (period > MAX_PERIOD_DAYS) {
+                return null;
+            }
+
+            long lastBegin = Long.MAX_VALUE;
+            if (r.count > 0 || r.until != null) {
+                lastBegin = rp.getLastOccurence(dtstart, recur);
+                if (lastBegin <= 0) {
+                    // No instances at all; let the expansion deal with it.
+                    return null;
+                }
+                // dtstart is an instance even if the rule ends before it.
+                lastBegin = Math.max(lastBegin, dtstart.toMillis());
+            }
+            return new Series(dtstart, period, anchor, offsets, duration, firstDay, lastBegin);
+        }
+
+        /**
+         * Returns true if the time of day exists on every day up to the given one that the
+         * expansion steps its iterator through: dtstart's day and every period after it.
+         * Time moves the iterator past a skipped time, and the later instances with it.
+         */
+        boolean keepsTime(long toDay) {
+            toDay = Math.min(toDay, mLastDay);
+            long day = mCheckedDay;
+            for (; day <= toDay; day += 4) {
+                long start = day * PackedExpander.MILLIS_PER_DAY;
+                if (mOffsetCache.isConstantBetween(start - PackedExpander.MILLIS_PER_DAY,
+                        start + 5 * PackedExpander.MILLIS_PER_DAY)) {
+                    continue;
+                }
+                for (long d = day; d < day + 4; d++) {
+                    if (PackedExpander.floorMod(d - mFirstDay, mPeriod) == 0
+                            && mOffsetCache.offsetOfLocalDay(d) == ZoneOffsetCache.NOT_CONSTANT
+                            && !RecurrenceProcessor.existsLocally(mOffsetCache.getTimeZone(),
+                                    start + (d - day) * PackedExpander.MILLIS_PER_DAY
+                                    + mTime * 1000)) {
+                        mCheckedDay = day;
+                        return false;
+                    }
+                }
+            }
+            mCheckedDay = day;
+            return true;
+        }
+
+        /** Returns the begin of the instance on the given local day, like the expansion. */
+        long begin(long day) {
+            long value = PackedExpander.dayValue(day)
+                    | (mHour << 12) | (mMinute << 6) | mSecond;
+            return localToMillis(value);
+        }
+
+        long end(long day, long begin) {
+            long end = begin;
+            if (mNominalDays != 0) {
+                if (isConstant(day) && isConstant(day + mWeekDays)
+                        && isConstant(day + mNominalDays)) {
+                    end = begin(day + mNominalDays);
+                } else {
+                    // The begin may have been moved past a skipped time, and the end may be
+                    // skipped, so the days are added like the expansion does.
+                    end = RecurrenceProcessor.addLocalDays(mTimeZone, begin, mWeekDays);
+                    end = RecurrenceProcessor.addLocalDays(mTimeZone, end,
+                            mNominalDays - mWeekDays);
+                }
+            }
+            return end + mExactMillis;
+        }
+
+        private boolean isConstant(long day) {
+            return mOffsetCache.offsetOfLocalDay(day) != ZoneOffsetCache.NOT_CONSTANT;
+        }
+
+        private long localToMillis(long value) {
+            int offset = mOffsetCache.offsetOfLocalDay(PackedExpander.epochDay(
+                    PackedExpander.year(value), PackedExpander.month(value),
+                    PackedExpander.day(value)));
+            if (offset != ZoneOffsetCache.NOT_CONSTANT) {
+                return PackedExpander.toMillis(value, offset);
+            }
+            Time t = mTimeScratch;
+            t.setYear(PackedExpander.year(value));
+            t.setMonth(PackedExpander.month(value));
+            t.setDay(PackedExpander.day(value));
+            t.setHour(PackedExpander.hour(value));
+            t.setMinute(PackedExpander.minute(value));
+            t.setSecond(PackedExpander.second(value));
+            return t.toMillis();
+        }
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+/**
+ * An estimate of the work {@link RecurrenceProcessor#expand} does for a recurrence and a
+ * range, made from the structure of the rules without running them.
+ * <p>
+ * This is meant to let callers reject, defer or budget the expansion of expensive
+ * recurrences.  The numbers follow what the expansion loops do: the periods a rule
+ * iterates over, the candidate date-times generated in them, and the occurrences that
+ * pass the filters.  The filters are assumed to be independent and uniformly distributed.
+ * Rules that are known to generate nothing, like FREQ=DAILY;BYMONTH=2;BYMONTHDAY=30, cost
+ * nothing, as they aren't run, and the periods that MONTHLY and YEARLY rules skip to get to
+ * the range are only counted towards the failsafe.  {@link #isTruncated()} tells whether a
+ * rule would run into the iteration failsafe.
+ */
+public final class RecurrenceCost {
+
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final long MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
+    private static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+    private static final double DAYS_PER_YEAR = 365.2425;
+    private static final double DAYS_PER_MONTH = DAYS_PER_YEAR / 12;
+    private static final double WEEKS_PER_YEAR = DAYS_PER_YEAR / 7;
+    private static final long MIN_MILLIS =
+            PackedExpander.epochDay(PackedExpander.MIN_YEAR, 0, 1) * PackedExpander.MILLIS_PER_DAY;
+
+    private long mIterations;
+    private long mCandidates;
+    private long mOccurrences;
+    private boolean mTruncated;
+
+    private RecurrenceCost() {
+    }
+
+    /**
+     * Returns the number of periods (one step of a rule's frequency) that the rules are
+     * expected to run for, EXRULEs included.
+     */
+    public long getIterations() {
+        return mIterations;
+    }
+
+    /** Returns the expected number of candidate date-times generated by the rules. */
+    public long getCandidates() {
+        return mCandidates;
+    }
+
+    /**
+     * Returns the expected number of occurrences in the range, including the RDATEs.
+     * EXRULEs and EXDATEs are not taken into account, so this errs on the high side.
+     */
+    public long getOccurrences() {
+        return mOccurrences;
+    }
+
+    /**
+     * Returns true if a rule is expected to stop because it runs for too many iterations,
+     * in which case the expansion is incomplete.
+     */
+    public boolean isTruncated() {
+        return mTruncated;
+    }
+
+    @Override
+    public String toString() {
+        return "iterations=" + mIterations + " candidates=" + mCandidates
+                + " occurrences=" + mOccurrences + (mTruncated ? " truncated" : "");
+    }
+
+    /**
+     * Estimates the cost of expanding a recurrence with
+     * {@link RecurrenceProcessor#expand(Time, RecurrenceSet, long, long)}, which takes the
+     * same parameters.
+     *
+     * @param dtstart the dtstart date
+     * @param recur the recurrence set
+     * @param rangeStartMillis the beginning of the range, in UTC milliseconds
+     * @param rangeEndMillis the non-inclusive end of the range, in UTC milliseconds, or -1
+     * for no end
+     */
+    public static RecurrenceCost estimate(Time dtstart, RecurrenceSet recur,
+            long rangeStartMillis, long rangeEndMillis) {
+        RecurrenceCost cost = new RecurrenceCost();
+        long dtstartMillis = dtstart.toMillis();
+        double rangeEnd = rangeEndMillis != -1 ? rangeEndMillis : Double.POSITIVE_INFINITY;
+        if (recur.rdates != null) {
+            for (long rdate : recur.rdates) {
+                if (rdate >= rangeStartMillis && rdate < rangeEnd) {
+                    cost.mOccurrences++;
+                }
+            }
+        }
+        if (recur.rrules != null) {
+            for (EventRecurrence r : recur.rrules) {
+                cost.addRule(r, dtstartMillis, rangeStartMillis, rangeEnd, true);
+            }
+        }
+        if (recur.exrules != null) {
+            for (EventRecurrence r : recur.exrules) {
+                cost.addRule(r, dtstartMillis, rangeStartMillis, rangeEnd, false);
+            }
+        }
+        return cost;
+    }
+
+    private void addRule(EventRecurrence r, long dtstartMillis, long rangeStartMillis,
+            double rangeEnd, boolean add) {
+        int freq = r.freq;
+        double periodMillis = periodMillis(r);
+        boolean subDaily = freq >= EventRecurrence.SECONDLY && freq <= EventRecurrence.HOURLY;
+        long maxIterations = subDaily
+                ? SubDailyExpander.MAX_ALLOWED_ITERATIONS
+                : RecurrenceProcessor.MAX_ALLOWED_ITERATIONS;
+
+        // The average number of candidates and occurrences of a period.
+        double candidates = expansions(r) * keptFraction(r);
+        double occurrences = candidates * passFraction(r);
+        if (r.bysetposCount > 0) {
+            occurrences = Math.min(occurrences, r.bysetposCount * keptFraction(r));
+        }
+
+        double until = untilMillis(r);
+        if (until < dtstartMillis || PackedExpander.isUnsatisfiable(r)) {
+            return;
+        }
+
+        // The rule runs from dtstart until the first period that starts after UNTIL or the
+        // end of the range, or until it has found COUNT occurrences.
+        double start = dtstartMillis;
+        if (subDaily && r.count == 0) {
+            // SubDailyExpander skips to a couple of days before the range.
+            start = Math.max(start, rangeStartMillis - 2 * PackedExpander.MILLIS_PER_DAY);
+        }
+        double end = Math.min(rangeEnd, until);
+        double periods = Math.ceil((end - start) / periodMillis) + 1;
+        // MONTHLY and YEARLY rules without COUNT skip to the month or year of the range
+        // start, but the skipped periods still count towards the failsafe.
+        double skipped = 0;
+        if ((freq == EventRecurrence.MONTHLY || freq == EventRecurrence.YEARLY)
+                && r.count == 0 && until >= rangeStartMillis && rangeEnd > rangeStartMillis
+                && dtstartMillis >= MIN_MILLIS) {
+            skipped = Math.max(0, Math.floor((rangeStartMillis - start) / periodMillis) - 1);
+        }
+        if (r.count > 0 && occurrences > 0) {
+            double countPeriods = Math.ceil(r.count / occurrences);
+            if (countPeriods < periods) {
+                periods = countPeriods;
+                end = start + periods * periodMillis;
+            }
+        }
+        if (!(periods >= 1)) {
+            periods = 1;
+        }
+        double iterations = periods * iterationFraction(r, periodMillis);
+        if (iterations > maxIterations) {
+            mTruncated = true;
+            periods *= maxIterations / iterations;
+            iterations = maxIterations + 1;
+            end = start + periods * periodMillis;
+        }
+        iterations = Math.max(0, iterations - skipped * iterationFraction(r, periodMillis));
+        periods = Math.max(0, periods - skipped);
+        mIterations += Math.round(iterations);
+        mCandidates += Math.round(periods * candidates);
+
+        if (add) {
+            double inRange = Math.min(end, rangeEnd) - Math.max(dtstartMillis, rangeStartMillis);
+            if (inRange > 0) {
+                double found = inRange / periodMillis * occurrences;
+                if (r.count > 0) {
+                    found = Math.min(found, r.count);
+                }
+                mOccurrences += Math.round(found);
+            }
+        }
+    }
+
+    /** Returns the average length of a rule's period. */
+    private static double periodMillis(EventRecurrence r) {
+        int interval = r.interval > 0 ? r.interval : 1;
+        double millis;
+        switch (r.freq) {
+            case EventRecurrence.SECONDLY:
+                millis = MILLIS_PER_SECOND;
+                break;
+            case EventRecurrence.MINUTELY:
+                millis = MILLIS_PER_MINUTE;
+                break;
+            case EventRecurrence.HOURLY:
+                millis = MILLIS_PER_HOUR;
+                break;
+            case EventRecurrence.DAILY:
+                millis = PackedExpander.MILLIS_PER_DAY;
+                break;
+            case EventRecurrence.WEEKLY:
+                millis = 7 * PackedExpander.MILLIS_PER_DAY;
+                break;
+            case EventRecurrence.MONTHLY:
+                millis = DAYS_PER_MONTH * PackedExpander.MILLIS_PER_DAY;
+                break;
+            default:
+                millis = DAYS_PER_YEAR * PackedExpander.MILLIS_PER_DAY;
+                break;
+        }
+        return millis * interval;
+    }
+
+    /**
+     * Returns the number of candidates generated for a period that isn't skipped, which is
+     * the product of the lists that expand at the rule's frequency.  When days are expanded,
+     * only the ones that match BYDAY and BYMONTHDAY become candidates.
+     */
+    private static double expansions(EventRecurrence r) {
+        int freq = r.freq;
+        double candidates = 1;
+        if (freq > EventRecurrence.MONTHLY && r.bymonthCount > 0) {
+            candidates *= r.bymonthCount;
+        }
+        if (useDays(r)) {
+            candidates *= (freq == EventRecurrence.WEEKLY ? 7 : DAYS_PER_MONTH)
+                    * daySelectivity(r);
+        }
+        if (freq > EventRecurrence.HOURLY && r.byhourCount > 0) {
+            candidates *= r.byhourCount;
+        }
+        if (freq > EventRecurrence.MINUTELY && r.byminuteCount > 0) {
+            candidates *= r.byminuteCount;
+        }
+        if (freq > EventRecurrence.SECONDLY && r.bysecondCount > 0) {
+            candidates *= r.bysecondCount;
+        }
+        return candidates;
+    }
+
+    private static boolean useDays(EventRecurrence r) {
+        return r.freq >= EventRecurrence.WEEKLY && (r.bydayCount > 0 || r.bymonthdayCount > 0);
+    }
+
+    /**
+     * Returns the fraction of periods that aren't skipped.  The expansion skips the periods
+     * whose candidates the filters would all reject: the days of a DAILY rule, the weeks
+     * and months outside of BYMONTH, and the days, hours and minutes of a sub-daily rule.
+     */
+    private static double keptFraction(EventRecurrence r) {
+        switch (r.freq) {
+            case EventRecurrence.YEARLY:
+                return 1;
+            case EventRecurrence.MONTHLY:
+            case EventRecurrence.WEEKLY:
+                return periodMonthSelectivity(r);
+            case EventRecurrence.DAILY:
+                return monthSelectivity(r) * dateSelectivity(r);
+            default:
+                return monthSelectivity(r) * dateSelectivity(r) * timeSelectivity(r, false);
+        }
+    }
+
+    /**
+     * Returns the fraction of the candidates of a period that aren't skipped that pass the
+     * filters.
+     */
+    private static double passFraction(EventRecurrence r) {
+        switch (r.freq) {
+            case EventRecurrence.YEARLY:
+            case EventRecurrence.MONTHLY:
+            case EventRecurrence.WEEKLY:
+                // BYDAY and BYMONTHDAY are applied while generating the candidates.
+                double selectivity = useDays(r)
+                        ? dateSelectivity(r) / daySelectivity(r)
+                        : dateSelectivity(r);
+                return selectivity * monthSelectivity(r) / keptFraction(r);
+            case EventRecurrence.DAILY:
+                return 1;
+            default:
+                return timeSelectivity(r, true);
+        }
+    }
+
+    /**
+     * Returns the number of iterations per period.  A sub-daily rule skips a day, hour or
+     * minute that the filters reject in one iteration, however many periods it contains.
+     */
+    private static double iterationFraction(EventRecurrence r, double periodMillis) {
+        if (r.freq > EventRecurrence.HOURLY) {
+            return 1;
+        }
+        double fraction = skipFraction(monthSelectivity(r) * dateSelectivity(r),
+                periodMillis / PackedExpander.MILLIS_PER_DAY);
+        if (r.byhourCount > 0) {
+            fraction *= skipFraction(Math.min(1, r.byhourCount / 24.0),
+                    periodMillis / MILLIS_PER_HOUR);
+        }
+        if (r.freq < EventRecurrence.MINUTELY && r.byminuteCount > 0) {
+            fraction *= skipFraction(Math.min(1, r.byminuteCount / 60.0),
+                    periodMillis / MILLIS_PER_MINUTE);
+        }
+        return fraction;
+    }
+
+    private static double skipFraction(double kept, double periodsPerSkip) {
+        return kept + (1 - kept) * Math.min(1, periodsPerSkip);
+    }
+
+    /**
+     * Returns the fraction of times that the BYHOUR, BYMINUTE and BYSECOND filters keep,
+     * for a sub-daily rule.  The sub-daily expansion skips by hour and minute (unless
+     * BYMINUTE expands), so those are separated from the BYSECOND filter.
+     */
+    private static double timeSelectivity(EventRecurrence r, boolean seconds) {
+        int freq = r.freq;
+        double selectivity = 1;
+        if (seconds) {
+            if (freq == EventRecurrence.SECONDLY && r.bysecondCount > 0) {
+                selectivity *= Math.min(1, r.bysecondCount / 60.0);
+            }
+            return selectivity;
+        }
+        if (r.byhourCount > 0) {
+            selectivity *= Math.min(1, r.byhourCount / 24.0);
+        }
+        if (freq < EventRecurrence.HOURLY && r.byminuteCount > 0) {
+            selectivity *= Math.min(1, r.byminuteCount / 60.0);
+        }
+        return selectivity;
+    }
+
+    /** Returns the fraction of dates that BYMONTH keeps when it doesn't expand. */
+    private static double monthSelectivity(EventRecurrence r) {
+        if (r.freq == EventRecurrence.YEARLY || r.bymonthCount == 0) {
+            return 1;
+        }
+        return Math.min(1, r.bymonthCount / 12.0);
+    }
+
+    /**
+     * Returns the fraction of the weeks or months of a WEEKLY or MONTHLY rule that overlap
+     * the months in BYMONTH.  Only the ones that don't are skipped.
+     */
+    private static double periodMonthSelectivity(EventRecurrence r) {
+        if (r.bymonthCount == 0) {
+            return 1;
+        }
+        // The expansion looks at the months of the first day of the period and of the day
+        // a week or a month after.
+        int span = r.freq == EventRecurrence.WEEKLY ? 7 : 31;
+        return Math.min(1, r.bymonthCount * (DAYS_PER_MONTH + span) / DAYS_PER_YEAR);
+    }
+
+    /**
+     * Returns the fraction of dates that BYWEEKNO, BYYEARDAY, BYMONTHDAY and BYDAY keep.
+     */
+    private static double dateSelectivity(EventRecurrence r) {
+        double selectivity = daySelectivity(r);
+        if (r.byweeknoCount > 0) {
+            selectivity *= Math.min(1, r.byweeknoCount / WEEKS_PER_YEAR);
+        }
+        if (r.byyeardayCount > 0) {
+            selectivity *= Math.min(1, r.byyeardayCount / DAYS_PER_YEAR);
+        }
+        return selectivity;
+    }
+
+    /** Returns the fraction of dates that BYMONTHDAY and BYDAY keep. */
+    private static double daySelectivity(EventRecurrence r) {
+        double selectivity = 1;
+        if (r.bymonthdayCount > 0) {
+            selectivity *= Math.min(1, r.bymonthdayCount / DAYS_PER_MONTH);
+        }
+        if (r.bydayCount > 0) {
+            // A plain weekday matches one day in seven, a numbered one about one in thirty.
+            double days = 0;
+            for (int i = 0; i < r.bydayCount; i++) {
+                days += r.bydayNum[i] == 0 ? 1 / 7.0 : 1 / DAYS_PER_MONTH;
+            }
+            selectivity *= Math.min(1, days);
+        }
+        return selectivity;
+    }
+
+    /** Returns UNTIL in UTC milliseconds, or infinity if there is none. */
+    private static double untilMillis(EventRecurrence r) {
+        if (r.until == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        String untilStr = r.until;
+        // Same as RecurrenceProcessor: a date-time without a timezone is in UTC.
+        if (untilStr.length() == 15) {
+            untilStr = untilStr + 'Z';
+        }
+        Time until = new Time(Time.TIMEZONE_UTC);
+        until.parse(untilStr);
+        return until.toMillis();
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+/**
+ * The instances added and removed in a range when the recurrence of an event changes, so
+ * that only they need to be written to the instances table.
+ * <p>
+ * When dtstart is unchanged, the instances can only differ at the times of the rules,
+ * RDATEs and EXDATEs that are in one recurrence but not the other.  Only the changed rules
+ * are expanded to find those times.  If there are few of them, each is then checked against
+ * both recurrences by expanding them over just that time, so the unchanged rules are never
+ * expanded over the range.  Otherwise, and when dtstart changes or the instances of a
+ * recurrence depend on the range (see {@link RecurrenceProcessor#dependsOnRange}), both
+ * recurrences are expanded over the range and compared.
+ */
+public final class RecurrenceDiff {
+
+    /**
+     * The number of changed times up to which they are checked one at a time.  Checking a
+     * time can run a rule from dtstart, like expanding the range does.
+     */
+    static final int MAX_POINT_CHECKS = 8;
+
+    private final OccurrenceSet mAdded;
+    private final OccurrenceSet mRemoved;
+
+    private RecurrenceDiff(OccurrenceSet added, OccurrenceSet removed) {
+        mAdded = added;
+        mRemoved = removed;
+    }
+
+    /** Returns the instances that begin in the range with the new recurrence only. */
+    public OccurrenceSet getAdded() {
+        return mAdded;
+    }
+
+    /** Returns the instances that begin in the range with the old recurrence only. */
+    public OccurrenceSet getRemoved() {
+        return mRemoved;
+    }
+
+    /** Returns true if the instances in the range are the same. */
+    public boolean isEmpty() {
+        return mAdded.isEmpty() && mRemoved.isEmpty();
+    }
+
+    /**
+     * Compares the instances of two recurrences that begin in the given range.
+     *
+     * @param rp the processor to expand the recurrences with
+     * @param oldStart the dtstart of the old recurrence
+     * @param oldRecur the old recurrence
+     * @param newStart the dtstart of the new recurrence
+     * @param newRecur the new recurrence
+     * @param rangeStartMillis the beginning of the range, in UTC milliseconds
+     * @param rangeEndMillis the non-inclusive end of the range, in UTC milliseconds; use -1
+     * for the entire range.
+     * @throws DateException
+     * @throws IllegalArgumentException if a recurrence cannot be parsed
+     */
+    public static RecurrenceDiff compute(RecurrenceProcessor rp,
+            Time oldStart,
+            RecurrenceSet oldRecur,
+            Time newStart,
+            RecurrenceSet newRecur,
+            long rangeStartMillis,
+            long rangeEndMillis) throws DateException {
+        long rangeEnd = rangeEndMillis == -1 ? Long.MAX_VALUE : rangeEndMillis;
+        if (!sameStart(oldStart, newStart)) {
+            return compareExpansions(rp, oldStart, oldRecur, newStart, newRecur,
+                    rangeStartMillis, rangeEndMillis);
+        }
+
+        // A time is checked by expanding over just that time, which leaves out dtstart.
+        if (rp.dependsOnRange(oldStart, oldRecur) || rp.dependsOnRange(newStart, newRecur)) {
+            return compareExpansions(rp, oldStart, oldRecur, newStart, newRecur,
+                    rangeStartMillis, rangeEndMillis);
+        }
+
+        // The times where the instances can differ.
+        OccurrenceSet changed = changedDates(oldRecur.rdates, newRecur.rdates)
+                .union(changedDates(oldRecur.exdates, newRecur.exdates))
+                .subSet(rangeStartMillis, rangeEnd);
+        EventRecurrence[][] rules = {
+            changedRules(oldRecur.rrules, newRecur.rrules),
+            changedRules(newRecur.rrules, oldRecur.rrules),
+            changedRules(oldRecur.exrules, newRecur.exrules),
+            changedRules(newRecur.exrules, oldRecur.exrules),
+        };
+        for (int i = 0; i < rules.length; i++) {
+            for (EventRecurrence r : rules[i]) {
+                // The EXRULEs are run as such, as an RRULE has dtstart too.
+                changed = changed.union(OccurrenceSet.fromSorted(rp.expandRule(oldStart, r,
+                        rangeStartMillis, rangeEndMillis, i < 2 /* add */)));
+                if (changed.size() > MAX_POINT_CHECKS) {
+                    return compareExpansions(rp, oldStart, oldRecur, newStart, newRecur,
+                            rangeStartMillis, rangeEndMillis);
+                }
+            }
+        }
+
+        OccurrenceBuffer added = new OccurrenceBuffer();
+        OccurrenceBuffer removed = new OccurrenceBuffer();
+        for (int i = 0; i < changed.size(); i++) {
+            long time = changed.get(i);
+            boolean before = occursAt(rp, oldStart, oldRecur, time);
+            boolean after = occursAt(rp, newStart, newRecur, time);
+            if (after && !before) {
+                added.add(time);
+            } else if (before && !after) {
+                removed.add(time);
+            }
+        }
+        return new RecurrenceDiff(OccurrenceSet.fromSorted(added.toArray()),
+                OccurrenceSet.fromSorted(removed.toArray()));
+    }
+
+    private static RecurrenceDiff compareExpansions(RecurrenceProcessor rp,
+            Time oldStart,
+            RecurrenceSet oldRecur,
+            Time newStart,
+            RecurrenceSet newRecur,
+            long rangeStartMillis,
+            long rangeEndMillis) throws DateException {
+        long rangeEnd = rangeEndMillis == -1 ? Long.MAX_VALUE : rangeEndMillis;
+        // The RDATEs outside of the range are returned too.
+        OccurrenceSet before = OccurrenceSet.fromSorted(
+                rp.expand(oldStart, oldRecur, rangeStartMillis, rangeEndMillis))
+                .subSet(rangeStartMillis, rangeEnd);
+        OccurrenceSet after = OccurrenceSet.fromSorted(
+                rp.expand(newStart, newRecur, rangeStartMillis, rangeEndMillis))
+                .subSet(rangeStartMillis, rangeEnd);
+        return new RecurrenceDiff(after.difference(before), before.difference(after));
+    }
+
+    /**
+     * Returns true if the recurrence has an instance at the given time, by expanding it
+     * over just that time.
+     */
+    private static boolean occursAt(RecurrenceProcessor rp, Time dtstart, RecurrenceSet recur,
+            long time) throws DateException {
+        RecurrenceSet point = new RecurrenceSet(null, null, null, null);
+        point.rrules = recur.rrules;
+        point.exrules = recur.exrules;
+        point.rdates = contains(recur.rdates, time) ? new long[] {time} : null;
+        point.exdates = contains(recur.exdates, time) ? new long[] {time} : null;
+        if (!point.hasRecurrence()) {
+            return false;
+        }
+        // The range is compared with the instances to the second.
+        long[] instances = rp.expand(dtstart, point, time, time + 1000);
+        return instances.length == 1 && instances[0] == time;
+    }
+
+    private static boolean sameStart(Time a, Time b) {
+        return a.toMillis() == b.toMillis() && a.getTimezone().equals(b.getTimezone())
+                && a.isAllDay() == b.isAllDay();
+    }
+
+    /** Returns the dates that are in one of the lists but not the other. */
+    private static OccurrenceSet changedDates(long[] a, long[] b) {
+        OccurrenceSet first = a != null ? OccurrenceSet.of(a) : OccurrenceSet.EMPTY;
+        OccurrenceSet second = b != null ? OccurrenceSet.of(b) : OccurrenceSet.EMPTY;
+        return first.difference(second).union(second.difference(first));
+    }
+
+    /**
+     * Returns the rules that have no equal rule in the others, counting each of the others
+     * once.
+     */
+    private static EventRecurrence[] changedRules(EventRecurrence[] rules,
+            EventRecurrence[] others) {
+        if (rules == null) {
+            return new EventRecurrence[0];
+        }
+        boolean[] matched = new boolean[others != null ? others.length : 0];
+        EventRecurrence[] changed = new EventRecurrence[rules.length];
+        int n = 0;
+        for (EventRecurrence r : rules) {
+            boolean found = false;
+            for (int i = 0; i < matched.length; i++) {
+                if (!matched[i] && r.equals(others[i])) {
+                    matched[i] = true;
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                changed[n++] = r;
+            }
+        }
+        EventRecurrence[] result = new EventRecurrence[n];
+        System.arraycopy(changed, 0, result, 0, n);
+        return result;
+    }
+
+    private static boolean contains(long[] dates, long time) {
+        if (dates != null) {
+            for (long date : dates) {
+                if (date == time) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
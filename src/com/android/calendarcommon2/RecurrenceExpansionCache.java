@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * An opt-in, bounded cache in front of
+ * {@link RecurrenceProcessor#expand(Time, RecurrenceSet, long, long)}.
+ * <p>
+ * Entries are keyed by a canonical form of the recurrence (RRULEs, RDATEs, EXRULEs, EXDATEs),
+ * the dtstart and its timezone.  Each entry remembers the windows it has already been expanded
+ * over ("coverage"), so a query for a window that lies inside a covered window is answered by
+ * slicing the cached occurrences instead of running the expansion again.  Overlapping coverage
+ * is merged as it is added.
+ * <p>
+ * {@link RecurrenceProcessor#expand(Time, RecurrenceSet, long, long)} returns every RDATE even
+ * when it falls outside the requested window, so a sub-window can't be cut out of a larger
+ * expansion for recurrences that have RDATEs.  Nor can it for an RRULE with a COUNT that
+ * doesn't generate dtstart, as dtstart takes up one of the COUNT only in the windows that
+ * contain it.  Those recurrences are only served for the exact window they were expanded over.
+ * <p>
+ * The cache is bounded by an estimate of the memory held by the cached arrays and keys, and
+ * evicts the least recently used recurrences first.  Call {@link #invalidateTimeZoneData()}
+ * when the timezone database changes; entries whose zone rules no longer match the current
+ * rules are also dropped when they are next looked up.
+ * <p>
+ * This class is thread-safe, but the {@link RecurrenceProcessor} passed to
+ * {@link #expand} is not, so each thread must supply its own.
+ */
+public class RecurrenceExpansionCache {
+
+    // Rough per-object overheads used for the memory weight.
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final int COVERAGE_OVERHEAD = 48;
+
+    /**
+     * A snapshot of the cache counters.
+     */
+    public static class Stats {
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        public final int entryCount;
+        public final long weight;
+
+        Stats(long hits, long misses, long evictions, int entryCount, long weight) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.entryCount = entryCount;
+            this.weight = weight;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hits + " misses=" + misses + " evictions=" + evictions
+                    + " entries=" + entryCount + " weight=" + weight;
+        }
+    }
+
+    /** One expanded window of a recurrence.  end is -1 for an expansion with no range end. */
+    private static class Coverage {
+        final long start;
+        final long end;
+        final long[] dates;
+
+        Coverage(long start, long end, long[] dates) {
+            this.start = start;
+            this.end = end;
+            this.dates = dates;
+        }
+
+        boolean contains(long rangeStart, long rangeEnd) {
+            if (rangeStart < start) {
+                return false;
+            }
+            if (end == -1) {
+                return true;
+            }
+            return rangeEnd != -1 && rangeEnd <= end;
+        }
+
+        boolean overlapsOrTouches(long rangeStart, long rangeEnd) {
+            return (end == -1 || rangeStart <= end) && (rangeEnd == -1 || start <= rangeEnd);
+        }
+    }
+
+    private static class Entry {
+        final TimeZone timezone;
+        final boolean exactWindowsOnly;
+        final ArrayList<Coverage> coverage = new ArrayList<Coverage>();
+        long weight;
+
+        Entry(TimeZone timezone, boolean exactWindowsOnly, int keyLength) {
+            this.timezone = timezone;
+            this.exactWindowsOnly = exactWindowsOnly;
+            this.weight = ENTRY_OVERHEAD + 2L * keyLength;
+        }
+    }
+
+    private final long mMaxWeight;
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true /* access order */);
+    private long mWeight;
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+    private int mGeneration;
+
+    /**
+     * @param maxWeightBytes an upper bound on the estimated number of bytes held by the cache
+     */
+    public RecurrenceExpansionCache(long maxWeightBytes) {
+        if (maxWeightBytes <= 0) {
+            throw new IllegalArgumentException("maxWeightBytes must be positive");
+        }
+        mMaxWeight = maxWeightBytes;
+    }
+
+    /**
+     * Returns the same dates as
+     * {@link RecurrenceProcessor#expand(Time, RecurrenceSet, long, long)}, using previously
+     * cached expansions when they cover the requested range.  The returned array must not be
+     * modified by the caller.
+     *
+     * @param processor the processor used on a cache miss
+     * @param dtstart a Time object representing the first occurrence
+     * @param recur the recurrence rules, including RRULE, RDATES, EXRULE, and EXDATES
+     * @param rangeStartMillis the beginning of the range to expand, in UTC milliseconds
+     * @param rangeEndMillis the non-inclusive end of the range to expand, in UTC milliseconds;
+     * use -1 for the entire range.
+     * @return an array of dates, each date is in UTC milliseconds
+     * @throws DateException
+     */
+    public long[] expand(RecurrenceProcessor processor, Time dtstart, RecurrenceSet recur,
+            long rangeStartMillis, long rangeEndMillis) throws DateException {
+        final String key = buildKey(dtstart, recur);
+        final int generation;
+        synchronized (this) {
+            long[] cached = lookup(key, dtstart.getTimezone(), rangeStartMillis, rangeEndMillis);
+            if (cached != null) {
+                mHits++;
+                return cached;
+            }
+            mMisses++;
+            generation = mGeneration;
+        }
+
+        long[] dates = processor.expand(dtstart, recur, rangeStartMillis, rangeEndMillis);
+        boolean exactWindowsOnly = recur.rdates != null
+                || processor.dependsOnRange(dtstart, recur);
+
+        synchronized (this) {
+            // Don't cache results computed against timezone data that has since been replaced.
+            if (generation == mGeneration) {
+                store(key, dtstart.getTimezone(), exactWindowsOnly, rangeStartMillis,
+                        rangeEndMillis, dates);
+            }
+        }
+        return dates;
+    }
+
+    /**
+     * Drops every entry.  Call this when the timezone database has been updated, since cached
+     * occurrences were converted to UTC using the old rules.
+     */
+    public synchronized void invalidateTimeZoneData() {
+        mGeneration++;
+        clearInternal();
+    }
+
+    /**
+     * Drops every entry without resetting the counters.
+     */
+    public synchronized void clear() {
+        clearInternal();
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(mHits, mMisses, mEvictions, mEntries.size(), mWeight);
+    }
+
+    private void clearInternal() {
+        mEntries.clear();
+        mWeight = 0;
+    }
+
+    private long[] lookup(String key, String timezone, long rangeStart, long rangeEnd) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.timezone.hasSameRules(TimeZone.getTimeZone(timezone))) {
+            // The zone rules changed underneath us.
+            mEntries.remove(key);
+            mWeight -= entry.weight;
+            return null;
+        }
+        for (Coverage c : entry.coverage) {
+            if (entry.exactWindowsOnly) {
+                if (c.start == rangeStart && c.end == rangeEnd) {
+                    return c.dates;
+                }
+            } else if (c.contains(rangeStart, rangeEnd)) {
+                if (c.start == rangeStart && c.end == rangeEnd) {
+                    return c.dates;
+                }
+                return slice(c.dates, rangeStart, rangeEnd);
+            }
+        }
+        return null;
+    }
+
+    private void store(String key, String timezone, boolean exactWindowsOnly, long rangeStart,
+            long rangeEnd, long[] dates) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry(TimeZone.getTimeZone(timezone), exactWindowsOnly, key.length());
+            mEntries.put(key, entry);
+            mWeight += entry.weight;
+        }
+
+        long start = rangeStart;
+        long end = rangeEnd;
+        long[] merged = dates;
+        if (!entry.exactWindowsOnly) {
+            // Fold every coverage window that overlaps the new one into it.
+            for (Iterator<Coverage> it = entry.coverage.iterator(); it.hasNext(); ) {
+                Coverage c = it.next();
+                if (c.overlapsOrTouches(start, end)) {
+                    merged = OccurrenceSet.union(merged, c.dates);
+                    start = Math.min(start, c.start);
+                    end = (end == -1 || c.end == -1) ? -1 : Math.max(end, c.end);
+                    entry.weight -= weigh(c);
+                    mWeight -= weigh(c);
+                    it.remove();
+                }
+            }
+        }
+        Coverage added = new Coverage(start, end, merged);
+        entry.coverage.add(added);
+        entry.weight += weigh(added);
+        mWeight += weigh(added);
+        trimToSize();
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+        while (mWeight > mMaxWeight && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            mWeight -= eldest.weight;
+            mEvictions++;
+        }
+    }
+
+    private static long weigh(Coverage c) {
+        return COVERAGE_OVERHEAD + 8L * c.dates.length;
+    }
+
+    /**
+     * Returns the dates that {@link RecurrenceProcessor#expand} would return for the range.  The
+     * processor compares local date-time values with a resolution of one second, so the range
+     * bounds are truncated to the second before comparing.
+     */
+    private static long[] slice(long[] dates, long rangeStart, long rangeEnd) {
+        long lo = floorSecond(rangeStart);
+        long hi = rangeEnd == -1 ? Long.MAX_VALUE : floorSecond(rangeEnd);
+        int from = 0;
+        while (from < dates.length && dates[from] < lo) {
+            from++;
+        }
+        int to = from;
+        while (to < dates.length && dates[to] < hi) {
+            to++;
+        }
+        long[] result = new long[to - from];
+        System.arraycopy(dates, from, result, 0, result.length);
+        return result;
+    }
+
+    private static long floorSecond(long millis) {
+        long rem = millis % 1000;
+        return rem < 0 ? millis - rem - 1000 : millis - rem;
+    }
+
+    /**
+     * Builds the canonical form of the recurrence that the cache is keyed by.  Every rule part
+     * is written with its own label so that rules which differ only in which BYxxx list holds
+     * a value don't collide.
+     */
+    static String buildKey(Time dtstart, RecurrenceSet recur) {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append(dtstart.getTimezone()).append('|').append(dtstart.toMillis());
+        sb.append(dtstart.isAllDay() ? "|A" : "|T");
+        appendRules(sb, "|RR", recur.rrules);
+        appendDates(sb, "|RD", recur.rdates);
+        appendRules(sb, "|XR", recur.exrules);
+        appendDates(sb, "|XD", recur.exdates);
+        return sb.toString();
+    }
+
+    private static void appendRules(StringBuilder sb, String label, EventRecurrence[] rules) {
+        if (rules == null) {
+            return;
+        }
+        sb.append(label);
+        for (EventRecurrence r : rules) {
+            sb.append('[').append(r.freq).append(';').append(r.until).append(';')
+                    .append(r.count).append(';').append(r.interval).append(';').append(r.wkst);
+            appendList(sb, ";S", r.bysecond, r.bysecondCount);
+            appendList(sb, ";M", r.byminute, r.byminuteCount);
+            appendList(sb, ";H", r.byhour, r.byhourCount);
+            appendList(sb, ";D", r.byday, r.bydayCount);
+            appendList(sb, ";N", r.bydayNum, r.bydayCount);
+            appendList(sb, ";MD", r.bymonthday, r.bymonthdayCount);
+            appendList(sb, ";YD", r.byyearday, r.byyeardayCount);
+            appendList(sb, ";WN", r.byweekno, r.byweeknoCount);
+            appendList(sb, ";MO", r.bymonth, r.bymonthCount);
+            appendList(sb, ";SP", r.bysetpos, r.bysetposCount);
+            sb.append(']');
+        }
+    }
+
+    private static void appendList(StringBuilder sb, String label, int[] values, int count) {
+        if (count == 0) {
+            return;
+        }
+        sb.append(label);
+        for (int i = 0; i < count; i++) {
+            sb.append(',').append(values[i]);
+        }
+    }
+
+    private static void appendDates(StringBuilder sb, String label, long[] dates) {
+        if (dates == null) {
+            return;
+        }
+        sb.append(label);
+        for (long date : dates) {
+            sb.append(',').append(date);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+/**
+ * Counters of the work done by a {@link RecurrenceProcessor}, to find the recurrences that are
+ * expensive to expand.
+ * <p>
+ * Attach an instance with {@link RecurrenceProcessor#setMetrics}; a processor without one
+ * doesn't count anything.  The counters cover all expansions since the last {@link #reset()}:
+ * the periods the rules iterated over, the candidate date-times generated, the candidates
+ * rejected by each BYxxx filter, the occurrences returned, the rules that were cut short by
+ * the iteration failsafe, and the time spent.
+ * <p>
+ * With {@link #setExplain(boolean)}, each expansion also records a description of what every
+ * rule in it did, available from {@link #getLastExplanation()} until the next expansion.
+ * <p>
+ * Like RecurrenceProcessor, this class is not thread-safe.  Give every processor its own
+ * instance and combine them with {@link #add(RecurrenceMetrics)} to get totals.
+ */
+public final class RecurrenceMetrics {
+
+    // The reasons for a rejected candidate, in the order the filters are applied.
+    public static final int REJECTED_BY_MONTH = 1;
+    public static final int REJECTED_BY_WEEKNO = 2;
+    public static final int REJECTED_BY_YEARDAY = 3;
+    public static final int REJECTED_BY_MONTHDAY = 4;
+    public static final int REJECTED_BY_DAY = 5;
+    public static final int REJECTED_BY_HOUR = 6;
+    public static final int REJECTED_BY_MINUTE = 7;
+    public static final int REJECTED_BY_SECOND = 8;
+    public static final int REJECTED_BY_SETPOS = 9;
+
+    private static final String[] REASON_NAMES = {
+        null, "BYMONTH", "BYWEEKNO", "BYYEARDAY", "BYMONTHDAY", "BYDAY", "BYHOUR", "BYMINUTE",
+        "BYSECOND", "BYSETPOS"
+    };
+
+    // These are updated directly by the expansion loops.
+    long mIterations;
+    long mCandidates;
+    final long[] mRejections = new long[REASON_NAMES.length];
+    long mTruncations;
+
+    private long mExpansions;
+    private long mOccurrences;
+    private long mElapsedNanos;
+
+    private boolean mExplain;
+    private StringBuilder mExplanation;
+    private String mLastExplanation;
+
+    // The counters at the start of the rule being explained.
+    private long mRuleIterations;
+    private long mRuleCandidates;
+    private final long[] mRuleRejections = new long[REASON_NAMES.length];
+    private long mRuleTruncations;
+    private int mRuleStartSize;
+
+    /** Returns the number of expansions. */
+    public long getExpansions() {
+        return mExpansions;
+    }
+
+    /**
+     * Returns the number of periods (one step of the rule's frequency) that the rules were
+     * run for.
+     */
+    public long getIterations() {
+        return mIterations;
+    }
+
+    /** Returns the number of candidate date-times generated by the rules. */
+    public long getCandidates() {
+        return mCandidates;
+    }
+
+    /**
+     * Returns the number of candidates rejected for the given reason, one of the REJECTED_BY
+     * constants.
+     */
+    public long getRejections(int reason) {
+        if (reason < REJECTED_BY_MONTH || reason > REJECTED_BY_SETPOS) {
+            throw new IllegalArgumentException("bad reason=" + reason);
+        }
+        return mRejections[reason];
+    }
+
+    /** Returns the number of candidates rejected for any reason. */
+    public long getRejections() {
+        long total = 0;
+        for (long count : mRejections) {
+            total += count;
+        }
+        return total;
+    }
+
+    /** Returns the number of occurrences returned by the expansions. */
+    public long getOccurrences() {
+        return mOccurrences;
+    }
+
+    /** Returns the number of rules that stopped because they ran for too many iterations. */
+    public long getFailsafeTruncations() {
+        return mTruncations;
+    }
+
+    /** Returns the time spent expanding, in nanoseconds. */
+    public long getElapsedNanos() {
+        return mElapsedNanos;
+    }
+
+    /**
+     * Sets whether each expansion records a description of its rules.  This allocates, so
+     * it is meant for looking into specific recurrences.
+     */
+    public void setExplain(boolean explain) {
+        mExplain = explain;
+        if (!explain) {
+            mExplanation = null;
+        }
+    }
+
+    public boolean isExplaining() {
+        return mExplain;
+    }
+
+    /**
+     * Returns the description of the last expansion made while explaining, or null.
+     */
+    public String getLastExplanation() {
+        return mLastExplanation;
+    }
+
+    /** Adds the counters of another instance to this one. */
+    public void add(RecurrenceMetrics other) {
+        mExpansions += other.mExpansions;
+        mIterations += other.mIterations;
+        mCandidates += other.mCandidates;
+        for (int i = 0; i < mRejections.length; i++) {
+            mRejections[i] += other.mRejections[i];
+        }
+        mOccurrences += other.mOccurrences;
+        mTruncations += other.mTruncations;
+        mElapsedNanos += other.mElapsedNanos;
+    }
+
+    /** Sets all counters to zero. */
+    public void reset() {
+        mExpansions = 0;
+        mIterations = 0;
+        mCandidates = 0;
+        for (int i = 0; i < mRejections.length; i++) {
+            mRejections[i] = 0;
+        }
+        mOccurrences = 0;
+        mTruncations = 0;
+        mElapsedNanos = 0;
+        mLastExplanation = null;
+    }
+
+    void beginExpansion(Time dtstart, long rangeStartMillis, long rangeEndMillis) {
+        if (mExplain) {
+            mExplanation = new StringBuilder();
+            mExplanation.append("dtstart=").append(dtstart.format2445())
+                    .append(' ').append(dtstart.getTimezone())
+                    .append(" range=").append(rangeStartMillis)
+                    .append(',').append(rangeEndMillis).append('\n');
+        }
+    }
+
+    void endExpansion(int occurrences, long elapsedNanos) {
+        mExpansions++;
+        mOccurrences += occurrences;
+        mElapsedNanos += elapsedNanos;
+        if (mExplanation != null) {
+            mExplanation.append(occurrences).append(" occurrences in ")
+                    .append(elapsedNanos / 1000).append("us");
+            mLastExplanation = mExplanation.toString();
+            mExplanation = null;
+        }
+    }
+
+    void beginRule(int size) {
+        if (mExplanation != null) {
+            mRuleIterations = mIterations;
+            mRuleCandidates = mCandidates;
+            System.arraycopy(mRejections, 0, mRuleRejections, 0, mRejections.length);
+            mRuleTruncations = mTruncations;
+            mRuleStartSize = size;
+        }
+    }
+
+    void endRule(EventRecurrence r, boolean add, int size) {
+        StringBuilder sb = mExplanation;
+        if (sb == null) {
+            return;
+        }
+        sb.append(add ? "RRULE:" : "EXRULE:").append(r)
+                .append(" iterations=").append(mIterations - mRuleIterations)
+                .append(" candidates=").append(mCandidates - mRuleCandidates)
+                .append(" values=").append(size - mRuleStartSize);
+        for (int i = REJECTED_BY_MONTH; i <= REJECTED_BY_SETPOS; i++) {
+            long rejected = mRejections[i] - mRuleRejections[i];
+            if (rejected != 0) {
+                sb.append(' ').append(REASON_NAMES[i]).append('=').append(rejected);
+            }
+        }
+        if (mTruncations != mRuleTruncations) {
+            sb.append(" truncated");
+        }
+        sb.append('\n');
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("expansions=").append(mExpansions)
+                .append(" iterations=").append(mIterations)
+                .append(" candidates=").append(mCandidates)
+                .append(" occurrences=").append(mOccurrences)
+                .append(" truncations=").append(mTruncations)
+                .append(" elapsedMs=").append(mElapsedNanos / 1000000);
+        for (int i = REJECTED_BY_MONTH; i <= REJECTED_BY_SETPOS; i++) {
+            if (mRejections[i] != 0) {
+                sb.append(' ').append(REASON_NAMES[i]).append('=').append(mRejections[i]);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The exceptions to a recurring event: instances that were moved, or cancelled, by an
+ * exception event with a RECURRENCE-ID.  Each exception is keyed by the original begin
+ * time of the instance it replaces, in UTC milliseconds.
+ * <p>
+ * {@link #expand} produces the final instances of the series, with the exceptions applied,
+ * in a single pass: the instances of the master event are looked up in a hash table of the
+ * original times as they are expanded, and merged with the moved instances, which are kept
+ * sorted by their new begin time.
+ * <p>
+ * This class is not thread-safe.
+ */
+public final class RecurrenceOverrides {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final byte EMPTY = 0;
+    private static final byte MOVED = 1;
+    private static final byte CANCELLED = 2;
+
+    // An open addressing hash table with linear probing, at most half full.  The capacity
+    // is a power of two, 1 << (64 - mShift).
+    private long[] mKeys;
+    private long[] mBegins;
+    private long[] mEnds;
+    private byte[] mStates;
+    private int mShift;
+    private int mSize;
+
+    // The slots of the moved instances, by new begin and end time, and their begin times;
+    // null when they need to be sorted again.
+    private int[] mSorted;
+    private long[] mSortedBegins;
+
+    private final OccurrenceBuffer mScratch = new OccurrenceBuffer();
+
+    public RecurrenceOverrides() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /** Returns the number of exceptions. */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Moves the instance that originally began at the given time, replacing any exception
+     * for it.
+     */
+    public void move(long originalMillis, long beginMillis, long endMillis) {
+        put(originalMillis, MOVED, beginMillis, endMillis);
+    }
+
+    /**
+     * Cancels the instance that originally began at the given time, replacing any exception
+     * for it.
+     */
+    public void cancel(long originalMillis) {
+        put(originalMillis, CANCELLED, 0, 0);
+    }
+
+    /** Returns true if there is an exception for the instance. */
+    public boolean contains(long originalMillis) {
+        return mStates[find(originalMillis)] != EMPTY;
+    }
+
+    /** Returns true if the instance is cancelled. */
+    public boolean isCancelled(long originalMillis) {
+        return mStates[find(originalMillis)] == CANCELLED;
+    }
+
+    /**
+     * Removes the exception for the instance, so that it occurs at its original time again.
+     *
+     * @return true if there was an exception
+     */
+    public boolean remove(long originalMillis) {
+        int slot = find(originalMillis);
+        if (mStates[slot] == EMPTY) {
+            return false;
+        }
+        int mask = mKeys.length - 1;
+        // Move the entries after the slot back, so that no entry is separated from where it
+        // hashes to by an empty slot.
+        int next = (slot + 1) & mask;
+        while (mStates[next] != EMPTY) {
+            int home = hash(mKeys[next]);
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                mKeys[slot] = mKeys[next];
+                mBegins[slot] = mBegins[next];
+                mEnds[slot] = mEnds[next];
+                mStates[slot] = mStates[next];
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        mStates[slot] = EMPTY;
+        mSize--;
+        mSorted = null;
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(mStates, EMPTY);
+        mSize = 0;
+        mSorted = null;
+    }
+
+    /**
+     * Appends a (begin, end) pair of UTC milliseconds for every instance of the series that
+     * begins in the range, like
+     * {@link RecurrenceProcessor#expandInstances(Time, RecurrenceSet, Duration, long, long,
+     * OccurrenceBuffer)}, with the exceptions applied.  The instances of the master event
+     * that have an exception are left out, and the moved instances that begin in the range
+     * are added, wherever their original time was.  The pairs are in increasing order of
+     * begin time, then end time.
+     *
+     * @param rp the processor to expand the master event with
+     * @param dtstart a Time object representing the first occurrence
+     * @param recur the recurrence rules of the master event
+     * @param duration the duration of each instance of the master event
+     * @param rangeStartMillis the beginning of the range, in UTC milliseconds
+     * @param rangeEndMillis the non-inclusive end of the range, in UTC milliseconds; use -1
+     * for the entire range.
+     * @param out the buffer to append the begin and end times to
+     * @return the number of instances appended to out; twice as many values are appended
+     * @throws DateException
+     * @throws IllegalArgumentException if recur cannot be parsed
+     */
+    public int expand(RecurrenceProcessor rp,
+            Time dtstart,
+            RecurrenceSet recur,
+            Duration duration,
+            long rangeStartMillis,
+            long rangeEndMillis,
+            OccurrenceBuffer out) throws DateException {
+        OccurrenceBuffer master = mScratch;
+        master.clear();
+        int count = rp.expandInstances(dtstart, recur, duration, rangeStartMillis,
+                rangeEndMillis, master);
+        long[] values = master.array();
+        long end = rangeEndMillis == -1 ? Long.MAX_VALUE : rangeEndMillis;
+
+        sortMoved();
+        int[] sorted = mSorted;
+        int j = OccurrenceSet.lowerBound(mSortedBegins, 0, sorted.length, rangeStartMillis);
+        int start = out.size();
+        for (int i = 0; i < count; i++) {
+            long begin = values[2 * i];
+            // RDATEs are returned even when they are outside of the range.
+            if (begin < rangeStartMillis || begin >= end
+                    || (mSize != 0 && mStates[find(begin)] != EMPTY)) {
+                continue;
+            }
+            long instanceEnd = values[2 * i + 1];
+            for (; j < sorted.length; j++) {
+                int slot = sorted[j];
+                long movedBegin = mBegins[slot];
+                if (movedBegin > begin
+                        || (movedBegin == begin && mEnds[slot] >= instanceEnd)) {
+                    break;
+                }
+                out.add(movedBegin);
+                out.add(mEnds[slot]);
+            }
+            out.add(begin);
+            out.add(instanceEnd);
+        }
+        for (; j < sorted.length && mBegins[sorted[j]] < end; j++) {
+            out.add(mBegins[sorted[j]]);
+            out.add(mEnds[sorted[j]]);
+        }
+        return (out.size() - start) / 2;
+    }
+
+    private void sortMoved() {
+        if (mSorted != null) {
+            return;
+        }
+        Integer[] slots = new Integer[mSize];
+        int n = 0;
+        for (int slot = 0; slot < mStates.length; slot++) {
+            if (mStates[slot] == MOVED) {
+                slots[n++] = slot;
+            }
+        }
+        Arrays.sort(slots, 0, n, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int c = compareLongs(mBegins[a], mBegins[b]);
+                return c != 0 ? c : compareLongs(mEnds[a], mEnds[b]);
+            }
+        });
+        int[] sorted = new int[n];
+        long[] begins = new long[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = slots[i];
+            begins[i] = mBegins[sorted[i]];
+        }
+        mSorted = sorted;
+        mSortedBegins = begins;
+    }
+
+    private static int compareLongs(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    private void put(long key, byte state, long begin, long end) {
+        int slot = find(key);
+        if (mStates[slot] == EMPTY) {
+            if (2 * (mSize + 1) > mKeys.length) {
+                rehash(2 * mKeys.length);
+                slot = find(key);
+            }
+            mSize++;
+        }
+        mKeys[slot] = key;
+        mBegins[slot] = begin;
+        mEnds[slot] = end;
+        mStates[slot] = state;
+        mSorted = null;
+    }
+
+    /** Returns the slot of the key, or the empty slot where it would go. */
+    private int find(long key) {
+        int mask = mKeys.length - 1;
+        int slot = hash(key);
+        while (mStates[slot] != EMPTY && mKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int hash(long key) {
+        // The times are usually multiples of a minute, so take the high bits of the product.
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> mShift);
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mBegins = new long[capacity];
+        mEnds = new long[capacity];
+        mStates = new byte[capacity];
+        mShift = 64 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    private void rehash(int capacity) {
+        long[] keys = mKeys;
+        long[] begins = mBegins;
+        long[] ends = mEnds;
+        byte[] states = mStates;
+        allocate(capacity);
+        for (int i = 0; i < keys.length; i++) {
+            if (states[i] != EMPTY) {
+                int slot = find(keys[i]);
+                mKeys[slot] = keys[i];
+                mBegins[slot] = begins[i];
+                mEnds[slot] = ends[i];
+                mStates[slot] = states[i];
+            }
+        }
+    }
+}
@@ -19,6 +19,7 @@ package com.android.calendarcommon2;
 
 import android.util.Log;
 
+import java.util.TimeZone;
 import java.util.TreeSet;
 
 public class RecurrenceProcessor
@@ -29,13 +30,36 @@ public class RecurrenceProcessor
     private StringBuilder mStringBuilder = new StringBuilder();
     private Time mGenerated = new Time(Time.TIMEZONE_UTC);
     private DaySet mDays = new DaySet(false);
+    private OccurrenceBuffer mIncluded = new OccurrenceBuffer();
+    private OccurrenceBuffer mExcluded = new OccurrenceBuffer();
+    private OccurrenceBuffer mRuleValues = new OccurrenceBuffer();
+    private OccurrenceBuffer mResult = new OccurrenceBuffer();
+    private PackedExpander mPackedExpander = new PackedExpander();
+    private ZoneOffsetCache mOffsets = new ZoneOffsetCache();
+    private SubDailyExpander mSubDailyExpander = new SubDailyExpander(mOffsets);
+    private TimeZone mTimeZone;
+    private RecurrenceMetrics mMetrics;
     // Give up after this many loops.  This is roughly 1 second of expansion.
-    private static final int MAX_ALLOWED_ITERATIONS = 2000;
+    static final int MAX_ALLOWED_ITERATIONS = 2000;
 
     public RecurrenceProcessor()
     {
     }
 
+    /**
+     * Sets the metrics that the expansions of this processor are counted
+     * in, or null (the default) to not count them.
+     */
+    public void setMetrics(RecurrenceMetrics metrics) {
+        mMetrics = metrics;
+        mPackedExpander.setMetrics(metrics);
+        mSubDailyExpander.setMetrics(metrics);
+    }
+
+    public RecurrenceMetrics getMetrics() {
+        return mMetrics;
+    }
+
     private static final String TAG = "RecurrenceProcessor";
 
     private static final boolean SPEW = false;
@@ -146,7 +170,7 @@ public class RecurrenceProcessor
      * N -- number of values to use in a
      * v -- value to check for
      */
-    private static boolean listContains(int[] a, int N, int v)
+    static boolean listContains(int[] a, int N, int v)
     {
         for (int i=0; i<N; i++) {
             if (a[i] == v) {
@@ -162,13 +186,14 @@ public class RecurrenceProcessor
      * v -- value to check for
      * max -- if a value in a is negative, add that negative value
      *        to max and compare that instead; this is how we deal with
-     *        negative numbers being offsets from the end value
+     *        negative numbers being offsets from the end value.  Zero is
+     *        a value (BYHOUR=0 is midnight), not an offset.
      */
-    private static boolean listContains(int[] a, int N, int v, int max)
+    static boolean listContains(int[] a, int N, int v, int max)
     {
         for (int i=0; i<N; i++) {
             int w = a[i];
-            if (w > 0) {
+            if (w >= 0) {
                 if (w == v) {
                     return true;
                 }
@@ -221,7 +246,7 @@ public class RecurrenceProcessor
             // BYYEARDAY
             if (r.byyeardayCount > 0) {
                 found = listContains(r.byyearday, r.byyeardayCount,
-                                iterator.getYearDay(), iterator.getActualMaximum(Time.YEAR_DAY));
+                                iterator.getYearDay(), actualMaximum(iterator, Time.YEAR_DAY));
                 if (!found) {
                     return 3;
                 }
@@ -230,7 +255,7 @@ public class RecurrenceProcessor
             if (r.bymonthdayCount > 0 ) {
                 found = listContains(r.bymonthday, r.bymonthdayCount,
                                 iterator.getDay(),
-                                iterator.getActualMaximum(Time.MONTH_DAY));
+                                actualMaximum(iterator, Time.MONTH_DAY));
                 if (!found) {
                     return 4;
                 }
@@ -250,7 +275,7 @@ byday:
                 return 5;
             }
         }
-        if (EventRecurrence.HOURLY >= freq) {
+        if (EventRecurrence.HOURLY >= freq && r.byhourCount > 0) {
             // BYHOUR
             found = listContains(r.byhour, r.byhourCount,
                             iterator.getHour(),
@@ -259,7 +284,7 @@ byday:
                 return 6;
             }
         }
-        if (EventRecurrence.MINUTELY >= freq) {
+        if (EventRecurrence.MINUTELY >= freq && r.byminuteCount > 0) {
             // BYMINUTE
             found = listContains(r.byminute, r.byminuteCount,
                             iterator.getMinute(),
@@ -268,7 +293,7 @@ byday:
                 return 7;
             }
         }
-        if (EventRecurrence.SECONDLY >= freq) {
+        if (EventRecurrence.SECONDLY >= freq && r.bysecondCount > 0) {
             // BYSECOND
             found = listContains(r.bysecond, r.bysecondCount,
                             iterator.getSecond(),
@@ -339,7 +364,7 @@ bysetpos:
          * Generate a set according to the BYDAY rules.  For each day of the month, determine
          * if its day of the week is included.  If so, append it to the day set.
          */
-        int maxDay = instance.getActualMaximum(Time.MONTH_DAY);
+        int maxDay = actualMaximum(instance, Time.MONTH_DAY);
         int daySet[] = new int[maxDay];
         int daySetLength = 0;
 
@@ -499,7 +524,7 @@ bysetpos:
             int first; // Time.SUNDAY, etc
             int k;
 
-            lastDayThisMonth = generated.getActualMaximum(Time.MONTH_DAY);
+            lastDayThisMonth = actualMaximum(generated, Time.MONTH_DAY);
 
             // BYDAY
             count = r.bydayCount;
@@ -635,6 +660,235 @@ bysetpos:
             RecurrenceSet recur,
             long rangeStartMillis,
             long rangeEndMillis) throws DateException {
+        OccurrenceBuffer result = mResult;
+        result.clear();
+        int count = expand(dtstart, recur, rangeStartMillis, rangeEndMillis, result);
+        return result.toArray(0, count);
+    }
+
+    /**
+     * Expands the recurrence within the given range using the given dtstart
+     * value, appending the dates to the end of the given buffer.  Each value
+     * appended is a date in UTC milliseconds, in increasing order.  The
+     * values are written starting at the buffer's size before the call, so the
+     * expansions of many events can share one buffer.
+     * <p>
+     * For events in zones with a fixed offset, such as UTC, this allocates
+     * nothing but what it takes to grow the buffer, once the processor's
+     * scratch space has grown to fit the largest expansion.  In other zones,
+     * Calendar still allocates while local times are worked out.
+     *
+     * @param dtstart a Time object representing the first occurrence
+     * @param recur the recurrence rules, including RRULE, RDATES, EXRULE, and
+     * EXDATES
+     * @param rangeStartMillis the beginning of the range to expand, in UTC
+     * milliseconds
+     * @param rangeEndMillis the non-inclusive end of the range to expand, in
+     * UTC milliseconds; use -1 for the entire range.
+     * @param out the buffer to append the dates to
+     * @return the number of dates appended to out
+     * @throws DateException
+     * @throws IllegalArgumentException if recur cannot be parsed
+     */
+    public int expand(Time dtstart,
+            RecurrenceSet recur,
+            long rangeStartMillis,
+            long rangeEndMillis,
+            OccurrenceBuffer out) throws DateException {
+        return expand(dtstart, recur, null /* no duration */, rangeStartMillis,
+                rangeEndMillis, out);
+    }
+
+    /**
+     * Expands the recurrence within the given range like
+     * {@link #expand(Time, RecurrenceSet, long, long, OccurrenceBuffer)}, but
+     * appends a (begin, end) pair of UTC milliseconds for every instance.
+     * <p>
+     * The end is computed the same way as {@link Duration#addTo(java.util.Calendar)}:
+     * the weeks and days of the duration are added to the local date of the
+     * instance, so they keep the wall-clock time across daylight saving
+     * transitions, and the hours, minutes and seconds are then added as an
+     * exact offset.  Like Calendar, if the days land on a wall-clock time that
+     * is skipped, it is moved back by the offset change, or forward if that
+     * would move it to the day before.  This happens in the same pass that
+     * converts the occurrences to UTC.
+     *
+     * @param dtstart a Time object representing the first occurrence
+     * @param recur the recurrence rules, including RRULE, RDATES, EXRULE, and
+     * EXDATES
+     * @param duration the duration of each instance
+     * @param rangeStartMillis the beginning of the range to expand, in UTC
+     * milliseconds
+     * @param rangeEndMillis the non-inclusive end of the range to expand, in
+     * UTC milliseconds; use -1 for the entire range.
+     * @param out the buffer to append the begin and end times to
+     * @return the number of instances appended to out; twice as many values
+     * are appended
+     * @throws DateException
+     * @throws IllegalArgumentException if recur cannot be parsed
+     */
+    public int expandInstances(Time dtstart,
+            RecurrenceSet recur,
+            Duration duration,
+            long rangeStartMillis,
+            long rangeEndMillis,
+            OccurrenceBuffer out) throws DateException {
+        if (duration == null) {
+            throw new NullPointerException("duration cannot be null");
+        }
+        return expand(dtstart, recur, duration, rangeStartMillis, rangeEndMillis, out);
+    }
+
+    /**
+     * Appends a (begin, end) pair of UTC milliseconds, like
+     * {@link #expandInstances}, for every instance whose [begin, end)
+     * intersects the range.  This includes the instances that began before
+     * the range and are still in progress at its start.  An instance with an
+     * empty duration intersects the range if it begins in it.
+     * <p>
+     * The expansion starts no earlier than needed: the nominal days of the
+     * duration are subtracted from the start of the range in local time, the
+     * same way they are added to the instances, and its exact part as an
+     * offset.  Only where the timezone's offset changes close to that time is
+     * the expansion started a day earlier, as an end that falls in a skipped
+     * local hour moves later.  The instances are then filtered on their actual
+     * begin and end times, so unlike {@link #expand}, RDATEs outside of the
+     * range are not returned.
+     *
+     * @param dtstart a Time object representing the first occurrence
+     * @param recur the recurrence rules, including RRULE, RDATES, EXRULE, and
+     * EXDATES
+     * @param duration the duration of each instance
+     * @param rangeStartMillis the beginning of the range, in UTC milliseconds
+     * @param rangeEndMillis the non-inclusive end of the range, in UTC
+     * milliseconds; use -1 for the entire range.
+     * @param out the buffer to append the begin and end times to
+     * @return the number of instances appended to out; twice as many values
+     * are appended
+     * @throws DateException
+     * @throws IllegalArgumentException if recur cannot be parsed
+     */
+    public int expandOverlapping(Time dtstart,
+            RecurrenceSet recur,
+            Duration duration,
+            long rangeStartMillis,
+            long rangeEndMillis,
+            OccurrenceBuffer out) throws DateException {
+        if (duration == null) {
+            throw new NullPointerException("duration cannot be null");
+        }
+        String timezone = dtstart.getTimezone();
+        getTimeZone(timezone);
+        mIterator.clear(timezone);
+        long lookbackMillis = lookbackStart(duration, rangeStartMillis);
+        int start = out.size();
+        int count = expand(dtstart, recur, duration, lookbackMillis, rangeEndMillis, out);
+        long[] values = out.array();
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            long begin = values[start + 2 * i];
+            long end = values[start + 2 * i + 1];
+            if ((rangeEndMillis == -1 || begin < rangeEndMillis)
+                    && (end > rangeStartMillis || begin >= rangeStartMillis)) {
+                values[start + 2 * kept] = begin;
+                values[start + 2 * kept + 1] = end;
+                kept++;
+            }
+        }
+        out.truncate(start + 2 * kept);
+        return kept;
+    }
+
+    /**
+     * Returns the earliest time an instance of the given duration can begin
+     * and still end after rangeStartMillis, or a day earlier than that if the
+     * offset changes nearby.  mIterator and mOffsets must be in the timezone
+     * of the event.
+     */
+    private long lookbackStart(Duration duration, long rangeStartMillis) {
+        if (duration.sign < 0) {
+            return rangeStartMillis;
+        }
+        // The instances end their nominal days later in local time, and then
+        // their exact part later.
+        long lastEnd = rangeStartMillis - duration.getExactMillis();
+        long start = lastEnd;
+        int nominalDays = duration.getNominalDays();
+        if (nominalDays != 0) {
+            long lastEndValue = localDateValue(lastEnd, false /* packed */, 0);
+            start = localToMillis(mPackedExpander.addDays(lastEndValue, -nominalDays));
+        }
+        if (!isConstantAround(lastEnd) || !isConstantAround(start)) {
+            start -= PackedExpander.MILLIS_PER_DAY;
+        }
+        return start;
+    }
+
+    /**
+     * Returns the UTC time that is the given number of days after millis in
+     * local time, like Calendar.add(Calendar.DAY_OF_MONTH, days).  The
+     * wall-clock time is kept across offset changes, except that a skipped
+     * time is moved back by the change, or forward if moving it back would
+     * move it to the day before.  The forward time is the one the offset
+     * before the change gives.
+     */
+    static long addLocalDays(TimeZone tz, long millis, int days) {
+        if (days == 0) {
+            return millis;
+        }
+        int offset = tz.getOffset(millis);
+        long local = millis + offset;
+        long day = PackedExpander.floorDiv(local, PackedExpander.MILLIS_PER_DAY) + days;
+        long result = day * PackedExpander.MILLIS_PER_DAY
+                + PackedExpander.floorMod(local, PackedExpander.MILLIS_PER_DAY) - offset;
+        int change = offset - tz.getOffset(result);
+        if (change != 0) {
+            long adjusted = result + change;
+            long adjustedDay = PackedExpander.floorDiv(adjusted + tz.getOffset(adjusted),
+                    PackedExpander.MILLIS_PER_DAY);
+            if (adjustedDay == day) {
+                result = adjusted;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if the offset is the same for a day on either side of the
+     * given time.  mOffsets must be in the timezone of the event.
+     */
+    private boolean isConstantAround(long millis) {
+        return mOffsets.isConstantBetween(millis - PackedExpander.MILLIS_PER_DAY,
+                millis + PackedExpander.MILLIS_PER_DAY);
+    }
+
+    /**
+     * Appends the occurrences of recur to out, followed by their end times
+     * if duration is not null.
+     */
+    private int expand(Time dtstart,
+            RecurrenceSet recur,
+            Duration duration,
+            long rangeStartMillis,
+            long rangeEndMillis,
+            OccurrenceBuffer out) throws DateException {
+        RecurrenceMetrics metrics = mMetrics;
+        if (metrics == null) {
+            return expandSet(dtstart, recur, duration, rangeStartMillis, rangeEndMillis, out);
+        }
+        long startNanos = System.nanoTime();
+        metrics.beginExpansion(dtstart, rangeStartMillis, rangeEndMillis);
+        int count = expandSet(dtstart, recur, duration, rangeStartMillis, rangeEndMillis, out);
+        metrics.endExpansion(count, System.nanoTime() - startNanos);
+        return count;
+    }
+
+    private int expandSet(Time dtstart,
+            RecurrenceSet recur,
+            Duration duration,
+            long rangeStartMillis,
+            long rangeEndMillis,
+            OccurrenceBuffer out) throws DateException {
         String timezone = dtstart.getTimezone();
         mIterator.clear(timezone);
         mGenerated.clear(timezone);
@@ -643,67 +897,503 @@ bysetpos:
         // do so) because the "until" date string is specified in UTC and that
         // sets the timezone in the mUntil Time object.
 
-        mIterator.set(rangeStartMillis);
-        long rangeStartDateValue = normDateTimeComparisonValue(mIterator);
-
-        long rangeEndDateValue;
-        if (rangeEndMillis != -1) {
-            mIterator.set(rangeEndMillis);
-            rangeEndDateValue = normDateTimeComparisonValue(mIterator);
+        // If the timezone's offset doesn't change anywhere in the expansion,
+        // local date-times are plain arithmetic away from UTC and the rules
+        // can be run without going through Time for every candidate.
+        TimeZone tz = getTimeZone(timezone);
+        boolean packed = canUsePackedArithmetic(tz, dtstart, recur, duration,
+                rangeStartMillis, rangeEndMillis);
+        int offset = tz.getRawOffset();
+        boolean dateOnly = packed && isDateOnly(dtstart, recur, offset);
+
+        // All of the additions are collected before any of the removals, so
+        // the result is (RRULEs + RDATEs) - (EXRULEs + EXDATEs).
+        if (dateOnly) {
+            collectDays(dtstart, recur, rangeStartMillis, rangeEndMillis, offset);
         } else {
-            rangeEndDateValue = Long.MAX_VALUE;
+            collect(dtstart, recur, rangeStartMillis, rangeEndMillis, packed, offset);
+        }
+        OccurrenceBuffer included = mIncluded;
+        if (included.size() == 0) {
+            // this can happen if the recurrence does not occur within the
+            // expansion window.
+            return 0;
+        }
+        included.sortUnique();
+        mExcluded.sortUnique();
+        included.removeSorted(mExcluded);
+
+        // The values in included are represented in a special form that is
+        // useful for fast comparisons and that is easy to generate from
+        // year/month/day values (or they are epoch days). We need to convert
+        // these to UTC milliseconds and also to ensure that the dates are valid.
+        long[] in = included.array();
+        int count = included.size();
+        int nominalDays = duration != null ? duration.getNominalDays() : 0;
+        long exactMillis = duration != null ? duration.getExactMillis() : 0;
+        // The sub-daily rules don't use mIterator, so it may still hold the
+        // milliseconds of the range end.
+        mIterator.clear(timezone);
+        for (int i = 0; i < count; i++) {
+            long val = in[i];
+            long begin;
+            if (dateOnly) {
+                begin = val * PackedExpander.MILLIS_PER_DAY - offset;
+            } else if (packed) {
+                begin = PackedExpander.toMillis(val, offset);
+            } else {
+                begin = localToMillis(val);
+            }
+            out.add(begin);
+            if (duration != null) {
+                long end = begin;
+                if (nominalDays != 0) {
+                    if (packed) {
+                        end += nominalDays * PackedExpander.MILLIS_PER_DAY;
+                    } else {
+                        // Duration.addTo() adds the weeks and the days one after
+                        // the other.
+                        end = addLocalDays(tz, end, duration.sign * 7 * duration.weeks);
+                        end = addLocalDays(tz, end, duration.sign * duration.days);
+                    }
+                }
+                out.add(end + exactMillis);
+            }
         }
+        return count;
+    }
 
-        TreeSet<Long> dtSet = new TreeSet<Long>();
+    /**
+     * Collects the date-time values (in the form returned by
+     * normDateTimeComparisonValue()) of all RRULE and RDATE occurrences
+     * into mIncluded and those of all EXRULE and EXDATE occurrences into
+     * mExcluded.  Neither is sorted.
+     */
+    private void collect(Time dtstart,
+            RecurrenceSet recur,
+            long rangeStartMillis,
+            long rangeEndMillis,
+            boolean packed,
+            int offset) throws DateException {
+        long rangeStartDateValue = localDateValue(rangeStartMillis, packed, offset);
+        long rangeEndDateValue = rangeEndMillis != -1
+                ? localDateValue(rangeEndMillis, packed, offset)
+                : Long.MAX_VALUE;
+
+        OccurrenceBuffer included = mIncluded;
+        OccurrenceBuffer excluded = mExcluded;
+        included.clear();
+        excluded.clear();
 
         if (recur.rrules != null) {
             for (EventRecurrence rrule : recur.rrules) {
                 expand(dtstart, rrule, rangeStartDateValue,
-                        rangeEndDateValue, true /* add */, dtSet);
+                        rangeEndDateValue, true /* add */, packed, included);
             }
         }
         if (recur.rdates != null) {
             for (long dt : recur.rdates) {
-                // The dates are stored as milliseconds. We need to convert
-                // them to year/month/day values in the local timezone.
-                mIterator.set(dt);
-                long dtvalue = normDateTimeComparisonValue(mIterator);
-                dtSet.add(dtvalue);
+                included.add(localDateValue(dt, packed, offset));
             }
         }
         if (recur.exrules != null) {
             for (EventRecurrence exrule : recur.exrules) {
                 expand(dtstart, exrule, rangeStartDateValue,
-                        rangeEndDateValue, false /* remove */, dtSet);
+                        rangeEndDateValue, false /* remove */, packed, excluded);
             }
         }
         if (recur.exdates != null) {
             for (long dt : recur.exdates) {
-                // The dates are stored as milliseconds. We need to convert
-                // them to year/month/day values in the local timezone.
-                mIterator.set(dt);
-                long dtvalue = normDateTimeComparisonValue(mIterator);
-                dtSet.remove(dtvalue);
+                excluded.add(localDateValue(dt, packed, offset));
             }
         }
-        if (dtSet.isEmpty()) {
-            // this can happen if the recurrence does not occur within the
-            // expansion window.
-            return new long[0];
+    }
+
+    /**
+     * Like {@link #collect}, but collects the local epoch days of the
+     * occurrences of a recurrence that only has occurrences at midnight.
+     * Only valid if {@link #isDateOnly} is true.
+     */
+    private void collectDays(Time dtstart,
+            RecurrenceSet recur,
+            long rangeStartMillis,
+            long rangeEndMillis,
+            int offset) throws DateException {
+        // An occurrence at midnight is in the range if its day is on or
+        // after the first midnight that is not before the start (to the
+        // second, as date-time values are).
+        long rangeStartDay = PackedExpander.firstDayAtOrAfter(rangeStartMillis, offset);
+        long rangeEndDay = rangeEndMillis != -1
+                ? PackedExpander.firstDayAtOrAfter(rangeEndMillis, offset)
+                : Long.MAX_VALUE;
+
+        OccurrenceBuffer included = mIncluded;
+        OccurrenceBuffer excluded = mExcluded;
+        included.clear();
+        excluded.clear();
+
+        if (recur.rrules != null) {
+            for (EventRecurrence rrule : recur.rrules) {
+                expandDays(dtstart, rrule, rangeStartDay, rangeEndDay, true /* add */,
+                        included);
+            }
+        }
+        if (recur.rdates != null) {
+            for (long dt : recur.rdates) {
+                included.add((dt + offset) / PackedExpander.MILLIS_PER_DAY);
+            }
+        }
+        if (recur.exrules != null) {
+            for (EventRecurrence exrule : recur.exrules) {
+                expandDays(dtstart, exrule, rangeStartDay, rangeEndDay, false /* remove */,
+                        excluded);
+            }
+        }
+        if (recur.exdates != null) {
+            for (long dt : recur.exdates) {
+                excluded.add((dt + offset) / PackedExpander.MILLIS_PER_DAY);
+            }
+        }
+    }
+
+    /**
+     * Runs one rule of a recurrence that only has occurrences at midnight,
+     * appending the local epoch days of the occurrences to out.
+     */
+    private void expandDays(Time dtstart,
+            EventRecurrence r,
+            long rangeStartDay,
+            long rangeEndDay,
+            boolean add,
+            OccurrenceBuffer out) throws DateException {
+        unsafeNormalize(dtstart);
+        long dtstartDay = PackedExpander.epochDay(dtstart.getYear(), dtstart.getMonth(),
+                dtstart.getDay());
+        long untilDay = Long.MAX_VALUE;
+        RecurrenceMetrics metrics = mMetrics;
+        if (metrics != null) {
+            metrics.beginRule(out.size());
+        }
+        try {
+            long untilDateValue = untilDateValue(r, dtstart.getTimezone());
+            if (untilDateValue != Long.MAX_VALUE) {
+                untilDay = PackedExpander.epochDay(PackedExpander.year(untilDateValue),
+                        PackedExpander.month(untilDateValue), PackedExpander.day(untilDateValue));
+            }
+            mPackedExpander.expandDays(dtstartDay, r, untilDay, rangeStartDay, rangeEndDay, add,
+                    out);
+        } catch (RuntimeException t) {
+            Log.w(TAG, "RuntimeException with r=" + r + " rangeStart=" + rangeStartDay
+                    + " rangeEnd=" + rangeEndDay);
+            throw t;
+        }
+        if (metrics != null) {
+            metrics.endRule(r, add, out.size());
+        }
+    }
+
+    /**
+     * Returns true if every occurrence of recur is at local midnight, so that
+     * it can be expanded a day at a time: dtstart and all RDATEs and EXDATEs
+     * are at midnight and no rule repeats more often than daily or sets a
+     * time of day.  The offset must be constant over the expansion.
+     */
+    private static boolean isDateOnly(Time dtstart, RecurrenceSet recur, int offset) {
+        if (!isMidnight(dtstart.toMillis(), offset)) {
+            return false;
+        }
+        if (recur.rrules != null) {
+            for (EventRecurrence rrule : recur.rrules) {
+                if (!PackedExpander.isDateOnly(rrule)) {
+                    return false;
+                }
+            }
+        }
+        if (recur.exrules != null) {
+            for (EventRecurrence exrule : recur.exrules) {
+                if (!PackedExpander.isDateOnly(exrule)) {
+                    return false;
+                }
+            }
+        }
+        return areMidnights(recur.rdates, offset) && areMidnights(recur.exdates, offset);
+    }
+
+    private static boolean areMidnights(long[] dates, int offset) {
+        if (dates != null) {
+            for (long date : dates) {
+                if (!isMidnight(date, offset)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isMidnight(long millis, int offset) {
+        return PackedExpander.floorMod(millis + offset, PackedExpander.MILLIS_PER_DAY) == 0;
+    }
+
+    /**
+     * Expands the recurrence within the given range like
+     * {@link #expand(Time, RecurrenceSet, long, long)}, but returns the
+     * dates of the occurrences as days since January 1, 1970 in the timezone
+     * of dtstart.  This is meant for all-day events: when every occurrence is
+     * at midnight (and the timezone's offset does not change, as for UTC) the
+     * rules are run on day numbers with no time of day work at all.
+     * Otherwise the occurrences are expanded as usual and each is reported on
+     * the day it falls on, once per day.
+     *
+     * @param dtstart a Time object representing the first occurrence
+     * @param recur the recurrence rules, including RRULE, RDATES, EXRULE, and
+     * EXDATES
+     * @param rangeStartMillis the beginning of the range to expand, in UTC
+     * milliseconds
+     * @param rangeEndMillis the non-inclusive end of the range to expand, in
+     * UTC milliseconds; use -1 for the entire range.
+     * @return an array of increasing epoch days
+     * @throws DateException
+     * @throws IllegalArgumentException if recur cannot be parsed
+     */
+    public int[] expandDays(Time dtstart,
+            RecurrenceSet recur,
+            long rangeStartMillis,
+            long rangeEndMillis) throws DateException {
+        String timezone = dtstart.getTimezone();
+        mIterator.clear(timezone);
+        mGenerated.clear(timezone);
+        TimeZone tz = getTimeZone(timezone);
+        int offset = tz.getRawOffset();
+        if (!canCollectDays(tz, dtstart, recur, rangeStartMillis, rangeEndMillis)) {
+            long[] dates = expand(dtstart, recur, rangeStartMillis, rangeEndMillis);
+            OccurrenceBuffer days = mIncluded;
+            days.clear();
+            for (long date : dates) {
+                days.add(PackedExpander.floorDiv(date + tz.getOffset(date),
+                        PackedExpander.MILLIS_PER_DAY));
+            }
+            return toIntArray(days);
+        }
+
+        RecurrenceMetrics metrics = mMetrics;
+        long startNanos = 0;
+        if (metrics != null) {
+            startNanos = System.nanoTime();
+            metrics.beginExpansion(dtstart, rangeStartMillis, rangeEndMillis);
+        }
+        collectDays(dtstart, recur, rangeStartMillis, rangeEndMillis, offset);
+        mIncluded.sortUnique();
+        mExcluded.sortUnique();
+        mIncluded.removeSorted(mExcluded);
+        int[] result = toIntArray(mIncluded);
+        if (metrics != null) {
+            metrics.endExpansion(result.length, System.nanoTime() - startNanos);
+        }
+        return result;
+    }
+
+    /**
+     * Expands the recurrence within the given range like
+     * {@link #expand(Time, RecurrenceSet, long, long)}, but returns each
+     * occurrence as minutes since the epoch, which takes half the memory of
+     * the UTC milliseconds.  Every occurrence must start on a whole minute;
+     * {@link CompactOccurrences#decodeMinutes} turns the result back into
+     * milliseconds.
+     *
+     * @param dtstart a Time object representing the first occurrence
+     * @param recur the recurrence rules, including RRULE, RDATES, EXRULE, and
+     * EXDATES
+     * @param rangeStartMillis the beginning of the range to expand, in UTC
+     * milliseconds
+     * @param rangeEndMillis the non-inclusive end of the range to expand, in
+     * UTC milliseconds; use -1 for the entire range.
+     * @return an array of increasing minutes since the epoch
+     * @throws DateException if an occurrence has seconds
+     * @throws IllegalArgumentException if recur cannot be parsed
+     */
+    public int[] expandMinutes(Time dtstart,
+            RecurrenceSet recur,
+            long rangeStartMillis,
+            long rangeEndMillis) throws DateException {
+        OccurrenceBuffer result = mResult;
+        result.clear();
+        int count = expand(dtstart, recur, rangeStartMillis, rangeEndMillis, result);
+        long[] dates = result.array();
+        int[] minutes = new int[count];
+        for (int i = 0; i < count; i++) {
+            minutes[i] = CompactOccurrences.toMinutes(dates[i]);
         }
+        return minutes;
+    }
 
-        // The values in dtSet are represented in a special form that is useful
-        // for fast comparisons and that is easy to generate from year/month/day
-        // values. We need to convert these to UTC milliseconds and also to
-        // ensure that the dates are valid.
-        int len = dtSet.size();
-        long[] dates = new long[len];
-        int i = 0;
-        for (Long val: dtSet) {
-            setTimeFromLongValue(mIterator, val);
-            dates[i++] = mIterator.toMillis();
+    /**
+     * Expands the recurrence within the given range into the compact form
+     * of the event: epoch days from {@link #expandDays} for an all-day
+     * dtstart, and minutes from {@link #expandMinutes} otherwise.  Decode the
+     * result with {@link CompactOccurrences#decode}.
+     *
+     * @throws DateException
+     * @throws IllegalArgumentException if recur cannot be parsed
+     */
+    public int[] expandCompact(Time dtstart,
+            RecurrenceSet recur,
+            long rangeStartMillis,
+            long rangeEndMillis) throws DateException {
+        if (dtstart.isAllDay()) {
+            return expandDays(dtstart, recur, rangeStartMillis, rangeEndMillis);
         }
-        return dates;
+        return expandMinutes(dtstart, recur, rangeStartMillis, rangeEndMillis);
+    }
+
+    /**
+     * Expands the recurrence within the given range like {@link #expandDays},
+     * but returns the days as a bitmap.  When every occurrence is at midnight
+     * the days of the rules and RDATEs are set directly and the EXRULE and
+     * EXDATE days cleared, with no sorting or conversion to milliseconds.
+     *
+     * @param dtstart a Time object representing the first occurrence
+     * @param recur the recurrence rules, including RRULE, RDATES, EXRULE, and
+     * EXDATES
+     * @param rangeStartMillis the beginning of the range to expand, in UTC
+     * milliseconds
+     * @param rangeEndMillis the non-inclusive end of the range to expand, in
+     * UTC milliseconds; use -1 for the entire range.
+     * @return the epoch days of the occurrences in the timezone of dtstart
+     * @throws DateException
+     * @throws IllegalArgumentException if recur cannot be parsed
+     */
+    public DayBitmap expandDayBitmap(Time dtstart,
+            RecurrenceSet recur,
+            long rangeStartMillis,
+            long rangeEndMillis) throws DateException {
+        String timezone = dtstart.getTimezone();
+        mIterator.clear(timezone);
+        mGenerated.clear(timezone);
+        TimeZone tz = getTimeZone(timezone);
+        if (!canCollectDays(tz, dtstart, recur, rangeStartMillis, rangeEndMillis)) {
+            return DayBitmap.fromDays(
+                    expandDays(dtstart, recur, rangeStartMillis, rangeEndMillis));
+        }
+
+        RecurrenceMetrics metrics = mMetrics;
+        long startNanos = 0;
+        if (metrics != null) {
+            startNanos = System.nanoTime();
+            metrics.beginExpansion(dtstart, rangeStartMillis, rangeEndMillis);
+        }
+        collectDays(dtstart, recur, rangeStartMillis, rangeEndMillis, tz.getRawOffset());
+        DayBitmap result = new DayBitmap();
+        result.addDays(mIncluded.array(), mIncluded.size());
+        result.removeDays(mExcluded.array(), mExcluded.size());
+        if (metrics != null) {
+            metrics.endExpansion(result.size(), System.nanoTime() - startNanos);
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if {@link #collectDays} can be used for the expansion.
+     */
+    private static boolean canCollectDays(TimeZone tz, Time dtstart, RecurrenceSet recur,
+            long rangeStartMillis, long rangeEndMillis) {
+        return canUsePackedArithmetic(tz, dtstart, recur, null /* no duration */,
+                rangeStartMillis, rangeEndMillis)
+                && isDateOnly(dtstart, recur, tz.getRawOffset());
+    }
+
+    private static int[] toIntArray(OccurrenceBuffer days) {
+        days.sortUnique();
+        long[] values = days.array();
+        int[] result = new int[days.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (int) values[i];
+        }
+        return result;
+    }
+
+    /**
+     * Returns the UTC time of a local date-time value in the form returned
+     * by normDateTimeComparisonValue().  Values on days without an offset
+     * change are converted arithmetically, the others through Time.
+     */
+    private long localToMillis(long val) {
+        int offset = mOffsets.offsetOfLocalDay(PackedExpander.epochDay(
+                PackedExpander.year(val), PackedExpander.month(val), PackedExpander.day(val)));
+        if (offset != ZoneOffsetCache.NOT_CONSTANT) {
+            return PackedExpander.toMillis(val, offset);
+        }
+        setTimeFromLongValue(mIterator, val);
+        return mIterator.toMillis();
+    }
+
+    /**
+     * Returns the TimeZone with the given ID.  The last one is kept, as
+     * TimeZone.getTimeZone() returns a new copy every time.
+     */
+    private TimeZone getTimeZone(String id) {
+        TimeZone tz = mTimeZone;
+        if (tz == null || !tz.getID().equals(id)) {
+            tz = TimeZone.getTimeZone(id);
+            mTimeZone = tz;
+            mOffsets.setTimeZone(tz);
+        }
+        return tz;
+    }
+
+    /**
+     * Returns the local date-time value of a UTC time, in the form returned
+     * by normDateTimeComparisonValue().
+     */
+    private long localDateValue(long millis, boolean packed, int offset) {
+        if (packed) {
+            return mPackedExpander.toLocalValue(millis, offset);
+        }
+        // The dates are stored as milliseconds. We need to convert
+        // them to year/month/day values in the local timezone.
+        mIterator.set(millis);
+        return normDateTimeComparisonValue(mIterator);
+    }
+
+    /**
+     * Returns true if the offset of tz is its raw offset at every time the
+     * expansion can look at, from dtstart to the end of the range and the
+     * last instance end, and at every RDATE and EXDATE.  Only then does local
+     * time map to UTC by plain arithmetic.
+     */
+    private static boolean canUsePackedArithmetic(TimeZone tz,
+            Time dtstart,
+            RecurrenceSet recur,
+            Duration duration,
+            long rangeStartMillis,
+            long rangeEndMillis) {
+        long minMillis = PackedExpander.epochDay(PackedExpander.MIN_YEAR + 1, 0, 1)
+                * PackedExpander.MILLIS_PER_DAY;
+        long dtstartMillis = dtstart.toMillis();
+        if (dtstartMillis < minMillis) {
+            return false;
+        }
+        long end = rangeEndMillis;
+        if (end != -1 && duration != null && duration.getNominalDays() > 0) {
+            end += duration.getNominalDays() * PackedExpander.MILLIS_PER_DAY;
+        }
+        if (!PackedExpander.hasConstantOffset(tz, dtstartMillis, end)) {
+            return false;
+        }
+        return hasRawOffsetAt(tz, recur.rdates, minMillis)
+                && hasRawOffsetAt(tz, recur.exdates, minMillis);
+    }
+
+    private static boolean hasRawOffsetAt(TimeZone tz, long[] dates, long minMillis) {
+        if (dates == null) {
+            return true;
+        }
+        int raw = tz.getRawOffset();
+        for (long date : dates) {
+            if (date < minMillis || tz.getOffset(date) != raw) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -734,8 +1424,182 @@ bysetpos:
             long rangeEndDateValue,
             boolean add,
             TreeSet<Long> out) throws DateException {
+        OccurrenceBuffer generated = mRuleValues;
+        generated.clear();
+        expand(dtstart, r, rangeStartDateValue, rangeEndDateValue, add,
+                false /* packed */, generated);
+        long[] values = generated.array();
+        for (int i = 0, n = generated.size(); i < n; i++) {
+            if (add) {
+                out.add(values[i]);
+            } else {
+                out.remove(values[i]);
+            }
+        }
+    }
+
+    /**
+     * Like {@link #expand(Time, EventRecurrence, long, long, boolean, TreeSet)},
+     * but appends the values to out in the order they are generated, without
+     * sorting them or removing duplicates.  In a fixed offset zone the rule
+     * is run on packed values.
+     */
+    void expandInOrder(Time dtstart,
+            EventRecurrence r,
+            long rangeStartDateValue,
+            long rangeEndDateValue,
+            boolean add,
+            OccurrenceBuffer out) throws DateException {
+        String timezone = dtstart.getTimezone();
+        mIterator.clear(timezone);
+        mGenerated.clear(timezone);
+        boolean packed = PackedExpander.isFixedOffsetZone(getTimeZone(timezone))
+                && dtstart.getYear() > PackedExpander.MIN_YEAR;
+        expand(dtstart, r, rangeStartDateValue, rangeEndDateValue, add, packed, out);
+    }
+
+    /**
+     * Returns the occurrences of one rule that begin in the given range, in
+     * UTC milliseconds and in increasing order.  Run as an EXRULE, with add
+     * false, the rule doesn't have dtstart, which would otherwise take up one
+     * of its COUNT.
+     *
+     * @param rangeEndMillis the non-inclusive end of the range, in UTC
+     * milliseconds; use -1 for the entire range.
+     */
+    long[] expandRule(Time dtstart,
+            EventRecurrence r,
+            long rangeStartMillis,
+            long rangeEndMillis,
+            boolean add) throws DateException {
+        String timezone = dtstart.getTimezone();
+        // Points mOffsets at the timezone.
+        getTimeZone(timezone);
+        mIterator.clear(timezone);
+        long rangeStartDateValue = localDateValue(rangeStartMillis, false /* packed */, 0);
+        long rangeEndDateValue = rangeEndMillis != -1
+                ? localDateValue(rangeEndMillis, false /* packed */, 0)
+                : Long.MAX_VALUE;
+        OccurrenceBuffer values = mRuleValues;
+        values.clear();
+        expandInOrder(dtstart, r, rangeStartDateValue, rangeEndDateValue, add, values);
+        mIterator.clear(timezone);
+        long[] array = values.array();
+        for (int i = 0, n = values.size(); i < n; i++) {
+            array[i] = localToMillis(array[i]);
+        }
+        // Skipped local times move to the same time as others.
+        values.sortUnique();
+        return values.toArray();
+    }
+
+    /**
+     * Returns true if the instances of the recurrence depend on the range it
+     * is expanded over.  That is the case when an RRULE has a COUNT but
+     * doesn't generate dtstart itself: dtstart then takes up one of the COUNT
+     * only when the range contains it.  The expansion of such a recurrence
+     * over a range can't be cut out of a larger expansion, or pieced together
+     * from smaller ones.
+     */
+    boolean dependsOnRange(Time dtstart, RecurrenceSet recur) throws DateException {
+        if (recur.rrules == null) {
+            return false;
+        }
         unsafeNormalize(dtstart);
         long dtstartDateValue = normDateTimeComparisonValue(dtstart);
+        OccurrenceBuffer generated = null;
+        for (EventRecurrence r : recur.rrules) {
+            if (r.count <= 0) {
+                continue;
+            }
+            if (generated == null) {
+                generated = new OccurrenceBuffer();
+            }
+            generated.clear();
+            // An EXRULE doesn't add dtstart, so this only returns it if the rule generates it.
+            expandInOrder(dtstart, r, dtstartDateValue, dtstartDateValue + 1,
+                    false /* add */, generated);
+            boolean found = false;
+            for (int i = 0; i < generated.size(); i++) {
+                found |= generated.get(i) == dtstartDateValue;
+            }
+            if (!found) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the recurrence algorithm for one rule, appending the generated
+     * date-time values (in the form returned by normDateTimeComparisonValue())
+     * to out in the order they are generated.  The values are neither sorted
+     * nor unique.
+     *
+     * @param add Whether the values are going to be added to the result
+     * (RRULE) or removed from it (EXRULE).  Only an RRULE adds dtstart
+     * as the first instance.
+     * @param packed Whether to run the rule with {@link PackedExpander}
+     * instead of Time; only valid if the timezone has a constant offset
+     * over the whole expansion.
+     */
+    private void expand(Time dtstart,
+            EventRecurrence r,
+            long rangeStartDateValue,
+            long rangeEndDateValue,
+            boolean add,
+            boolean packed,
+            OccurrenceBuffer out) throws DateException {
+        unsafeNormalize(dtstart);
+        long dtstartDateValue = normDateTimeComparisonValue(dtstart);
+        String timezone = dtstart.getTimezone();
+        // Points mOffsets at the timezone.
+        getTimeZone(timezone);
+        RecurrenceMetrics metrics = mMetrics;
+        if (metrics != null) {
+            metrics.beginRule(out.size());
+        }
+        if (r.freq >= EventRecurrence.SECONDLY && r.freq <= EventRecurrence.HOURLY) {
+            try {
+                mSubDailyExpander.expand(dtstart.toMillis(), timezone, dtstartDateValue, r,
+                        untilDateValue(r, timezone), rangeStartDateValue, rangeEndDateValue,
+                        add, out);
+            } catch (RuntimeException t) {
+                Log.w(TAG, "RuntimeException with r=" + r + " rangeStart=" + rangeStartDateValue
+                        + " rangeEnd=" + rangeEndDateValue);
+                throw t;
+            }
+        } else if (packed) {
+            try {
+                mPackedExpander.expand(dtstartDateValue, r,
+                        untilDateValue(r, dtstart.getTimezone()), rangeStartDateValue,
+                        rangeEndDateValue, add, out);
+            } catch (RuntimeException t) {
+                Log.w(TAG, "RuntimeException with r=" + r + " rangeStart=" + rangeStartDateValue
+                        + " rangeEnd=" + rangeEndDateValue);
+                throw t;
+            }
+        } else {
+            expandWithTime(dtstart, dtstartDateValue, r, rangeStartDateValue, rangeEndDateValue,
+                    add, out);
+        }
+        if (metrics != null) {
+            metrics.endRule(r, add, out.size());
+        }
+    }
+
+    /**
+     * Runs one rule through Time, for {@link #expand(Time, EventRecurrence,
+     * long, long, boolean, boolean, OccurrenceBuffer)}.
+     */
+    private void expandWithTime(Time dtstart,
+            long dtstartDateValue,
+            EventRecurrence r,
+            long rangeStartDateValue,
+            long rangeEndDateValue,
+            boolean add,
+            OccurrenceBuffer out) throws DateException {
+        RecurrenceMetrics metrics = mMetrics;
         int count = 0;
 
         // add the dtstart instance to the recurrence, if within range.
@@ -754,7 +1618,6 @@ bysetpos:
         }
 
         Time iterator = mIterator;
-        Time until = mUntil;
         StringBuilder sb = mStringBuilder;
         Time generated = mGenerated;
         DaySet days = mDays;
@@ -829,26 +1692,10 @@ bysetpos:
                 }
             }
 
-            long untilDateValue;
-            if (r.until != null) {
-                // Ensure that the "until" date string is specified in UTC.
-                String untilStr = r.until;
-                // 15 is length of date-time without trailing Z e.g. "20090204T075959"
-                // A string such as 20090204 is a valid UNTIL (see RFC 2445) and the
-                // Z should not be added.
-                if (untilStr.length() == 15) {
-                    untilStr = untilStr + 'Z';
-                }
-                // The parse() method will set the timezone to UTC
-                until.parse(untilStr);
-
-                // We need the "until" year/month/day values to be in the same
-                // timezone as all the generated dates so that we can compare them
-                // using the values returned by normDateTimeComparisonValue().
-                until.switchTimezone(dtstart.getTimezone());
-                untilDateValue = normDateTimeComparisonValue(until);
-            } else {
-                untilDateValue = Long.MAX_VALUE;
+            long untilDateValue = untilDateValue(r, dtstart.getTimezone());
+            if (untilDateValue < dtstartDateValue || PackedExpander.isUnsatisfiable(r)) {
+                // Nothing but dtstart.
+                return;
             }
 
             sb.ensureCapacity(15);
@@ -863,14 +1710,24 @@ bysetpos:
             // go until the end of the range or we're done with this event
             boolean eventEnded = false;
             int failsafe = 0; // Avoid infinite loops
+            if (freq >= EventRecurrence.MONTHLY && untilDateValue >= rangeStartDateValue
+                    && rangeEndDateValue > rangeStartDateValue) {
+                failsafe = skipPeriods(iterator, r, freqAmount, rangeStartDateValue);
+            }
             events: {
                 while (true) {
                     int monthIndex = 0;
                     if (failsafe++ > MAX_ALLOWED_ITERATIONS) { // Give up after about 1 second of processing
                         Log.w(TAG, "Recurrence processing stuck with r=" + r + " rangeStart="
                                   + rangeStartDateValue + " rangeEnd=" + rangeEndDateValue);
+                        if (metrics != null) {
+                            metrics.mTruncations++;
+                        }
                         break;
                     }
+                    if (metrics != null) {
+                        metrics.mIterations++;
+                    }
 
                     unsafeNormalize(iterator);
 
@@ -881,12 +1738,36 @@ bysetpos:
                     int iteratorMinute = iterator.getMinute();
                     int iteratorSecond = iterator.getSecond();
 
+                    // Stop as soon as no candidate can be inside of UNTIL and the range,
+                    // instead of when the first one that passes the filter is outside of
+                    // them, and skip the periods whose candidates the filter would all
+                    // reject.  A daily period on a day with an offset change might have
+                    // candidates on the next day, so those are always generated.  The
+                    // epoch day arithmetic doesn't know the Julian calendar, so this is
+                    // only done for later dates.
+                    boolean skipPeriod = false;
+                    if (iteratorYear >= PackedExpander.MIN_YEAR) {
+                        long startDay = PackedExpander.periodStartDay(r, useDays, iteratorYear,
+                                iteratorMonth - 1, iteratorDay);
+                        long periodStart = PackedExpander.dayValue(startDay);
+                        if (periodStart > untilDateValue || periodStart >= rangeEndDateValue) {
+                            break;
+                        }
+                        skipPeriod = (freq != EventRecurrence.DAILY
+                                || mOffsets.offsetOfLocalDay(startDay)
+                                        != ZoneOffsetCache.NOT_CONSTANT)
+                                && mPackedExpander.isPeriodFiltered(r, startDay);
+                    }
+
                     // year is never expanded -- there is no BYYEAR
                     generated.set(iterator);
 
                     if (SPEW) Log.i(TAG, "year=" + generated.getYear());
 
                     do { // month
+                        if (skipPeriod) {
+                            break;
+                        }
                         int month = usebymonth
                                         ? r.bymonth[monthIndex]
                                         : iteratorMonth;
@@ -926,8 +1807,8 @@ bysetpos:
                                 dayIndex = iterator.getDay() - weekStartAdj;
                                 lastDayToExamine = dayIndex + 6;
                             } else {
-                                lastDayToExamine = generated
-                                    .getActualMaximum(Time.MONTH_DAY);
+                                lastDayToExamine = actualMaximum(generated,
+                                        Time.MONTH_DAY);
                             }
                             if (SPEW) Log.i(TAG, "dayIndex=" + dayIndex
                                     + " lastDayToExamine=" + lastDayToExamine
@@ -979,15 +1860,18 @@ bysetpos:
                                         unsafeNormalize(generated);
 
                                         long genDateValue = normDateTimeComparisonValue(generated);
+                                        if (metrics != null) {
+                                            metrics.mCandidates++;
+                                        }
                                         // sometimes events get generated (BYDAY, BYHOUR, etc.) that
                                         // are before dtstart.  Filter these.  I believe this is correct,
                                         // but Google Calendar doesn't seem to always do this.
                                         if (genDateValue >= dtstartDateValue) {
                                             // filter and then add
-                                            // TODO: we don't check for stop conditions (like
-                                            //       passing the "end" date) unless the filter
-                                            //       allows the event.  Could stop sooner.
                                             int filtered = filter(r, generated);
+                                            if (filtered != 0 && metrics != null) {
+                                                metrics.mRejections[filtered]++;
+                                            }
                                             if (0 == filtered) {
 
                                                 // increase the count as long
@@ -1035,11 +1919,7 @@ bysetpos:
                                                     if (SPEW) {
                                                         Log.i(TAG, "adding date=" + generated + " filtered=" + filtered);
                                                     }
-                                                    if (add) {
-                                                        out.add(genDateValue);
-                                                    } else {
-                                                        out.remove(genDateValue);
-                                                    }
+                                                    out.add(genDateValue);
                                                 }
                                                 // another is that count is high enough
                                                 if (r.count > 0 && r.count == count) {
@@ -1108,6 +1988,90 @@ bysetpos:
         }
     }
 
+    /**
+     * Moves the iterator of a MONTHLY or YEARLY rule to the first period that can reach
+     * the range, like PackedExpander.expand() does, and returns the number of iterations
+     * the skipped periods would have taken.  Nothing is skipped if the iterator's local time
+     * doesn't exist in any of those periods, because Time would have moved it, and the later
+     * periods with it.
+     */
+    private int skipPeriods(Time iterator, EventRecurrence r, int freqAmount,
+            long rangeStartDateValue) {
+        int months = r.freq == EventRecurrence.MONTHLY ? freqAmount : 12 * freqAmount;
+        int year = iterator.getYear();
+        int month = iterator.getMonth();
+        int day = iterator.getDay();
+        long steps = PackedExpander.stepsBeforeRange(r, months, year, month, day,
+                rangeStartDateValue);
+        if (steps == 0) {
+            return 0;
+        }
+        long millisOfDay = ((iterator.getHour() * 60L + iterator.getMinute()) * 60
+                + iterator.getSecond()) * 1000;
+        long position = year * 12L + month;
+        int iterations = 0;
+        for (long k = 0; k <= steps && iterations <= MAX_ALLOWED_ITERATIONS; k++) {
+            long total = position + months * k;
+            int y = (int) PackedExpander.floorDiv(total, 12);
+            int m = (int) PackedExpander.floorMod(total, 12);
+            if (day > monthLength(y, m)) {
+                continue;
+            }
+            long epochDay = PackedExpander.epochDay(y, m, day);
+            if (mOffsets.offsetOfLocalDay(epochDay) == ZoneOffsetCache.NOT_CONSTANT
+                    && !existsLocally(mOffsets.getTimeZone(),
+                            epochDay * PackedExpander.MILLIS_PER_DAY + millisOfDay)) {
+                return 0;
+            }
+            if (k < steps) {
+                iterations++;
+            }
+        }
+        long total = position + months * steps;
+        iterator.setMonth((int) PackedExpander.floorMod(total, 12));
+        iterator.setYear((int) PackedExpander.floorDiv(total, 12));
+        return iterations;
+    }
+
+    /**
+     * Returns true if the given local time, in milliseconds since 1970-01-01 in local time,
+     * isn't skipped by a change of offset of the timezone.
+     */
+    static boolean existsLocally(TimeZone tz, long localMillis) {
+        int before = tz.getOffset(localMillis - PackedExpander.MILLIS_PER_DAY);
+        int after = tz.getOffset(localMillis + PackedExpander.MILLIS_PER_DAY);
+        return tz.getOffset(localMillis - before) == before
+                || tz.getOffset(localMillis - after) == after;
+    }
+
+    /**
+     * Returns the UNTIL of r as a date-time value in the given timezone, in
+     * the form returned by normDateTimeComparisonValue(), or Long.MAX_VALUE
+     * if r has no UNTIL.
+     */
+    private long untilDateValue(EventRecurrence r, String timezone) {
+        if (r.until == null) {
+            return Long.MAX_VALUE;
+        }
+        Time until = mUntil;
+        // Ensure that the "until" date string is specified in UTC.
+        String untilStr = r.until;
+        // 15 is length of date-time without trailing Z e.g. "20090204T075959"
+        // A string such as 20090204 is a valid UNTIL (see RFC 2445) and the
+        // Z should not be added.
+        if (untilStr.length() == 15) {
+            untilStr = untilStr + 'Z';
+        }
+        // The parse() method will set the timezone to UTC
+        until.parse(untilStr);
+
+        // We need the "until" year/month/day values to be in the same
+        // timezone as all the generated dates so that we can compare them
+        // using the values returned by normDateTimeComparisonValue().
+        until.switchTimezone(timezone);
+        return normDateTimeComparisonValue(until);
+    }
+
     /**
      * Normalizes the date fields to give a valid date, but if the time falls
      * in the invalid window during a transition out of Daylight Saving Time
@@ -1137,51 +2101,19 @@ bysetpos:
         hour -= addDays * 24;
         monthDay += addDays;
 
-        // We want to make "monthDay" positive. We do this by subtracting one
-        // from the year and adding a year's worth of days to "monthDay" in
-        // the following loop while "monthDay" <= 0.
-        while (monthDay <= 0) {
-            // If month is after Feb, then add this year's length so that we
-            // include this year's leap day, if any.
-            // Otherwise (the month is Feb or earlier), add last year's length.
-            // Subtract one from the year in either case. This gives the same
-            // effective date but makes monthDay (the day of the month) much
-            // larger. Eventually (usually in one iteration) monthDay will
-            // be positive.
-            int days = month > 1 ? yearLength(year) : yearLength(year - 1);
-            monthDay += days;
-            year -= 1;
-        }
-        // At this point, monthDay >= 1. Normalize the month to the range [0,11].
-        if (month < 0) {
-            int years = (month + 1) / 12 - 1;
-            year += years;
-            month -= 12 * years;
-        } else if (month >= 12) {
-            int years = month / 12;
-            year += years;
-            month -= 12 * years;
-        }
-        // At this point, month is in the range [0,11] and monthDay >= 1.
-        // Now loop until the monthDay is in the correct range for the month.
-        while (true) {
-            // On January, check if we can jump forward a whole year.
-            if (month == 0) {
-                int yearLength = yearLength(year);
-                if (monthDay > yearLength) {
-                    year++;
-                    monthDay -= yearLength;
-                }
-            }
-            int monthLength = monthLength(year, month);
-            if (monthDay > monthLength) {
-                monthDay -= monthLength;
-                month++;
-                if (month >= 12) {
-                    month -= 12;
-                    year++;
-                }
-            } else break;
+        // Bring the month into the range [0,11], then move the day into the month.  A day
+        // outside of it goes through the epoch day, which takes the same time however far
+        // outside it is.
+        if (month < 0 || month >= 12) {
+            year += (int) PackedExpander.floorDiv(month, 12);
+            month = (int) PackedExpander.floorMod(month, 12);
+        }
+        long epochDay = PackedExpander.epochDay(year, month, monthDay);
+        if (monthDay < 1 || (monthDay > 28 && monthDay > monthLength(year, month))) {
+            long value = PackedExpander.dayValue(epochDay);
+            year = PackedExpander.year(value);
+            month = PackedExpander.month(value);
+            monthDay = PackedExpander.day(value);
         }
         // At this point, monthDay <= the length of the current month and is
         // in the range [1,31].
@@ -1192,7 +2124,7 @@ bysetpos:
         date.setDay(monthDay);
         date.setMonth(month);
         date.setYear(year);
-        date.setWeekDay(weekDay(year, month, monthDay));
+        date.setWeekDay(PackedExpander.weekDay(epochDay));
         date.setYearDay(yearDay(year, month, monthDay));
     }
 
@@ -1216,6 +2148,19 @@ bysetpos:
         return isLeapYear(year) ? 366 : 365;
     }
 
+    /**
+     * Returns t.getActualMaximum(field) for MONTH_DAY or YEAR_DAY.  Calendar
+     * copies itself to find those, so years the Gregorian calendar has always
+     * applied to are worked out from t's normalized fields instead.
+     */
+    private static int actualMaximum(Time t, int field) {
+        int year = t.getYear();
+        if (year < PackedExpander.MIN_YEAR) {
+            return t.getActualMaximum(field);
+        }
+        return field == Time.MONTH_DAY ? monthLength(year, t.getMonth()) : yearLength(year);
+    }
+
     private static final int[] DAYS_PER_MONTH = { 31, 28, 31, 30, 31, 30, 31,
             31, 30, 31, 30, 31 };
     private static final int[] DAYS_IN_YEAR_PRECEDING_MONTH = { 0, 31, 59, 90,
@@ -1246,11 +2191,7 @@ bysetpos:
      * @return the weekday, a number in the range [0,6] where Sunday=0
      */
     static int weekDay(int year, int month, int day) {
-        if (month <= 1) {
-            month += 12;
-            year -= 1;
-        }
-        return (day + (13 * month - 14) / 5 + year + year/4 - year/100 + year/400) % 7;
+        return PackedExpander.weekDay(PackedExpander.epochDay(year, month, day));
     }
 
     /**
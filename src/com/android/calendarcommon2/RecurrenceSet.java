@@ -136,6 +136,35 @@ public class RecurrenceSet {
         return (rrules != null || rdates != null);
     }
 
+    /**
+     * Splits the recurrence at an instance, for changing "this and all following"
+     * instances.  The first recurrence returned has the instances before splitMillis: its
+     * rules end with an UNTIL just before it, in place of any COUNT.  The second has the
+     * instances from splitMillis on, which becomes its dtstart: it has the rules with
+     * occurrences left, their COUNT reduced by the occurrences before splitMillis.  The
+     * RDATEs and EXDATEs are divided between the two.
+     * <p>
+     * The rules of the second keep the periods, days and times they had from dtstart, so
+     * splitMillis need not be an instance of every rule; if it isn't an instance at all, it
+     * is an EXDATE of the second.  Some rules can't start at splitMillis, such as one with
+     * an INTERVAL that doesn't have splitMillis in one of its periods: one that ends is
+     * replaced by its occurrences, as RDATEs, and one that doesn't end makes the split fail.
+     * <p>
+     * The number of occurrences before splitMillis is computed from the dates when a rule
+     * just repeats dtstart, and by expanding the rule up to splitMillis otherwise.
+     *
+     * @param dtstart the start of the first instance
+     * @param splitMillis the start of the first instance of the new series, in UTC
+     * milliseconds
+     * @return the recurrence before splitMillis, or null if splitMillis is not after
+     * dtstart, and the recurrence from splitMillis on, or null if it has no RRULEs or RDATEs
+     * left
+     * @throws DateException if a rule without an end can't start at splitMillis
+     */
+    public RecurrenceSet[] split(Time dtstart, long splitMillis) throws DateException {
+        return RecurrenceSplitter.split(this, dtstart, splitMillis);
+    }
+
     /**
      * Parses the provided RDATE or EXDATE string into an array of longs
      * representing each date/time in the recurrence.
@@ -0,0 +1,664 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import java.util.TimeZone;
+
+/**
+ * Splits a recurrence into the instances before a time and the instances from that time on,
+ * for {@link RecurrenceSet#split}.
+ * <p>
+ * The rules of the earlier part end with an UNTIL just before the split, and the COUNT of the
+ * rules of the later part is reduced by the number of occurrences before it.  That number is
+ * worked out from the dates of dtstart and the split when the rule is a plain series of
+ * periods, and by expanding the rule up to the split otherwise.  Like the expansion, the
+ * occurrences are compared with the split as local date-times in the timezone of dtstart.
+ * <p>
+ * The later part starts at the split, which the periods of its rules are counted from.  The
+ * split need not be an occurrence of every rule, so the parts that a rule takes from dtstart
+ * are set explicitly where the split differs from it.  A rule that can't keep its periods
+ * that way, such as one with an INTERVAL that doesn't have the split in one of its periods,
+ * is replaced by its occurrences from the split on, as RDATEs, if it ends.  A rule with a
+ * COUNT that doesn't occur at the split ends with an UNTIL at its last occurrence instead, as
+ * the split would take up one of its COUNT.  The EXRULEs that end are replaced by the
+ * EXDATEs they generate from the split on, and the split is an EXDATE of the later part if
+ * it isn't an instance.
+ */
+final class RecurrenceSplitter {
+
+    private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+
+    private RecurrenceSplitter() {
+    }
+
+    static RecurrenceSet[] split(RecurrenceSet recur, Time dtstart, long splitMillis)
+            throws DateException {
+        Time local = new Time(dtstart.getTimezone());
+        local.set(dtstart);
+        long dtstartValue = value(local);
+        local.set(splitMillis);
+        long splitValue = value(local);
+        String until = formatUntil(dtstart.isAllDay(), splitMillis);
+
+        RecurrenceSet before = null;
+        if (splitMillis > dtstart.toMillis()) {
+            before = new RecurrenceSet(null, null, null, null);
+            if (recur.rrules != null) {
+                before.rrules = new EventRecurrence[recur.rrules.length];
+                for (int i = 0; i < recur.rrules.length; i++) {
+                    before.rrules[i] = truncate(recur.rrules[i], dtstart, dtstartValue,
+                            splitValue, splitMillis, until);
+                }
+            }
+            before.exrules = copy(recur.exrules);
+            before.rdates = selectDates(recur.rdates, Long.MIN_VALUE, splitMillis);
+            before.exdates = selectDates(recur.exdates, Long.MIN_VALUE, splitMillis);
+        }
+
+        RecurrenceSet after = new RecurrenceSet(null, null, null, null);
+        after.rdates = selectDates(recur.rdates, splitMillis, Long.MAX_VALUE);
+        after.exdates = selectDates(recur.exdates, splitMillis, Long.MAX_VALUE);
+        if (before == null) {
+            after.rrules = copy(recur.rrules);
+            after.exrules = copy(recur.exrules);
+        } else {
+            addRemainingRules(recur.rrules, dtstart, dtstartValue, splitValue, splitMillis,
+                    after);
+            excludeRemaining(recur, dtstart, dtstartValue, splitValue, splitMillis, after);
+        }
+        if (!after.hasRecurrence()) {
+            after = null;
+        }
+        return new RecurrenceSet[] {before, after};
+    }
+
+    /**
+     * Returns a copy of the rule that ends before the split.
+     */
+    private static EventRecurrence truncate(EventRecurrence r, Time dtstart, long dtstartValue,
+            long splitValue, long splitMillis, String until) throws DateException {
+        EventRecurrence copy = r.copy();
+        if (r.count > 0) {
+            if (countBefore(dtstart, r, dtstartValue, splitValue) < r.count) {
+                copy.count = 0;
+                copy.until = until;
+            }
+        } else if (r.until == null || untilMillis(r) >= splitMillis) {
+            copy.until = until;
+        }
+        return copy;
+    }
+
+    /**
+     * Adds the rules that have occurrences from the split on to the later part, anchored at
+     * the split, with their COUNT reduced by the occurrences before it.
+     */
+    private static void addRemainingRules(EventRecurrence[] rules, Time dtstart,
+            long dtstartValue, long splitValue, long splitMillis, RecurrenceSet after)
+            throws DateException {
+        if (rules == null) {
+            return;
+        }
+        OccurrenceBuffer rdates = new OccurrenceBuffer();
+        EventRecurrence[] remaining = new EventRecurrence[rules.length];
+        int n = 0;
+        for (EventRecurrence r : rules) {
+            int before = 0;
+            if (r.count > 0) {
+                before = countBefore(dtstart, r, dtstartValue, splitValue);
+                if (before >= r.count) {
+                    continue;
+                }
+            } else if (r.until != null && untilMillis(r) < splitMillis) {
+                continue;
+            }
+            EventRecurrence copy = anchor(r, dtstart, dtstartValue, splitValue, splitMillis);
+            if (copy == null && r.count == 0 && r.until == null) {
+                throw new DateException("The split is not in a period of " + r);
+            }
+            if (copy != null && (r.count == 0
+                    || occursAt(dtstart, r, dtstartValue, splitValue))) {
+                if (r.count > 0) {
+                    copy.count = r.count - before;
+                }
+                remaining[n++] = copy;
+                continue;
+            }
+            long[] occurrences = new RecurrenceProcessor().expand(dtstart, single(r),
+                    dtstart.toMillis(), -1);
+            if (copy != null) {
+                // The UNTIL that ends just before the day or second after the last occurrence.
+                long last = occurrences[occurrences.length - 1];
+                copy.count = 0;
+                copy.until = formatUntil(dtstart.isAllDay(),
+                        last + (dtstart.isAllDay() ? PackedExpander.MILLIS_PER_DAY : 1000));
+                remaining[n++] = copy;
+            } else {
+                for (long occurrence : occurrences) {
+                    if (occurrence >= splitMillis) {
+                        rdates.add(occurrence);
+                    }
+                }
+            }
+        }
+        after.rrules = n > 0 ? copyOf(remaining, n) : null;
+        if (rdates.size() > 0) {
+            if (after.rdates != null) {
+                for (long rdate : after.rdates) {
+                    rdates.add(rdate);
+                }
+            }
+            rdates.sortUnique();
+            after.rdates = rdates.toArray();
+        }
+    }
+
+    /**
+     * Adds the occurrences from the split on of the EXRULEs that end to the EXDATEs of the
+     * later part, and the split if it isn't an instance.  The EXRULEs that don't end are
+     * kept, anchored at the split.
+     */
+    private static void excludeRemaining(RecurrenceSet recur, Time dtstart,
+            long dtstartValue, long splitValue, long splitMillis, RecurrenceSet after)
+            throws DateException {
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        OccurrenceBuffer excluded = new OccurrenceBuffer();
+        if (after.exdates != null) {
+            for (long exdate : after.exdates) {
+                excluded.add(exdate);
+            }
+        }
+        // An instance of a COUNT rule before the split can depend on whether the range holds
+        // dtstart.
+        long from = rp.dependsOnRange(dtstart, recur) ? dtstart.toMillis() : splitMillis;
+        long[] instances = rp.expand(dtstart, recur, from, splitMillis + 1000);
+        if (!contains(instances, splitMillis)) {
+            excluded.add(splitMillis);
+        }
+        EventRecurrence[] exrules = recur.exrules;
+        int n = 0;
+        EventRecurrence[] kept = exrules != null ? new EventRecurrence[exrules.length] : null;
+        if (exrules != null) {
+            for (EventRecurrence r : exrules) {
+                if (r.count == 0 && r.until == null) {
+                    EventRecurrence copy = anchor(r, dtstart, dtstartValue, splitValue,
+                            splitMillis);
+                    if (copy == null) {
+                        throw new DateException("The split is not in a period of " + r);
+                    }
+                    kept[n++] = copy;
+                    continue;
+                }
+                // As an RRULE the rule also has dtstart, which is before the range, so it
+                // doesn't take up one of the COUNT.
+                rp.expand(dtstart, single(r), splitMillis, -1, excluded);
+            }
+        }
+        excluded.sortUnique();
+        after.exrules = n > 0 ? copyOf(kept, n) : null;
+        after.exdates = excluded.size() > 0 ? excluded.toArray() : null;
+    }
+
+    /**
+     * Returns a copy of the rule for a series that starts at the split, or null if it can't
+     * have the same occurrences.  The parts that the expansion takes from dtstart are set
+     * where the split differs from it: the time of day, and the day of the week, month or
+     * year of a rule without BYDAY and BYMONTHDAY.  That can't be done when the rule has an
+     * INTERVAL and the split is in none of its periods, when the days of a YEARLY rule
+     * depend on the month of the split, or when daylight saving moves the periods of an
+     * HOURLY rule by part of an hour.  Once the time of a longer rule has been skipped, its
+     * instances are at the time Time moved it to, which is only known from an instance at
+     * the split.
+     */
+    private static EventRecurrence anchor(EventRecurrence r, Time dtstart, long dtstartValue,
+            long splitValue, long splitMillis) throws DateException {
+        EventRecurrence copy = r.copy();
+        int freq = r.freq;
+        int year = PackedExpander.year(dtstartValue);
+        int month = PackedExpander.month(dtstartValue);
+        int day = PackedExpander.day(dtstartValue);
+        long dtstartDay = PackedExpander.epochDay(year, month, day);
+        int splitYear = PackedExpander.year(splitValue);
+        int splitMonth = PackedExpander.month(splitValue);
+        long splitDay = PackedExpander.epochDay(splitYear, splitMonth,
+                PackedExpander.day(splitValue));
+        // The time of the periods of a sub-daily rule moves with the offset of the timezone.
+        long time = dtstartValue;
+        if (freq <= EventRecurrence.HOURLY) {
+            time = periodAt(dtstart, r, splitValue, splitMillis);
+            if (time < 0) {
+                return null;
+            }
+            // Where daylight saving moves the periods of an HOURLY rule by part of an hour,
+            // which hour they are in depends on where in the hour they start.
+            if (freq == EventRecurrence.HOURLY && (time & 0xFFF) != (splitValue & 0xFFF)
+                    && TimeZone.getTimeZone(dtstart.getTimezone()).getDSTSavings()
+                            % 3600000 != 0) {
+                return null;
+            }
+        } else if (movesTime(dtstart, r, dtstartValue, splitValue)) {
+            // The instances that were moved before the split are at the time of one at it.
+            if (!occursAt(dtstart, r, dtstartValue, splitValue)) {
+                return null;
+            }
+            time = splitValue;
+        } else if (((time & 0x1FFFF) != (splitValue & 0x1FFFF)
+                || freq == EventRecurrence.WEEKLY
+                        && PackedExpander.weekDay(splitDay) != PackedExpander.weekDay(dtstartDay)
+                || freq >= EventRecurrence.MONTHLY && PackedExpander.day(splitValue) != day
+                || freq == EventRecurrence.YEARLY && splitMonth != month)
+                && movesTime(dtstart, r, dtstartValue, lastValue(dtstart, r, splitValue))) {
+            // Those after it can't be moved with the copy, whose iterator is on other days or
+            // whose time is set below.
+            return null;
+        }
+        // Packed values have the second in the lowest six bits, then the minute and the hour.
+        // All of the time is set, so that it isn't taken from an iterator that daylight saving
+        // can move.
+        long timeMask = freq == EventRecurrence.MINUTELY ? 0x3F
+                : freq == EventRecurrence.HOURLY ? 0xFFF : 0x1FFFF;
+        if (freq > EventRecurrence.SECONDLY && (time & timeMask) != (splitValue & timeMask)) {
+            if (r.bysecondCount == 0) {
+                copy.bysecond = new int[] {PackedExpander.second(time)};
+                copy.bysecondCount = 1;
+            }
+            if (freq > EventRecurrence.MINUTELY && r.byminuteCount == 0) {
+                copy.byminute = new int[] {PackedExpander.minute(time)};
+                copy.byminuteCount = 1;
+            }
+            if (freq > EventRecurrence.HOURLY && r.byhourCount == 0) {
+                copy.byhour = new int[] {PackedExpander.hour(time)};
+                copy.byhourCount = 1;
+            }
+        }
+
+        boolean implicitDay = r.bydayCount == 0 && r.bymonthdayCount == 0;
+        if (freq == EventRecurrence.WEEKLY && implicitDay
+                && PackedExpander.weekDay(splitDay) != PackedExpander.weekDay(dtstartDay)) {
+            copy.byday = new int[] {
+                EventRecurrence.timeDay2Day(PackedExpander.weekDay(dtstartDay))
+            };
+            copy.bydayNum = new int[] {0};
+            copy.bydayCount = 1;
+        } else if (freq == EventRecurrence.MONTHLY && implicitDay
+                && PackedExpander.day(splitValue) != day) {
+            copy.bymonthday = new int[] {day};
+            copy.bymonthdayCount = 1;
+        } else if (freq == EventRecurrence.YEARLY) {
+            // The days are those of the iterator's month, which is the month of the split.
+            if (splitMonth != month && !monthlessDays(r)) {
+                return null;
+            }
+            // Without BYMONTH they are also in that month.
+            boolean pinMonth = r.bymonthCount == 0 && splitMonth != month;
+            if (implicitDay && (pinMonth || PackedExpander.day(splitValue) != day)) {
+                if (day > 28 && splitMonth != month) {
+                    return null;
+                }
+                copy.bymonthday = new int[] {day};
+                copy.bymonthdayCount = 1;
+                pinMonth = r.bymonthCount == 0;
+            }
+            if (pinMonth) {
+                copy.bymonth = new int[] {month + 1};
+                copy.bymonthCount = 1;
+            }
+        }
+
+        int interval = Math.max(r.interval, 1);
+        if (interval == 1) {
+            return copy;
+        }
+        long periods;
+        switch (freq) {
+            case EventRecurrence.SECONDLY:
+            case EventRecurrence.MINUTELY:
+            case EventRecurrence.HOURLY:
+                // Checked by periodAt().
+                return copy;
+            case EventRecurrence.DAILY:
+                periods = splitDay - dtstartDay;
+                break;
+            case EventRecurrence.WEEKLY:
+                int wkst = EventRecurrence.day2TimeDay(r.wkst);
+                periods = (splitDay - (PackedExpander.weekDay(splitDay) - wkst + 7) % 7
+                        - dtstartDay + (PackedExpander.weekDay(dtstartDay) - wkst + 7) % 7) / 7;
+                break;
+            case EventRecurrence.MONTHLY:
+                periods = 12 * (splitYear - year) + splitMonth - month;
+                break;
+            default:
+                periods = splitYear - year;
+                break;
+        }
+        return periods % interval == 0 ? copy : null;
+    }
+
+    /**
+     * Returns whether the days of a YEARLY rule are the same in every month it is expanded
+     * in: whether it has no BYDAY, and the days of its BYMONTHDAY are in every month.
+     */
+    private static boolean monthlessDays(EventRecurrence r) {
+        if (r.bydayCount > 0) {
+            return false;
+        }
+        for (int i = 0; i < r.bymonthdayCount; i++) {
+            if (r.bymonthday[i] < 1 || r.bymonthday[i] > 28) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the start of the period of a sub-daily rule that has the split, as a packed
+     * value, or -1 if the split is in none of them.  That is the period of the rule without
+     * its BYxxx parts that starts last before the split, if it has the split's hour, or
+     * minute for a MINUTELY rule.  The periods are stepped through in UTC, so their place in
+     * local time follows the changes of the timezone's offset.
+     */
+    private static long periodAt(Time dtstart, EventRecurrence r, long splitValue,
+            long splitMillis) throws DateException {
+        EventRecurrence periods = new EventRecurrence();
+        periods.freq = r.freq;
+        periods.interval = r.interval;
+        periods.wkst = r.wkst;
+        int unit = r.freq == EventRecurrence.SECONDLY ? 1
+                : r.freq == EventRecurrence.MINUTELY ? 60 : 3600;
+        Time t = new Time(dtstart.getTimezone());
+        t.set(splitMillis - 1000L * unit * Math.max(r.interval, 1));
+        OccurrenceBuffer values = new OccurrenceBuffer();
+        new RecurrenceProcessor().expandInOrder(dtstart, periods, value(t), splitValue + 1,
+                false /* add */, values);
+        if (values.size() == 0) {
+            return -1;
+        }
+        long start = values.get(values.size() - 1);
+        int shift = r.freq == EventRecurrence.SECONDLY ? 0
+                : r.freq == EventRecurrence.MINUTELY ? 6 : 12;
+        return start >> shift == splitValue >> shift ? start : -1;
+    }
+
+    /**
+     * Returns whether the rule occurs at the split, when it is expanded from dtstart.
+     */
+    private static boolean occursAt(Time dtstart, EventRecurrence r, long dtstartValue,
+            long splitValue) throws DateException {
+        if (splitValue == dtstartValue) {
+            return true;
+        }
+        OccurrenceBuffer values = new OccurrenceBuffer();
+        // Without adding dtstart, which is before the split.
+        new RecurrenceProcessor().expandInOrder(dtstart, r, splitValue, splitValue + 1,
+                false /* add */, values);
+        for (int i = 0; i < values.size(); i++) {
+            if (values.get(i) == splitValue) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the time of dtstart is skipped on a day up to the given one that the
+     * expansion of a DAILY or longer rule steps its iterator through.  Time moves the
+     * iterator past it, and the later instances with it.
+     */
+    private static boolean movesTime(Time dtstart, EventRecurrence r, long dtstartValue,
+            long toValue) {
+        TimeZone tz = TimeZone.getTimeZone(dtstart.getTimezone());
+        if (dtstart.isAllDay() || PackedExpander.isFixedOffsetZone(tz)) {
+            return false;
+        }
+        int interval = Math.max(r.interval, 1);
+        int year = PackedExpander.year(dtstartValue);
+        int month = PackedExpander.month(dtstartValue);
+        int day = PackedExpander.day(dtstartValue);
+        long millisOfDay = secondOfDay(dtstartValue) * 1000;
+        long toDay = PackedExpander.epochDay(PackedExpander.year(toValue),
+                PackedExpander.month(toValue), PackedExpander.day(toValue));
+        if (r.freq == EventRecurrence.DAILY || r.freq == EventRecurrence.WEEKLY) {
+            int days = r.freq == EventRecurrence.DAILY ? interval : 7 * interval;
+            for (long d = PackedExpander.epochDay(year, month, day); d <= toDay; d += days) {
+                if (!RecurrenceProcessor.existsLocally(tz,
+                        d * PackedExpander.MILLIS_PER_DAY + millisOfDay)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        // The months that don't have the day are skipped, like skipPeriods() does.
+        int months = r.freq == EventRecurrence.MONTHLY ? interval : 12 * interval;
+        for (long total = 12L * year + month; ; total += months) {
+            int y = (int) PackedExpander.floorDiv(total, 12);
+            int m = (int) PackedExpander.floorMod(total, 12);
+            if (day > RecurrenceProcessor.monthLength(y, m)) {
+                continue;
+            }
+            long d = PackedExpander.epochDay(y, m, day);
+            if (d > toDay) {
+                return false;
+            }
+            if (!RecurrenceProcessor.existsLocally(tz,
+                    d * PackedExpander.MILLIS_PER_DAY + millisOfDay)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns the last instance of the rule as a packed value, or for a rule that doesn't end,
+     * the day 28 years after the split, by when the days of the week have come back to the
+     * same dates.
+     */
+    private static long lastValue(Time dtstart, EventRecurrence r, long splitValue)
+            throws DateException {
+        long last;
+        if (r.count > 0) {
+            last = new RecurrenceProcessor().getLastOccurence(dtstart, single(r));
+        } else if (r.until != null) {
+            last = untilMillis(r);
+        } else {
+            return PackedExpander.pack(PackedExpander.year(splitValue) + 28,
+                    PackedExpander.month(splitValue), PackedExpander.day(splitValue), 0, 0, 0);
+        }
+        Time t = new Time(dtstart.getTimezone());
+        t.set(last);
+        return value(t);
+    }
+
+    private static RecurrenceSet single(EventRecurrence r) {
+        RecurrenceSet rule = new RecurrenceSet(null, null, null, null);
+        rule.rrules = new EventRecurrence[] {r};
+        return rule;
+    }
+
+    private static boolean contains(long[] dates, long date) {
+        for (long d : dates) {
+            if (d == date) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of occurrences of the RRULE before the split, up to its COUNT.
+     */
+    static int countBefore(Time dtstart, EventRecurrence r, long dtstartValue,
+            long splitValue) throws DateException {
+        long n = countPeriodsBefore(dtstart, r, dtstartValue, splitValue);
+        if (n < 0) {
+            OccurrenceBuffer values = new OccurrenceBuffer();
+            new RecurrenceProcessor().expandInOrder(dtstart, r, dtstartValue, splitValue,
+                    true /* add */, values);
+            values.sortUnique();
+            n = values.size();
+        }
+        return (int) Math.min(n, r.count);
+    }
+
+    /**
+     * Returns the number of occurrences before the split of a rule without BYxxx parts,
+     * which occurs once a period at the time of dtstart, or -1 for any other rule, or when
+     * that time has been skipped before the split.
+     * Sub-daily rules are only counted this way in fixed offset zones, where the local times
+     * they step through are evenly spaced.
+     */
+    private static long countPeriodsBefore(Time dtstart, EventRecurrence r, long dtstartValue,
+            long splitValue) {
+        if (r.bysecondCount > 0 || r.byminuteCount > 0 || r.byhourCount > 0
+                || r.bydayCount > 0 || r.bymonthdayCount > 0 || r.byyeardayCount > 0
+                || r.byweeknoCount > 0 || r.bymonthCount > 0 || r.bysetposCount > 0) {
+            return -1;
+        }
+        if (splitValue <= dtstartValue) {
+            return 0;
+        }
+        if (r.freq > EventRecurrence.HOURLY && movesTime(dtstart, r, dtstartValue, splitValue)) {
+            return -1;
+        }
+        int interval = Math.max(r.interval, 1);
+        int year = PackedExpander.year(dtstartValue);
+        int month = PackedExpander.month(dtstartValue);
+        int day = PackedExpander.day(dtstartValue);
+        long time = dtstartValue & 0x1FFFF;
+        long dtstartDay = PackedExpander.epochDay(year, month, day);
+        int splitYear = PackedExpander.year(splitValue);
+        int splitMonth = PackedExpander.month(splitValue);
+        long splitDay = PackedExpander.epochDay(splitYear, splitMonth,
+                PackedExpander.day(splitValue));
+        // The last period that starts on or before the day of the split.
+        long last;
+        long lastValue;
+        switch (r.freq) {
+            case EventRecurrence.SECONDLY:
+            case EventRecurrence.MINUTELY:
+            case EventRecurrence.HOURLY:
+                if (!PackedExpander.isFixedOffsetZone(
+                        TimeZone.getTimeZone(dtstart.getTimezone()))) {
+                    return -1;
+                }
+                long step = interval * (r.freq == EventRecurrence.SECONDLY ? 1
+                        : r.freq == EventRecurrence.MINUTELY ? 60 : 3600);
+                long seconds = (splitDay - dtstartDay) * SECONDS_PER_DAY
+                        + secondOfDay(splitValue) - secondOfDay(dtstartValue);
+                return (seconds + step - 1) / step;
+            case EventRecurrence.DAILY:
+            case EventRecurrence.WEEKLY:
+                int days = r.freq == EventRecurrence.DAILY ? interval : 7 * interval;
+                last = (splitDay - dtstartDay) / days;
+                lastValue = PackedExpander.dayValue(dtstartDay + last * days) | time;
+                break;
+            case EventRecurrence.MONTHLY:
+                // Later days are skipped in the months that don't have them.
+                if (day > 28) {
+                    return -1;
+                }
+                last = (12 * (splitYear - year) + splitMonth - month) / interval;
+                long months = 12L * year + month + last * interval;
+                lastValue = PackedExpander.pack((int) (months / 12), (int) (months % 12), day,
+                        0, 0, 0) | time;
+                break;
+            case EventRecurrence.YEARLY:
+                if (month == 1 && day == 29) {
+                    return -1;
+                }
+                last = (splitYear - year) / interval;
+                lastValue = PackedExpander.pack(year + (int) last * interval, month, day,
+                        0, 0, 0) | time;
+                break;
+            default:
+                return -1;
+        }
+        return lastValue < splitValue ? last + 1 : last;
+    }
+
+    private static long secondOfDay(long value) {
+        return PackedExpander.hour(value) * 3600 + PackedExpander.minute(value) * 60
+                + PackedExpander.second(value);
+    }
+
+    private static long value(Time t) {
+        return PackedExpander.pack(t.getYear(), t.getMonth(), t.getDay(), t.getHour(),
+                t.getMinute(), t.getSecond());
+    }
+
+    private static long untilMillis(EventRecurrence r) {
+        String until = r.until;
+        // As in RecurrenceProcessor, a date-time without a timezone is in UTC.
+        if (until.length() == 15) {
+            until = until + 'Z';
+        }
+        Time t = new Time(Time.TIMEZONE_UTC);
+        t.parse(until);
+        return t.toMillis();
+    }
+
+    /**
+     * Returns the UNTIL for a rule that ends before the split: the day before it for all-day
+     * events, which occur at midnight UTC, and the second before it otherwise.
+     */
+    private static String formatUntil(boolean allDay, long splitMillis) {
+        Time t = new Time(Time.TIMEZONE_UTC);
+        if (allDay) {
+            t.set(PackedExpander.floorDiv(splitMillis - 1, PackedExpander.MILLIS_PER_DAY)
+                    * PackedExpander.MILLIS_PER_DAY);
+            t.setAllDay(true);
+        } else {
+            t.set(PackedExpander.floorDiv(splitMillis - 1, 1000) * 1000);
+        }
+        return t.format2445();
+    }
+
+    private static EventRecurrence[] copy(EventRecurrence[] rules) {
+        if (rules == null) {
+            return null;
+        }
+        EventRecurrence[] copies = new EventRecurrence[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            copies[i] = rules[i].copy();
+        }
+        return copies;
+    }
+
+    private static EventRecurrence[] copyOf(EventRecurrence[] rules, int n) {
+        EventRecurrence[] result = new EventRecurrence[n];
+        System.arraycopy(rules, 0, result, 0, n);
+        return result;
+    }
+
+    /** Returns the dates in [from, to), or null if there are none. */
+    private static long[] selectDates(long[] dates, long from, long to) {
+        if (dates == null) {
+            return null;
+        }
+        long[] selected = new long[dates.length];
+        int n = 0;
+        for (long date : dates) {
+            if (date >= from && date < to) {
+                selected[n++] = date;
+            }
+        }
+        if (n == 0) {
+            return null;
+        }
+        long[] result = new long[n];
+        System.arraycopy(selected, 0, result, 0, n);
+        return result;
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import android.util.Log;
+
+/**
+ * Runs HOURLY, MINUTELY and SECONDLY rules.
+ * <p>
+ * Like RecurrenceProcessor, the iterator advances by adding the interval to the UTC time, so
+ * the local time of the occurrences follows daylight saving transitions, and the candidates of
+ * each period are the local date and time of the iterator with BYMINUTE and BYSECOND applied.
+ * On days where the timezone's offset is constant (see {@link ZoneOffsetCache}) all of this is
+ * done on packed values and seconds of the day, with the date filters evaluated once per day
+ * and the time filters as bit masks, and periods that can't produce an instance are skipped.
+ * Only on the days around an offset change are candidates resolved through {@link Time}, so
+ * that skipped and repeated local times are handled exactly like the general algorithm does.
+ * <p>
+ * Rules without COUNT start at the period closest to the start of the range instead of
+ * walking there from dtstart, and the iteration limit is much higher than the general one,
+ * so that long windows of frequent rules can be expanded.
+ */
+final class SubDailyExpander {
+
+    private static final String TAG = "RecurrenceProcessor";
+
+    // Give up after this many periods.  Every period can add an occurrence, so this also
+    // bounds the size of the result: eleven days of SECONDLY, two years of MINUTELY.
+    static final int MAX_ALLOWED_ITERATIONS = 1000000;
+
+    private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+    private static final long MILLIS_PER_WEEK = 7 * PackedExpander.MILLIS_PER_DAY;
+
+    private final PackedExpander mPacked = new PackedExpander();
+    private final ZoneOffsetCache mOffsets;
+    private final Time mTime = new Time(Time.TIMEZONE_UTC);
+
+    // The iterator: its UTC time, and its local time as an epoch day and second of the day.
+    // mConstant is true if that day has a constant offset.
+    private long mMillis;
+    private long mDay;
+    private int mSecondOfDay;
+    private boolean mConstant;
+    // The packed value of midnight of mDay.
+    private long mDayValue;
+
+    // The day for which mDayKept was computed.
+    private long mFilteredDay;
+    private boolean mDayKept;
+
+    private RecurrenceMetrics mMetrics;
+
+    SubDailyExpander(ZoneOffsetCache offsets) {
+        mOffsets = offsets;
+    }
+
+    void setMetrics(RecurrenceMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Returns a bit mask of the values in [0,max] that a BYHOUR, BYMINUTE or BYSECOND filter
+     * keeps, or all ones if the field is not filtered.
+     */
+    static long fieldMask(boolean filtered, int[] list, int count, int max) {
+        if (!filtered || count == 0) {
+            return -1L;
+        }
+        long mask = 0;
+        for (int v = 0; v <= max; v++) {
+            if (RecurrenceProcessor.listContains(list, count, v, max)) {
+                mask |= 1L << v;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Runs one rule, appending the generated packed values to out in the order they are
+     * generated.  The arguments are the same as for {@link PackedExpander#expand}, plus the
+     * UTC time and timezone of dtstart.
+     */
+    void expand(long dtstartMillis, String timezone, long dtstartValue, EventRecurrence r,
+            long untilValue, long rangeStartValue, long rangeEndValue, boolean add,
+            OccurrenceBuffer out) throws DateException {
+        int count = 0;
+        boolean dtstartAdded = add && dtstartValue >= rangeStartValue
+                && dtstartValue < rangeEndValue;
+        if (dtstartAdded) {
+            out.add(dtstartValue);
+            ++count;
+        }
+
+        if (rangeEndValue == Long.MAX_VALUE && r.until == null && r.count == 0) {
+            Log.w(TAG, "DateException with r=" + r + " rangeStart=" + rangeStartValue
+                    + " rangeEnd=" + rangeEndValue);
+            throw new DateException(
+                    "No range end provided for a recurrence that has no UNTIL or COUNT.");
+        }
+
+        int freq = r.freq;
+        int unitSeconds;
+        switch (freq) {
+            case EventRecurrence.SECONDLY:
+                unitSeconds = 1;
+                break;
+            case EventRecurrence.MINUTELY:
+                unitSeconds = 60;
+                break;
+            case EventRecurrence.HOURLY:
+                unitSeconds = 60 * 60;
+                break;
+            default:
+                throw new DateException("bad freq=" + freq);
+        }
+        if (untilValue < dtstartValue || PackedExpander.isUnsatisfiable(r)) {
+            // Nothing but dtstart.
+            return;
+        }
+        int stepSeconds = unitSeconds * (r.interval > 0 ? r.interval : 1);
+        long stepMillis = stepSeconds * 1000L;
+
+        boolean usebyminute = freq > EventRecurrence.MINUTELY && r.byminuteCount > 0;
+        boolean usebysecond = freq > EventRecurrence.SECONDLY && r.bysecondCount > 0;
+        int byminuteCount = r.byminuteCount;
+        int bysecondCount = r.bysecondCount;
+        long hourMask = fieldMask(true, r.byhour, r.byhourCount, 23);
+        long minuteMask = fieldMask(EventRecurrence.MINUTELY >= freq, r.byminute,
+                r.byminuteCount, 59);
+        long secondMask = fieldMask(EventRecurrence.SECONDLY >= freq, r.bysecond,
+                r.bysecondCount, 59);
+        // The granularity of a period: all candidates of a period share the iterator's
+        // second of the day rounded down to this.
+        int periodSeconds = usebyminute ? 60 * 60 : (usebysecond ? 60 : 1);
+
+        mTime.clear(timezone);
+        mDay = Long.MIN_VALUE;
+        mFilteredDay = Long.MIN_VALUE;
+        moveTo(dtstartMillis);
+
+        if (r.count == 0) {
+            // Without COUNT, the periods before the range don't matter.  Start a couple of
+            // days before the start of the range, to leave room for the offset.
+            skipTo(PackedExpander.toMillis(rangeStartValue, 0) - 2 * PackedExpander.MILLIS_PER_DAY,
+                    stepMillis);
+        }
+
+        RecurrenceMetrics metrics = mMetrics;
+        int failsafe = 0;
+        events:
+        while (true) {
+            if (failsafe++ > MAX_ALLOWED_ITERATIONS) {
+                Log.w(TAG, "Recurrence processing stuck with r=" + r + " rangeStart="
+                        + rangeStartValue + " rangeEnd=" + rangeEndValue);
+                if (metrics != null) {
+                    metrics.mTruncations++;
+                }
+                break;
+            }
+            if (metrics != null) {
+                metrics.mIterations++;
+            }
+
+            int second = mSecondOfDay % 60;
+            int minute = mSecondOfDay / 60 % 60;
+            int hour = mSecondOfDay / 3600;
+
+            // No candidate of this period or any later one can come before this.
+            long periodStart = mDayValue + localTimeValue(mSecondOfDay
+                    - mSecondOfDay % periodSeconds);
+            if (periodStart > untilValue || periodStart >= rangeEndValue) {
+                break;
+            }
+
+            if (mConstant) {
+                // Skip periods whose candidates all fail the filters.
+                int skipSeconds = 0;
+                if (!isDayKept(r)) {
+                    skipSeconds = SECONDS_PER_DAY - mSecondOfDay;
+                } else if ((hourMask & (1L << hour)) == 0) {
+                    skipSeconds = 60 * 60 - mSecondOfDay % (60 * 60);
+                } else if (!usebyminute && (minuteMask & (1L << minute)) == 0) {
+                    skipSeconds = 60 - mSecondOfDay % 60;
+                }
+                if (skipSeconds > 0) {
+                    int steps = (skipSeconds + stepSeconds - 1) / stepSeconds;
+                    moveTo(mMillis + steps * stepMillis);
+                    continue;
+                }
+            }
+
+            int minuteIndex = 0;
+            do {
+                int genMinute = usebyminute ? r.byminute[minuteIndex] : minute;
+                int secondIndex = 0;
+                do {
+                    int genSecond = usebysecond ? r.bysecond[secondIndex] : second;
+
+                    long genValue;
+                    boolean kept;
+                    if (mConstant) {
+                        genValue = mDayValue
+                                + localTimeValue(hour * 3600 + genMinute * 60 + genSecond);
+                        kept = (minuteMask & (1L << genMinute)) != 0
+                                && (secondMask & (1L << genSecond)) != 0;
+                        if (!kept && metrics != null && genValue >= dtstartValue) {
+                            metrics.mRejections[(minuteMask & (1L << genMinute)) == 0
+                                    ? RecurrenceMetrics.REJECTED_BY_MINUTE
+                                    : RecurrenceMetrics.REJECTED_BY_SECOND]++;
+                        }
+                    } else {
+                        // Near an offset change the local time might not exist; let Time
+                        // resolve it.
+                        Time t = mTime;
+                        t.set(genSecond, genMinute, hour, PackedExpander.day(mDayValue),
+                                PackedExpander.month(mDayValue), PackedExpander.year(mDayValue));
+                        RecurrenceProcessor.unsafeNormalize(t);
+                        genValue = PackedExpander.pack(t.getYear(), t.getMonth(), t.getDay(),
+                                t.getHour(), t.getMinute(), t.getSecond());
+                        kept = genValue >= dtstartValue
+                                && PackedExpander.accept(r, genValue, metrics);
+                    }
+                    if (metrics != null) {
+                        metrics.mCandidates++;
+                    }
+                    if (kept && genValue >= dtstartValue) {
+                        if (!(dtstartValue == genValue && dtstartAdded)) {
+                            ++count;
+                        }
+                        if (genValue > untilValue) {
+                            break events;
+                        }
+                        if (genValue >= rangeEndValue) {
+                            break events;
+                        }
+                        if (genValue >= rangeStartValue) {
+                            out.add(genValue);
+                        }
+                        if (r.count > 0 && r.count == count) {
+                            break events;
+                        }
+                    }
+                    secondIndex++;
+                } while (usebysecond && secondIndex < bysecondCount);
+                minuteIndex++;
+            } while (usebyminute && minuteIndex < byminuteCount);
+
+            moveTo(mMillis + stepMillis);
+        }
+    }
+
+    /**
+     * Returns the packed value of a time of day, to be added to the value of midnight.
+     */
+    private static long localTimeValue(int secondOfDay) {
+        return ((secondOfDay / 3600) << 12) + ((secondOfDay / 60 % 60) << 6) + secondOfDay % 60;
+    }
+
+    /**
+     * Returns true if the iterator's day passes the rule's date filters.
+     */
+    private boolean isDayKept(EventRecurrence r) {
+        if (mDay != mFilteredDay) {
+            mFilteredDay = mDay;
+            mDayKept = PackedExpander.filterDate(r, PackedExpander.year(mDayValue),
+                    PackedExpander.month(mDayValue), PackedExpander.day(mDayValue)) == 0;
+        }
+        return mDayKept;
+    }
+
+    /**
+     * Moves the iterator to a UTC time.  Near an offset change this normalizes it through
+     * Time like RecurrenceProcessor does, which moves a time in the first of two repeated
+     * hours to the second one.
+     */
+    private void moveTo(long millis) {
+        int offset = mOffsets.offsetAt(millis);
+        long local;
+        mConstant = offset != ZoneOffsetCache.NOT_CONSTANT;
+        if (mConstant) {
+            local = millis + offset;
+        } else {
+            Time t = mTime;
+            t.set(millis);
+            RecurrenceProcessor.unsafeNormalize(t);
+            millis = t.toMillis();
+            local = PackedExpander.toMillis(PackedExpander.pack(t.getYear(), t.getMonth(),
+                    t.getDay(), t.getHour(), t.getMinute(), t.getSecond()), 0);
+        }
+        mMillis = millis;
+        long seconds = PackedExpander.floorDiv(local, 1000);
+        long day = PackedExpander.floorDiv(seconds, SECONDS_PER_DAY);
+        mSecondOfDay = (int) (seconds - day * SECONDS_PER_DAY);
+        if (day != mDay) {
+            mDay = day;
+            mDayValue = mPacked.toLocalValue(day * PackedExpander.MILLIS_PER_DAY, 0);
+        }
+    }
+
+    /**
+     * Advances the iterator by whole steps to the last step before target, a week at a time
+     * where all local times exist exactly once.  Elsewhere it steps normally.
+     */
+    private void skipTo(long target, long stepMillis) {
+        while (target - mMillis >= stepMillis) {
+            long end = Math.min(target, mMillis + MILLIS_PER_WEEK);
+            if (end - mMillis >= stepMillis && mOffsets.isConstantBetween(mMillis, end)) {
+                moveTo(mMillis + (end - mMillis) / stepMillis * stepMillis);
+            } else {
+                moveTo(mMillis + stepMillis);
+            }
+        }
+    }
+}
@@ -148,7 +148,7 @@ public class Time {
 
     public void set(Time other) {
         clearCalendar();
-        mCalendar.setTimeZone(other.getTimeZone());
+        setCalendarTimeZone(other.timezone);
         mCalendar.setTimeInMillis(other.mCalendar.getTimeInMillis());
         readFieldsFromCalendar();
     }
@@ -274,6 +274,17 @@ public class Time {
         return timezone != null ? TimeZone.getTimeZone(timezone) : TimeZone.getDefault();
     }
 
+    /**
+     * Sets the timezone of the calendar, unless it already has the one with that ID, as
+     * TimeZone.getTimeZone() returns a new copy every time.
+     */
+    private void setCalendarTimeZone(String timezoneId) {
+        if (timezoneId == null || !timezoneId.equals(mCalendar.getTimeZone().getID())) {
+            mCalendar.setTimeZone(timezoneId != null ? TimeZone.getTimeZone(timezoneId)
+                    : TimeZone.getDefault());
+        }
+    }
+
     public int compareTo(Time other) {
         return mCalendar.compareTo(other.mCalendar);
     }
@@ -282,7 +293,7 @@ public class Time {
         mDstChangedByField = -1;
         mCalendar.clear();
         mCalendar.set(Calendar.HOUR_OF_DAY, 0); // HOUR_OF_DAY doesn't get reset with #clear
-        mCalendar.setTimeZone(getTimeZone());
+        setCalendarTimeZone(timezone);
         // set fields for week number computation according to ISO 8601.
         mCalendar.setFirstDayOfWeek(Calendar.MONDAY);
         mCalendar.setMinimalDaysInFirstWeek(4);
@@ -354,7 +365,7 @@ public class Time {
 
     public void setTimezone(String timezone) {
         this.timezone = timezone;
-        mCalendar.setTimeZone(getTimeZone());
+        setCalendarTimeZone(timezone);
     }
 
     public int getYearDay() {
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import java.util.TimeZone;
+
+/**
+ * Remembers the UTC offset of the local day that was looked at last.
+ * <p>
+ * A local day is "constant" if the timezone's offset is the same from well before the day
+ * starts until well after it ends.  On such a day every local time exists exactly once, so it
+ * maps to UTC by subtracting the offset, which is what Time (and Calendar) would give as
+ * well.  Days around a daylight saving transition are reported as not constant, and callers
+ * fall back to Time for them.
+ * <p>
+ * This assumes that a timezone never changes its offset twice within a few days, so two
+ * samples are enough to tell whether a day is constant.
+ */
+final class ZoneOffsetCache {
+
+    /** Returned for days that contain (or are close to) a change of offset. */
+    static final int NOT_CONSTANT = Integer.MIN_VALUE;
+
+    // Larger than any daylight saving amount, so that a transition outside of the sampled
+    // window can't make a local time inside of it skipped or repeated.
+    private static final long MARGIN_MILLIS = 6 * 60 * 60 * 1000L;
+
+    private TimeZone mTimeZone;
+
+    private long mDay;
+    private int mOffset;
+    private boolean mValid;
+
+    // The UTC range of mDay, if it is constant.
+    private long mStartMillis;
+    private long mEndMillis;
+
+    void setTimeZone(TimeZone tz) {
+        if (tz != mTimeZone) {
+            mTimeZone = tz;
+            mValid = false;
+        }
+    }
+
+    TimeZone getTimeZone() {
+        return mTimeZone;
+    }
+
+    /**
+     * Returns the offset of the given local epoch day if it is constant, or
+     * {@link #NOT_CONSTANT}.
+     */
+    int offsetOfLocalDay(long day) {
+        if (!mValid || day != mDay) {
+            long start = day * PackedExpander.MILLIS_PER_DAY;
+            long end = start + PackedExpander.MILLIS_PER_DAY;
+            int offset = mTimeZone.getOffset(start - mTimeZone.getRawOffset());
+            int before = mTimeZone.getOffset(start - offset - MARGIN_MILLIS);
+            int after = mTimeZone.getOffset(end - offset + MARGIN_MILLIS);
+            mDay = day;
+            mValid = true;
+            if (before == offset && after == offset) {
+                mOffset = before;
+                mStartMillis = start - before;
+                mEndMillis = end - before;
+            } else {
+                mOffset = NOT_CONSTANT;
+                mStartMillis = 0;
+                mEndMillis = 0;
+            }
+        }
+        return mOffset;
+    }
+
+    /**
+     * Returns the offset at the given UTC time if the local day it falls on is constant, or
+     * {@link #NOT_CONSTANT}.
+     */
+    int offsetAt(long millis) {
+        if (mValid && millis >= mStartMillis && millis < mEndMillis) {
+            return mOffset;
+        }
+        int offset = mTimeZone.getOffset(millis);
+        return offsetOfLocalDay(PackedExpander.floorDiv(millis + offset,
+                PackedExpander.MILLIS_PER_DAY));
+    }
+
+    /**
+     * Returns true if every local time between the UTC times start and end, inclusive,
+     * exists exactly once.  end must be at most a week after start.
+     */
+    boolean isConstantBetween(long start, long end) {
+        return mTimeZone.getOffset(start - MARGIN_MILLIS)
+                == mTimeZone.getOffset(end + MARGIN_MILLIS);
+    }
+}
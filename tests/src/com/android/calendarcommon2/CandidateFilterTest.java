@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class CandidateFilterTest extends TestCase {
+
+    private static final String[] RULES = {
+        "FREQ=DAILY",
+        "FREQ=YEARLY;BYMONTH=2,11;BYDAY=MO,FR",
+        "FREQ=YEARLY;BYWEEKNO=1,-1,53;BYDAY=TH",
+        "FREQ=YEARLY;BYYEARDAY=1,60,-1,-306",
+        "FREQ=MONTHLY;BYMONTHDAY=1,-1,-3,31",
+        "FREQ=MONTHLY;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=1,-1",
+        "FREQ=WEEKLY;BYDAY=SA,SU;BYHOUR=0,12,23;BYMINUTE=15,45",
+        "FREQ=MINUTELY;BYSECOND=0,30;BYHOUR=9",
+    };
+
+    private static EventRecurrence rule(String str) {
+        EventRecurrence r = new EventRecurrence();
+        r.parse(str);
+        return r;
+    }
+
+    /** Candidates at a few times of day on every day of two years, one of them a leap year. */
+    private static long[] candidates() {
+        OccurrenceBuffer values = new OccurrenceBuffer();
+        long first = PackedExpander.epochDay(2019, 11, 20);
+        for (long day = first; day < first + 2 * 366 + 20; day++) {
+            long date = PackedExpander.dayValue(day);
+            int year = PackedExpander.year(date);
+            int month = PackedExpander.month(date);
+            int dayOfMonth = PackedExpander.day(date);
+            values.add(PackedExpander.pack(year, month, dayOfMonth, 0, 15, 0));
+            values.add(PackedExpander.pack(year, month, dayOfMonth, 9, 45, 30));
+            values.add(PackedExpander.pack(year, month, dayOfMonth, 12, 15, 0));
+            values.add(PackedExpander.pack(year, month, dayOfMonth, 23, 45, 59));
+        }
+        return values.toArray();
+    }
+
+    @SmallTest
+    public void testMatchesScalarFilter() {
+        long[] candidates = candidates();
+        for (String str : RULES) {
+            EventRecurrence r = rule(str);
+            CandidateFilter filter = new CandidateFilter(r);
+            OccurrenceBuffer expected = new OccurrenceBuffer();
+            for (long value : candidates) {
+                int reason = PackedExpander.filter(r, value);
+                assertEquals(str + " " + value, reason, filter.reason(value));
+                if (reason == 0) {
+                    expected.add(value);
+                }
+            }
+
+            long[] kept = candidates.clone();
+            int n = new CandidateFilter(r).filter(kept, kept.length, kept);
+            assertTrue(str, Arrays.equals(expected.toArray(), Arrays.copyOf(kept, n)));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class CompactOccurrencesTest extends TestCase {
+
+    private static Time time(String tz, String str) {
+        Time t = new Time(tz);
+        t.parse(str);
+        return t;
+    }
+
+    private static void assertRoundTrip(String tz, String dtstart, String rrule, String rdate,
+            String rangeStart, String rangeEnd) throws Exception {
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        Time start = time(tz, dtstart);
+        RecurrenceSet recur = new RecurrenceSet(rrule, rdate, null, null);
+        long from = time(tz, rangeStart).toMillis();
+        long to = time(tz, rangeEnd).toMillis();
+        long[] expected = rp.expand(start, recur, from, to);
+        int[] compact = rp.expandCompact(start, recur, from, to);
+        assertEquals(expected.length, compact.length);
+        assertTrue(rrule + " in " + tz,
+                Arrays.equals(expected, CompactOccurrences.decode(compact, start)));
+    }
+
+    @SmallTest
+    public void testRoundTrip() throws Exception {
+        assertRoundTrip("America/New_York", "20240105T091500", "FREQ=DAILY",
+                "20240301T120000Z", "20240301T000000", "20240401T000000");
+        assertRoundTrip("Asia/Kolkata", "20240102T183000", "FREQ=WEEKLY;BYDAY=TU,TH", null,
+                "20240101T000000", "20250101T000000");
+        assertRoundTrip("Europe/London", "19500101T000000", "FREQ=YEARLY", null,
+                "19500101T000000", "20500101T000000");
+        assertRoundTrip(Time.TIMEZONE_UTC, "20240105", "FREQ=WEEKLY;BYDAY=MO,FR", null,
+                "20240101T000000", "20240401T000000");
+        assertRoundTrip("Australia/Sydney", "20240105", "FREQ=MONTHLY", null,
+                "20240101T000000", "20250101T000000");
+    }
+
+    @SmallTest
+    public void testAllDayIsDays() throws Exception {
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        Time start = time(Time.TIMEZONE_UTC, "20240105");
+        int[] days = rp.expandCompact(start, new RecurrenceSet("FREQ=DAILY;COUNT=3", null,
+                null, null), start.toMillis(), -1);
+        long day = start.toMillis() / (24 * 60 * 60 * 1000L);
+        assertTrue(Arrays.equals(new int[] {(int) day, (int) day + 1, (int) day + 2}, days));
+    }
+
+    @SmallTest
+    public void testMinutes() throws Exception {
+        assertEquals(0, CompactOccurrences.toMinutes(0));
+        assertEquals(-1, CompactOccurrences.toMinutes(-60000));
+        assertEquals(-60000, CompactOccurrences.minutesToMillis(-1));
+        assertEquals(Integer.MAX_VALUE * 60000L,
+                CompactOccurrences.minutesToMillis(Integer.MAX_VALUE));
+        try {
+            CompactOccurrences.toMinutes(-1);
+            fail();
+        } catch (DateException expected) {
+        }
+        try {
+            CompactOccurrences.toMinutes((Integer.MAX_VALUE + 1L) * 60000L);
+            fail();
+        } catch (DateException expected) {
+        }
+    }
+
+    @SmallTest
+    public void testSecondsRejected() throws Exception {
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        Time start = time(Time.TIMEZONE_UTC, "20240105T090030");
+        try {
+            rp.expandMinutes(start, new RecurrenceSet("FREQ=DAILY;COUNT=2", null, null, null),
+                    start.toMillis(), -1);
+            fail();
+        } catch (DateException expected) {
+        }
+    }
+}
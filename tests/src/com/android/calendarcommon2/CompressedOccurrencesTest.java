@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import junit.framework.TestCase;
+
+public class CompressedOccurrencesTest extends TestCase {
+
+    private static final String TZ = "America/New_York";
+
+    private static long[] expandDaily() throws Exception {
+        Time dtstart = new Time(TZ);
+        dtstart.parse("20200105T090000");
+        Time end = new Time(TZ);
+        end.parse("20300101T000000");
+        return new RecurrenceProcessor().expand(dtstart,
+                new RecurrenceSet("FREQ=DAILY", null, null, null), dtstart.toMillis(),
+                end.toMillis());
+    }
+
+    @SmallTest
+    public void testRoundTrip() throws Exception {
+        long[] dates = expandDaily();
+        CompressedOccurrences compressed = CompressedOccurrences.encode(dates);
+        assertEquals(dates.length, compressed.size());
+        assertTrue(Arrays.equals(dates, compressed.toArray()));
+        // A constant stride between daylight saving changes is a couple of bytes a block.
+        assertTrue(compressed.byteSize() < dates.length);
+
+        CompressedOccurrences stored =
+                CompressedOccurrences.fromByteArray(compressed.toByteArray());
+        assertTrue(Arrays.equals(dates, stored.toArray()));
+
+        long[] odd = {-5000, -1, 0, 7, Long.MAX_VALUE / 2};
+        assertTrue(Arrays.equals(odd, CompressedOccurrences.encode(odd).toArray()));
+        assertEquals(0, CompressedOccurrences.encode(new long[0]).toArray().length);
+    }
+
+    @SmallTest
+    public void testSeek() throws Exception {
+        long[] dates = expandDaily();
+        CompressedOccurrences compressed = CompressedOccurrences.encode(dates);
+        CompressedOccurrences.Cursor cursor = compressed.cursor();
+        // Forwards and backwards, within a block and across blocks.
+        for (int i : new int[] {1000, 1000, 64, 65, 3, 1500, dates.length - 2}) {
+            cursor.seek(dates[i] - 1);
+            assertEquals(dates[i], cursor.next());
+            cursor.seek(dates[i]);
+            assertEquals(dates[i], cursor.next());
+            cursor.seek(dates[i] + 1);
+            assertEquals(dates[i + 1], cursor.next());
+        }
+        cursor.seek(Long.MIN_VALUE);
+        assertEquals(dates[0], cursor.next());
+        cursor.seek(Long.MAX_VALUE);
+        assertFalse(cursor.hasNext());
+        try {
+            cursor.next();
+            fail();
+        } catch (NoSuchElementException expected) {
+        }
+
+        long[] slice = compressed.toArray(dates[100], dates[200]);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(dates, 100, 200), slice));
+    }
+
+    @SmallTest
+    public void testEncodeBuffer() throws Exception {
+        OccurrenceBuffer buffer = new OccurrenceBuffer();
+        buffer.add(99);
+        buffer.add(5);
+        buffer.add(10);
+        buffer.add(20);
+        assertTrue(Arrays.equals(new long[] {5, 10, 20},
+                CompressedOccurrences.encode(buffer, 1, 3).toArray()));
+        try {
+            CompressedOccurrences.encode(buffer, 0, 3);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            CompressedOccurrences.fromByteArray(new byte[] {5, 0});
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
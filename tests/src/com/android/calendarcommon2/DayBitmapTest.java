@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class DayBitmapTest extends TestCase {
+
+    private static Time time(String tz, String str) {
+        Time t = new Time(tz);
+        t.parse(str);
+        return t;
+    }
+
+    private static void assertDays(DayBitmap bitmap, int... expected) {
+        assertTrue(bitmap.toString(), Arrays.equals(expected, bitmap.toDays()));
+    }
+
+    @SmallTest
+    public void testAddRemove() {
+        DayBitmap bitmap = DayBitmap.fromDays(new int[] {100, -3, 64, 63});
+        assertDays(bitmap, -3, 63, 64, 100);
+        bitmap.add(-200);
+        bitmap.add(1000);
+        bitmap.remove(64);
+        bitmap.remove(5000);
+        assertDays(bitmap, -200, -3, 63, 100, 1000);
+        assertTrue(bitmap.contains(-3));
+        assertFalse(bitmap.contains(-4));
+        assertFalse(bitmap.contains(100000));
+        assertEquals(5, bitmap.size());
+        assertTrue(new DayBitmap().isEmpty());
+    }
+
+    @SmallTest
+    public void testRanges() {
+        DayBitmap bitmap = DayBitmap.fromDays(new int[] {10, 70, 130, 200});
+        assertTrue(bitmap.containsAny(10, 11));
+        assertFalse(bitmap.containsAny(11, 70));
+        assertTrue(bitmap.containsAny(-1000, 1000));
+        assertFalse(bitmap.containsAny(201, 1000));
+        assertEquals(2, bitmap.count(70, 200));
+        assertEquals(4, bitmap.count(0, 201));
+        assertEquals(0, bitmap.count(50, 50));
+    }
+
+    @SmallTest
+    public void testWordOperations() {
+        DayBitmap a = DayBitmap.fromDays(new int[] {1, 2, 3, 300});
+        DayBitmap b = DayBitmap.fromDays(new int[] {-100, 2, 300, 500});
+        DayBitmap union = DayBitmap.fromDays(a.toDays());
+        union.or(b);
+        assertDays(union, -100, 1, 2, 3, 300, 500);
+        DayBitmap both = DayBitmap.fromDays(a.toDays());
+        both.and(b);
+        assertDays(both, 2, 300);
+        DayBitmap diff = DayBitmap.fromDays(a.toDays());
+        diff.andNot(b);
+        assertDays(diff, 1, 3);
+        assertEquals(DayBitmap.fromDays(new int[] {1, 3}), diff);
+        assertEquals(DayBitmap.fromDays(new int[] {1, 3}).hashCode(), diff.hashCode());
+        assertFalse(diff.equals(both));
+    }
+
+    @SmallTest
+    public void testExpandDayBitmap() throws Exception {
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        String[][] cases = {
+            {Time.TIMEZONE_UTC, "20200101", "FREQ=WEEKLY;BYDAY=MO,WE,FR",
+                    "20200104T000000Z", "20200108T000000Z"},
+            {Time.TIMEZONE_UTC, "20200131", "FREQ=MONTHLY;BYMONTHDAY=-1", null, null},
+            // Not at midnight in a zone with daylight saving time.
+            {"America/New_York", "20200101T090000", "FREQ=DAILY", null, null},
+        };
+        for (String[] c : cases) {
+            Time dtstart = time(c[0], c[1]);
+            RecurrenceSet recur = new RecurrenceSet(c[2], c[3], null, c[4]);
+            long start = dtstart.toMillis();
+            long end = time(c[0], "20230101T000000").toMillis();
+            DayBitmap bitmap = rp.expandDayBitmap(dtstart, recur, start, end);
+            assertTrue(c[2], Arrays.equals(rp.expandDays(dtstart, recur, start, end),
+                    bitmap.toDays()));
+            if (dtstart.isAllDay()) {
+                assertTrue(c[2], Arrays.equals(rp.expand(dtstart, recur, start, end),
+                        bitmap.toMillis(c[0])));
+                assertEquals(bitmap, DayBitmap.fromMillis(bitmap.toMillis(c[0]), c[0]));
+            }
+        }
+    }
+}
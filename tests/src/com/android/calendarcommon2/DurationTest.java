@@ -71,7 +71,16 @@ public class DurationTest extends TestCase {
             // expected
         }
     }
-}
-
 
+    @SmallTest
+    public void testNominalAndExactParts() throws Exception {
+        Duration duration = new Duration();
+        duration.parse("P1W2DT3H4M5S");
+        assertEquals(9, duration.getNominalDays());
+        assertEquals(((3 * 60 + 4) * 60 + 5) * 1000L, duration.getExactMillis());
 
+        duration.parse("-P2D");
+        assertEquals(-2, duration.getNominalDays());
+        assertEquals(0, duration.getExactMillis());
+    }
+}
@@ -886,4 +886,21 @@ public class EventRecurrenceTest extends TestCase {
             assertTrue("Expected throw on " + rule, didThrow);
         }
     }
+
+    /**
+     * Test that toString() gives a rule that parses back to the same one.
+     */
+    @SmallTest
+    public void testToStringParse() {
+        for (String rule : GOOD_RRULES) {
+            EventRecurrence recur = new EventRecurrence();
+            recur.parse(rule);
+            EventRecurrence copy = new EventRecurrence();
+            copy.parse(recur.toString());
+            assertEquals(rule, recur, copy);
+        }
+        EventRecurrence recur = new EventRecurrence();
+        recur.parse("FREQ=DAILY;BYSECOND=30;BYHOUR=9,17");
+        assertEquals("FREQ=DAILY;WKST=MO;BYSECOND=30;BYHOUR=9,17", recur.toString());
+    }
 }
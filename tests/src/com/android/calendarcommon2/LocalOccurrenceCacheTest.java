@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class LocalOccurrenceCacheTest extends TestCase {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long DAY = 24 * HOUR;
+
+    private static final String[] ZONES = {
+        "America/New_York", "Europe/London", "Australia/Sydney", "Asia/Kolkata", "UTC",
+    };
+
+    private static Time time(String tz, String str) {
+        Time t = new Time(tz);
+        t.parse(str);
+        return t;
+    }
+
+    private static void assertSameAsExpand(LocalOccurrenceCache cache, String dtstart,
+            String rrule, String rdate, String exrule, String exdate, String rangeStart,
+            int days) throws Exception {
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        RecurrenceSet floating = new RecurrenceSet(rrule, rdate, exrule, exdate);
+        for (String tz : ZONES) {
+            // The same series pinned to the zone.
+            RecurrenceSet pinned = new RecurrenceSet(rrule,
+                    rdate != null ? tz + ";" + rdate : null, exrule,
+                    exdate != null ? tz + ";" + exdate : null);
+            long start = time(tz, rangeStart).toMillis();
+            long end = start + days * DAY;
+            long[] expected = rp.expand(time(tz, dtstart), pinned, start, end);
+            long[] actual = cache.expand(rp, time(tz, dtstart), floating, tz, start, end);
+            assertTrue(rrule + " in " + tz + ": " + Arrays.toString(actual),
+                    Arrays.equals(expected, actual));
+        }
+    }
+
+    @SmallTest
+    public void testMatchesExpand() throws Exception {
+        LocalOccurrenceCache cache = new LocalOccurrenceCache(1 << 20);
+        // Both of the DST changes of New York, London and Sydney.
+        assertSameAsExpand(cache, "20240105T090000", "FREQ=DAILY", null, null, null,
+                "20240301T000000", 60);
+        assertSameAsExpand(cache, "20240105T090000", "FREQ=DAILY", null, null, null,
+                "20241001T000000", 60);
+        assertSameAsExpand(cache, "20240102T183000", "FREQ=WEEKLY;BYDAY=TU,TH",
+                "20240301T120000,20240901T120000", null, "20240314T183000",
+                "20240201T000000", 90);
+        assertSameAsExpand(cache, "20231230T070000", "FREQ=MONTHLY;BYDAY=-1FR;COUNT=6",
+                null, "FREQ=MONTHLY;BYMONTH=3;BYDAY=-1FR", null, "20231201T000000", 365);
+        assertSameAsExpand(cache, "20200101", "FREQ=YEARLY", null, null, null,
+                "20200101T000000", 5 * 365);
+    }
+
+    @SmallTest
+    public void testSharedBetweenZones() throws Exception {
+        LocalOccurrenceCache cache = new LocalOccurrenceCache(1 << 20);
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        RecurrenceSet recur = new RecurrenceSet("FREQ=DAILY", null, null, null);
+        long start = time(Time.TIMEZONE_UTC, "20240301T000000").toMillis();
+        for (String tz : ZONES) {
+            long[] dates = cache.expand(rp, time(tz, "20240105T090000"), recur, tz, start,
+                    start + 7 * DAY);
+            assertEquals(tz, 7, dates.length);
+            assertEquals(tz, time(tz, "20240105T090000").getHour(),
+                    hourIn(tz, dates[0]));
+        }
+        RecurrenceExpansionCache.Stats stats = cache.getStats();
+        assertEquals(1, stats.misses);
+        assertEquals(ZONES.length - 1, stats.hits);
+        assertEquals(1, stats.entryCount);
+
+        // A later window replaces the entry, an adjacent one widens it.
+        cache.expand(rp, time(ZONES[0], "20240105T090000"), recur, ZONES[0],
+                start + 30 * DAY, start + 37 * DAY);
+        cache.expand(rp, time(ZONES[0], "20240105T090000"), recur, ZONES[0],
+                start + 37 * DAY, start + 44 * DAY);
+        cache.expand(rp, time(ZONES[0], "20240105T090000"), recur, ZONES[0],
+                start + 30 * DAY, start + 44 * DAY);
+        stats = cache.getStats();
+        assertEquals(3, stats.misses);
+        assertEquals(ZONES.length, stats.hits);
+    }
+
+    @SmallTest
+    public void testSkippedHourDoesNotDrift() throws Exception {
+        LocalOccurrenceCache cache = new LocalOccurrenceCache(1 << 20);
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        String tz = "America/New_York";
+        long start = time(tz, "20240309T000000").toMillis();
+        long[] dates = cache.expand(rp, time(tz, "20240301T023000"),
+                new RecurrenceSet("FREQ=DAILY", null, null, null), tz, start, start + 3 * DAY);
+        assertEquals(3, dates.length);
+        assertEquals(time(tz, "20240309T023000").toMillis(), dates[0]);
+        // 02:30 doesn't exist on March 10th, but the day after is back at 02:30.
+        assertEquals(time(tz, "20240311T023000").toMillis(), dates[2]);
+    }
+
+    @SmallTest
+    public void testSkippedHourIsReturnedOnce() throws Exception {
+        LocalOccurrenceCache cache = new LocalOccurrenceCache(1 << 20);
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        String tz = "America/New_York";
+        // 02:00 to 03:00 is skipped on March 10th, so 02:00 becomes 03:00, and 02:30 03:30.
+        long start = time(tz, "20240310T000000").toMillis();
+        long[] dates = cache.expand(rp, time(tz, "20240310T000000"),
+                new RecurrenceSet("FREQ=HOURLY", null, null, null), tz, start,
+                start + 5 * HOUR);
+        assertTrue(Arrays.toString(dates), Arrays.equals(every(start, 5, HOUR), dates));
+
+        dates = cache.expand(rp, time(tz, "20240310T000000"),
+                new RecurrenceSet("FREQ=MINUTELY;INTERVAL=30", null, null, null), tz, start,
+                start + 5 * HOUR);
+        assertTrue(Arrays.toString(dates), Arrays.equals(every(start, 10, HOUR / 2), dates));
+    }
+
+    @SmallTest
+    public void testCountWithExtraDtstartIsOnlyServedForTheSameWindow() throws Exception {
+        // dtstart is a Thursday, so it takes up one of the COUNT only in windows that hold it.
+        RecurrenceSet recur = new RecurrenceSet("FREQ=WEEKLY;BYDAY=MO,WE,FR;COUNT=21", null,
+                null, null);
+        String tz = "Australia/Lord_Howe";
+        long start = 1709643600000L;
+        long end = 1717851600000L;
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        Time dtstart = time("America/Sao_Paulo", "20240215T020000");
+        long[] cold = new LocalOccurrenceCache(1 << 20).expand(rp, dtstart, recur, tz, start,
+                end);
+        assertTrue(Arrays.equals(rp.expand(time(tz, "20240215T020000"), recur, start, end),
+                cold));
+
+        LocalOccurrenceCache cache = new LocalOccurrenceCache(1 << 20);
+        cache.expand(rp, dtstart, recur, tz, start - 30 * DAY, end);
+        long[] dates = cache.expand(rp, dtstart, recur, tz, start, end);
+        assertTrue(Arrays.toString(dates), Arrays.equals(cold, dates));
+        assertEquals(0, cache.getStats().hits);
+        cache.expand(rp, dtstart, recur, tz, start, end);
+        assertEquals(1, cache.getStats().hits);
+    }
+
+    @SmallTest
+    public void testEviction() throws Exception {
+        LocalOccurrenceCache cache = new LocalOccurrenceCache(1);
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        long start = time(Time.TIMEZONE_UTC, "20240301T000000").toMillis();
+        long[] dates = cache.expand(rp, time(Time.TIMEZONE_UTC, "20240105T090000"),
+                new RecurrenceSet("FREQ=DAILY", null, null, null), Time.TIMEZONE_UTC, start,
+                start + 7 * DAY);
+        assertEquals(7, dates.length);
+        assertEquals(0, cache.getStats().entryCount);
+        assertEquals(1, cache.getStats().evictions);
+    }
+
+    private static long[] every(long start, int count, long step) {
+        long[] dates = new long[count];
+        for (int i = 0; i < count; i++) {
+            dates[i] = start + i * step;
+        }
+        return dates;
+    }
+
+    private static int hourIn(String tz, long millis) {
+        Time t = new Time(tz);
+        t.set(millis);
+        return t.getHour();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class OccurrenceBufferTest extends TestCase {
+
+    @SmallTest
+    public void testGrowAndCopy() {
+        OccurrenceBuffer buffer = new OccurrenceBuffer(1);
+        for (int i = 0; i < 100; i++) {
+            buffer.add(i * 10);
+        }
+        assertEquals(100, buffer.size());
+        assertEquals(990, buffer.get(99));
+        assertTrue(Arrays.equals(new long[] {20, 30, 40}, buffer.toArray(2, 3)));
+    }
+
+    @SmallTest
+    public void testClearKeepsStorage() {
+        OccurrenceBuffer buffer = new OccurrenceBuffer();
+        buffer.ensureCapacity(64);
+        long[] storage = buffer.array();
+        buffer.add(1);
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        assertSame(storage, buffer.array());
+    }
+
+    @SmallTest
+    public void testOutOfRange() {
+        OccurrenceBuffer buffer = new OccurrenceBuffer();
+        buffer.add(1);
+        try {
+            buffer.get(1);
+            fail("expected ArrayIndexOutOfBoundsException");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // expected
+        }
+        try {
+            buffer.toArray(1, 1);
+            fail("expected ArrayIndexOutOfBoundsException");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    @SmallTest
+    public void testSortUnique() {
+        OccurrenceBuffer buffer = new OccurrenceBuffer();
+        long[] values = {5, 3, 5, 1, 3, 9};
+        for (long v : values) {
+            buffer.add(v);
+        }
+        buffer.sortUnique();
+        assertTrue(Arrays.equals(new long[] {1, 3, 5, 9}, buffer.toArray()));
+    }
+
+    @SmallTest
+    public void testSortUniqueMatchesArraysSort() {
+        Random random = new Random(42);
+        OccurrenceBuffer buffer = new OccurrenceBuffer();
+        for (int iteration = 0; iteration < 200; iteration++) {
+            // A few ascending runs of values from a small range, so that some repeat.
+            buffer.clear();
+            int runs = 1 + random.nextInt(6);
+            for (int run = 0; run < runs; run++) {
+                long v = random.nextInt(50);
+                for (int i = random.nextInt(20); i > 0; i--) {
+                    v += random.nextInt(4);
+                    buffer.add(v);
+                }
+            }
+            long[] expected = buffer.toArray();
+            Arrays.sort(expected);
+            int n = 0;
+            for (int i = 0; i < expected.length; i++) {
+                if (n == 0 || expected[i] != expected[n - 1]) {
+                    expected[n++] = expected[i];
+                }
+            }
+            buffer.sortUnique();
+            assertTrue(Arrays.equals(Arrays.copyOf(expected, n), buffer.toArray()));
+        }
+    }
+
+    @SmallTest
+    public void testRemoveSorted() {
+        OccurrenceBuffer buffer = new OccurrenceBuffer();
+        OccurrenceBuffer removed = new OccurrenceBuffer();
+        for (long v : new long[] {1, 3, 5, 7, 9}) {
+            buffer.add(v);
+        }
+        for (long v : new long[] {0, 3, 4, 9, 12}) {
+            removed.add(v);
+        }
+        buffer.removeSorted(removed);
+        assertTrue(Arrays.equals(new long[] {1, 5, 7}, buffer.toArray()));
+    }
+}
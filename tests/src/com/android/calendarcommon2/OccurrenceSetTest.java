@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import junit.framework.TestCase;
+
+public class OccurrenceSetTest extends TestCase {
+
+    private static void assertValues(OccurrenceSet set, long... expected) {
+        assertTrue(set.toString(), Arrays.equals(expected, set.toArray()));
+    }
+
+    @SmallTest
+    public void testLookups() {
+        OccurrenceSet set = OccurrenceSet.of(40, 10, 30, 20, 30);
+        assertValues(set, 10, 20, 30, 40);
+        assertEquals(10, set.first());
+        assertEquals(40, set.last());
+        assertTrue(set.contains(30));
+        assertFalse(set.contains(35));
+        assertEquals(20, set.ceiling(11));
+        assertEquals(20, set.ceiling(20));
+        assertEquals(10, set.floor(19));
+        assertEquals(20, set.floor(20));
+        assertEquals(4, set.ceilingIndex(41));
+        assertEquals(-1, set.floorIndex(9));
+        try {
+            set.ceiling(41);
+            fail();
+        } catch (NoSuchElementException expected) {
+        }
+        try {
+            set.floor(9);
+            fail();
+        } catch (NoSuchElementException expected) {
+        }
+    }
+
+    @SmallTest
+    public void testSubSet() {
+        OccurrenceSet set = OccurrenceSet.of(10, 20, 30, 40, 50);
+        OccurrenceSet sub = set.subSet(15, 40);
+        assertValues(sub, 20, 30);
+        assertEquals(20, sub.get(0));
+        assertEquals(30, sub.floor(100));
+        assertEquals(-1, sub.floorIndex(19));
+        assertFalse(sub.contains(40));
+        assertValues(sub.subSet(25, 100), 30);
+        assertTrue(set.subSet(41, 42).isEmpty());
+        assertTrue(set.subSet(30, 20).isEmpty());
+        assertSame(set, set.subSet(0, 100));
+        assertEquals(OccurrenceSet.of(20, 30), sub);
+        assertEquals(OccurrenceSet.of(20, 30).hashCode(), sub.hashCode());
+        try {
+            sub.get(2);
+            fail();
+        } catch (ArrayIndexOutOfBoundsException expected) {
+        }
+    }
+
+    @SmallTest
+    public void testSetOperations() {
+        OccurrenceSet a = OccurrenceSet.of(1, 3, 5, 7, 9);
+        OccurrenceSet b = OccurrenceSet.of(3, 4, 5, 10);
+        assertValues(a.union(b), 1, 3, 4, 5, 7, 9, 10);
+        assertValues(a.intersection(b), 3, 5);
+        assertValues(a.difference(b), 1, 7, 9);
+        assertValues(b.difference(a), 4, 10);
+        assertValues(a.subSet(4, 8).union(b.subSet(0, 5)), 3, 4, 5, 7);
+        assertSame(a, a.union(OccurrenceSet.EMPTY));
+        assertSame(a, a.difference(OccurrenceSet.of(2, 4)));
+        assertTrue(a.intersection(OccurrenceSet.EMPTY).isEmpty());
+    }
+
+    @SmallTest
+    public void testFromSorted() {
+        long[] values = {1, 2, 3};
+        assertValues(OccurrenceSet.fromSorted(values), 1, 2, 3);
+        try {
+            OccurrenceSet.fromSorted(new long[] {1, 1});
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @SmallTest
+    public void testDifferenceInPlace() {
+        long[] a = {1, 2, 3, 4, 5, 6};
+        long[] b = {0, 2, 5, 6, 8};
+        int n = OccurrenceSet.difference(a, 0, a.length, b, 0, b.length, a, 0);
+        assertTrue(Arrays.equals(new long[] {1, 3, 4}, Arrays.copyOf(a, n)));
+    }
+}
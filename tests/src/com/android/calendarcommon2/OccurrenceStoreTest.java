@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class OccurrenceStoreTest extends TestCase {
+
+    @SmallTest
+    public void testMerge() {
+        OccurrenceStore store = new OccurrenceStore();
+        assertEquals(0, store.get(1).length);
+        assertFalse(store.contains(1));
+
+        store.merge(1, new long[] {10, 20, 500});
+        // 500 is an RDATE that every window returns.
+        store.merge(1, new long[] {30, 40, 500});
+        store.merge(2, new long[] {7});
+        assertTrue(Arrays.equals(new long[] {10, 20, 30, 40, 500}, store.get(1)));
+        assertTrue(Arrays.equals(new long[] {7}, store.get(2)));
+        assertEquals(2, store.size());
+
+        store.remove(2);
+        assertFalse(store.contains(2));
+        store.clear();
+        assertEquals(0, store.size());
+    }
+
+    @SmallTest
+    public void testGetRange() {
+        OccurrenceStore store = new OccurrenceStore();
+        store.merge(1, new long[] {10, 20, 30, 40});
+        assertTrue(Arrays.equals(new long[] {20, 30}, store.get(1, 11, 40)));
+        assertTrue(Arrays.equals(new long[] {10, 20}, store.get(1, 10, 21)));
+        assertEquals(4, store.get(1, 0, 100).length);
+        assertEquals(0, store.get(1, 41, 100).length);
+        assertEquals(0, store.get(1, 30, 20).length);
+        assertEquals(0, store.get(3, 0, 100).length);
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+import java.util.TreeSet;
+
+public class PackedExpanderTest extends TestCase {
+
+    private static long value(Time t) {
+        return PackedExpander.pack(t.getYear(), t.getMonth(), t.getDay(), t.getHour(),
+                t.getMinute(), t.getSecond());
+    }
+
+    @SmallTest
+    public void testEpochDay() {
+        assertEquals(0, PackedExpander.epochDay(1970, 0, 1));
+        assertEquals(59, PackedExpander.epochDay(1970, 2, 1));
+        assertEquals(11017, PackedExpander.epochDay(2000, 2, 1));
+        assertEquals(-135080, PackedExpander.epochDay(1600, 2, 1));
+        // Out of range days carry into the next month.
+        assertEquals(PackedExpander.epochDay(2024, 2, 1), PackedExpander.epochDay(2024, 1, 30));
+        assertEquals(Time.THURSDAY, PackedExpander.weekDay(0));
+        assertEquals(Time.WEDNESDAY, PackedExpander.weekDay(-1));
+    }
+
+    @SmallTest
+    public void testNormalizeMatchesUnsafeNormalize() {
+        PackedExpander expander = new PackedExpander();
+        Time t = new Time(Time.TIMEZONE_UTC);
+        int[][] fields = {
+            // year, month, day, hour, minute, second
+            {2024, 1, 30, 0, 0, 0},
+            {2023, 13, 1, 25, 61, 61},
+            {2025, 0, -40, -1, 0, 0},
+            {2000, 11, 31, 23, 59, 60},
+            {1900, 1, 29, 0, 0, 0},
+            // Far outside of the month, which used to take a loop iteration per month.
+            {2024, 5, 100000, 0, 0, 0},
+            {2024, 0, -100000, 0, 0, 0},
+            {2024, -30, 20, 0, 0, 0},
+        };
+        for (int[] f : fields) {
+            t.set(f[5], f[4], f[3], f[2], f[1], f[0]);
+            RecurrenceProcessor.unsafeNormalize(t);
+            assertEquals(Arrays.toString(f), value(t),
+                    expander.normalize(f[0], f[1], f[2], f[3], f[4], f[5]));
+        }
+    }
+
+    @SmallTest
+    public void testDayValueAcrossTable() {
+        // Covers the years of the lookup tables and some on either side.
+        long first = PackedExpander.epochDay(PackedExpander.MIN_YEAR - 3, 0, 1);
+        long last = PackedExpander.epochDay(2603, 0, 1);
+        int year = PackedExpander.MIN_YEAR - 3;
+        int month = 0;
+        int day = 1;
+        for (long epochDay = first; epochDay < last; epochDay++) {
+            long value = PackedExpander.dayValue(epochDay);
+            assertEquals(PackedExpander.pack(year, month, day, 0, 0, 0), value);
+            assertEquals(epochDay, PackedExpander.epochDay(year, month, day));
+            if (++day > RecurrenceProcessor.monthLength(year, month)) {
+                day = 1;
+                if (++month == 12) {
+                    month = 0;
+                    year++;
+                }
+            }
+        }
+    }
+
+    @SmallTest
+    public void testLocalValueRoundTrip() {
+        PackedExpander expander = new PackedExpander();
+        int offset = -5 * 60 * 60 * 1000;
+        Time t = new Time("Etc/GMT+5");
+        t.parse("20260301T013000");
+        long millis = t.toMillis();
+        long value = expander.toLocalValue(millis, offset);
+        assertEquals(value(t), value);
+        assertEquals(millis, PackedExpander.toMillis(value, offset));
+    }
+
+    @SmallTest
+    public void testWeekNumberMatchesTime() {
+        Time t = new Time(Time.TIMEZONE_UTC);
+        for (int year = 2019; year <= 2027; year++) {
+            for (int yearDay = 0; yearDay < RecurrenceProcessor.yearLength(year); yearDay++) {
+                t.set(1 + yearDay, 0, year);
+                RecurrenceProcessor.unsafeNormalize(t);
+                long epochDay = PackedExpander.epochDay(year, 0, 1) + yearDay;
+                int weekDay = PackedExpander.weekDay(epochDay);
+                assertEquals(t.getWeekDay(), weekDay);
+                assertEquals(t.getWeekNumber(),
+                        PackedExpander.weekNumber(year, yearDay, weekDay));
+            }
+            assertEquals(t.getActualMaximum(Time.WEEK_NUM), PackedExpander.weeksInYear(year));
+        }
+    }
+
+    @SmallTest
+    public void testConstantOffsetZones() {
+        long start = 1767225600000L;  // 2026-01-01T00:00:00Z
+        long end = start + 365 * PackedExpander.MILLIS_PER_DAY;
+        assertTrue(PackedExpander.hasConstantOffset(TimeZone.getTimeZone("UTC"), start, -1));
+        assertTrue(PackedExpander.hasConstantOffset(TimeZone.getTimeZone("Etc/GMT-3"), start,
+                -1));
+        assertTrue(PackedExpander.hasConstantOffset(TimeZone.getTimeZone("Asia/Kolkata"), start,
+                end));
+        assertFalse(PackedExpander.hasConstantOffset(TimeZone.getTimeZone("Asia/Kolkata"),
+                start, -1));
+        assertFalse(PackedExpander.hasConstantOffset(
+                TimeZone.getTimeZone("America/Los_Angeles"), start, end));
+    }
+
+    private static void verifySameAsTime(String rule, String dtstartStr, String rangeStartStr,
+            String rangeEndStr) throws Exception {
+        EventRecurrence r = new EventRecurrence();
+        r.parse(rule);
+        Time dtstart = new Time(Time.TIMEZONE_UTC);
+        dtstart.parse(dtstartStr);
+        Time rangeStart = new Time(Time.TIMEZONE_UTC);
+        rangeStart.parse(rangeStartStr);
+        Time rangeEnd = new Time(Time.TIMEZONE_UTC);
+        rangeEnd.parse(rangeEndStr);
+
+        TreeSet<Long> expected = new TreeSet<Long>();
+        new RecurrenceProcessor().expand(dtstart, r, value(rangeStart), value(rangeEnd),
+                true /* add */, expected);
+
+        OccurrenceBuffer out = new OccurrenceBuffer();
+        new PackedExpander().expand(value(dtstart), r, Long.MAX_VALUE, value(rangeStart),
+                value(rangeEnd), true /* add */, out);
+        out.sortUnique();
+        long[] actual = out.toArray();
+
+        assertEquals(rule, expected.size(), actual.length);
+        int i = 0;
+        for (long v : expected) {
+            assertEquals(rule, v, actual[i++]);
+        }
+    }
+
+    @SmallTest
+    public void testExpandMatchesTimeBasedExpansion() throws Exception {
+        verifySameAsTime("FREQ=DAILY;INTERVAL=3;BYHOUR=8,20",
+                "20240101T080000", "20240115T000000", "20240601T000000");
+        verifySameAsTime("FREQ=WEEKLY;BYDAY=MO,WE,FR;WKST=SU",
+                "20231229T100000", "20231201T000000", "20240401T000000");
+        verifySameAsTime("FREQ=MONTHLY;BYMONTHDAY=31",
+                "20240131T090000", "20240101T000000", "20260101T000000");
+        verifySameAsTime("FREQ=MONTHLY;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=-1",
+                "20240101T170000", "20240101T000000", "20250101T000000");
+        verifySameAsTime("FREQ=YEARLY;BYMONTH=2;BYMONTHDAY=29",
+                "20000229T120000", "20000101T000000", "20500101T000000");
+        verifySameAsTime("FREQ=YEARLY;BYWEEKNO=1,-1;BYDAY=TH",
+                "20200101T000000", "20200101T000000", "20300101T000000");
+        verifySameAsTime("FREQ=MONTHLY;COUNT=10;BYDAY=-1SU,2MO",
+                "20240301T090000", "20240101T000000", "20300101T000000");
+    }
+
+    private static boolean isUnsatisfiable(String rule) {
+        EventRecurrence r = new EventRecurrence();
+        r.parse(rule);
+        return PackedExpander.isUnsatisfiable(r);
+    }
+
+    @SmallTest
+    public void testIsUnsatisfiable() {
+        assertTrue(isUnsatisfiable("FREQ=DAILY;BYMONTH=2;BYMONTHDAY=30"));
+        assertTrue(isUnsatisfiable("FREQ=MONTHLY;BYMONTHDAY=31;BYMONTH=4,6,9,11"));
+        assertTrue(isUnsatisfiable("FREQ=MONTHLY;BYMONTHDAY=-30;BYMONTH=2"));
+        assertTrue(isUnsatisfiable("FREQ=MONTHLY;BYDAY=6MO"));
+        assertTrue(isUnsatisfiable("FREQ=MONTHLY;BYDAY=MO;BYSETPOS=6"));
+        assertTrue(isUnsatisfiable("FREQ=DAILY;BYYEARDAY=-1;BYMONTH=1"));
+        // The filter compares BYYEARDAY with the 0-based day of the year.
+        assertTrue(isUnsatisfiable("FREQ=DAILY;BYYEARDAY=366"));
+        assertTrue(isUnsatisfiable("FREQ=MINUTELY;BYWEEKNO=53;BYMONTH=6"));
+        assertTrue(isUnsatisfiable("FREQ=DAILY;BYMONTHDAY=13;BYYEARDAY=1"));
+
+        assertFalse(isUnsatisfiable("FREQ=DAILY;BYMONTH=2;BYMONTHDAY=29"));
+        assertFalse(isUnsatisfiable("FREQ=MONTHLY;BYMONTHDAY=31;BYMONTH=4,6,9,12"));
+        assertFalse(isUnsatisfiable("FREQ=MONTHLY;BYDAY=5MO;BYMONTH=2"));
+        assertFalse(isUnsatisfiable("FREQ=DAILY;BYYEARDAY=-1;BYMONTH=12"));
+        assertFalse(isUnsatisfiable("FREQ=DAILY;BYWEEKNO=53;BYMONTH=12"));
+        assertFalse(isUnsatisfiable("FREQ=DAILY;BYMONTHDAY=13;BYDAY=FR"));
+        // Generates March 1st, from the 30th day of the iterator's month.
+        assertFalse(isUnsatisfiable("FREQ=YEARLY;BYMONTH=2;BYMONTHDAY=30"));
+    }
+
+    @SmallTest
+    public void testIsUnsatisfiableIsResetByParse() {
+        EventRecurrence r = new EventRecurrence();
+        r.parse("FREQ=DAILY;BYMONTH=2;BYMONTHDAY=30");
+        assertTrue(PackedExpander.isUnsatisfiable(r));
+        r.parse("FREQ=DAILY;BYMONTH=2");
+        assertFalse(PackedExpander.isUnsatisfiable(r));
+    }
+
+    @SmallTest
+    public void testIsUnsatisfiableFollowsEditedFields() throws Exception {
+        EventRecurrence r = new EventRecurrence();
+        r.parse("FREQ=DAILY;BYMONTH=2;BYMONTHDAY=30");
+        assertTrue(PackedExpander.isUnsatisfiable(r));
+        // In place, and with a new array.
+        r.bymonthday[0] = 28;
+        assertFalse(PackedExpander.isUnsatisfiable(r));
+        r.bymonthday = new int[] {31};
+        assertTrue(PackedExpander.isUnsatisfiable(r));
+        r.bymonth[0] = 3;
+        assertFalse(PackedExpander.isUnsatisfiable(r));
+
+        // The expansion sees the edit too.
+        Time dtstart = new Time(Time.TIMEZONE_UTC);
+        dtstart.parse("20240101T090000Z");
+        RecurrenceSet recur = new RecurrenceSet(null, null, null, null);
+        recur.rrules = new EventRecurrence[] {r};
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        long start = dtstart.toMillis();
+        long end = start + 400L * 24 * 60 * 60 * 1000;
+        assertEquals(2, rp.expand(dtstart, recur, start, end).length);
+        r.bymonth[0] = 2;
+        assertEquals(1, rp.expand(dtstart, recur, start, end).length);
+    }
+
+    private static long[] expand(PackedExpander expander, EventRecurrence r,
+            String dtstartStr, String rangeStartStr, String rangeEndStr)
+            throws DateException {
+        Time dtstart = new Time(Time.TIMEZONE_UTC);
+        dtstart.parse(dtstartStr);
+        Time rangeStart = new Time(Time.TIMEZONE_UTC);
+        rangeStart.parse(rangeStartStr);
+        Time rangeEnd = new Time(Time.TIMEZONE_UTC);
+        rangeEnd.parse(rangeEndStr);
+        OccurrenceBuffer out = new OccurrenceBuffer();
+        expander.expand(value(dtstart), r, Long.MAX_VALUE, value(rangeStart), value(rangeEnd),
+                true /* add */, out);
+        out.sortUnique();
+        return out.toArray();
+    }
+
+    @SmallTest
+    public void testFilterFollowsEditedFields() throws Exception {
+        EventRecurrence r = new EventRecurrence();
+        r.parse("FREQ=DAILY;BYDAY=MO;BYMONTHDAY=1,2,3,4,5,6,7");
+        PackedExpander expander = new PackedExpander();
+        // The first Monday of each month.
+        long[] mondays = expand(expander, r, "20240101T090000", "20240101T000000",
+                "20240501T000000");
+        assertEquals(4, mondays.length);
+        assertTrue(Arrays.equals(mondays, expand(expander, r, "20240101T090000",
+                "20240101T000000", "20240501T000000")));
+
+        // In place, and with a new array.
+        r.byday[0] = EventRecurrence.TU;
+        EventRecurrence tuesdays = new EventRecurrence();
+        tuesdays.parse("FREQ=DAILY;BYDAY=TU;BYMONTHDAY=1,2,3,4,5,6,7");
+        long[] expected = expand(new PackedExpander(), tuesdays, "20240101T090000",
+                "20240101T000000", "20240501T000000");
+        assertTrue(Arrays.equals(expected, expand(expander, r, "20240101T090000",
+                "20240101T000000", "20240501T000000")));
+        r.bymonthday = new int[] {1, 2, 3, 4, 5, 6, 7};
+        r.byday = new int[] {EventRecurrence.MO};
+        assertTrue(Arrays.equals(mondays, expand(expander, r, "20240101T090000",
+                "20240101T000000", "20240501T000000")));
+    }
+
+    @SmallTest
+    public void testCountIterations() {
+        // Against advancing the iterator one step at a time.
+        int[][] starts = {{2000, 0, 31}, {1996, 1, 29}, {2001, 4, 30}, {2024, 6, 15}};
+        int[] monthSteps = {1, 2, 5, 12, 36, 100 * 12};
+        for (int[] start : starts) {
+            for (int months : monthSteps) {
+                int iterations = 0;
+                for (int steps = 0; steps <= 3000; steps++) {
+                    assertEquals(iterations, PackedExpander.countIterations(start[0], start[1],
+                            start[2], months, steps, Integer.MAX_VALUE));
+                    long total = start[0] * 12L + start[1] + (long) months * steps;
+                    if (start[2] <= RecurrenceProcessor.monthLength((int) (total / 12),
+                            (int) (total % 12))) {
+                        iterations++;
+                    }
+                }
+                assertEquals(10, PackedExpander.countIterations(start[0], start[1], start[2],
+                        months, 3000, 10));
+            }
+        }
+    }
+
+    @SmallTest
+    public void testStepsBeforeRange() {
+        EventRecurrence r = new EventRecurrence();
+        long rangeStart = PackedExpander.pack(2030, 5, 15, 0, 0, 0);
+        r.parse("FREQ=YEARLY");
+        // Lands on 2032, the first leap year in the range.
+        assertEquals(36, PackedExpander.stepsBeforeRange(r, 12, 1996, 1, 29, rangeStart));
+        assertEquals(34, PackedExpander.stepsBeforeRange(r, 12, 1996, 6, 4, rangeStart));
+        assertEquals(0, PackedExpander.stepsBeforeRange(r, 12, 2030, 6, 4, rangeStart));
+        r.parse("FREQ=MONTHLY");
+        // Lands on July 2030, the first month in the range with 31 days.
+        assertEquals(414, PackedExpander.stepsBeforeRange(r, 1, 1996, 0, 31, rangeStart));
+        assertEquals(138, PackedExpander.stepsBeforeRange(r, 3, 1996, 0, 1, rangeStart));
+        r.parse("FREQ=MONTHLY;COUNT=10");
+        assertEquals(0, PackedExpander.stepsBeforeRange(r, 1, 1996, 0, 1, rangeStart));
+        r.parse("FREQ=WEEKLY");
+        assertEquals(0, PackedExpander.stepsBeforeRange(r, 1, 1996, 0, 1, rangeStart));
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import junit.framework.TestCase;
+
+public class ParallelRecurrenceExpanderTest extends TestCase {
+
+    /** Runs the chunks on the calling thread and counts them. */
+    private static class CountingExecutor implements Executor {
+        int mExecuted;
+
+        @Override
+        public void execute(Runnable command) {
+            mExecuted++;
+            command.run();
+        }
+    }
+
+    private static long millis(String tz, String time) {
+        Time t = new Time(tz);
+        t.parse(time);
+        return t.toMillis();
+    }
+
+    private static void verifySame(ParallelRecurrenceExpander expander, String tz,
+            String dtstartStr, RecurrenceSet recur, String rangeStartStr, String rangeEndStr)
+            throws Exception {
+        long rangeStart = millis(tz, rangeStartStr);
+        long rangeEnd = millis(tz, rangeEndStr);
+        Time dtstart = new Time(tz);
+        dtstart.parse(dtstartStr);
+        long[] expected = new RecurrenceProcessor().expand(dtstart, recur, rangeStart, rangeEnd);
+        dtstart = new Time(tz);
+        dtstart.parse(dtstartStr);
+        long[] actual = expander.expand(dtstart, recur, rangeStart, rangeEnd);
+        assertTrue(tz + " " + dtstartStr + " " + rangeStartStr + " expected "
+                + expected.length + " got " + actual.length, Arrays.equals(expected, actual));
+    }
+
+    @SmallTest
+    public void testMatchesSerialExpansion() throws Exception {
+        RecurrenceSet[] sets = {
+            new RecurrenceSet("FREQ=HOURLY;INTERVAL=5", null, null, null),
+            new RecurrenceSet("FREQ=MINUTELY;INTERVAL=45;BYDAY=MO,WE,FR", null, null, null),
+            new RecurrenceSet("FREQ=HOURLY;BYHOUR=9,17;BYMINUTE=0,30", null, null, null),
+            new RecurrenceSet("FREQ=HOURLY;INTERVAL=3;UNTIL=20240320T120000Z", null, null, null),
+            // RDATEs before, inside and after the range, and exclusions.
+            new RecurrenceSet("FREQ=HOURLY;INTERVAL=7",
+                    "20231201T100000Z,20240215T103000Z,20240601T000000Z",
+                    "FREQ=HOURLY;INTERVAL=14;BYDAY=SA,SU", "20240301T020000Z"),
+        };
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            ParallelRecurrenceExpander[] expanders = {
+                new ParallelRecurrenceExpander(new CountingExecutor(), 4),
+                new ParallelRecurrenceExpander(pool, 4),
+            };
+            for (ParallelRecurrenceExpander expander : expanders) {
+                for (RecurrenceSet recur : sets) {
+                    // The range crosses the start of daylight saving time in New York.
+                    for (String tz : new String[] {Time.TIMEZONE_UTC, "America/New_York"}) {
+                        verifySame(expander, tz, "20240105T083000", recur, "20240201T000000",
+                                "20240501T000000");
+                        verifySame(expander, tz, "20240105T083000", recur, "20231201T000000",
+                                "20240105T080000");
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @SmallTest
+    public void testCountIsResolvedAcrossChunks() throws Exception {
+        CountingExecutor executor = new CountingExecutor();
+        ParallelRecurrenceExpander expander = new ParallelRecurrenceExpander(executor, 4);
+        for (String tz : new String[] {Time.TIMEZONE_UTC, "America/New_York"}) {
+            // The 1000th occurrence is in June, well after the range starts.
+            RecurrenceSet recur = new RecurrenceSet(
+                    "FREQ=HOURLY;INTERVAL=3;BYDAY=MO,TU,WE,TH,FR;COUNT=1000", null, null, null);
+            verifySame(expander, tz, "20240105T083000", recur, "20240301T000000",
+                    "20240901T000000");
+            // dtstart isn't a match, but counts when it is in the range.
+            recur = new RecurrenceSet("FREQ=HOURLY;BYHOUR=10;COUNT=50", null, null, null);
+            verifySame(expander, tz, "20240105T083000", recur, "20240101T000000",
+                    "20240601T000000");
+            verifySame(expander, tz, "20240105T083000", recur, "20240110T000000",
+                    "20240601T000000");
+            // An EXRULE with COUNT.
+            recur = new RecurrenceSet("FREQ=HOURLY;INTERVAL=2", null,
+                    "FREQ=HOURLY;INTERVAL=6;COUNT=300", null);
+            verifySame(expander, tz, "20240105T083000", recur, "20240110T000000",
+                    "20240401T000000");
+        }
+        assertTrue(executor.mExecuted > 0);
+    }
+
+    @SmallTest
+    public void testDailyRulesAreNotSplit() throws Exception {
+        CountingExecutor executor = new CountingExecutor();
+        ParallelRecurrenceExpander expander = new ParallelRecurrenceExpander(executor, 4);
+        verifySame(expander, "America/New_York", "20240105T083000",
+                new RecurrenceSet("FREQ=DAILY", null, null, null), "20240101T000000",
+                "20250101T000000");
+        verifySame(expander, "America/New_York", "20240105T083000",
+                new RecurrenceSet("FREQ=HOURLY", null, "FREQ=WEEKLY", null), "20240101T000000",
+                "20250101T000000");
+        // Too short to split.
+        verifySame(expander, "America/New_York", "20240105T083000",
+                new RecurrenceSet("FREQ=HOURLY", null, null, null), "20240101T000000",
+                "20240110T000000");
+        assertEquals(0, executor.mExecuted);
+    }
+
+    @SmallTest
+    public void testRejectedChunksRunOnCallingThread() throws Exception {
+        Executor rejecting = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        };
+        verifySame(new ParallelRecurrenceExpander(rejecting, 8), "Europe/London",
+                "20240105T083000", new RecurrenceSet("FREQ=MINUTELY;INTERVAL=17", null, null,
+                        null), "20240201T000000", "20240701T000000");
+    }
+
+    @SmallTest
+    public void testChunkBounds() throws Exception {
+        ZoneOffsetCache offsets = new ZoneOffsetCache();
+        offsets.setTimeZone(TimeZone.getTimeZone("America/New_York"));
+        long from = PackedExpander.pack(2024, 2, 1, 12, 0, 0);
+        long to = PackedExpander.pack(2024, 2, 29, 0, 0, 0);
+        // March 10th, the start of daylight saving time, would be the first bound; it moves to
+        // the next day.
+        long[] bounds = ParallelRecurrenceExpander.chunkBounds(offsets, from, to, 3);
+        assertEquals(4, bounds.length);
+        assertEquals(from, bounds[0]);
+        assertEquals(PackedExpander.pack(2024, 2, 11, 0, 0, 0), bounds[1]);
+        assertEquals(PackedExpander.pack(2024, 2, 19, 0, 0, 0), bounds[2]);
+        assertEquals(to, bounds[3]);
+
+        // At most one chunk per week.
+        assertEquals(5, ParallelRecurrenceExpander.chunkBounds(offsets, from, to, 8).length);
+        assertNull(ParallelRecurrenceExpander.chunkBounds(offsets, from,
+                PackedExpander.pack(2024, 2, 14, 0, 0, 0), 8));
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+import junit.framework.TestCase;
+
+public class ProgressiveExpansionSchedulerTest extends TestCase {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final String TZ = "America/New_York";
+
+    /** Holds the tasks until they are run one at a time. */
+    private static class QueueExecutor implements Executor {
+        final ArrayDeque<Runnable> mTasks = new ArrayDeque<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        boolean runNext() {
+            Runnable task = mTasks.poll();
+            if (task == null) {
+                return false;
+            }
+            task.run();
+            return true;
+        }
+    }
+
+    private static class RecordingListener implements ProgressiveExpansionScheduler.Listener {
+        final ArrayList<long[]> mWindows = new ArrayList<long[]>();
+
+        @Override
+        public void onWindowComplete(long startMillis, long endMillis) {
+            mWindows.add(new long[] {startMillis, endMillis});
+        }
+    }
+
+    private static Time time(String str) {
+        Time t = new Time(TZ);
+        t.parse(str);
+        return t;
+    }
+
+    private static final String[][] EVENTS = {
+        {"20240105T090000", "FREQ=DAILY", null},
+        {"20240102T183000", "FREQ=WEEKLY;BYDAY=TU,TH", "20240301T120000Z,20240901T120000Z"},
+        {"20231230T070000", "FREQ=MONTHLY;BYDAY=-1FR;COUNT=6", null},
+    };
+
+    private static ProgressiveExpansionScheduler schedulerFor(Executor executor) {
+        ProgressiveExpansionScheduler scheduler =
+                new ProgressiveExpansionScheduler(executor, new OccurrenceStore());
+        for (int i = 0; i < EVENTS.length; i++) {
+            scheduler.addEvent(i, time(EVENTS[i][0]),
+                    new RecurrenceSet(EVENTS[i][1], EVENTS[i][2], null, null));
+        }
+        return scheduler;
+    }
+
+    @SmallTest
+    public void testNearWindowFirst() throws Exception {
+        QueueExecutor executor = new QueueExecutor();
+        ProgressiveExpansionScheduler scheduler = schedulerFor(executor);
+        RecordingListener listener = new RecordingListener();
+        scheduler.setListener(listener);
+        long start = time("20240201T000000").toMillis();
+        long near = start + 14 * DAY;
+        long end = start + 365 * DAY;
+        scheduler.start(start, near, end, 30 * DAY);
+
+        // The near window is done before start() returns; nothing else is.
+        assertEquals(1, listener.mWindows.size());
+        assertEquals(start, listener.mWindows.get(0)[0]);
+        assertEquals(near, listener.mWindows.get(0)[1]);
+        assertEquals(near, scheduler.getCompleteEndMillis());
+        assertTrue(scheduler.isComplete(start, near));
+        assertFalse(scheduler.isComplete(start, near + 1));
+        assertFalse(scheduler.isFinished());
+        assertEquals(14, scheduler.getStore().get(0, start, near).length);
+
+        // The rest comes a window at a time.
+        int windows = 1;
+        while (executor.runNext()) {
+            windows++;
+            long[] last = listener.mWindows.get(listener.mWindows.size() - 1);
+            assertEquals(last[1], scheduler.getCompleteEndMillis());
+            assertEquals(listener.mWindows.get(listener.mWindows.size() - 2)[1], last[0]);
+        }
+        // 351 days in windows of 30.
+        assertEquals(1 + 12, windows);
+        assertEquals(windows, listener.mWindows.size());
+        assertTrue(scheduler.isFinished());
+        assertEquals(end, scheduler.getCompleteEndMillis());
+
+        // The store holds what a single expansion of the whole range gives.
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        for (int i = 0; i < EVENTS.length; i++) {
+            long[] expected = rp.expand(time(EVENTS[i][0]),
+                    new RecurrenceSet(EVENTS[i][1], EVENTS[i][2], null, null), start, end);
+            assertTrue(EVENTS[i][1], Arrays.equals(expected, scheduler.getStore().get(i)));
+        }
+    }
+
+    @SmallTest
+    public void testCountWithExtraDtstart() throws Exception {
+        QueueExecutor executor = new QueueExecutor();
+        ProgressiveExpansionScheduler scheduler =
+                new ProgressiveExpansionScheduler(executor, new OccurrenceStore());
+        // dtstart is a Tuesday, so it takes up one of the COUNT only in ranges that hold it.
+        RecurrenceSet recur = new RecurrenceSet("FREQ=WEEKLY;BYDAY=MO;COUNT=3", null, null,
+                null);
+        scheduler.addEvent(0, time("20240102T090000"), recur);
+        long start = time("20240101T000000").toMillis();
+        long end = time("20240301T000000").toMillis();
+        scheduler.start(start, time("20240110T000000").toMillis(), end, 7 * DAY);
+        while (executor.runNext()) {
+        }
+
+        long[] expected = new RecurrenceProcessor().expand(time("20240102T090000"), recur,
+                start, end);
+        assertEquals(3, expected.length);
+        assertTrue(Arrays.equals(expected, scheduler.getStore().get(0)));
+    }
+
+    @SmallTest
+    public void testCancel() throws Exception {
+        QueueExecutor executor = new QueueExecutor();
+        ProgressiveExpansionScheduler scheduler = schedulerFor(executor);
+        long start = time("20240201T000000").toMillis();
+        scheduler.start(start, start + 7 * DAY, start + 70 * DAY, 7 * DAY);
+        assertTrue(executor.runNext());
+        scheduler.cancel();
+        assertTrue(executor.runNext());
+        assertFalse(executor.runNext());
+        assertEquals(start + 14 * DAY, scheduler.getCompleteEndMillis());
+        assertFalse(scheduler.isFinished());
+    }
+
+    @SmallTest
+    public void testStartOnce() throws Exception {
+        QueueExecutor executor = new QueueExecutor();
+        ProgressiveExpansionScheduler scheduler = schedulerFor(executor);
+        long start = time("20240201T000000").toMillis();
+        // Nothing is left for the background.
+        scheduler.start(start, start + 7 * DAY, start + 7 * DAY, DAY);
+        assertTrue(scheduler.isFinished());
+        assertFalse(executor.runNext());
+        try {
+            scheduler.start(start, start, start, DAY);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            scheduler.addEvent(9, time("20240105T090000"),
+                    new RecurrenceSet("FREQ=DAILY", null, null, null));
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class RecurrenceConflictsTest extends TestCase {
+
+    private static final String TZ = "America/New_York";
+
+    private static Time time(String tz, String str) {
+        Time t = new Time(tz);
+        t.parse(str);
+        return t;
+    }
+
+    private static Duration duration(String str) throws DateException {
+        Duration d = new Duration();
+        d.parse(str);
+        return d;
+    }
+
+    /** An event: timezone, dtstart, RRULE, EXDATE and duration. */
+    private static final class Event {
+        final Time mStart;
+        final RecurrenceSet mRecur;
+        final Duration mDuration;
+
+        Event(String tz, String start, String rrule, String exdate, String duration)
+                throws DateException {
+            mStart = time(tz, start);
+            mRecur = new RecurrenceSet(rrule, null, null, exdate);
+            mDuration = duration(duration);
+        }
+
+        Event(String tz, String start, RecurrenceSet recur, String duration)
+                throws DateException {
+            mStart = time(tz, start);
+            mRecur = recur;
+            mDuration = duration(duration);
+        }
+    }
+
+    /** Compares every pair of instances that intersect the range. */
+    private static long[] bruteForce(Event a, Event b, long start, long end)
+            throws DateException {
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        OccurrenceBuffer first = new OccurrenceBuffer();
+        OccurrenceBuffer second = new OccurrenceBuffer();
+        int n = rp.expandOverlapping(a.mStart, a.mRecur, a.mDuration, start, end, first);
+        int m = rp.expandOverlapping(b.mStart, b.mRecur, b.mDuration, start, end, second);
+        OccurrenceBuffer overlaps = new OccurrenceBuffer();
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < m; j++) {
+                long begin1 = first.get(2 * i);
+                long end1 = first.get(2 * i + 1);
+                long begin2 = second.get(2 * j);
+                long end2 = second.get(2 * j + 1);
+                long begin = Math.max(begin1, begin2);
+                if (begin1 < end2 && begin2 < end1 && begin >= start && begin < end) {
+                    overlaps.add(begin);
+                    overlaps.add(Math.min(end1, end2));
+                }
+            }
+        }
+        return overlaps.toArray();
+    }
+
+    private static long[] findOverlaps(Event a, Event b, long start, long end)
+            throws DateException {
+        OccurrenceBuffer out = new OccurrenceBuffer();
+        int count = RecurrenceConflicts.findOverlaps(new RecurrenceProcessor(),
+                a.mStart, a.mRecur, a.mDuration, b.mStart, b.mRecur, b.mDuration,
+                start, end, out);
+        assertEquals(2 * count, out.size());
+        return out.toArray();
+    }
+
+    private static long firstOverlap(Event a, Event b, long after, long horizon)
+            throws DateException {
+        return RecurrenceConflicts.firstOverlap(new RecurrenceProcessor(),
+                a.mStart, a.mRecur, a.mDuration, b.mStart, b.mRecur, b.mDuration,
+                after, horizon);
+    }
+
+    /** Checks the overlaps in two years, across daylight saving changes, and returns them. */
+    private static long[] check(Event a, Event b) throws DateException {
+        long start = time(TZ, "20200101T000000").toMillis();
+        long end = time(TZ, "20220101T000000").toMillis();
+        long[] expected = bruteForce(a, b, start, end);
+        long[] actual = findOverlaps(a, b, start, end);
+        assertTrue(Arrays.toString(actual), Arrays.equals(expected, actual));
+
+        long after = time(TZ, "20200610T120000").toMillis();
+        long first = -1;
+        for (int i = 0; i < expected.length; i += 2) {
+            if (expected[i] >= after && (first == -1 || expected[i] < first)) {
+                first = expected[i];
+            }
+        }
+        assertEquals(first, firstOverlap(a, b, after, end));
+        return actual;
+    }
+
+    @SmallTest
+    public void testPeriodic() throws Exception {
+        // Every other Tuesday against every Tuesday and Thursday.
+        Event biweekly = new Event(TZ, "20200107T100000", "FREQ=WEEKLY;INTERVAL=2;BYDAY=TU",
+                null, "PT1H");
+        Event weekly = new Event(TZ, "20200102T103000", "FREQ=WEEKLY;BYDAY=TU,TH", null,
+                "PT1H");
+        assertEquals(2 * 52, check(biweekly, weekly).length);
+        long end = time(TZ, "20220101T000000").toMillis();
+        assertEquals(time(TZ, "20200107T103000").toMillis(), firstOverlap(biweekly, weekly,
+                0, end));
+        // A short overlap could be missed at a change of offset, so a horizon is needed.
+        try {
+            firstOverlap(biweekly, weekly, 0, -1);
+            fail("Expected DateException");
+        } catch (DateException expected) {
+        }
+        // One well inside the other can't.
+        Event morning = new Event(TZ, "20200102T060000", "FREQ=WEEKLY;BYDAY=TU,TH", null,
+                "PT8H");
+        assertEquals(time(TZ, "20200107T100000").toMillis(), firstOverlap(biweekly, morning,
+                0, -1));
+        check(biweekly, morning);
+
+        // Across midnight, with an end.
+        check(new Event(TZ, "20200101T233000", "FREQ=DAILY;INTERVAL=3;COUNT=50", null,
+                "PT2H"), new Event(TZ, "20200101T003000", "FREQ=WEEKLY;BYDAY=WE,SA;"
+                + "UNTIL=20210101T000000Z", null, "PT30M"));
+        // Longer than a period.
+        check(new Event(TZ, "20200106T090000", "FREQ=WEEKLY;WKST=SU;BYDAY=MO", null, "P8D"),
+                new Event(TZ, "20200103T120000", "FREQ=DAILY;INTERVAL=5", null, "PT1H"));
+        // All day.
+        check(new Event(Time.TIMEZONE_UTC, "20200101", "FREQ=DAILY;INTERVAL=2", null, "P1D"),
+                new Event(Time.TIMEZONE_UTC, "20200104", "FREQ=WEEKLY;BYDAY=SA", null,
+                        "P2D"));
+    }
+
+    @SmallTest
+    public void testNoOverlap() throws Exception {
+        Event monday = new Event(TZ, "20200106T090000", "FREQ=WEEKLY;BYDAY=MO", null, "PT1H");
+        Event tuesday = new Event(TZ, "20200107T090000", "FREQ=WEEKLY;BYDAY=TU", null, "PT1H");
+        assertEquals(0, check(monday, tuesday).length);
+        // Known without a horizon.
+        assertEquals(-1, firstOverlap(monday, tuesday, 0, -1));
+
+        // Back to back, so only a search up to a horizon can tell.
+        Event nine = new Event(TZ, "20200101T090000", "FREQ=DAILY", null, "PT1H");
+        Event ten = new Event(TZ, "20200101T100000", "FREQ=DAILY", null, "PT1H");
+        assertEquals(0, check(nine, ten).length);
+        try {
+            firstOverlap(nine, ten, 0, -1);
+            fail("Expected DateException");
+        } catch (DateException expected) {
+        }
+    }
+
+    @SmallTest
+    public void testMerge() throws Exception {
+        // Not periodic in days.
+        check(new Event(TZ, "20200114T100000", "FREQ=MONTHLY;BYDAY=2TU", null, "PT1H"),
+                new Event(TZ, "20200107T100000", "FREQ=WEEKLY;BYDAY=TU", null, "PT30M"));
+        check(new Event(TZ, "20200101T100000", "FREQ=DAILY;COUNT=200", null, "PT1H"),
+                new Event(TZ, "20200101T103000", "FREQ=WEEKLY;BYDAY=WE",
+                        TZ + ";20200108T103000,20200115T103000", "PT1H"));
+        // 2:15 is skipped on 8 March 2020, and Time moves the later instances.
+        check(new Event(TZ, "20200201T021500", "FREQ=DAILY;INTERVAL=3", null, "PT1H"),
+                new Event(TZ, "20200101T013000", "FREQ=DAILY", null, "PT1H"));
+
+        // dtstart isn't a Thursday, so a range after it holds 28 Thursdays.
+        Event thursdays = new Event(TZ, "20200323T054500", "FREQ=WEEKLY;BYDAY=TH;COUNT=28",
+                null, "P2D");
+        Event weekends = new Event(TZ, "20200318T014500", "FREQ=WEEKLY;WKST=SU;BYDAY=SU,FR,SA",
+                null, "PT2H");
+        assertEquals(time(TZ, "20201002T014500").toMillis(), firstOverlap(thursdays, weekends,
+                time(TZ, "20200927T000000").toMillis(), -1));
+    }
+
+    @SmallTest
+    public void testFirstOverlapWithHorizonOfSetsThatCantBeExpandedToTheEnd()
+            throws Exception {
+        String utc = Time.TIMEZONE_UTC;
+        Event daily = new Event(utc, "20240101T090000", "FREQ=DAILY", null, "PT1H");
+        // No end, and an RDATE.
+        Event withRdate = new Event(utc, "20240101T090000",
+                new RecurrenceSet("FREQ=DAILY", "20240105T150000Z", null, null), "PT1H");
+        // An end, but an EXRULE without one.
+        Event withExrule = new Event(utc, "20240101T090000",
+                new RecurrenceSet("FREQ=DAILY;COUNT=20", null, "FREQ=WEEKLY", null), "PT1H");
+        long start = time(utc, "20240101T000000").toMillis();
+        long end = start + 10 * 24 * 60 * 60 * 1000L;
+        long after = time(utc, "20240101T100000").toMillis();
+        for (Event event : new Event[] {withRdate, withExrule}) {
+            long[] overlaps = findOverlaps(event, daily, start, end);
+            assertTrue(overlaps.length > 0);
+            long first = -1;
+            for (int i = 0; i < overlaps.length; i += 2) {
+                if (overlaps[i] >= after && (first == -1 || overlaps[i] < first)) {
+                    first = overlaps[i];
+                }
+            }
+            assertEquals(first, firstOverlap(event, daily, after, end));
+            assertEquals(first, firstOverlap(daily, event, after, end));
+        }
+    }
+}
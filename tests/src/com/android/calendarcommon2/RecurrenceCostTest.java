@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+public class RecurrenceCostTest extends TestCase {
+
+    private static final String TZ = "America/New_York";
+
+    private static long millis(String str) {
+        Time t = new Time(TZ);
+        t.parse(str);
+        return t.toMillis();
+    }
+
+    private static Time dtstart(String str) {
+        Time t = new Time(TZ);
+        t.parse(str);
+        return t;
+    }
+
+    /**
+     * Checks that the estimate is close to what the expansion actually does.
+     */
+    private static void verifyEstimate(String rule, String dtstartStr, String rangeStartStr,
+            String rangeEndStr) throws Exception {
+        RecurrenceSet recur = new RecurrenceSet(rule, null, null, null);
+        long rangeStart = millis(rangeStartStr);
+        long rangeEnd = millis(rangeEndStr);
+        RecurrenceCost cost = RecurrenceCost.estimate(dtstart(dtstartStr), recur, rangeStart,
+                rangeEnd);
+
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        RecurrenceMetrics metrics = new RecurrenceMetrics();
+        rp.setMetrics(metrics);
+        rp.expand(dtstart(dtstartStr), recur, rangeStart, rangeEnd);
+
+        String message = rule + " estimated " + cost + ", got " + metrics;
+        assertClose(message, metrics.getIterations(), cost.getIterations());
+        assertClose(message, metrics.getCandidates(), cost.getCandidates());
+        assertClose(message, metrics.getOccurrences(), cost.getOccurrences());
+        assertEquals(message, metrics.getFailsafeTruncations() != 0, cost.isTruncated());
+    }
+
+    private static void assertClose(String message, long expected, long actual) {
+        assertTrue(message, actual >= expected * 0.8 - 2 && actual <= expected * 1.25 + 2);
+    }
+
+    @SmallTest
+    public void testDaily() throws Exception {
+        verifyEstimate("FREQ=DAILY", "20240101T090000", "20240101T000000", "20240301T000000");
+        verifyEstimate("FREQ=DAILY;INTERVAL=3;BYDAY=MO,TU,WE,TH,FR", "20240101T090000",
+                "20240201T000000", "20250101T000000");
+        verifyEstimate("FREQ=DAILY;COUNT=10", "20240101T090000", "20230101T000000",
+                "20250101T000000");
+    }
+
+    @SmallTest
+    public void testWeeklyAndMonthly() throws Exception {
+        verifyEstimate("FREQ=WEEKLY;BYDAY=MO,WE,FR", "20240101T090000", "20240101T000000",
+                "20250101T000000");
+        verifyEstimate("FREQ=MONTHLY;BYDAY=2TU", "20240109T090000", "20240101T000000",
+                "20290101T000000");
+        verifyEstimate("FREQ=MONTHLY;BYMONTHDAY=15;BYMONTH=1,7", "20240115T090000",
+                "20240101T000000", "20290101T000000");
+    }
+
+    @SmallTest
+    public void testYearly() throws Exception {
+        verifyEstimate("FREQ=YEARLY;BYMONTH=3,6,9,12;BYDAY=-1FR", "20240329T090000",
+                "20240101T000000", "20440101T000000");
+        verifyEstimate("FREQ=YEARLY;COUNT=5000", "20240101T090000", "20240101T000000",
+                "99990101T000000");
+        // Skips to the range.
+        verifyEstimate("FREQ=YEARLY;BYMONTH=6;BYDAY=2SU", "19500611T090000", "20300101T000000",
+                "20400101T000000");
+        verifyEstimate("FREQ=MONTHLY;BYMONTHDAY=1,15", "19500611T090000", "20300101T000000",
+                "20310101T000000");
+    }
+
+    @SmallTest
+    public void testSubDaily() throws Exception {
+        verifyEstimate("FREQ=HOURLY;BYHOUR=9,10,11,12,13,14,15,16,17", "20240101T090000",
+                "20240301T000000", "20240401T000000");
+        verifyEstimate("FREQ=MINUTELY;INTERVAL=15;BYDAY=SA,SU", "20240101T090000",
+                "20240101T000000", "20240201T000000");
+    }
+
+    @SmallTest
+    public void testTruncated() {
+        // A year of seconds is more than SubDailyExpander allows.
+        RecurrenceCost cost = RecurrenceCost.estimate(dtstart("20240101T000000"),
+                new RecurrenceSet("FREQ=SECONDLY", null, null, null),
+                millis("20240101T000000"), millis("20250101T000000"));
+        assertTrue(cost.isTruncated());
+        assertEquals(SubDailyExpander.MAX_ALLOWED_ITERATIONS + 1, cost.getIterations());
+
+        // A day of seconds is fine.
+        cost = RecurrenceCost.estimate(dtstart("20240101T000000"),
+                new RecurrenceSet("FREQ=SECONDLY", null, null, null),
+                millis("20240101T000000"), millis("20240102T000000"));
+        assertFalse(cost.isTruncated());
+        assertEquals(24 * 60 * 60, cost.getOccurrences());
+    }
+
+    @SmallTest
+    public void testRdatesAndExrules() throws Exception {
+        RecurrenceSet recur = new RecurrenceSet("FREQ=WEEKLY",
+                "20240103T090000Z,20240104T090000Z,20300101T090000Z", "FREQ=MONTHLY", null);
+        RecurrenceCost cost = RecurrenceCost.estimate(dtstart("20240101T090000"), recur,
+                millis("20240101T000000"), millis("20240129T000000"));
+        // Four Mondays and two RDATEs; EXRULEs are ignored.
+        assertEquals(6, cost.getOccurrences());
+        // The WEEKLY rule runs for five periods, the MONTHLY one for two.
+        assertEquals(7, cost.getIterations());
+    }
+}
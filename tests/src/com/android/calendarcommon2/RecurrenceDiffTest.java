@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+public class RecurrenceDiffTest extends TestCase {
+
+    private static final String TZ = "America/New_York";
+
+    private static Time time(String str) {
+        Time t = new Time(TZ);
+        t.parse(str);
+        return t;
+    }
+
+    private static Time utc(String str) {
+        Time t = new Time(Time.TIMEZONE_UTC);
+        t.parse(str);
+        return t;
+    }
+
+    private static RecurrenceSet recur(String rrule, String rdate, String exrule,
+            String exdate) {
+        return new RecurrenceSet(rrule, rdate != null ? TZ + ";" + rdate : null, exrule,
+                exdate != null ? TZ + ";" + exdate : null);
+    }
+
+    private static long[] instances(Time dtstart, RecurrenceSet recur, long start, long end)
+            throws DateException {
+        long[] all = new RecurrenceProcessor().expand(dtstart, recur, start, end);
+        return OccurrenceSet.fromSorted(all).subSet(start, end).toArray();
+    }
+
+    /**
+     * Checks the diff against comparing the expansions of the two recurrences.
+     */
+    private static RecurrenceDiff check(String oldStart, RecurrenceSet oldRecur,
+            String newStart, RecurrenceSet newRecur) throws DateException {
+        long start = time("20200301T000000").toMillis();
+        long end = time("20210101T000000").toMillis();
+        RecurrenceDiff diff = RecurrenceDiff.compute(new RecurrenceProcessor(),
+                time(oldStart), oldRecur, time(newStart), newRecur, start, end);
+        OccurrenceSet before = OccurrenceSet.of(instances(time(oldStart), oldRecur, start, end));
+        OccurrenceSet after = OccurrenceSet.of(instances(time(newStart), newRecur, start, end));
+        assertEquals(after.difference(before), diff.getAdded());
+        assertEquals(before.difference(after), diff.getRemoved());
+        return diff;
+    }
+
+    @SmallTest
+    public void testDates() throws Exception {
+        String start = "20200102T090000";
+        RecurrenceSet old = recur("FREQ=WEEKLY;BYDAY=TH", "20200305T120000", null,
+                "20200312T090000");
+        assertTrue(check(start, old, start, old).isEmpty());
+
+        // An EXDATE added, one removed, and one that isn't an instance.
+        RecurrenceDiff diff = check(start, old, start, recur("FREQ=WEEKLY;BYDAY=TH",
+                "20200305T120000", null, "20200319T090000,20200320T090000"));
+        assertEquals(OccurrenceSet.of(time("20200312T090000").toMillis()), diff.getAdded());
+        assertEquals(OccurrenceSet.of(time("20200319T090000").toMillis()), diff.getRemoved());
+
+        // An RDATE that is also an instance of the rule, and one outside of the range.
+        check(start, old, start, recur("FREQ=WEEKLY;BYDAY=TH", "20200326T090000,20190101T000000",
+                null, "20200312T090000"));
+        check(start, old, start, recur(null, "20200305T120000,20200402T090000", null, null));
+    }
+
+    @SmallTest
+    public void testRules() throws Exception {
+        String start = "20200102T090000";
+        RecurrenceSet old = recur("FREQ=WEEKLY;BYDAY=TH;COUNT=12\nFREQ=MONTHLY;BYMONTHDAY=1",
+                null, null, null);
+        // Few changed times.
+        check(start, old, start, recur("FREQ=WEEKLY;BYDAY=TH;COUNT=14\nFREQ=MONTHLY;BYMONTHDAY=1",
+                null, null, null));
+        check(start, old, start, recur("FREQ=MONTHLY;BYMONTHDAY=1", null,
+                "FREQ=YEARLY;BYMONTH=6;BYMONTHDAY=1", null));
+        check(start, recur("FREQ=YEARLY;BYMONTH=6,9;BYMONTHDAY=1", null, null, null),
+                start, recur("FREQ=YEARLY;BYMONTH=6;BYMONTHDAY=1", null, null, null));
+        // Many changed times.
+        check(start, old, start, recur("FREQ=WEEKLY;BYDAY=TH,FR\nFREQ=MONTHLY;BYMONTHDAY=1",
+                null, null, null));
+        check(start, old, start, recur(null, null, null, null));
+        // A new dtstart.
+        check(start, old, "20200103T090000", old);
+    }
+
+    @SmallTest
+    public void testExruleWithCount() throws Exception {
+        // As an RRULE, the EXRULE would count dtstart, a Tuesday, as the first of its three.
+        Time dtstart = utc("20240102T090000Z");
+        RecurrenceSet old = new RecurrenceSet("FREQ=DAILY;COUNT=30", null,
+                "FREQ=WEEKLY;BYDAY=TH;COUNT=3", null);
+        RecurrenceSet changed = new RecurrenceSet("FREQ=DAILY;COUNT=30", null, null, null);
+        RecurrenceDiff diff = RecurrenceDiff.compute(new RecurrenceProcessor(), dtstart, old,
+                dtstart, changed, utc("20240101T000000Z").toMillis(),
+                utc("20240301T000000Z").toMillis());
+
+        assertEquals(OccurrenceSet.of(utc("20240104T090000Z").toMillis(),
+                utc("20240111T090000Z").toMillis(), utc("20240118T090000Z").toMillis()),
+                diff.getAdded());
+        assertTrue(diff.getRemoved().isEmpty());
+    }
+
+    @SmallTest
+    public void testCountWithExtraDtstart() throws Exception {
+        // dtstart, a Tuesday, takes up one of the COUNT, so the 23rd isn't an instance, but
+        // it is when expanding over just that time.
+        String start = "20200303T090000";
+        RecurrenceSet old = recur("FREQ=WEEKLY;BYDAY=MO;COUNT=3", null, null, null);
+        assertTrue(check(start, old, start, recur("FREQ=WEEKLY;BYDAY=MO;COUNT=3", null, null,
+                "20200323T090000")).isEmpty());
+    }
+}
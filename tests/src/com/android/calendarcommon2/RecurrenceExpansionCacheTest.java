@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class RecurrenceExpansionCacheTest extends TestCase {
+
+    private static final String TZ = "America/Los_Angeles";
+
+    private RecurrenceProcessor mProcessor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mProcessor = new RecurrenceProcessor();
+    }
+
+    private static Time time(String str) {
+        return time(TZ, str);
+    }
+
+    private static Time time(String tz, String str) {
+        Time t = new Time(tz);
+        t.parse(str);
+        return t;
+    }
+
+    private static long millis(String str) {
+        return time(str).toMillis();
+    }
+
+    private long[] direct(String dtstart, RecurrenceSet recur, long start, long end)
+            throws DateException {
+        return mProcessor.expand(time(dtstart), recur, start, end);
+    }
+
+    @SmallTest
+    public void testRepeatedWindowIsAHit() throws Exception {
+        RecurrenceExpansionCache cache = new RecurrenceExpansionCache(1 << 20);
+        RecurrenceSet recur = new RecurrenceSet("FREQ=WEEKLY;BYDAY=MO,WE", null, null, null);
+        long start = millis("20260101T000000");
+        long end = millis("20260301T000000");
+
+        long[] first = cache.expand(mProcessor, time("20251201T090000"), recur, start, end);
+        long[] second = cache.expand(mProcessor, time("20251201T090000"), recur, start, end);
+
+        assertTrue(Arrays.equals(first, second));
+        RecurrenceExpansionCache.Stats stats = cache.getStats();
+        assertEquals(1, stats.hits);
+        assertEquals(1, stats.misses);
+        assertEquals(1, stats.entryCount);
+    }
+
+    @SmallTest
+    public void testSubWindowServedFromCoverage() throws Exception {
+        RecurrenceExpansionCache cache = new RecurrenceExpansionCache(1 << 20);
+        RecurrenceSet recur = new RecurrenceSet("FREQ=DAILY;INTERVAL=2", null, null,
+                "20260110T090000Z");
+        cache.expand(mProcessor, time("20251201T090000"), recur,
+                millis("20260101T000000"), millis("20260401T000000"));
+
+        long start = millis("20260201T090000");
+        long end = millis("20260215T090000");
+        long[] cached = cache.expand(mProcessor, time("20251201T090000"), recur, start, end);
+
+        assertTrue(Arrays.equals(direct("20251201T090000", recur, start, end), cached));
+        assertEquals(1, cache.getStats().hits);
+    }
+
+    @SmallTest
+    public void testOverlappingWindowsAreMerged() throws Exception {
+        RecurrenceExpansionCache cache = new RecurrenceExpansionCache(1 << 20);
+        RecurrenceSet recur = new RecurrenceSet("FREQ=DAILY", null, null, null);
+        cache.expand(mProcessor, time("20260101T080000"), recur,
+                millis("20260101T000000"), millis("20260201T000000"));
+        cache.expand(mProcessor, time("20260101T080000"), recur,
+                millis("20260115T000000"), millis("20260301T000000"));
+
+        long start = millis("20260110T000000");
+        long end = millis("20260220T000000");
+        long[] cached = cache.expand(mProcessor, time("20260101T080000"), recur, start, end);
+
+        assertTrue(Arrays.equals(direct("20260101T080000", recur, start, end), cached));
+        assertEquals(1, cache.getStats().hits);
+    }
+
+    @SmallTest
+    public void testRdatesAreOnlyServedForTheSameWindow() throws Exception {
+        RecurrenceExpansionCache cache = new RecurrenceExpansionCache(1 << 20);
+        RecurrenceSet recur = new RecurrenceSet("FREQ=WEEKLY", "20260520T090000Z", null, null);
+        cache.expand(mProcessor, time("20260101T090000"), recur,
+                millis("20260101T000000"), millis("20260301T000000"));
+
+        long start = millis("20260110T000000");
+        long end = millis("20260201T000000");
+        long[] result = cache.expand(mProcessor, time("20260101T090000"), recur, start, end);
+
+        assertTrue(Arrays.equals(direct("20260101T090000", recur, start, end), result));
+        assertEquals(0, cache.getStats().hits);
+    }
+
+    @SmallTest
+    public void testCountWithExtraDtstartIsOnlyServedForTheSameWindow() throws Exception {
+        RecurrenceExpansionCache cache = new RecurrenceExpansionCache(1 << 20);
+        // dtstart is a Tuesday, so it takes up one of the COUNT only in windows that hold it.
+        RecurrenceSet recur = new RecurrenceSet("FREQ=WEEKLY;BYDAY=MO;COUNT=3", null, null,
+                null);
+        String tz = "America/New_York";
+        Time dtstart = time(tz, "20240102T090000");
+        long start = time(tz, "20240103T000000").toMillis();
+        long end = time(tz, "20240301T000000").toMillis();
+        cache.expand(mProcessor, dtstart, recur, time(tz, "20240101T000000").toMillis(), end);
+
+        long[] result = cache.expand(mProcessor, dtstart, recur, start, end);
+
+        assertTrue(Arrays.equals(mProcessor.expand(dtstart, recur, start, end), result));
+        assertEquals(3, result.length);
+        assertEquals(0, cache.getStats().hits);
+    }
+
+    @SmallTest
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        // Room for roughly one expansion of a few dozen dates.
+        RecurrenceExpansionCache cache = new RecurrenceExpansionCache(700);
+        long start = millis("20260101T000000");
+        long end = millis("20260201T000000");
+        RecurrenceSet daily = new RecurrenceSet("FREQ=DAILY", null, null, null);
+        RecurrenceSet weekly = new RecurrenceSet("FREQ=WEEKLY", null, null, null);
+
+        cache.expand(mProcessor, time("20260101T090000"), daily, start, end);
+        cache.expand(mProcessor, time("20260101T090000"), weekly, start, end);
+        assertEquals(1, cache.getStats().evictions);
+        assertEquals(1, cache.getStats().entryCount);
+
+        cache.expand(mProcessor, time("20260101T090000"), weekly, start, end);
+        assertEquals(1, cache.getStats().hits);
+        assertTrue(cache.getStats().weight <= 700);
+    }
+
+    @SmallTest
+    public void testInvalidateTimeZoneData() throws Exception {
+        RecurrenceExpansionCache cache = new RecurrenceExpansionCache(1 << 20);
+        RecurrenceSet recur = new RecurrenceSet("FREQ=DAILY", null, null, null);
+        long start = millis("20260101T000000");
+        long end = millis("20260110T000000");
+        cache.expand(mProcessor, time("20260101T090000"), recur, start, end);
+
+        cache.invalidateTimeZoneData();
+        assertEquals(0, cache.getStats().entryCount);
+
+        cache.expand(mProcessor, time("20260101T090000"), recur, start, end);
+        assertEquals(0, cache.getStats().hits);
+        assertEquals(2, cache.getStats().misses);
+    }
+
+    @SmallTest
+    public void testKeyDistinguishesRuleParts() throws Exception {
+        Time dtstart = time("20260101T090000");
+        String byHour = RecurrenceExpansionCache.buildKey(dtstart,
+                new RecurrenceSet("FREQ=DAILY;BYHOUR=5", null, null, null));
+        String bySecond = RecurrenceExpansionCache.buildKey(dtstart,
+                new RecurrenceSet("FREQ=DAILY;BYSECOND=5", null, null, null));
+        assertFalse(byHour.equals(bySecond));
+    }
+}
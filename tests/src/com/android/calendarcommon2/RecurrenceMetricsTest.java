@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+public class RecurrenceMetricsTest extends TestCase {
+
+    private static long[] expand(RecurrenceProcessor rp, String tz, String rule,
+            String dtstartStr, String rangeStartStr, String rangeEndStr) throws Exception {
+        Time dtstart = new Time(tz);
+        dtstart.parse(dtstartStr);
+        Time rangeStart = new Time(tz);
+        rangeStart.parse(rangeStartStr);
+        long rangeEndMillis = -1;
+        if (rangeEndStr != null) {
+            Time rangeEnd = new Time(tz);
+            rangeEnd.parse(rangeEndStr);
+            rangeEndMillis = rangeEnd.toMillis();
+        }
+        return rp.expand(dtstart, new RecurrenceSet(rule, null, null, null),
+                rangeStart.toMillis(), rangeEndMillis);
+    }
+
+    @SmallTest
+    public void testDisabledByDefault() throws Exception {
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        assertNull(rp.getMetrics());
+        expand(rp, Time.TIMEZONE_UTC, "FREQ=DAILY", "20240101T090000", "20240101T000000",
+                "20240201T000000");
+    }
+
+    @SmallTest
+    public void testCountsRejectionsByReason() throws Exception {
+        // The same counts come out whether the rule is run on packed values or through Time.
+        for (String tz : new String[] {Time.TIMEZONE_UTC, "America/New_York"}) {
+            RecurrenceProcessor rp = new RecurrenceProcessor();
+            RecurrenceMetrics metrics = new RecurrenceMetrics();
+            rp.setMetrics(metrics);
+            // The last weekday of the month, for three months.
+            long[] out = expand(rp, tz, "FREQ=MONTHLY;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=-1",
+                    "20240131T090000", "20240101T000000", "20240401T000000");
+            assertEquals(3, out.length);
+            assertEquals(1, metrics.getExpansions());
+            assertEquals(3, metrics.getOccurrences());
+            // January to March, and April, where the expansion stops.
+            assertEquals(tz, 4, metrics.getIterations());
+            // All weekdays of January to March 2024.
+            assertEquals(tz, 23 + 21 + 21, metrics.getCandidates());
+            // January's weekdays before dtstart aren't filtered.
+            assertEquals(tz, 20 + 20, metrics.getRejections(RecurrenceMetrics.REJECTED_BY_SETPOS));
+            assertEquals(tz, 20 + 20, metrics.getRejections());
+            assertEquals(0, metrics.getFailsafeTruncations());
+            assertNull(metrics.getLastExplanation());
+        }
+    }
+
+    @SmallTest
+    public void testFailsafeTruncation() throws Exception {
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        RecurrenceMetrics metrics = new RecurrenceMetrics();
+        rp.setMetrics(metrics);
+        metrics.setExplain(true);
+        // Every seventh day from a Monday is never a Tuesday, so without a range end this
+        // never stops on its own.
+        expand(rp, Time.TIMEZONE_UTC, "FREQ=DAILY;INTERVAL=7;BYDAY=TU;COUNT=2",
+                "20240101T090000", "20240101T000000", null);
+        assertEquals(metrics.toString(), 1, metrics.getFailsafeTruncations());
+        assertEquals(RecurrenceProcessor.MAX_ALLOWED_ITERATIONS + 1, metrics.getIterations());
+        String explanation = metrics.getLastExplanation();
+        assertTrue(explanation, explanation.contains("RRULE:FREQ=DAILY"));
+        assertTrue(explanation, explanation.contains(" truncated"));
+
+        metrics.reset();
+        assertEquals(0, metrics.getIterations());
+        assertNull(metrics.getLastExplanation());
+    }
+
+    @SmallTest
+    public void testExplainsEachRule() throws Exception {
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        RecurrenceMetrics metrics = new RecurrenceMetrics();
+        metrics.setExplain(true);
+        rp.setMetrics(metrics);
+        Time dtstart = new Time(Time.TIMEZONE_UTC);
+        dtstart.parse("20240101T090000");
+        RecurrenceSet recur = new RecurrenceSet("FREQ=HOURLY;BYMINUTE=0,30;BYHOUR=9",
+                null, "FREQ=DAILY;BYDAY=SA,SU;BYMINUTE=0,30", null);
+        rp.expand(dtstart, recur, dtstart.toMillis(), dtstart.toMillis() + 7 * 24 * 3600000L);
+        String explanation = metrics.getLastExplanation();
+        assertTrue(explanation, explanation.contains("RRULE:FREQ=HOURLY"));
+        assertTrue(explanation, explanation.contains("EXRULE:FREQ=DAILY"));
+        assertTrue(explanation, explanation.endsWith(metrics.getOccurrences() + " occurrences in "
+                + explanation.substring(explanation.lastIndexOf(' ') + 1)));
+        // Monday to Friday, 9:00 and 9:30.
+        assertEquals(10, metrics.getOccurrences());
+    }
+
+    @SmallTest
+    public void testAdd() {
+        RecurrenceMetrics a = new RecurrenceMetrics();
+        RecurrenceMetrics b = new RecurrenceMetrics();
+        a.mIterations = 3;
+        a.mRejections[RecurrenceMetrics.REJECTED_BY_DAY] = 2;
+        b.mIterations = 4;
+        b.mRejections[RecurrenceMetrics.REJECTED_BY_DAY] = 5;
+        b.mTruncations = 1;
+        a.add(b);
+        assertEquals(7, a.getIterations());
+        assertEquals(7, a.getRejections(RecurrenceMetrics.REJECTED_BY_DAY));
+        assertEquals(1, a.getFailsafeTruncations());
+        try {
+            a.getRejections(0);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class RecurrenceOverridesTest extends TestCase {
+
+    private static final long HOUR = 3600000L;
+    private static final long DAY = 24 * HOUR;
+
+    private static Time time(String str) {
+        Time t = new Time(Time.TIMEZONE_UTC);
+        t.parse(str);
+        return t;
+    }
+
+    private static Duration duration(String str) throws DateException {
+        Duration d = new Duration();
+        d.parse(str);
+        return d;
+    }
+
+    private static long[] expand(RecurrenceOverrides overrides, long start, long end)
+            throws DateException {
+        OccurrenceBuffer out = new OccurrenceBuffer();
+        out.add(-1); // Existing contents are kept.
+        int count = overrides.expand(new RecurrenceProcessor(), time("20200101T090000Z"),
+                new RecurrenceSet("FREQ=DAILY;COUNT=10", null, null, null), duration("PT1H"),
+                start, end, out);
+        assertEquals(-1, out.get(0));
+        assertEquals(2 * count + 1, out.size());
+        return out.toArray(1, 2 * count);
+    }
+
+    @SmallTest
+    public void testExpand() throws Exception {
+        long first = time("20200101T090000Z").toMillis();
+        RecurrenceOverrides overrides = new RecurrenceOverrides();
+        // Later on the same day.
+        overrides.move(first + DAY, first + DAY + 5 * HOUR, first + DAY + 6 * HOUR);
+        overrides.cancel(first + 2 * DAY);
+        // Before the next instance, and then back into the series from the end.
+        overrides.move(first + 4 * DAY, first + 3 * DAY - HOUR, first + 3 * DAY);
+        overrides.move(first + 9 * DAY, first - DAY, first - DAY + HOUR);
+        // Not an instance of the series.
+        overrides.move(first + 100, first + 11 * DAY, first + 11 * DAY + HOUR);
+        assertEquals(5, overrides.size());
+        assertTrue(overrides.isCancelled(first + 2 * DAY));
+        assertFalse(overrides.isCancelled(first + DAY));
+
+        long[] expected = {
+            first - DAY, first - DAY + HOUR,
+            first, first + HOUR,
+            first + DAY + 5 * HOUR, first + DAY + 6 * HOUR,
+            first + 3 * DAY - HOUR, first + 3 * DAY,
+            first + 3 * DAY, first + 3 * DAY + HOUR,
+            first + 5 * DAY, first + 5 * DAY + HOUR,
+            first + 6 * DAY, first + 6 * DAY + HOUR,
+            first + 7 * DAY, first + 7 * DAY + HOUR,
+            first + 8 * DAY, first + 8 * DAY + HOUR,
+            first + 11 * DAY, first + 11 * DAY + HOUR,
+        };
+        assertTrue(Arrays.equals(expected, expand(overrides, first - 2 * DAY, -1)));
+        // The moved instances are in a range if their new begin time is.
+        assertTrue(Arrays.equals(Arrays.copyOfRange(expected, 2, 8),
+                expand(overrides, first, first + 3 * DAY)));
+
+        assertTrue(overrides.remove(first + 2 * DAY));
+        assertFalse(overrides.remove(first + 2 * DAY));
+        assertFalse(overrides.contains(first + 2 * DAY));
+        long[] restored = expand(overrides, first + 2 * DAY, first + 3 * DAY);
+        assertTrue(Arrays.equals(new long[] {first + 2 * DAY, first + 2 * DAY + HOUR,
+                first + 3 * DAY - HOUR, first + 3 * DAY}, restored));
+
+        overrides.clear();
+        assertEquals(0, overrides.size());
+        assertEquals(20, expand(overrides, first, -1).length);
+    }
+
+    @SmallTest
+    public void testManyOverrides() {
+        RecurrenceOverrides overrides = new RecurrenceOverrides();
+        for (long i = 0; i < 1000; i++) {
+            overrides.move(i * 60000, i, i + 1);
+        }
+        for (long i = 0; i < 1000; i += 2) {
+            assertTrue(overrides.remove(i * 60000));
+        }
+        assertEquals(500, overrides.size());
+        for (long i = 0; i < 1000; i++) {
+            assertEquals(i % 2 == 1, overrides.contains(i * 60000));
+        }
+    }
+}
@@ -25,6 +25,10 @@ import android.text.TextUtils;
 import android.util.Log;
 import junit.framework.TestCase;
 
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
 import java.util.TreeSet;
 
 public class RecurrenceProcessorTest extends TestCase {
@@ -2557,4 +2561,358 @@ public class RecurrenceProcessorTest extends TestCase {
         assertEquals(364, RecurrenceProcessor.yearDay(2019, 11, 31));
         assertEquals(365, RecurrenceProcessor.yearDay(2020, 11, 31));
     }
- }
+
+    @SmallTest
+    public void testExpandIntoSharedBuffer() throws Exception {
+        String tz = "America/Los_Angeles";
+        Time rangeStart = new Time(tz);
+        Time rangeEnd = new Time(tz);
+        rangeStart.parse("20060101T000000");
+        rangeEnd.parse("20060401T000000");
+        String[] rrules = {
+            "FREQ=WEEKLY;BYDAY=TU,TH",
+            "FREQ=MONTHLY;BYMONTHDAY=-1",
+            "FREQ=DAILY;INTERVAL=3;COUNT=5",
+        };
+
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        OccurrenceBuffer buffer = new OccurrenceBuffer();
+        int[] offsets = new int[rrules.length];
+        int[] lengths = new int[rrules.length];
+        for (int i = 0; i < rrules.length; i++) {
+            Time dtstart = new Time(tz);
+            dtstart.parse("20060102T090000");
+            offsets[i] = buffer.size();
+            lengths[i] = rp.expand(dtstart, new RecurrenceSet(rrules[i], null, null, null),
+                    rangeStart.toMillis(), rangeEnd.toMillis(), buffer);
+        }
+
+        for (int i = 0; i < rrules.length; i++) {
+            Time dtstart = new Time(tz);
+            dtstart.parse("20060102T090000");
+            long[] expected = rp.expand(dtstart, new RecurrenceSet(rrules[i], null, null, null),
+                    rangeStart.toMillis(), rangeEnd.toMillis());
+            assertTrue(rrules[i], Arrays.equals(expected,
+                    buffer.toArray(offsets[i], lengths[i])));
+        }
+
+        // A second run into the cleared buffer reuses its storage.
+        long[] storage = buffer.array();
+        buffer.clear();
+        for (int i = 0; i < rrules.length; i++) {
+            Time dtstart = new Time(tz);
+            dtstart.parse("20060102T090000");
+            rp.expand(dtstart, new RecurrenceSet(rrules[i], null, null, null),
+                    rangeStart.toMillis(), rangeEnd.toMillis(), buffer);
+        }
+        assertSame(storage, buffer.array());
+    }
+
+    @SmallTest
+    public void testExpandInstancesAppliesDurationInLocalTime() throws Exception {
+        String tz = "America/Los_Angeles";
+        Time rangeStart = new Time(tz);
+        Time rangeEnd = new Time(tz);
+        rangeStart.parse("20260305T000000");
+        rangeEnd.parse("20260312T000000");
+        RecurrenceSet recur = new RecurrenceSet("FREQ=DAILY", null, null, null);
+        String[] durations = { "P1DT2H", "PT26H", "P1W", "PT0S" };
+
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        for (String durationStr : durations) {
+            Duration duration = new Duration();
+            duration.parse(durationStr);
+            Time dtstart = new Time(tz);
+            dtstart.parse("20260301T090000");
+            OccurrenceBuffer pairs = new OccurrenceBuffer();
+            int count = rp.expandInstances(dtstart, recur, duration,
+                    rangeStart.toMillis(), rangeEnd.toMillis(), pairs);
+
+            dtstart.parse("20260301T090000");
+            long[] begins = rp.expand(dtstart, recur, rangeStart.toMillis(),
+                    rangeEnd.toMillis());
+            assertEquals(begins.length, count);
+            assertEquals(2 * count, pairs.size());
+            Calendar cal = new GregorianCalendar(TimeZone.getTimeZone(tz));
+            for (int i = 0; i < count; i++) {
+                cal.setTimeInMillis(begins[i]);
+                duration.addTo(cal);
+                assertEquals(begins[i], pairs.get(2 * i));
+                assertEquals(durationStr + " instance " + i, cal.getTimeInMillis(),
+                        pairs.get(2 * i + 1));
+            }
+        }
+    }
+
+    @SmallTest
+    public void testExpandInstancesResolvesSkippedEndsLikeCalendar() throws Exception {
+        // The days of the duration land in the skipped hour on March 8th.
+        String tz = "America/New_York";
+        Time dtstart = new Time(tz);
+        dtstart.parse("20260307T023000");
+        RecurrenceSet recur = new RecurrenceSet("FREQ=DAILY;COUNT=1", null, null, null);
+        Duration duration = new Duration();
+        duration.parse("P1D");
+        OccurrenceBuffer pairs = new OccurrenceBuffer();
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        rp.expandInstances(dtstart, recur, duration, dtstart.toMillis(), -1, pairs);
+        Time end = new Time(tz);
+        end.set(pairs.get(1));
+        // Still in EST, 23 hours after the begin.
+        assertEquals("20260308T013000", end.format2445());
+        assertEquals(23 * 60 * 60 * 1000L, pairs.get(1) - pairs.get(0));
+
+        duration.parse("P1DT1H");
+        pairs.clear();
+        rp.expandInstances(dtstart, recur, duration, dtstart.toMillis(), -1, pairs);
+        end.set(pairs.get(1));
+        assertEquals("20260308T033000", end.format2445());
+        assertEquals(24 * 60 * 60 * 1000L, pairs.get(1) - pairs.get(0));
+
+        // Where the skip starts at midnight, moving back would change the day, so the end
+        // moves forward instead.
+        String[][] cases = {
+            {tz, "20260301T023000", "20260305T000000", "20260312T000000"},
+            {"America/Santiago", "20260901T003000", "20260901T000000", "20260910T000000"},
+            {"Australia/Lord_Howe", "20261001T021500", "20261001T000000", "20261006T000000"},
+        };
+        String[] durations = { "P1D", "P1DT1H", "P1W1D", "-P1D", "PT25H" };
+        for (String[] c : cases) {
+            Time rangeStart = new Time(c[0]);
+            rangeStart.parse(c[2]);
+            Time rangeEnd = new Time(c[0]);
+            rangeEnd.parse(c[3]);
+            RecurrenceSet daily = new RecurrenceSet("FREQ=DAILY", null, null, null);
+            for (String durationStr : durations) {
+                duration.parse(durationStr);
+                Time start = new Time(c[0]);
+                start.parse(c[1]);
+                pairs.clear();
+                int count = rp.expandInstances(start, daily, duration, rangeStart.toMillis(),
+                        rangeEnd.toMillis(), pairs);
+                assertTrue(count > 0);
+                Calendar cal = new GregorianCalendar(TimeZone.getTimeZone(c[0]));
+                for (int i = 0; i < count; i++) {
+                    cal.setTimeInMillis(pairs.get(2 * i));
+                    duration.addTo(cal);
+                    assertEquals(c[0] + " " + durationStr + " instance " + i,
+                            cal.getTimeInMillis(), pairs.get(2 * i + 1));
+                }
+            }
+        }
+    }
+
+    @SmallTest
+    public void testExpandOverlappingIncludesInstancesInProgress() throws Exception {
+        String tz = "America/Los_Angeles";
+        Time dtstart = new Time(tz);
+        dtstart.parse("20260306T180000");
+        Time rangeStart = new Time(tz);
+        rangeStart.parse("20260315T120000");
+        Time rangeEnd = new Time(tz);
+        rangeEnd.parse("20260316T000000");
+        Time friday = new Time(tz);
+        friday.parse("20260313T180000");
+        Time sunday = new Time(tz);
+        sunday.parse("20260315T210000");
+        // The RDATE is returned by expand() but doesn't overlap the range.
+        RecurrenceSet recur = new RecurrenceSet("FREQ=WEEKLY;BYDAY=FR", "20260401T120000Z",
+                null, null);
+        Duration duration = new Duration();
+        duration.parse("P2DT3H");
+
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        OccurrenceBuffer pairs = new OccurrenceBuffer();
+        pairs.add(-1);
+        int count = rp.expandOverlapping(dtstart, recur, duration, rangeStart.toMillis(),
+                rangeEnd.toMillis(), pairs);
+        assertEquals(1, count);
+        assertEquals(3, pairs.size());
+        assertEquals(-1, pairs.get(0));
+        assertEquals(friday.toMillis(), pairs.get(1));
+        assertEquals(sunday.toMillis(), pairs.get(2));
+
+        // An instance that ends at the start of the range doesn't overlap it.
+        pairs.clear();
+        assertEquals(0, rp.expandOverlapping(dtstart, recur, duration, sunday.toMillis(),
+                rangeEnd.toMillis(), pairs));
+        assertEquals(0, pairs.size());
+    }
+
+    @SmallTest
+    public void testExpandOverlappingAcrossSkippedHour() throws Exception {
+        // The instance that begins on March 9th ends at 02:30 on the 10th, which doesn't
+        // exist and becomes 01:30, as with Calendar.
+        String tz = "America/New_York";
+        Time dtstart = new Time(tz);
+        dtstart.parse("20240301T023000");
+        Time rangeStart = new Time(tz);
+        rangeStart.parse("20240310T011000");
+        Time rangeEnd = new Time(tz);
+        rangeEnd.parse("20240310T040000");
+        Time begin = new Time(tz);
+        begin.parse("20240309T023000");
+        Time end = new Time(tz);
+        end.parse("20240310T013000");
+        Duration duration = new Duration();
+        duration.parse("P1D");
+
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        OccurrenceBuffer pairs = new OccurrenceBuffer();
+        int count = rp.expandOverlapping(dtstart,
+                new RecurrenceSet("FREQ=DAILY", null, null, null), duration,
+                rangeStart.toMillis(), rangeEnd.toMillis(), pairs);
+        assertEquals(2, count);
+        assertEquals(begin.toMillis(), pairs.get(0));
+        assertEquals(end.toMillis(), pairs.get(1));
+        // March 10th's 02:30 doesn't exist either; that instance begins at 01:30 and is in
+        // progress too.
+        begin.parse("20240310T013000");
+        assertEquals(begin.toMillis(), pairs.get(2));
+    }
+
+    @SmallTest
+    public void testExpandDaysForAllDayEvent() throws Exception {
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        RecurrenceSet recur = new RecurrenceSet("FREQ=MONTHLY;BYDAY=-1FR;COUNT=4",
+                "20260410", null, "20260227");
+        Time dtstart = new Time(Time.TIMEZONE_UTC);
+        dtstart.parse("20260130");
+        Time rangeStart = new Time(Time.TIMEZONE_UTC);
+        rangeStart.parse("20260101");
+
+        int[] days = rp.expandDays(dtstart, recur, rangeStart.toMillis(), -1);
+
+        dtstart.parse("20260130");
+        long[] millis = rp.expand(dtstart, recur, rangeStart.toMillis(), -1);
+        // Jan 30, Mar 27 and Apr 24 from the rule (Feb 27 is excluded), and the RDATE.
+        assertEquals(4, days.length);
+        assertEquals(millis.length, days.length);
+        for (int i = 0; i < days.length; i++) {
+            assertEquals(millis[i], days[i] * 24L * 60 * 60 * 1000);
+        }
+    }
+
+    @SmallTest
+    public void testExpandDaysReportsTimedOccurrencesOncePerDay() throws Exception {
+        String tz = "America/Los_Angeles";
+        RecurrenceProcessor rp = new RecurrenceProcessor();
+        RecurrenceSet recur = new RecurrenceSet("FREQ=DAILY;BYHOUR=9,23;COUNT=4", null, null,
+                null);
+        Time dtstart = new Time(tz);
+        dtstart.parse("20260307T090000");
+        Time rangeStart = new Time(tz);
+        rangeStart.parse("20260301T000000");
+
+        int[] days = rp.expandDays(dtstart, recur, rangeStart.toMillis(), -1);
+
+        // Local dates, even though 23:00 on the 8th is the 9th in UTC.
+        Time day = new Time(Time.TIMEZONE_UTC);
+        day.parse("20260307");
+        int first = (int) (day.toMillis() / (24L * 60 * 60 * 1000));
+        assertTrue(Arrays.toString(days), Arrays.equals(new int[] {first, first + 1}, days));
+    }
+
+    private static String expandToString(String tz, String rule, String dtstartStr,
+            String rangeStartStr, String rangeEndStr) throws Exception {
+        Time dtstart = new Time(tz);
+        dtstart.parse(dtstartStr);
+        Time rangeStart = new Time(tz);
+        rangeStart.parse(rangeStartStr);
+        Time rangeEnd = new Time(tz);
+        rangeEnd.parse(rangeEndStr);
+        long[] out = new RecurrenceProcessor().expand(dtstart,
+                new RecurrenceSet(rule, null, null, null), rangeStart.toMillis(),
+                rangeEnd.toMillis());
+        StringBuilder sb = new StringBuilder();
+        Time t = new Time(tz);
+        for (long millis : out) {
+            t.set(millis);
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(t.format2445());
+        }
+        return sb.toString();
+    }
+
+    @SmallTest
+    public void testSparseRules() throws Exception {
+        String tz = "America/New_York";
+        // Runs past the end of the range without an instance, and stops there.
+        assertEquals("20200229T090000,20240229T090000",
+                expandToString(tz, "FREQ=DAILY;BYMONTH=2;BYMONTHDAY=29", "20200229T090000",
+                        "20200101T000000", "20250101T000000"));
+        // The first week starts in February, but has days in March.
+        assertEquals("20240226T100000,20240303T100000,20240304T100000,20240310T100000,"
+                + "20240311T100000,20240317T100000,20240318T100000,20240324T100000,"
+                + "20240325T100000,20240331T100000",
+                expandToString(tz, "FREQ=WEEKLY;BYDAY=SU,MO;BYMONTH=3;WKST=MO",
+                        "20240226T100000", "20240101T000000", "20240501T000000"));
+        assertEquals("20230115T080000,20231015T080000,20241015T080000",
+                expandToString(tz, "FREQ=MONTHLY;BYMONTHDAY=15;BYMONTH=10;COUNT=3",
+                        "20230115T080000", "20230101T000000", "20300101T000000"));
+    }
+
+    @SmallTest
+    public void testUnsatisfiableRules() throws Exception {
+        String[] rules = {
+            "FREQ=DAILY;BYMONTH=2;BYMONTHDAY=30;COUNT=5",
+            "FREQ=MONTHLY;BYMONTHDAY=31;BYMONTH=4,6,9,11;COUNT=5",
+            "FREQ=HOURLY;BYYEARDAY=366;BYMONTH=1;COUNT=5",
+            "FREQ=WEEKLY;COUNT=5;UNTIL=20231231T000000Z",
+        };
+        for (String tz : new String[] {Time.TIMEZONE_UTC, "America/New_York"}) {
+            for (String rule : rules) {
+                RecurrenceProcessor rp = new RecurrenceProcessor();
+                RecurrenceMetrics metrics = new RecurrenceMetrics();
+                rp.setMetrics(metrics);
+                Time dtstart = new Time(tz);
+                dtstart.parse("20240101T090000");
+                RecurrenceSet recur = new RecurrenceSet(rule, null, null, null);
+                // Only dtstart, without running the rule to the failsafe.
+                long[] out = rp.expand(dtstart, recur, dtstart.toMillis(), -1);
+                assertEquals(rule, 1, out.length);
+                assertEquals(rule, dtstart.toMillis(), out[0]);
+                assertEquals(rule, 0, metrics.getIterations());
+                assertEquals(rule, dtstart.toMillis(), rp.getLastOccurence(dtstart, recur));
+            }
+        }
+    }
+ 
+
+    @SmallTest
+    public void testFarRangeSkipsEarlierPeriods() throws Exception {
+        for (String tz : new String[] {Time.TIMEZONE_UTC, "America/New_York"}) {
+            RecurrenceProcessor rp = new RecurrenceProcessor();
+            RecurrenceMetrics metrics = new RecurrenceMetrics();
+            rp.setMetrics(metrics);
+            Time dtstart = new Time(tz);
+            dtstart.parse("19500611T090000");
+            Time rangeStart = new Time(tz);
+            rangeStart.parse("20300101T000000");
+            Time rangeEnd = new Time(tz);
+            rangeEnd.parse("20310101T000000");
+            Time expected = new Time(tz);
+            expected.parse("20300609T090000");
+
+            RecurrenceSet recur = new RecurrenceSet("FREQ=YEARLY;BYMONTH=6;BYDAY=2SU", null, null,
+                    null);
+            long[] out = rp.expand(dtstart, recur, rangeStart.toMillis(), rangeEnd.toMillis());
+            assertEquals(tz, 1, out.length);
+            assertEquals(tz, expected.toMillis(), out[0]);
+            // Only 2030 and the year that stops the rule.
+            assertEquals(tz, 2, metrics.getIterations());
+
+            // The skipped months still count towards the failsafe.
+            metrics.reset();
+            rangeStart.parse("22000101T000000");
+            rangeEnd.parse("22010101T000000");
+            recur = new RecurrenceSet("FREQ=MONTHLY", null, null, null);
+            out = rp.expand(dtstart, recur, rangeStart.toMillis(), rangeEnd.toMillis());
+            assertEquals(tz, 0, out.length);
+            assertEquals(tz, 0, metrics.getIterations());
+            assertEquals(tz, 1, metrics.getFailsafeTruncations());
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class RecurrenceSplitterTest extends TestCase {
+
+    private static Time time(String tz, String str) {
+        Time t = new Time(tz);
+        t.parse(str);
+        return t;
+    }
+
+    private static long[] expand(Time dtstart, RecurrenceSet recur, long end)
+            throws DateException {
+        if (recur == null) {
+            return new long[0];
+        }
+        return new RecurrenceProcessor().expand(dtstart, recur, dtstart.toMillis(), end);
+    }
+
+    /**
+     * Splits the recurrence at some of its instances, and checks that the two parts have
+     * the instances before and after the split.
+     */
+    private static void checkSplit(String tz, String start, RecurrenceSet recur)
+            throws DateException {
+        checkSplit(tz, start, recur, 0, 1, -3, -1);
+    }
+
+    /**
+     * Splits the recurrence at the given instances, where -3 is a third of the way through
+     * the instances and -1 the last one.
+     */
+    private static void checkSplit(String tz, String start, RecurrenceSet recur,
+            int... splits) throws DateException {
+        Time dtstart = time(tz, start);
+        long end = time(tz, "20250101T000000").toMillis();
+        long[] instances = expand(dtstart, recur, end);
+        assertTrue(instances.length > 2);
+        for (int i : splits) {
+            if (i < 0) {
+                i = i == -1 ? instances.length - 1 : instances.length / -i;
+            }
+            String message = recur.rrules[0] + " at " + i;
+            long splitMillis = instances[i];
+            RecurrenceSet[] parts = recur.split(dtstart, splitMillis);
+            Time newStart = new Time(tz);
+            newStart.set(splitMillis);
+            newStart.setAllDay(dtstart.isAllDay());
+            long[] before = expand(dtstart, parts[0], end);
+            long[] after = expand(newStart, parts[1], end);
+            assertEquals(message, splitMillis == dtstart.toMillis(), parts[0] == null);
+            assertTrue(message + " " + Arrays.toString(before),
+                    Arrays.equals(Arrays.copyOfRange(instances, 0, i), before));
+            assertTrue(message + " " + Arrays.toString(after),
+                    Arrays.equals(Arrays.copyOfRange(instances, i, instances.length), after));
+        }
+    }
+
+    @SmallTest
+    public void testSplitRules() throws Exception {
+        String[] rules = {
+            "FREQ=DAILY;COUNT=30",
+            "FREQ=DAILY;INTERVAL=3;COUNT=30",
+            "FREQ=WEEKLY;INTERVAL=2;COUNT=20",
+            "FREQ=MONTHLY;COUNT=15",
+            "FREQ=YEARLY;COUNT=4",
+            "FREQ=MONTHLY;BYDAY=2TU;COUNT=12",
+            "FREQ=WEEKLY;BYDAY=MO,WE;UNTIL=20200601T000000Z",
+            "FREQ=HOURLY;INTERVAL=5;COUNT=40",
+            "FREQ=DAILY;BYHOUR=9,17;COUNT=25",
+            "FREQ=DAILY",
+        };
+        for (String rule : rules) {
+            // Across a daylight saving change.
+            checkSplit("America/New_York", "20200301T093000",
+                    new RecurrenceSet(rule, null, null, null));
+            checkSplit(Time.TIMEZONE_UTC, "20200301T093000Z",
+                    new RecurrenceSet(rule, null, null, null));
+        }
+        checkSplit(Time.TIMEZONE_UTC, "20200105",
+                new RecurrenceSet("FREQ=WEEKLY;COUNT=10", null, null, null));
+    }
+
+    @SmallTest
+    public void testSplitDates() throws Exception {
+        checkSplit(Time.TIMEZONE_UTC, "20200301T093000Z",
+                new RecurrenceSet("FREQ=DAILY;COUNT=10", "20200320T120000Z", null,
+                        "20200303T093000Z,20200307T093000Z"));
+        checkSplit(Time.TIMEZONE_UTC, "20200301T093000Z",
+                new RecurrenceSet("FREQ=DAILY;UNTIL=20200310T000000Z", null,
+                        "FREQ=DAILY;INTERVAL=4;COUNT=2", null));
+    }
+
+    @SmallTest
+    public void testSplitEndedRule() throws Exception {
+        Time dtstart = time(Time.TIMEZONE_UTC, "20200301T093000Z");
+        RecurrenceSet recur = new RecurrenceSet("FREQ=DAILY;COUNT=3\nFREQ=WEEKLY;COUNT=3",
+                "20200401T000000Z", null, null);
+        RecurrenceSet[] parts = recur.split(dtstart, time(Time.TIMEZONE_UTC,
+                "20200310T000000Z").toMillis());
+        // The daily rule has ended, and keeps its COUNT.
+        assertEquals("FREQ=DAILY;COUNT=3;WKST=MO", parts[0].rrules[0].toString());
+        assertEquals("FREQ=WEEKLY;UNTIL=20200309T235959Z;WKST=MO",
+                parts[0].rrules[1].toString());
+        // The split isn't an instance, and the weekly rule doesn't occur at it, so the rule
+        // keeps the time and day of dtstart, and ends at its last occurrence.
+        assertEquals(1, parts[1].rrules.length);
+        assertEquals("FREQ=WEEKLY;UNTIL=20200315T093000Z;WKST=MO;BYSECOND=0;BYMINUTE=30;"
+                + "BYHOUR=9;BYDAY=SU", parts[1].rrules[0].toString());
+        Time newStart = time(Time.TIMEZONE_UTC, "20200310T000000Z");
+        long[] after = expand(newStart, parts[1], time(Time.TIMEZONE_UTC,
+                "20210101T000000Z").toMillis());
+        assertEquals(2, after.length);
+        assertEquals(time(Time.TIMEZONE_UTC, "20200315T093000Z").toMillis(), after[0]);
+        assertEquals(time(Time.TIMEZONE_UTC, "20200401T000000Z").toMillis(), after[1]);
+
+        parts = recur.split(dtstart, time(Time.TIMEZONE_UTC, "20200501T000000Z").toMillis());
+        assertNull(parts[1]);
+    }
+
+    @SmallTest
+    public void testSplitKeepsExruleAnchoredAtDtstart() throws Exception {
+        String[] exrules = {"FREQ=MONTHLY", "FREQ=WEEKLY"};
+        for (String exrule : exrules) {
+            // The 11th instance is neither on the 1st of a month nor on a Sunday.
+            checkSplit(Time.TIMEZONE_UTC, "20200301T093000Z",
+                    new RecurrenceSet("FREQ=DAILY", null, exrule, null), 10, 20, -3);
+            checkSplit("America/New_York", "20200301T093000",
+                    new RecurrenceSet("FREQ=DAILY", null, exrule, null), 10, 20, -3);
+        }
+
+        // Every instance is in a period the EXRULE skips.
+        Time dtstart = time(Time.TIMEZONE_UTC, "20200301T093000Z");
+        RecurrenceSet recur = new RecurrenceSet("FREQ=DAILY", null, "FREQ=DAILY;INTERVAL=3",
+                null);
+        try {
+            recur.split(dtstart, time(Time.TIMEZONE_UTC, "20200317T093000Z").toMillis());
+            fail();
+        } catch (DateException expected) {
+        }
+    }
+
+    @SmallTest
+    public void testSplitAtInstanceOfOneRule() throws Exception {
+        checkSplit(Time.TIMEZONE_UTC, "20200301T093000Z",
+                new RecurrenceSet("FREQ=MONTHLY\nFREQ=DAILY;UNTIL=20200401T000000Z", null, null,
+                        null), 5, 20, 31, 33);
+        checkSplit("America/New_York", "20200301T093000",
+                new RecurrenceSet("FREQ=WEEKLY;BYDAY=TU;COUNT=6\nFREQ=DAILY;BYHOUR=18;COUNT=20",
+                        "20200304T120000Z", null, null));
+    }
+
+    @SmallTest
+    public void testSplitAfterSkippedTime() throws Exception {
+        // The instances after the skipped hour are at 01:00 in New York and London, 01:40 on
+        // Lord Howe Island and 01:00 in Sao Paulo.
+        String[][] series = {
+            {"America/New_York", "20240309T020000"},
+            {"Europe/London", "20240330T010000"},
+            {"Australia/Lord_Howe", "20241005T021000"},
+            {"America/Sao_Paulo", "20181103T000000"},
+        };
+        for (String[] s : series) {
+            checkSplit(s[0], s[1], new RecurrenceSet("FREQ=DAILY;COUNT=8", null, null, null),
+                    1, 2, 4, -1);
+        }
+        checkSplit("America/New_York", "20240309T020000",
+                new RecurrenceSet("FREQ=DAILY", null, null, null), 1, 4, -3);
+        // Split before the skipped hour at an instance of the other rule.
+        checkSplit("America/New_York", "20240307T020000",
+                new RecurrenceSet("FREQ=DAILY;COUNT=8\nFREQ=WEEKLY;BYDAY=FR;BYHOUR=12;COUNT=3",
+                        null, null, null), 2);
+
+        // The instances of the EXRULE were moved to a time the split isn't at.
+        Time dtstart = time("America/New_York", "20240309T020000");
+        RecurrenceSet recur = new RecurrenceSet("FREQ=WEEKLY", null, "FREQ=DAILY", null);
+        try {
+            recur.split(dtstart, time("America/New_York", "20240316T020000").toMillis());
+            fail();
+        } catch (DateException expected) {
+        }
+    }
+}
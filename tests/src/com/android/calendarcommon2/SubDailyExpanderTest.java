@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+public class SubDailyExpanderTest extends TestCase {
+
+    private static final long MINUTE = 60 * 1000L;
+    private static final long HOUR = 60 * MINUTE;
+
+    private static long[] expand(String tz, String dtstartStr, String rule, String rangeStartStr,
+            String rangeEndStr) throws Exception {
+        Time dtstart = new Time(tz);
+        dtstart.parse(dtstartStr);
+        Time rangeStart = new Time(tz);
+        rangeStart.parse(rangeStartStr);
+        Time rangeEnd = new Time(tz);
+        rangeEnd.parse(rangeEndStr);
+        RecurrenceSet recur = new RecurrenceSet(rule, null, null, null);
+        return new RecurrenceProcessor().expand(dtstart, recur, rangeStart.toMillis(),
+                rangeEnd.toMillis());
+    }
+
+    private static void assertSteps(long[] out, long first, long step, int count) {
+        assertEquals(count, out.length);
+        for (int i = 0; i < count; i++) {
+            assertEquals(first + i * step, out[i]);
+        }
+    }
+
+    @SmallTest
+    public void testMinutelyInterval() throws Exception {
+        Time dtstart = new Time(Time.TIMEZONE_UTC);
+        dtstart.parse("20240101T090000");
+        long[] out = expand(Time.TIMEZONE_UTC, "20240101T090000",
+                "FREQ=MINUTELY;INTERVAL=15;COUNT=5", "20240101T000000", "20240102T000000");
+        assertSteps(out, dtstart.toMillis(), 15 * MINUTE, 5);
+    }
+
+    @SmallTest
+    public void testHourlyAcrossDaylightSavingTime() throws Exception {
+        // 2am doesn't exist on 2024-03-10 in New York; the occurrences stay an hour apart.
+        Time dtstart = new Time("America/New_York");
+        dtstart.parse("20240310T000000");
+        long[] out = expand("America/New_York", "20240310T000000", "FREQ=HOURLY",
+                "20240310T000000", "20240310T060000");
+        assertSteps(out, dtstart.toMillis(), HOUR, 5);
+
+        // 1am happens twice on 2024-11-03, but it is only generated once.
+        out = expand("America/New_York", "20241103T000000", "FREQ=HOURLY;COUNT=4",
+                "20241103T000000", "20241104T000000");
+        assertEquals(4, out.length);
+        Time t = new Time("America/New_York");
+        for (int i = 0; i < out.length; i++) {
+            t.set(out[i]);
+            assertEquals(i, t.getHour());
+        }
+    }
+
+    @SmallTest
+    public void testZeroTimeValues() throws Exception {
+        // BYMINUTE=0 and BYSECOND=0 are values, not offsets from the end of the hour.
+        Time dtstart = new Time(Time.TIMEZONE_UTC);
+        dtstart.parse("20240101T000000");
+        long[] out = expand(Time.TIMEZONE_UTC, "20240101T000000", "FREQ=SECONDLY;BYSECOND=0",
+                "20240101T000000", "20240101T010000");
+        assertSteps(out, dtstart.toMillis(), MINUTE, 60);
+        out = expand(Time.TIMEZONE_UTC, "20240101T000000", "FREQ=MINUTELY;BYMINUTE=0",
+                "20240101T000000", "20240102T000000");
+        assertSteps(out, dtstart.toMillis(), HOUR, 24);
+    }
+
+    @SmallTest
+    public void testRangeFarFromDtstart() throws Exception {
+        // Without COUNT the expansion starts near the range instead of walking there from
+        // dtstart, and it stays on the grid of dtstart.
+        Time dtstart = new Time(Time.TIMEZONE_UTC);
+        dtstart.parse("20000101T000000");
+        Time start = new Time(Time.TIMEZONE_UTC);
+        start.parse("20240601T120000");
+        long[] out = expand(Time.TIMEZONE_UTC, "20000101T000000", "FREQ=SECONDLY;INTERVAL=7",
+                "20240601T120000", "20240601T121000");
+        long first = start.toMillis() + 7000 - (start.toMillis() - dtstart.toMillis()) % 7000;
+        assertEquals(0, (first - dtstart.toMillis()) % 7000);
+        assertSteps(out, first, 7000,
+                (int) ((start.toMillis() + 10 * MINUTE - first + 6999) / 7000));
+    }
+
+    @SmallTest
+    public void testFilters() throws Exception {
+        // Every 20 minutes during the morning of weekdays in March.
+        long[] out = expand("Europe/Berlin", "20240301T090000",
+                "FREQ=MINUTELY;INTERVAL=20;BYMONTH=3;BYDAY=MO,TU,WE,TH,FR;BYHOUR=9,10,11",
+                "20240101T000000", "20250101T000000");
+        assertEquals(21 * 3 * 3, out.length);
+        Time t = new Time("Europe/Berlin");
+        for (long millis : out) {
+            t.set(millis);
+            assertEquals(2, t.getMonth());
+            assertTrue(t.getWeekDay() != Time.SATURDAY && t.getWeekDay() != Time.SUNDAY);
+            assertTrue(t.getHour() >= 9 && t.getHour() <= 11);
+            assertEquals(0, t.getMinute() % 20);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendarcommon2;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.TimeZone;
+
+public class ZoneOffsetCacheTest extends TestCase {
+
+    private static final int HOUR = 60 * 60 * 1000;
+
+    @SmallTest
+    public void testDaylightSavingTransition() {
+        ZoneOffsetCache cache = new ZoneOffsetCache();
+        cache.setTimeZone(TimeZone.getTimeZone("America/New_York"));
+        long march10 = PackedExpander.epochDay(2024, 2, 10);
+        assertEquals(-5 * HOUR, cache.offsetOfLocalDay(march10 - 2));
+        assertEquals(ZoneOffsetCache.NOT_CONSTANT, cache.offsetOfLocalDay(march10));
+        assertEquals(-4 * HOUR, cache.offsetOfLocalDay(march10 + 2));
+
+        // 2024-03-12T12:00:00-04:00
+        long millis = (march10 + 2) * PackedExpander.MILLIS_PER_DAY + 16 * HOUR;
+        assertEquals(-4 * HOUR, cache.offsetAt(millis));
+        assertEquals(ZoneOffsetCache.NOT_CONSTANT, cache.offsetAt(millis - 2L * 24 * HOUR));
+
+        assertTrue(cache.isConstantBetween(millis, millis + 7L * 24 * HOUR));
+        assertFalse(cache.isConstantBetween(millis - 7L * 24 * HOUR, millis));
+    }
+
+    @SmallTest
+    public void testChangingTimeZone() {
+        ZoneOffsetCache cache = new ZoneOffsetCache();
+        long day = PackedExpander.epochDay(2024, 6, 1);
+        cache.setTimeZone(TimeZone.getTimeZone("UTC"));
+        assertEquals(0, cache.offsetOfLocalDay(day));
+        cache.setTimeZone(TimeZone.getTimeZone("Asia/Kolkata"));
+        assertEquals(5 * HOUR + 30 * 60 * 1000, cache.offsetOfLocalDay(day));
+    }
+}